@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+
+package se.laz.casual.connection.caller;
+
+/**
+ * Thrown when a call is rejected because the bulkhead of the service is full
+ */
+public class BulkheadFullException extends CasualResourceException
+{
+    private static final long serialVersionUID = 1L;
+
+    public BulkheadFullException(String msg)
+    {
+        super(msg);
+    }
+}
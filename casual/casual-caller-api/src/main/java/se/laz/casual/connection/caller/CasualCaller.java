@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2021. The casual project. All rights reserved.
+ * Copyright (c) 2021 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -7,6 +7,18 @@ package se.laz.casual.connection.caller;
 
 import se.laz.casual.api.CasualQueueApi;
 import se.laz.casual.api.CasualServiceApi;
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.flags.ErrorState;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.api.queue.DequeueReturn;
+import se.laz.casual.api.queue.EnqueueReturn;
+import se.laz.casual.api.queue.MessageSelector;
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.api.queue.QueueMessage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Convenience layer
@@ -23,4 +35,81 @@ import se.laz.casual.api.CasualServiceApi;
  *
  */
 public interface CasualCaller extends CasualServiceApi, CasualQueueApi
-{}
+{
+    /**
+     * Calls all services concurrently and waits for the replies
+     *
+     * Every request goes through the same failover as tpcall. Calls that fail do not affect the others.
+     * By default the requests are issued through {@link #tpacall(String, CasualBuffer, Flag)}, one after another,
+     * and the replies are awaited within the one timeout.
+     *
+     * @param requests the calls to issue
+     * @param timeout how long to wait, in total, for all replies
+     * @return one result per request, in the order of the requests
+     */
+    default List<TpcallResult> tpcall(List<TpcallRequest> requests, Duration timeout)
+    {
+        return ScatterGather.tpcall(requests, timeout, (request, remainingNanos) -> tpacall(request.getServiceName(), request.getData(), request.getFlags()));
+    }
+
+    /**
+     * Enqueues all messages to the queue, in order, through one connection to the pool the queue is stuck to
+     *
+     * The enqueues are part of the current transaction, if any, otherwise each message is enqueued on its own.
+     * If the batch fails part way outside of a transaction the message that failed, and the ones after it, get a reply
+     * with TPESYSTEM. The messages before it stay enqueued. Within a transaction a CasualResourceException is thrown
+     * and the transaction is rolled back.
+     * By default the messages are enqueued one at a time, through {@link #enqueue(QueueInfo, QueueMessage)}, and a
+     * failure is thrown.
+     *
+     * @param qinfo the queue
+     * @param messages the messages to enqueue
+     * @return one reply per message, in the order of the messages
+     */
+    default List<EnqueueReturn> enqueue(QueueInfo qinfo, List<QueueMessage> messages)
+    {
+        List<EnqueueReturn> replies = new ArrayList<>(messages.size());
+        for (QueueMessage message : messages)
+        {
+            replies.add(enqueue(qinfo, message));
+        }
+        return replies;
+    }
+
+    /**
+     * Dequeues up to maxMessages messages, in order, through one connection to the pool the queue is stuck to
+     *
+     * Dequeueing stops at the first reply without a message. That reply is included only when it is an error, so an
+     * empty list means that the queue is empty. If the connection fails after some messages have been dequeued those
+     * messages are returned, as they are no longer in the queue.
+     * The dequeues are part of the current transaction, if any.
+     * By default the messages are dequeued one at a time, through {@link #dequeue(QueueInfo, MessageSelector)}.
+     *
+     * @param qinfo the queue
+     * @param selector the message selector
+     * @param maxMessages the most messages to dequeue, at least 1
+     * @return the replies, in the order the messages were dequeued
+     */
+    default List<DequeueReturn> dequeue(QueueInfo qinfo, MessageSelector selector, int maxMessages)
+    {
+        if (maxMessages < 1)
+        {
+            throw new IllegalArgumentException("maxMessages must be at least 1, maxMessages: " + maxMessages);
+        }
+        List<DequeueReturn> replies = new ArrayList<>();
+        while (replies.size() < maxMessages)
+        {
+            DequeueReturn reply = dequeue(qinfo, selector);
+            boolean hasMessage = reply.getErrorState() == ErrorState.OK && reply.getQueueMessage().isPresent();
+            if (hasMessage || reply.getErrorState() != ErrorState.OK)
+            {
+                replies.add(reply);
+            }
+            if (!hasMessage)
+            {
+                break;
+            }
+        }
+        return replies;
+    }
+}
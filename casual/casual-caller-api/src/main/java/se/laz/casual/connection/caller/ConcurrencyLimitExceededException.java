@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+
+package se.laz.casual.connection.caller;
+
+/**
+ * Thrown when every connection factory that could take a call is at its concurrency limit
+ */
+public class ConcurrencyLimitExceededException extends CasualResourceException
+{
+    private static final long serialVersionUID = 1L;
+
+    public ConcurrencyLimitExceededException(String msg)
+    {
+        super(msg);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.buffer.type.ServiceBuffer;
+import se.laz.casual.api.flags.ErrorState;
+import se.laz.casual.api.flags.ServiceReturnState;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+/**
+ * Issues a batch of calls as tpacalls and gathers the replies within one deadline
+ *
+ * Used by {@link CasualCaller#tpcall(List, Duration)}, both by default and by implementations.
+ */
+public final class ScatterGather
+{
+    private static final Logger LOG = Logger.getLogger(ScatterGather.class.getName());
+
+    private ScatterGather()
+    {}
+
+    @FunctionalInterface
+    public interface Tpacall
+    {
+        /**
+         * @param remainingNanos time left of the batch, issuing the call should not wait longer than that
+         */
+        CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> issue(TpcallRequest request, long remainingNanos);
+    }
+
+    public static List<TpcallResult> tpcall(List<TpcallRequest> requests, Duration timeout, Tpacall tpacall)
+    {
+        Objects.requireNonNull(requests, "requests can not be null");
+        Objects.requireNonNull(timeout, "timeout can not be null");
+        long deadline = System.nanoTime() + timeout.toNanos();
+        List<CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>> replies = new ArrayList<>(requests.size());
+        for (TpcallRequest request : requests)
+        {
+            replies.add(issue(request, tpacall, deadline));
+        }
+        List<TpcallResult> results = new ArrayList<>(requests.size());
+        for (int i = 0; i < replies.size(); ++i)
+        {
+            results.add(await(requests.get(i), replies.get(i), deadline));
+        }
+        return results;
+    }
+
+    private static CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> issue(TpcallRequest request, Tpacall tpacall, long deadline)
+    {
+        try
+        {
+            return tpacall.issue(request, Math.max(0, deadline - System.nanoTime()));
+        }
+        catch (RuntimeException e)
+        {
+            // issued on the caller thread, a failure must not stop the rest of the batch
+            CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private static TpcallResult await(TpcallRequest request, CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> reply, long deadline)
+    {
+        try
+        {
+            return reply.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+                        .map(TpcallResult::of)
+                        .orElseGet(TpcallResult::noReply);
+        }
+        catch (TimeoutException e)
+        {
+            LOG.finest(() -> "No reply before the deadline for " + request);
+            return TpcallResult.of(new ServiceReturn<>(ServiceBuffer.empty(), ServiceReturnState.TPFAIL, ErrorState.TPETIME, 0L));
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            return TpcallResult.failed(cause instanceof RuntimeException ? (RuntimeException) cause : new CasualResourceException(cause));
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return TpcallResult.failed(new CasualResourceException("Interrupted while waiting for reply to " + request, e));
+        }
+    }
+}
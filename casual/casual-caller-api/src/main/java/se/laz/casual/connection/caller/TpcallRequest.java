@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.Flag;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * One service call of a batch, see {@link CasualCaller#tpcall(java.util.List, java.time.Duration)}
+ */
+public final class TpcallRequest implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+    private final String serviceName;
+    private final CasualBuffer data;
+    private final Flag<AtmiFlags> flags;
+
+    private TpcallRequest(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
+        this.serviceName = serviceName;
+        this.data = data;
+        this.flags = flags;
+    }
+
+    public static TpcallRequest of(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
+        Objects.requireNonNull(serviceName, "serviceName can not be null");
+        Objects.requireNonNull(data, "data can not be null");
+        Objects.requireNonNull(flags, "flags can not be null");
+        return new TpcallRequest(serviceName, data, flags);
+    }
+
+    public String getServiceName()
+    {
+        return serviceName;
+    }
+
+    public CasualBuffer getData()
+    {
+        return data;
+    }
+
+    public Flag<AtmiFlags> getFlags()
+    {
+        return flags;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TpcallRequest{" +
+                "serviceName='" + serviceName + '\'' +
+                ", flags=" + flags +
+                '}';
+    }
+}
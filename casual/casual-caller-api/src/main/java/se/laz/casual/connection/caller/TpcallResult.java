@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Outcome of one call of a batch, either the service reply or the exception the call failed with
+ *
+ * A call that did not finish before the deadline of the batch has a reply with TPETIME. A call issued with TPNOREPLY
+ * has neither a reply nor an error.
+ */
+public final class TpcallResult implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+    private final ServiceReturn<CasualBuffer> serviceReturn;
+    private final RuntimeException error;
+
+    private TpcallResult(ServiceReturn<CasualBuffer> serviceReturn, RuntimeException error)
+    {
+        this.serviceReturn = serviceReturn;
+        this.error = error;
+    }
+
+    public static TpcallResult of(ServiceReturn<CasualBuffer> serviceReturn)
+    {
+        Objects.requireNonNull(serviceReturn, "serviceReturn can not be null");
+        return new TpcallResult(serviceReturn, null);
+    }
+
+    public static TpcallResult noReply()
+    {
+        return new TpcallResult(null, null);
+    }
+
+    public static TpcallResult failed(RuntimeException error)
+    {
+        Objects.requireNonNull(error, "error can not be null");
+        return new TpcallResult(null, error);
+    }
+
+    /**
+     * @return true if there is a reply, the reply itself may still be an error from casual
+     */
+    public boolean hasReply()
+    {
+        return null != serviceReturn;
+    }
+
+    public Optional<ServiceReturn<CasualBuffer>> getServiceReturn()
+    {
+        return Optional.ofNullable(serviceReturn);
+    }
+
+    public Optional<RuntimeException> getError()
+    {
+        return Optional.ofNullable(error);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TpcallResult{" +
+                "serviceReturn=" + serviceReturn +
+                ", error=" + error +
+                '}';
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import se.laz.casual.connection.caller.topologychanged.TopologyChangedHandler;
+import se.laz.casual.connection.caller.util.ConnectionFactoryFinder;
+import se.laz.casual.jca.CasualConnectionFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Creates connection factory entries backed by stub connection factories bound in the in memory naming service
+ */
+public final class BenchmarkPools
+{
+    private static final String JNDI_ROOT = "eis/benchmark/pool-";
+
+    private BenchmarkPools()
+    {}
+
+    public static List<ConnectionFactoryEntry> createEntries(int numberOfPools)
+    {
+        return createEntries(numberOfPools, StubConnectionFactory::create);
+    }
+
+    public static List<ConnectionFactoryEntry> createEntries(int numberOfPools, Supplier<CasualConnectionFactory> connectionFactorySupplier)
+    {
+        InMemoryInitialContextFactory.install();
+        List<ConnectionFactoryEntry> entries = new ArrayList<>(numberOfPools);
+        for (int i = 0; i < numberOfPools; ++i)
+        {
+            String jndiName = JNDI_ROOT + i;
+            InMemoryInitialContextFactory.bind(jndiName, connectionFactorySupplier.get());
+            entries.add(ConnectionFactoryEntry.of(ConnectionFactoryProducer.of(jndiName)));
+        }
+        return entries;
+    }
+
+    public static ConnectionFactoryEntryStore createStore(List<ConnectionFactoryEntry> entries)
+    {
+        ConnectionFactoryFinder finder = new ConnectionFactoryFinder()
+        {
+            @Override
+            public List<ConnectionFactoryEntry> findConnectionFactory(String root)
+            {
+                return entries;
+            }
+        };
+        ConnectionFactoryEntryStore store = new ConnectionFactoryEntryStore(finder, new TopologyChangedHandler());
+        store.initialize();
+        return store;
+    }
+}
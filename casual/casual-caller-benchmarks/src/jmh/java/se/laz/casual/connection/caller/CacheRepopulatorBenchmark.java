@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import se.laz.casual.api.discovery.DiscoveryReturn;
+import se.laz.casual.api.queue.QueueDetails;
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.api.service.ServiceDetails;
+import se.laz.casual.network.messages.domain.TransactionType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheRepopulator::repopulate with large caches, as done for every pool that reconnects or changes topology
+ *
+ * All services and queues are known at every pool, the discovery of the pool that is repopulated replies at once
+ * with all of them. repopulateWhileLooking runs one repopulating thread next to seven threads doing cache hit
+ * lookups, to show how much a repopulation disturbs the calls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CacheRepopulatorBenchmark
+{
+    private static final String SERVICE_PREFIX = "benchmark.service-";
+    private static final String QUEUE_PREFIX = "benchmark.queue-";
+
+    @Param({"1000", "10000"})
+    public int services;
+
+    @Param({"100", "1000"})
+    public int queues;
+
+    @Param({"4"})
+    public int pools;
+
+    private Cache cache;
+    private CacheRepopulator cacheRepopulator;
+    private ConnectionFactoryEntry repopulated;
+    private List<String> serviceNames;
+
+    @Setup
+    public void setup()
+    {
+        DiscoveryReturn.Builder discoveryReturn = DiscoveryReturn.createBuilder();
+        serviceNames = new ArrayList<>(services);
+        for (int i = 0; i < services; ++i)
+        {
+            String serviceName = SERVICE_PREFIX + i;
+            serviceNames.add(serviceName);
+            discoveryReturn.addServiceDetails(ServiceDetails.createBuilder()
+                                                            .withName(serviceName)
+                                                            .withCategory("benchmark")
+                                                            .withTransactionType(TransactionType.AUTOMATIC)
+                                                            .withTimeout(0)
+                                                            .withHops(0)
+                                                            .build());
+        }
+        for (int i = 0; i < queues; ++i)
+        {
+            discoveryReturn.addQueueDetails(QueueDetails.of(QUEUE_PREFIX + i, 0));
+        }
+        DiscoveryReturn reply = discoveryReturn.build();
+        List<ConnectionFactoryEntry> entries = BenchmarkPools.createEntries(pools, () -> StubConnectionFactory.createDiscovering(reply));
+        cache = new Cache();
+        entries.forEach(entry -> cache.repopulate(reply, entry));
+        for (int i = 0; i < queues; ++i)
+        {
+            cache.store(QueueInfo.of(QUEUE_PREFIX + i), entries);
+        }
+        repopulated = entries.get(0);
+        cacheRepopulator = new CacheRepopulator(cache, new TransactionLess());
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        InMemoryInitialContextFactory.clear();
+    }
+
+    @Benchmark
+    public void repopulate()
+    {
+        cacheRepopulator.repopulate(repopulated);
+    }
+
+    @Benchmark
+    @Group("repopulateWhileLooking")
+    @GroupThreads(1)
+    public void repopulating()
+    {
+        cacheRepopulator.repopulate(repopulated);
+    }
+
+    @Benchmark
+    @Group("repopulateWhileLooking")
+    @GroupThreads(7)
+    public ConnectionFactoriesByPriority looking()
+    {
+        return cache.get(serviceNames.get(ThreadLocalRandom.current().nextInt(services)));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Cache hit path of ConnectionFactoryLookupService::get(serviceName)
+ *
+ * The pools are spread over two priorities so that both the ordering and the per priority randomization is exercised.
+ * The nested classes run the benchmarks with 1 to 64 threads, all looking up the same service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public abstract class ConnectionFactoryLookupServiceBenchmark
+{
+    private static final String SERVICE_NAME = "casual.benchmark.echo";
+
+    @Param({"1", "4", "32"})
+    public int pools;
+
+    private ConnectionFactoryLookupService lookupService;
+    private ConnectionFactoriesByPriority cached;
+
+    @Setup
+    public void setup()
+    {
+        List<ConnectionFactoryEntry> entries = BenchmarkPools.createEntries(pools);
+        Map<Long, List<ConnectionFactoryEntry>> byPriority = IntStream.range(0, pools)
+                                                                      .boxed()
+                                                                      .collect(Collectors.groupingBy(index -> (long) (index % 2),
+                                                                              Collectors.mapping(entries::get, Collectors.toList())));
+        List<String> resolved = entries.stream()
+                                       .map(ConnectionFactoryEntry::getJndiName)
+                                       .collect(Collectors.toList());
+        Cache cache = new Cache();
+        cache.store(SERVICE_NAME, ConnectionFactoriesByPriority.of(byPriority, resolved));
+        cached = cache.get(SERVICE_NAME);
+        lookupService = new ConnectionFactoryLookupService(BenchmarkPools.createStore(entries), cache, new Lookup(), new TransactionLess());
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        InMemoryInitialContextFactory.clear();
+    }
+
+    @Benchmark
+    public List<ConnectionFactoryEntry> cacheHit()
+    {
+        return lookupService.get(SERVICE_NAME);
+    }
+
+    @Benchmark
+    public List<ConnectionFactoryEntry> randomizeWithPriority()
+    {
+        return cached.randomizeWithPriority();
+    }
+
+    @Threads(1)
+    public static class OneThread extends ConnectionFactoryLookupServiceBenchmark
+    {}
+
+    @Threads(4)
+    public static class FourThreads extends ConnectionFactoryLookupServiceBenchmark
+    {}
+
+    @Threads(16)
+    public static class SixteenThreads extends ConnectionFactoryLookupServiceBenchmark
+    {}
+
+    @Threads(64)
+    public static class SixtyFourThreads extends ConnectionFactoryLookupServiceBenchmark
+    {}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import se.laz.casual.jca.CasualConnectionFactory;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per call cost of getting hold of a CasualConnectionFactory
+ *
+ * lookupPerCall is what ConnectionFactoryProducer used to do for every call
+ * Note that the in memory naming service is a lot cheaper than the one of an application server
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConnectionFactoryProducerBenchmark
+{
+    private static final String JNDI_NAME = "eis/benchmarkConnectionFactory";
+    private ConnectionFactoryProducer producer;
+
+    @Setup
+    public void setup()
+    {
+        InMemoryInitialContextFactory.install();
+        InMemoryInitialContextFactory.bind(JNDI_NAME, StubConnectionFactory.create());
+        producer = ConnectionFactoryProducer.of(JNDI_NAME);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        InMemoryInitialContextFactory.clear();
+    }
+
+    @Benchmark
+    public CasualConnectionFactory lookupPerCall() throws NamingException
+    {
+        return (CasualConnectionFactory) new InitialContext().lookup(JNDI_NAME);
+    }
+
+    @Benchmark
+    public CasualConnectionFactory cached()
+    {
+        return producer.getConnectionFactory();
+    }
+
+    @Benchmark
+    public CasualConnectionFactory invalidatedEveryCall()
+    {
+        producer.invalidate();
+        return producer.getConnectionFactory();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import se.laz.casual.api.buffer.type.ServiceBuffer;
+import se.laz.casual.api.queue.DequeueReturn;
+import se.laz.casual.api.queue.MessageSelector;
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.api.queue.QueueMessage;
+import se.laz.casual.connection.caller.fixtures.FakeDomain;
+import se.laz.casual.connection.caller.fixtures.LatencyDistribution;
+import se.laz.casual.jca.CasualConnection;
+
+import javax.resource.ResourceException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messages per second when draining a queue of the fake domain through CasualCallerImpl
+ *
+ * dequeueOneByOne gets a connection per message, dequeueBatch and consumer get one per batch of prefetch messages.
+ * connectMicros is what getting a connection costs, checking it out of the pool and enlisting it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DequeueBenchmark
+{
+    private static final int MESSAGES = 100;
+    private static final QueueInfo QUEUE = QueueInfo.of("casual.benchmark.queue");
+
+    @Param({"0", "50"})
+    public int connectMicros;
+
+    @Param({"10", "100"})
+    public int prefetch;
+
+    private final MessageSelector selector = MessageSelector.of();
+    private final QueueMessage message = QueueMessage.of(ServiceBuffer.empty());
+    private FakeDomain domain;
+    private CasualCallerImpl caller;
+
+    @Setup
+    public void setup()
+    {
+        domain = FakeDomain.of("benchmark").addQueue(QUEUE.getQueueName());
+        List<ConnectionFactoryEntry> entries = BenchmarkPools.createEntries(1, domain::getConnectionFactory);
+        ConnectionFactoryLookup lookup = new ConnectionFactoryLookup()
+        {
+            @Override
+            public Optional<ConnectionFactoryEntry> get(QueueInfo qinfo)
+            {
+                return Optional.of(entries.get(0));
+            }
+
+            @Override
+            public ConnectionFactoryEntry moveQueueSticky(QueueInfo qinfo, ConnectionFactoryEntry failed)
+            {
+                return failed;
+            }
+
+            @Override
+            public List<ConnectionFactoryEntry> get(String serviceName)
+            {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public void removeFromServiceCache(String serviceName)
+            {
+                // NOP
+            }
+        };
+        ConnectionFactoryEntryStore store = BenchmarkPools.createStore(entries);
+        caller = new CasualCallerImpl(lookup, store, new TransactionLess(), new FailedDomainDiscoveryHandler(new CacheRepopulator(), store));
+    }
+
+    @Setup(Level.Invocation)
+    public void fillQueue() throws ResourceException
+    {
+        domain.setConnectLatency(LatencyDistribution.none());
+        try (CasualConnection connection = domain.getConnectionFactory().getConnection())
+        {
+            for (int i = 0; i < MESSAGES; ++i)
+            {
+                connection.enqueue(QUEUE, message);
+            }
+        }
+        domain.setConnectLatency(LatencyDistribution.fixed(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(connectMicros))));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void dequeueOneByOne(Blackhole blackhole)
+    {
+        for (int i = 0; i < MESSAGES; ++i)
+        {
+            blackhole.consume(caller.dequeue(QUEUE, selector));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void dequeueBatch(Blackhole blackhole)
+    {
+        int dequeued = 0;
+        while (dequeued < MESSAGES)
+        {
+            List<DequeueReturn> replies = caller.dequeue(QUEUE, selector, prefetch);
+            dequeued += replies.size();
+            blackhole.consume(replies);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void consumer(Blackhole blackhole)
+    {
+        // there are no transactions here
+        QueueConsumer consumer = QueueConsumer.of(caller, QUEUE, selector, prefetch, true);
+        for (int i = 0; i < MESSAGES; ++i)
+        {
+            blackhole.consume(consumer.next());
+        }
+    }
+}
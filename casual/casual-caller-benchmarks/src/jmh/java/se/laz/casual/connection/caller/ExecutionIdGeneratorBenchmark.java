@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import se.laz.casual.connection.caller.execution.ExecutionIdGenerator;
+import se.laz.casual.connection.caller.execution.ExecutionIdGeneratorType;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Execution id generation, done once per call
+ *
+ * RANDOM_UUID is UUID.randomUUID, the behaviour before the generator was pluggable. The nested classes run the
+ * benchmark with 1 to 64 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public abstract class ExecutionIdGeneratorBenchmark
+{
+    @Param({"PER_THREAD", "RANDOM_UUID"})
+    public ExecutionIdGeneratorType generator;
+
+    private ExecutionIdGenerator executionIdGenerator;
+
+    @Setup
+    public void setup()
+    {
+        executionIdGenerator = generator.getExecutionIdGenerator();
+    }
+
+    @Benchmark
+    public UUID next()
+    {
+        return executionIdGenerator.next();
+    }
+
+    @Threads(1)
+    public static class OneThread extends ExecutionIdGeneratorBenchmark
+    {}
+
+    @Threads(4)
+    public static class FourThreads extends ExecutionIdGeneratorBenchmark
+    {}
+
+    @Threads(16)
+    public static class SixteenThreads extends ExecutionIdGeneratorBenchmark
+    {}
+
+    @Threads(64)
+    public static class SixtyFourThreads extends ExecutionIdGeneratorBenchmark
+    {}
+}
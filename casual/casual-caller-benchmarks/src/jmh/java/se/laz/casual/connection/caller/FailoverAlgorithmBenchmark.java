@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.buffer.type.ServiceBuffer;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.ErrorState;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.api.flags.ServiceReturnState;
+import se.laz.casual.api.queue.QueueInfo;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What FailoverAlgorithm adds to every tpcall, filtering of the entries, sticky check, concurrency limit, circuit
+ * breaker, execution id, getting the connection and the bookkeeping when the call is done
+ *
+ * The stub connections reply at once, so this is the overhead of the caller alone. The nested classes run the
+ * benchmark with 1 to 64 threads, all calling the same service on the same pools.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public abstract class FailoverAlgorithmBenchmark
+{
+    private static final String SERVICE_NAME = "casual.benchmark.echo";
+
+    @Param({"1", "4"})
+    public int pools;
+
+    private FailoverAlgorithm failoverAlgorithm;
+    private ConnectionFactoryLookup lookup;
+    private final CasualBuffer data = ServiceBuffer.empty();
+    private final Flag<AtmiFlags> flags = Flag.of(AtmiFlags.NOFLAG);
+    private final ServiceReturn<CasualBuffer> tpenoent = new ServiceReturn<>(ServiceBuffer.empty(), ServiceReturnState.TPFAIL, ErrorState.TPENOENT, 0L);
+
+    @Setup
+    public void setup()
+    {
+        List<ConnectionFactoryEntry> entries = BenchmarkPools.createEntries(pools, () -> StubConnectionFactory.createReplying(0));
+        lookup = new ConnectionFactoryLookup()
+        {
+            @Override
+            public Optional<ConnectionFactoryEntry> get(QueueInfo qinfo)
+            {
+                return Optional.empty();
+            }
+
+            @Override
+            public ConnectionFactoryEntry moveQueueSticky(QueueInfo qinfo, ConnectionFactoryEntry failed)
+            {
+                return failed;
+            }
+
+            @Override
+            public List<ConnectionFactoryEntry> get(String serviceName)
+            {
+                return entries;
+            }
+
+            @Override
+            public void removeFromServiceCache(String serviceName)
+            {
+                // NOP
+            }
+        };
+        failoverAlgorithm = new FailoverAlgorithm();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        InMemoryInitialContextFactory.clear();
+    }
+
+    @Benchmark
+    public ServiceReturn<CasualBuffer> tpcall()
+    {
+        return failoverAlgorithm.tpcallWithFailover(SERVICE_NAME,
+                                                    lookup,
+                                                    (con, execution) -> con.tpcall(SERVICE_NAME, data, flags, execution),
+                                                    () -> tpenoent);
+    }
+
+    @Threads(1)
+    public static class OneThread extends FailoverAlgorithmBenchmark
+    {}
+
+    @Threads(4)
+    public static class FourThreads extends FailoverAlgorithmBenchmark
+    {}
+
+    @Threads(16)
+    public static class SixteenThreads extends FailoverAlgorithmBenchmark
+    {}
+
+    @Threads(64)
+    public static class SixtyFourThreads extends FailoverAlgorithmBenchmark
+    {}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.spi.InitialContextFactory;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Minimal naming service so that benchmarks can run outside of an application server
+ * Only lookup is supported
+ */
+public class InMemoryInitialContextFactory implements InitialContextFactory
+{
+    private static final Map<String, Object> bindings = new ConcurrentHashMap<>();
+
+    public static void install()
+    {
+        System.setProperty(Context.INITIAL_CONTEXT_FACTORY, InMemoryInitialContextFactory.class.getName());
+    }
+
+    public static void bind(String name, Object value)
+    {
+        Objects.requireNonNull(name, "name can not be null");
+        Objects.requireNonNull(value, "value can not be null");
+        bindings.put(name, value);
+    }
+
+    public static void clear()
+    {
+        bindings.clear();
+    }
+
+    @Override
+    public Context getInitialContext(Hashtable<?, ?> environment)
+    {
+        return (Context) Proxy.newProxyInstance(InMemoryInitialContextFactory.class.getClassLoader(), new Class<?>[]{Context.class}, (proxy, method, args) -> {
+            switch (method.getName())
+            {
+                case "lookup":
+                    String name = String.valueOf(args[0]);
+                    Object value = bindings.get(name);
+                    if (null == value)
+                    {
+                        throw new NameNotFoundException(name);
+                    }
+                    return value;
+                case "close":
+                    return null;
+                default:
+                    throw new OperationNotSupportedException(method.getName());
+            }
+        });
+    }
+}
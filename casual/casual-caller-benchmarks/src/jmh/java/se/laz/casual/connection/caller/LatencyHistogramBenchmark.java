@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import se.laz.casual.connection.caller.metrics.LatencyHistogram;
+import se.laz.casual.connection.caller.metrics.LatencyHistograms;
+import se.laz.casual.connection.caller.metrics.Operation;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording the latency of one call, done once per call in FailoverAlgorithm
+ *
+ * recordHistogram is the histogram alone, recordByName includes finding the histogram of the service and pool.
+ * The nested classes run the benchmark with 1 to 64 threads, all recording to the same histogram.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public abstract class LatencyHistogramBenchmark
+{
+    private static final String SERVICE_NAME = "benchmarkService";
+    private static final String JNDI_NAME = "eis/benchmarkConnectionFactory";
+    private LatencyHistogram histogram;
+    private LatencyHistograms histograms;
+
+    @Setup
+    public void setup()
+    {
+        histogram = new LatencyHistogram();
+        histograms = LatencyHistograms.of(true);
+        // a few other services and pools, so that lookups are not into empty maps
+        for (int i = 0; i < 100; ++i)
+        {
+            histograms.record(Operation.TPCALL, SERVICE_NAME + i, JNDI_NAME + i % 4, 1, false);
+        }
+    }
+
+    @Benchmark
+    public void recordHistogram()
+    {
+        histogram.record(latency(), false);
+    }
+
+    @Benchmark
+    public void recordByName()
+    {
+        histograms.record(Operation.TPCALL, SERVICE_NAME, JNDI_NAME, latency(), false);
+    }
+
+    private static long latency()
+    {
+        // between 100 microseconds and 100 milliseconds, so that the increments are spread over the buckets
+        return ThreadLocalRandom.current().nextLong(100_000L, 100_000_000L);
+    }
+
+    @Threads(1)
+    public static class OneThread extends LatencyHistogramBenchmark
+    {}
+
+    @Threads(4)
+    public static class FourThreads extends LatencyHistogramBenchmark
+    {}
+
+    @Threads(16)
+    public static class SixteenThreads extends LatencyHistogramBenchmark
+    {}
+
+    @Threads(64)
+    public static class SixtyFourThreads extends LatencyHistogramBenchmark
+    {}
+}
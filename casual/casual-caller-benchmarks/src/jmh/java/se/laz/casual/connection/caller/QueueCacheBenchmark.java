@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import se.laz.casual.api.queue.QueueInfo;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Queue lookup path used by every enqueue and dequeue, QueueCache::getOrEmpty
+ *
+ * stickyHit is the steady state, reselect drops the sticky before every lookup as happens for all queues
+ * after a purge or a pool recovery. The nested classes run the same benchmarks with 1 to 64 threads,
+ * throughput should scale with the thread count as long as the threads use different queues.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public abstract class QueueCacheBenchmark
+{
+    private static final String QUEUE_PREFIX = "benchmark.queue-";
+
+    @Param({"1", "1024"})
+    public int queues;
+
+    @Param({"2"})
+    public int pools;
+
+    private QueueCache queueCache;
+    private List<QueueInfo> queueInfos;
+
+    @Setup
+    public void setup()
+    {
+        List<ConnectionFactoryEntry> entries = BenchmarkPools.createEntries(pools);
+        queueCache = new QueueCache(CacheEviction.unbounded());
+        queueInfos = IntStream.range(0, queues)
+                              .mapToObj(index -> QueueInfo.of(QUEUE_PREFIX + index))
+                              .collect(Collectors.toList());
+        queueInfos.forEach(queueInfo -> queueCache.store(queueInfo, entries));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        InMemoryInitialContextFactory.clear();
+    }
+
+    @Benchmark
+    public Optional<ConnectionFactoryEntry> stickyHit()
+    {
+        return queueCache.getOrEmpty(nextQueue());
+    }
+
+    @Benchmark
+    public Optional<ConnectionFactoryEntry> reselect()
+    {
+        QueueInfo queueInfo = nextQueue();
+        queueCache.removeSticky(queueInfo);
+        return queueCache.getOrEmpty(queueInfo);
+    }
+
+    private QueueInfo nextQueue()
+    {
+        return queueInfos.get(ThreadLocalRandom.current().nextInt(queues));
+    }
+
+    @Threads(1)
+    public static class OneThread extends QueueCacheBenchmark
+    {}
+
+    @Threads(4)
+    public static class FourThreads extends QueueCacheBenchmark
+    {}
+
+    @Threads(16)
+    public static class SixteenThreads extends QueueCacheBenchmark
+    {}
+
+    @Threads(64)
+    public static class SixtyFourThreads extends QueueCacheBenchmark
+    {}
+}
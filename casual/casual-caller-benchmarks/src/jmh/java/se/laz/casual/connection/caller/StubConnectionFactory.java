@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.buffer.type.ServiceBuffer;
+import se.laz.casual.api.discovery.DiscoveryReturn;
+import se.laz.casual.api.flags.ErrorState;
+import se.laz.casual.api.flags.ServiceReturnState;
+import se.laz.casual.jca.CasualConnection;
+import se.laz.casual.jca.CasualConnectionFactory;
+
+import java.lang.reflect.Proxy;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Connection factory that hands out connections that do nothing
+ * Any call other than close on such a connection throws UnsupportedOperationException
+ */
+public final class StubConnectionFactory
+{
+    private StubConnectionFactory()
+    {}
+
+    public static CasualConnectionFactory create()
+    {
+        CasualConnection connection = (CasualConnection) Proxy.newProxyInstance(StubConnectionFactory.class.getClassLoader(), new Class<?>[]{CasualConnection.class}, (proxy, method, args) -> {
+            if ("close".equals(method.getName()))
+            {
+                return null;
+            }
+            return objectMethod(proxy, method.getName(), args);
+        });
+        return (CasualConnectionFactory) Proxy.newProxyInstance(StubConnectionFactory.class.getClassLoader(), new Class<?>[]{CasualConnectionFactory.class}, (proxy, method, args) -> {
+            if ("getConnection".equals(method.getName()))
+            {
+                return connection;
+            }
+            return objectMethod(proxy, method.getName(), args);
+        });
+    }
+
+    /**
+     * Connection factory where getConnection takes connectMicros and tpcall or tpacall on a connection replies at once
+     * with an empty TPSUCCESS
+     */
+    public static CasualConnectionFactory createReplying(long connectMicros)
+    {
+        ServiceReturn<CasualBuffer> serviceReturn = new ServiceReturn<>(ServiceBuffer.empty(), ServiceReturnState.TPSUCCESS, ErrorState.OK, 0L);
+        CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> reply = CompletableFuture.completedFuture(Optional.of(serviceReturn));
+        CasualConnection connection = (CasualConnection) Proxy.newProxyInstance(StubConnectionFactory.class.getClassLoader(), new Class<?>[]{CasualConnection.class}, (proxy, method, args) -> {
+            switch (method.getName())
+            {
+                case "close":
+                    return null;
+                case "tpcall":
+                    return serviceReturn;
+                case "tpacall":
+                    return reply;
+                default:
+                    return objectMethod(proxy, method.getName(), args);
+            }
+        });
+        return (CasualConnectionFactory) Proxy.newProxyInstance(StubConnectionFactory.class.getClassLoader(), new Class<?>[]{CasualConnectionFactory.class}, (proxy, method, args) -> {
+            if ("getConnection".equals(method.getName()))
+            {
+                if (connectMicros > 0)
+                {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(connectMicros));
+                }
+                return connection;
+            }
+            return objectMethod(proxy, method.getName(), args);
+        });
+    }
+
+    /**
+     * Connection factory where discover on a connection replies at once with discoveryReturn
+     */
+    public static CasualConnectionFactory createDiscovering(DiscoveryReturn discoveryReturn)
+    {
+        CasualConnection connection = (CasualConnection) Proxy.newProxyInstance(StubConnectionFactory.class.getClassLoader(), new Class<?>[]{CasualConnection.class}, (proxy, method, args) -> {
+            switch (method.getName())
+            {
+                case "close":
+                    return null;
+                case "discover":
+                    return discoveryReturn;
+                default:
+                    return objectMethod(proxy, method.getName(), args);
+            }
+        });
+        return (CasualConnectionFactory) Proxy.newProxyInstance(StubConnectionFactory.class.getClassLoader(), new Class<?>[]{CasualConnectionFactory.class}, (proxy, method, args) -> {
+            if ("getConnection".equals(method.getName()))
+            {
+                return connection;
+            }
+            return objectMethod(proxy, method.getName(), args);
+        });
+    }
+
+    private static Object objectMethod(Object proxy, String name, Object[] args)
+    {
+        switch (name)
+        {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "Stub@" + Integer.toHexString(System.identityHashCode(proxy));
+            default:
+                throw new UnsupportedOperationException(name);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.buffer.type.ServiceBuffer;
+import se.laz.casual.api.flags.AtmiFlags;
+import se.laz.casual.api.flags.Flag;
+import se.laz.casual.api.queue.QueueInfo;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Time the caller thread spends in tpacall before it gets the future back
+ *
+ * callerThread issues the call on the caller thread, as is done within a transaction, async hands everything to an
+ * executor. lookupMicros simulates discovery, connectMicros the time to get a connection. The reply is awaited
+ * outside of the measurement, per invocation, so keep the simulated latencies well above a microsecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TpacallBenchmark
+{
+    private static final String SERVICE_NAME = "casual.benchmark.echo";
+
+    @Param({"50", "500"})
+    public long lookupMicros;
+
+    @Param({"50", "500"})
+    public long connectMicros;
+
+    private ExecutorService executorService;
+    private TpCallerFailover callerThread;
+    private TpCallerFailover async;
+    private ConnectionFactoryLookup lookup;
+    private final CasualBuffer data = ServiceBuffer.empty();
+    private final Flag<AtmiFlags> flags = Flag.of(AtmiFlags.NOFLAG);
+    private CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> lastReply;
+
+    @Setup
+    public void setup()
+    {
+        List<ConnectionFactoryEntry> entries = BenchmarkPools.createEntries(2, () -> StubConnectionFactory.createReplying(connectMicros));
+        lookup = new ConnectionFactoryLookup()
+        {
+            @Override
+            public Optional<ConnectionFactoryEntry> get(QueueInfo qinfo)
+            {
+                return Optional.empty();
+            }
+
+            @Override
+            public ConnectionFactoryEntry moveQueueSticky(QueueInfo qinfo, ConnectionFactoryEntry failed)
+            {
+                return failed;
+            }
+
+            @Override
+            public List<ConnectionFactoryEntry> get(String serviceName)
+            {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(lookupMicros));
+                return entries;
+            }
+
+            @Override
+            public void removeFromServiceCache(String serviceName)
+            {
+                // NOP
+            }
+        };
+        executorService = Executors.newFixedThreadPool(4);
+        callerThread = new TpCallerFailover(TpacallExecutor.of(""));
+        async = new TpCallerFailover(TpacallExecutor.of(executorService, new NoTransaction()));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        executorService.shutdownNow();
+        InMemoryInitialContextFactory.clear();
+    }
+
+    @TearDown(Level.Invocation)
+    public void awaitReply()
+    {
+        lastReply.join();
+    }
+
+    @Benchmark
+    public CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> callerThread()
+    {
+        lastReply = callerThread.tpacall(SERVICE_NAME, data, flags, lookup);
+        return lastReply;
+    }
+
+    @Benchmark
+    public CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> async()
+    {
+        lastReply = async.tpacall(SERVICE_NAME, data, flags, lookup);
+        return lastReply;
+    }
+
+    private static final class NoTransaction implements TransactionSynchronizationRegistry
+    {
+        @Override
+        public Object getTransactionKey()
+        {
+            return null;
+        }
+
+        @Override
+        public void putResource(Object key, Object value)
+        {
+            throw new IllegalStateException("no transaction");
+        }
+
+        @Override
+        public Object getResource(Object key)
+        {
+            throw new IllegalStateException("no transaction");
+        }
+
+        @Override
+        public void registerInterposedSynchronization(Synchronization sync)
+        {
+            throw new IllegalStateException("no transaction");
+        }
+
+        @Override
+        public int getTransactionStatus()
+        {
+            return Status.STATUS_NO_TRANSACTION;
+        }
+
+        @Override
+        public void setRollbackOnly()
+        {
+            throw new IllegalStateException("no transaction");
+        }
+
+        @Override
+        public boolean getRollbackOnly()
+        {
+            throw new IllegalStateException("no transaction");
+        }
+    }
+}
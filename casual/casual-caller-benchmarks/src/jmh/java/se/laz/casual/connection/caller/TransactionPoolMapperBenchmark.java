@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sticky resolution of TransactionPoolMapper, done for every call within a transaction when transaction sticky is
+ * enabled
+ *
+ * Every thread runs within a transaction of its own that is stickied to one of the pools. The nested classes run the
+ * benchmarks with 1 to 64 threads, they only share the counter per pool, which is only touched when a sticky is set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public abstract class TransactionPoolMapperBenchmark
+{
+    private TransactionPoolMapper mapper;
+
+    @State(Scope.Benchmark)
+    public static class Mapper
+    {
+        @Param({"4"})
+        public int pools;
+
+        private TransactionPoolMapper transactionPoolMapper;
+
+        @Setup
+        public void setup()
+        {
+            TransactionPoolMapper.resetForTest();
+            transactionPoolMapper = TransactionPoolMapper.getInstance();
+            transactionPoolMapper.setActiveForTest(true);
+            transactionPoolMapper.setTransactionSynchronizationRegistry(new TransactionPerThread());
+        }
+
+        @TearDown
+        public void tearDown()
+        {
+            TransactionPoolMapper.resetForTest();
+        }
+    }
+
+    @Setup
+    public void setup(Mapper shared)
+    {
+        // thread scoped state is set up on the thread that uses it, so this is the transaction of that thread
+        mapper = shared.transactionPoolMapper;
+        String poolName = "eis/benchmark/pool-" + ThreadLocalRandom.current().nextInt(shared.pools);
+        mapper.setStickyInformationForCurrentTransaction(StickyInformation.of(poolName, UUID.randomUUID()));
+    }
+
+    @Benchmark
+    public StickyInformation stickyHit()
+    {
+        return mapper.getStickyInformationForCurrentTransaction();
+    }
+
+    @Benchmark
+    public boolean isPoolMappingActive()
+    {
+        return mapper.isPoolMappingActive();
+    }
+
+    @Threads(1)
+    public static class OneThread extends TransactionPoolMapperBenchmark
+    {}
+
+    @Threads(4)
+    public static class FourThreads extends TransactionPoolMapperBenchmark
+    {}
+
+    @Threads(16)
+    public static class SixteenThreads extends TransactionPoolMapperBenchmark
+    {}
+
+    @Threads(64)
+    public static class SixtyFourThreads extends TransactionPoolMapperBenchmark
+    {}
+
+    /**
+     * Every thread is within a transaction of its own that never completes
+     */
+    private static final class TransactionPerThread implements TransactionSynchronizationRegistry
+    {
+        private final ThreadLocal<Map<Object, Object>> resources = ThreadLocal.withInitial(HashMap::new);
+
+        @Override
+        public Object getTransactionKey()
+        {
+            return Thread.currentThread();
+        }
+
+        @Override
+        public void putResource(Object key, Object value)
+        {
+            resources.get().put(key, value);
+        }
+
+        @Override
+        public Object getResource(Object key)
+        {
+            return resources.get().get(key);
+        }
+
+        @Override
+        public void registerInterposedSynchronization(Synchronization sync)
+        {
+            // NOP, the transaction never completes
+        }
+
+        @Override
+        public int getTransactionStatus()
+        {
+            return Status.STATUS_ACTIVE;
+        }
+
+        @Override
+        public void setRollbackOnly()
+        {
+            throw new UnsupportedOperationException("setRollbackOnly");
+        }
+
+        @Override
+        public boolean getRollbackOnly()
+        {
+            return false;
+        }
+    }
+}
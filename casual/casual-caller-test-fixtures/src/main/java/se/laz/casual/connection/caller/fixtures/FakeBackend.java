@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.fixtures;
+
+import se.laz.casual.connection.caller.ConnectionFactoryEntry;
+import se.laz.casual.connection.caller.util.ConnectionFactoryFinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A set of {@link FakeDomain}s, each with its connection factory bound in {@link InMemoryNaming}
+ *
+ * The connection factories are bound as {@code <jndiRoot>/<domain name>}, so the real ConnectionFactoryFinder finds
+ * them under the jndi root and the real ConnectionFactoryProducer looks them up. Only one backend at a time, the
+ * naming service is global to the JVM.
+ */
+public final class FakeBackend implements AutoCloseable
+{
+    public static final String DEFAULT_JNDI_ROOT = "eis";
+    private final String jndiRoot;
+    private final Map<String, FakeDomain> domains = new LinkedHashMap<>();
+
+    private FakeBackend(String jndiRoot, List<FakeDomain> domains)
+    {
+        this.jndiRoot = jndiRoot;
+        InMemoryNaming.install();
+        for (FakeDomain domain : domains)
+        {
+            if (null != this.domains.putIfAbsent(domain.getName(), domain))
+            {
+                throw new IllegalArgumentException("Domain names must be unique, found more than one domain named " + domain.getName());
+            }
+            InMemoryNaming.bind(getJndiName(domain), domain.getConnectionFactory());
+        }
+    }
+
+    public static FakeBackend of(FakeDomain... domains)
+    {
+        return of(DEFAULT_JNDI_ROOT, Arrays.asList(domains));
+    }
+
+    public static FakeBackend of(String jndiRoot, List<FakeDomain> domains)
+    {
+        Objects.requireNonNull(jndiRoot, "jndiRoot can not be null");
+        Objects.requireNonNull(domains, "domains can not be null");
+        return new FakeBackend(jndiRoot, domains);
+    }
+
+    public String getJndiRoot()
+    {
+        return jndiRoot;
+    }
+
+    public String getJndiName(FakeDomain domain)
+    {
+        return jndiRoot + "/" + domain.getName();
+    }
+
+    public FakeDomain getDomain(String name)
+    {
+        FakeDomain domain = domains.get(name);
+        if (null == domain)
+        {
+            throw new IllegalArgumentException("No domain named " + name + ", domains: " + domains.keySet());
+        }
+        return domain;
+    }
+
+    public List<FakeDomain> getDomains()
+    {
+        return Collections.unmodifiableList(new ArrayList<>(domains.values()));
+    }
+
+    /**
+     * @return the entries of all domains, found the same way as in an application server
+     */
+    public List<ConnectionFactoryEntry> findEntries()
+    {
+        return ConnectionFactoryFinder.of().findConnectionFactory(jndiRoot);
+    }
+
+    @Override
+    public void close()
+    {
+        domains.values().forEach(domain -> InMemoryNaming.unbind(getJndiName(domain)));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.fixtures;
+
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.api.queue.QueueMessage;
+import se.laz.casual.jca.CasualConnection;
+import se.laz.casual.jca.CasualConnectionFactory;
+import se.laz.casual.jca.ConnectionObserver;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+/**
+ * Connection factory and connections of a {@link FakeDomain}
+ *
+ * They are proxies, so that they do not have to follow every change of the casual jca interfaces. Any method that
+ * is not handled throws UnsupportedOperationException.
+ */
+final class FakeConnections
+{
+    private FakeConnections()
+    {}
+
+    static CasualConnectionFactory createConnectionFactory(FakeDomain domain)
+    {
+        CasualConnection connection = createConnection(domain);
+        return proxy(CasualConnectionFactory.class, (proxy, method, args) -> {
+            if ("getConnection".equals(method.getName()))
+            {
+                domain.connect();
+                return connection;
+            }
+            return objectMethod(proxy, domain, method.getName(), args);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CasualConnection createConnection(FakeDomain domain)
+    {
+        return proxy(CasualConnection.class, (proxy, method, args) -> {
+            switch (method.getName())
+            {
+                case "tpcall":
+                    return domain.tpcall((String) args[0], (CasualBuffer) args[1]);
+                case "tpacall":
+                    return domain.tpacall((String) args[0], (CasualBuffer) args[1]);
+                case "serviceExists":
+                    return domain.serviceExists((String) args[0]);
+                case "serviceDetails":
+                    return domain.serviceDetails((String) args[0]);
+                case "queueExists":
+                    return domain.queueExists((QueueInfo) args[0]);
+                case "enqueue":
+                    return domain.enqueue((QueueInfo) args[0], (QueueMessage) args[1]);
+                case "dequeue":
+                    return domain.dequeue((QueueInfo) args[0]);
+                case "discover":
+                    return domain.discover((List<String>) args[1], (List<String>) args[2]);
+                case "getDomainId":
+                    return domain.getDomainId();
+                case "addConnectionObserver":
+                    domain.addObserver((ConnectionObserver) args[0]);
+                    return null;
+                case "close":
+                    return null;
+                default:
+                    return objectMethod(proxy, domain, method.getName(), args);
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(FakeConnections.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object objectMethod(Object proxy, FakeDomain domain, String name, Object[] args)
+    {
+        switch (name)
+        {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "FakeConnection{" + domain.getName() + "}";
+            default:
+                throw new UnsupportedOperationException(name);
+        }
+    }
+}
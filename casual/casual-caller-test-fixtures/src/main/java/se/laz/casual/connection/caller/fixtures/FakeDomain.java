@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.fixtures;
+
+import se.laz.casual.api.buffer.CasualBuffer;
+import se.laz.casual.api.buffer.ServiceReturn;
+import se.laz.casual.api.discovery.DiscoveryReturn;
+import se.laz.casual.api.flags.ErrorState;
+import se.laz.casual.api.flags.ServiceReturnState;
+import se.laz.casual.api.queue.DequeueReturn;
+import se.laz.casual.api.queue.EnqueueReturn;
+import se.laz.casual.api.queue.QueueDetails;
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.api.queue.QueueMessage;
+import se.laz.casual.api.service.ServiceDetails;
+import se.laz.casual.jca.CasualConnectionFactory;
+import se.laz.casual.jca.ConnectionObserver;
+import se.laz.casual.jca.DomainId;
+import se.laz.casual.network.connection.DomainDisconnectedException;
+import se.laz.casual.network.messages.domain.TransactionType;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.EISSystemException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * In process stand in for a casual domain, with its own services, queues and connection factory
+ *
+ * Failures can be injected at any time: {@link #down()} makes getting a connection fail as when the domain is not
+ * reachable, {@link #setDisconnectRate(double)} makes that share of the calls fail with a
+ * DomainDisconnectedException and services can reply with errors, see {@link FakeService}.
+ * {@link #topologyChanged()} notifies the connection observers, as a domain does when its services change.
+ * {@link #setConnectLatency(LatencyDistribution)} makes getting a connection take time, as checking one out of a
+ * connection pool and enlisting it does.
+ */
+public final class FakeDomain
+{
+    // replies to tpacall are completed from here once the latency of the service has passed
+    private static final ScheduledExecutorService REPLIES = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "fake-domain-replies");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final String name;
+    private final DomainId domainId = DomainId.of(UUID.randomUUID());
+    private final ConcurrentMap<String, FakeService> services = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Queue<QueueMessage>> queues = new ConcurrentHashMap<>();
+    private final Set<ConnectionObserver> observers = ConcurrentHashMap.newKeySet();
+    private final LongAdder calls = new LongAdder();
+    private final CasualConnectionFactory connectionFactory;
+    private volatile boolean down;
+    private volatile double disconnectRate;
+    private volatile LatencyDistribution connectLatency = LatencyDistribution.none();
+
+    private FakeDomain(String name)
+    {
+        this.name = name;
+        this.connectionFactory = FakeConnections.createConnectionFactory(this);
+    }
+
+    public static FakeDomain of(String name)
+    {
+        Objects.requireNonNull(name, "name can not be null");
+        return new FakeDomain(name);
+    }
+
+    public FakeDomain addService(String serviceName, long hops)
+    {
+        return addService(FakeService.of(serviceName, hops));
+    }
+
+    /**
+     * Adds the service, or replaces the one with the same name
+     */
+    public FakeDomain addService(FakeService service)
+    {
+        Objects.requireNonNull(service, "service can not be null");
+        services.put(service.getName(), service);
+        return this;
+    }
+
+    public FakeDomain removeService(String serviceName)
+    {
+        services.remove(serviceName);
+        return this;
+    }
+
+    public FakeDomain addQueue(String queueName)
+    {
+        Objects.requireNonNull(queueName, "queueName can not be null");
+        queues.putIfAbsent(queueName, new ConcurrentLinkedQueue<>());
+        return this;
+    }
+
+    public FakeDomain removeQueue(String queueName)
+    {
+        queues.remove(queueName);
+        return this;
+    }
+
+    public void down()
+    {
+        down = true;
+    }
+
+    public void up()
+    {
+        down = false;
+    }
+
+    public boolean isDown()
+    {
+        return down;
+    }
+
+    /**
+     * @param disconnectRate share of the calls, between 0 and 1, that fail as if the domain disconnected
+     */
+    public void setDisconnectRate(double disconnectRate)
+    {
+        if (disconnectRate < 0.0 || disconnectRate > 1.0)
+        {
+            throw new IllegalArgumentException("disconnectRate must be between 0 and 1, disconnectRate: " + disconnectRate);
+        }
+        this.disconnectRate = disconnectRate;
+    }
+
+    public void setConnectLatency(LatencyDistribution connectLatency)
+    {
+        this.connectLatency = Objects.requireNonNull(connectLatency, "connectLatency can not be null");
+    }
+
+    public void topologyChanged()
+    {
+        observers.forEach(observer -> observer.topologyChanged(domainId));
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public DomainId getDomainId()
+    {
+        return domainId;
+    }
+
+    public CasualConnectionFactory getConnectionFactory()
+    {
+        return connectionFactory;
+    }
+
+    /**
+     * @return the number of service calls, enqueues and dequeues that reached the domain
+     */
+    public long getCalls()
+    {
+        return calls.sum();
+    }
+
+    void connect() throws ResourceException
+    {
+        if (down)
+        {
+            throw new EISSystemException("Domain " + name + " is down");
+        }
+        sleep(connectLatency.nextNanos());
+    }
+
+    void addObserver(ConnectionObserver observer)
+    {
+        observers.add(observer);
+    }
+
+    ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data)
+    {
+        Optional<FakeService> service = call(serviceName);
+        if (!service.isPresent())
+        {
+            return reply(data, ErrorState.TPENOENT);
+        }
+        sleep(service.get().getLatency().nextNanos());
+        return reply(data, service.get());
+    }
+
+    CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> tpacall(String serviceName, CasualBuffer data)
+    {
+        CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> reply = new CompletableFuture<>();
+        Optional<FakeService> service;
+        try
+        {
+            service = call(serviceName);
+        }
+        catch (DomainDisconnectedException e)
+        {
+            reply.completeExceptionally(e);
+            return reply;
+        }
+        if (!service.isPresent())
+        {
+            reply.complete(Optional.of(reply(data, ErrorState.TPENOENT)));
+            return reply;
+        }
+        REPLIES.schedule(() -> reply.complete(Optional.of(reply(data, service.get()))), service.get().getLatency().nextNanos(), TimeUnit.NANOSECONDS);
+        return reply;
+    }
+
+    boolean serviceExists(String serviceName)
+    {
+        return services.containsKey(serviceName);
+    }
+
+    List<ServiceDetails> serviceDetails(String serviceName)
+    {
+        FakeService service = services.get(serviceName);
+        return null == service ? Collections.emptyList() : Collections.singletonList(toServiceDetails(service));
+    }
+
+    boolean queueExists(QueueInfo queueInfo)
+    {
+        return queues.containsKey(queueInfo.getQueueName());
+    }
+
+    EnqueueReturn enqueue(QueueInfo queueInfo, QueueMessage message)
+    {
+        Queue<QueueMessage> queue = callQueue(queueInfo);
+        if (null == queue)
+        {
+            return EnqueueReturn.createBuilder().withErrorState(ErrorState.TPENOENT).build();
+        }
+        queue.add(message);
+        return EnqueueReturn.createBuilder().withErrorState(ErrorState.OK).withId(UUID.randomUUID()).build();
+    }
+
+    DequeueReturn dequeue(QueueInfo queueInfo)
+    {
+        Queue<QueueMessage> queue = callQueue(queueInfo);
+        if (null == queue)
+        {
+            return DequeueReturn.createBuilder().withErrorState(ErrorState.TPENOENT).build();
+        }
+        QueueMessage message = queue.poll();
+        DequeueReturn.Builder reply = DequeueReturn.createBuilder().withErrorState(ErrorState.OK);
+        return null == message ? reply.build() : reply.withQueueMessage(message).build();
+    }
+
+    DiscoveryReturn discover(List<String> serviceNames, List<String> queueNames)
+    {
+        DiscoveryReturn.Builder reply = DiscoveryReturn.createBuilder();
+        serviceNames.stream()
+                    .map(services::get)
+                    .filter(Objects::nonNull)
+                    .forEach(service -> reply.addServiceDetails(toServiceDetails(service)));
+        queueNames.stream()
+                  .filter(queues::containsKey)
+                  .forEach(queueName -> reply.addQueueDetails(QueueDetails.of(queueName, 0)));
+        return reply.build();
+    }
+
+    private Optional<FakeService> call(String serviceName)
+    {
+        failIfDisconnected();
+        calls.increment();
+        return Optional.ofNullable(services.get(serviceName));
+    }
+
+    private Queue<QueueMessage> callQueue(QueueInfo queueInfo)
+    {
+        failIfDisconnected();
+        calls.increment();
+        return queues.get(queueInfo.getQueueName());
+    }
+
+    private void failIfDisconnected()
+    {
+        if (down || (disconnectRate > 0.0 && ThreadLocalRandom.current().nextDouble() < disconnectRate))
+        {
+            throw new DomainDisconnectedException("Domain " + name + " disconnected");
+        }
+    }
+
+    private static ServiceReturn<CasualBuffer> reply(CasualBuffer data, FakeService service)
+    {
+        boolean failed = service.getErrorRate() > 0.0 && ThreadLocalRandom.current().nextDouble() < service.getErrorRate();
+        return reply(data, failed ? ErrorState.TPESVCERR : ErrorState.OK);
+    }
+
+    private static ServiceReturn<CasualBuffer> reply(CasualBuffer data, ErrorState errorState)
+    {
+        return new ServiceReturn<>(data, errorState == ErrorState.OK ? ServiceReturnState.TPSUCCESS : ServiceReturnState.TPFAIL, errorState, 0L);
+    }
+
+    private static ServiceDetails toServiceDetails(FakeService service)
+    {
+        return ServiceDetails.createBuilder()
+                             .withName(service.getName())
+                             .withCategory("fake")
+                             .withTransactionType(TransactionType.AUTOMATIC)
+                             .withTimeout(0)
+                             .withHops(service.getHops())
+                             .build();
+    }
+
+    private static void sleep(long nanos)
+    {
+        long deadline = System.nanoTime() + nanos;
+        for (long left = nanos; left > 0; left = deadline - System.nanoTime())
+        {
+            LockSupport.parkNanos(left);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FakeDomain{" +
+                "name='" + name + '\'' +
+                ", services=" + services.keySet().stream().sorted().collect(Collectors.toList()) +
+                ", queues=" + queues.keySet().stream().sorted().collect(Collectors.toList()) +
+                ", down=" + down +
+                ", disconnectRate=" + disconnectRate +
+                '}';
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.fixtures;
+
+import java.util.Objects;
+
+/**
+ * A service of a {@link FakeDomain}, replies with the buffer it was called with
+ *
+ * {@code errorRate} of the calls, between 0 and 1, reply with TPFAIL and TPESVCERR instead.
+ */
+public final class FakeService
+{
+    private final String name;
+    private final long hops;
+    private final LatencyDistribution latency;
+    private final double errorRate;
+
+    private FakeService(String name, long hops, LatencyDistribution latency, double errorRate)
+    {
+        this.name = name;
+        this.hops = hops;
+        this.latency = latency;
+        this.errorRate = errorRate;
+    }
+
+    public static FakeService of(String name)
+    {
+        return of(name, 0);
+    }
+
+    public static FakeService of(String name, long hops)
+    {
+        Objects.requireNonNull(name, "name can not be null");
+        return new FakeService(name, hops, LatencyDistribution.none(), 0.0);
+    }
+
+    public FakeService withLatency(LatencyDistribution latency)
+    {
+        Objects.requireNonNull(latency, "latency can not be null");
+        return new FakeService(name, hops, latency, errorRate);
+    }
+
+    public FakeService withErrorRate(double errorRate)
+    {
+        if (errorRate < 0.0 || errorRate > 1.0)
+        {
+            throw new IllegalArgumentException("errorRate must be between 0 and 1, errorRate: " + errorRate);
+        }
+        return new FakeService(name, hops, latency, errorRate);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getHops()
+    {
+        return hops;
+    }
+
+    public LatencyDistribution getLatency()
+    {
+        return latency;
+    }
+
+    public double getErrorRate()
+    {
+        return errorRate;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FakeService{" +
+                "name='" + name + '\'' +
+                ", hops=" + hops +
+                ", errorRate=" + errorRate +
+                '}';
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.fixtures;
+
+import javax.naming.Context;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.spi.InitialContextFactory;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Naming service for running outside of an application server, installed as the initial context factory
+ *
+ * Only lookup and list are supported, which is what ConnectionFactoryFinder and ConnectionFactoryProducer use.
+ * The bindings are global to the JVM.
+ */
+public class InMemoryNaming implements InitialContextFactory
+{
+    private static final Map<String, Object> bindings = new ConcurrentHashMap<>();
+
+    public static void install()
+    {
+        System.setProperty(Context.INITIAL_CONTEXT_FACTORY, InMemoryNaming.class.getName());
+    }
+
+    public static void bind(String name, Object value)
+    {
+        Objects.requireNonNull(name, "name can not be null");
+        Objects.requireNonNull(value, "value can not be null");
+        bindings.put(name, value);
+    }
+
+    public static void unbind(String name)
+    {
+        bindings.remove(name);
+    }
+
+    public static void clear()
+    {
+        bindings.clear();
+    }
+
+    @Override
+    public Context getInitialContext(Hashtable<?, ?> environment)
+    {
+        return (Context) Proxy.newProxyInstance(InMemoryNaming.class.getClassLoader(), new Class<?>[]{Context.class}, (proxy, method, args) -> {
+            switch (method.getName())
+            {
+                case "lookup":
+                    String name = String.valueOf(args[0]);
+                    Object value = bindings.get(name);
+                    if (null == value)
+                    {
+                        throw new NameNotFoundException(name);
+                    }
+                    return value;
+                case "list":
+                    return list(String.valueOf(args[0]));
+                case "close":
+                    return null;
+                default:
+                    throw new OperationNotSupportedException(method.getName());
+            }
+        });
+    }
+
+    private static NamingEnumeration<NameClassPair> list(String root)
+    {
+        String prefix = root.endsWith("/") ? root : root + "/";
+        // only the names directly below root, relative to it
+        List<NameClassPair> children = bindings.entrySet()
+                                               .stream()
+                                               .filter(entry -> entry.getKey().startsWith(prefix) && entry.getKey().indexOf('/', prefix.length()) < 0)
+                                               .map(entry -> new NameClassPair(entry.getKey().substring(prefix.length()), entry.getValue().getClass().getName(), true))
+                                               .sorted((first, second) -> first.getName().compareTo(second.getName()))
+                                               .collect(Collectors.toList());
+        return new ListEnumeration(children.iterator());
+    }
+
+    private static final class ListEnumeration implements NamingEnumeration<NameClassPair>
+    {
+        private final Iterator<NameClassPair> iterator;
+
+        private ListEnumeration(Iterator<NameClassPair> iterator)
+        {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public NameClassPair next()
+        {
+            return iterator.next();
+        }
+
+        @Override
+        public boolean hasMore()
+        {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public void close()
+        {
+            // NOP
+        }
+
+        @Override
+        public boolean hasMoreElements()
+        {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public NameClassPair nextElement()
+        {
+            return iterator.next();
+        }
+    }
+}
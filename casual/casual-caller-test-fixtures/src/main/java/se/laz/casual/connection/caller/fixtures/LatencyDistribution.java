@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.fixtures;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How long a fake service takes to reply, or a fake domain takes to hand out a connection
+ */
+@FunctionalInterface
+public interface LatencyDistribution
+{
+    long nextNanos();
+
+    static LatencyDistribution none()
+    {
+        return () -> 0L;
+    }
+
+    static LatencyDistribution fixed(Duration latency)
+    {
+        Objects.requireNonNull(latency, "latency can not be null");
+        long nanos = latency.toNanos();
+        return () -> nanos;
+    }
+
+    static LatencyDistribution uniform(Duration min, Duration max)
+    {
+        Objects.requireNonNull(min, "min can not be null");
+        Objects.requireNonNull(max, "max can not be null");
+        if (max.compareTo(min) < 0)
+        {
+            throw new IllegalArgumentException("max can not be less than min, min: " + min + " max: " + max);
+        }
+        long minNanos = min.toNanos();
+        long maxNanos = max.toNanos();
+        return () -> minNanos == maxNanos ? minNanos : ThreadLocalRandom.current().nextLong(minNanos, maxNanos + 1);
+    }
+
+    /**
+     * Mostly close to the mean with a long tail, as the latency of real services usually is
+     */
+    static LatencyDistribution exponential(Duration mean)
+    {
+        Objects.requireNonNull(mean, "mean can not be null");
+        double meanNanos = mean.toNanos();
+        return () -> (long) (-meanNanos * Math.log(1.0 - ThreadLocalRandom.current().nextDouble()));
+    }
+}
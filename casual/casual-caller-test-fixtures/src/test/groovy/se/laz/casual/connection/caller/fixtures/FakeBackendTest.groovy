@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.fixtures
+
+import se.laz.casual.api.buffer.type.ServiceBuffer
+import se.laz.casual.api.flags.ErrorState
+import se.laz.casual.api.flags.Flag
+import se.laz.casual.api.queue.QueueInfo
+import se.laz.casual.api.queue.QueueMessage
+import se.laz.casual.connection.caller.ConnectionFactoryEntry
+import se.laz.casual.connection.caller.ConnectionFactoryLookup
+import se.laz.casual.connection.caller.FailoverAlgorithm
+import se.laz.casual.jca.ConnectionObserver
+import se.laz.casual.jca.DomainId
+import se.laz.casual.network.connection.DomainDisconnectedException
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+
+class FakeBackendTest extends Specification
+{
+   FakeDomain first = FakeDomain.of('first').addService('echo', 0).addQueue('queue')
+   FakeDomain second = FakeDomain.of('second').addService('echo', 1)
+   FakeBackend backend = FakeBackend.of(first, second)
+
+   def cleanup()
+   {
+      backend.close()
+   }
+
+   def 'the connection factories are found under the jndi root'()
+   {
+      when:
+      def entries = backend.findEntries()
+      then:
+      entries*.jndiName == ['eis/first', 'eis/second']
+   }
+
+   def 'services reply with the buffer they were called with'()
+   {
+      given:
+      def data = ServiceBuffer.empty()
+      def connection = first.connectionFactory.connection
+      when:
+      def reply = connection.tpcall('echo', data, Flag.of())
+      def unknown = connection.tpcall('unknown', data, Flag.of())
+      then:
+      reply.errorState == ErrorState.OK
+      reply.replyBuffer.is(data)
+      unknown.errorState == ErrorState.TPENOENT
+      connection.serviceDetails('echo')*.hops == [0L]
+      second.connectionFactory.connection.serviceDetails('echo')*.hops == [1L]
+      first.calls == 2
+   }
+
+   def 'tpacall replies once the latency of the service has passed'()
+   {
+      given:
+      first.addService(FakeService.of('slow').withLatency(LatencyDistribution.fixed(Duration.ofMillis(50))))
+      def start = System.nanoTime()
+      when:
+      def reply = first.connectionFactory.connection.tpacall('slow', ServiceBuffer.empty(), Flag.of()).get(5, TimeUnit.SECONDS)
+      then:
+      reply.get().errorState == ErrorState.OK
+      System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50)
+   }
+
+   def 'services can reply with errors'()
+   {
+      given:
+      first.addService(FakeService.of('failing').withErrorRate(1.0))
+      expect:
+      first.connectionFactory.connection.tpcall('failing', ServiceBuffer.empty(), Flag.of()).errorState == ErrorState.TPESVCERR
+   }
+
+   def 'calls to a disconnecting domain fail'()
+   {
+      given:
+      first.setDisconnectRate(1.0)
+      def connection = first.connectionFactory.connection
+      when:
+      connection.tpcall('echo', ServiceBuffer.empty(), Flag.of())
+      then:
+      thrown(DomainDisconnectedException)
+      when:
+      connection.tpacall('echo', ServiceBuffer.empty(), Flag.of()).join()
+      then:
+      def e = thrown(Exception)
+      e.cause instanceof DomainDisconnectedException
+   }
+
+   def 'calls fail over from a domain that is down'()
+   {
+      given:
+      first.down()
+      def entries = backend.findEntries()
+      def lookup = Stub(ConnectionFactoryLookup) {
+         get('echo') >> entries
+      }
+      when:
+      def reply = new FailoverAlgorithm().tpcallWithFailover('echo',
+              lookup,
+              { con, execution -> con.tpcall('echo', ServiceBuffer.empty(), Flag.of(), execution) },
+              { throw new AssertionError('no entries') })
+      then:
+      reply.errorState == ErrorState.OK
+      second.calls == 1
+      first.calls == 0
+      entries.find { it.jndiName == 'eis/first' }.invalid
+   }
+
+   def 'queues keep the messages that are enqueued'()
+   {
+      given:
+      def connection = first.connectionFactory.connection
+      def message = QueueMessage.of(ServiceBuffer.empty())
+      when:
+      def enqueued = connection.enqueue(QueueInfo.of('queue'), message)
+      def dequeued = connection.dequeue(QueueInfo.of('queue'), null)
+      then:
+      enqueued.errorState == ErrorState.OK
+      dequeued.errorState == ErrorState.OK
+      dequeued.queueMessage.get(0).is(message)
+      !second.connectionFactory.connection.queueExists(QueueInfo.of('queue'))
+   }
+
+   def 'discovery only replies with what the domain has'()
+   {
+      when:
+      def reply = first.connectionFactory.connection.discover(UUID.randomUUID(), ['echo', 'unknown'], ['queue', 'other'])
+      then:
+      reply.serviceDetails*.name == ['echo']
+      reply.queueDetails*.name == ['queue']
+   }
+
+   def 'connection observers are told about topology changes'()
+   {
+      given:
+      DomainId changed = null
+      first.connectionFactory.connection.addConnectionObserver({ domainId -> changed = domainId } as ConnectionObserver)
+      when:
+      first.topologyChanged()
+      then:
+      changed == first.domainId
+   }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2017-2021, The casual project. All rights reserved.
+ * Copyright (c) 2017 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -8,6 +8,7 @@ package se.laz.casual.connection.caller;
 
 import se.laz.casual.api.discovery.DiscoveryReturn;
 import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.connection.caller.config.ConfigurationService;
 
 import javax.enterprise.context.ApplicationScoped;
 import java.util.ArrayList;
@@ -25,6 +26,12 @@ public class Cache
 {
     private final QueueCache queueCache = new QueueCache();
     private final ServiceCache serviceCache = new ServiceCache();
+    private final InFlightLookups<String, RoutingSnapshot> serviceLookups = InFlightLookups.of(ConfigurationService.getInstance().getConfiguration().getLookupCoalescingMaxWaitMillis());
+    private final InFlightLookups<String, List<ConnectionFactoryEntry>> queueLookups = InFlightLookups.of(ConfigurationService.getInstance().getConfiguration().getLookupCoalescingMaxWaitMillis());
+    private final NegativeCache unknownServices = NegativeCache.of(ConfigurationService.getInstance().getConfiguration().getNegativeCacheTtlMillis(),
+                                                                   ConfigurationService.getInstance().getConfiguration().getNegativeCacheMaxSize());
+    private final NegativeCache unknownQueues = NegativeCache.of(ConfigurationService.getInstance().getConfiguration().getNegativeCacheTtlMillis(),
+                                                                 ConfigurationService.getInstance().getConfiguration().getNegativeCacheMaxSize());
 
     public ConnectionFactoriesByPriority get(String serviceName)
     {
@@ -47,6 +54,25 @@ public class Cache
         Objects.requireNonNull(entries, "entry can not be null");
 
         serviceCache.store(serviceName, entries);
+        if (!entries.isEmpty())
+        {
+            unknownServices.remove(serviceName);
+        }
+    }
+
+    /**
+     * @return the sticky of the queue after the move, the failed one if there is no other valid connection factory
+     */
+    public ConnectionFactoryEntry moveQueueSticky(QueueInfo qinfo, ConnectionFactoryEntry failed)
+    {
+        Objects.requireNonNull(qinfo, "qinfo can not be null");
+        Objects.requireNonNull(failed, "failed can not be null");
+        return queueCache.moveSticky(qinfo, failed);
+    }
+
+    public long getQueueRestickCount()
+    {
+        return queueCache.getRestickCount();
     }
 
     public void store(QueueInfo qinfo, List<ConnectionFactoryEntry> entries)
@@ -59,16 +85,71 @@ public class Cache
         // If the caller would use Arrays.asList, and we just stored the list value -
         // remove would throw UnsupportedOperationException
         queueCache.store(qinfo, entries.stream().collect(Collectors.toList()));
+        if (!entries.isEmpty())
+        {
+            unknownQueues.remove(qinfo.getQueueName());
+        }
     }
 
     public void purgeServices()
     {
         serviceCache.clear();
+        unknownServices.clear();
     }
 
     public void purgeQueues()
     {
         queueCache.clear();
+        unknownQueues.clear();
+    }
+
+    /**
+     * Forgets all services and queues that were previously not found in any connection factory
+     */
+    public void purgeUnknown()
+    {
+        unknownServices.clear();
+        unknownQueues.clear();
+    }
+
+    public boolean isUnknown(String serviceName)
+    {
+        return unknownServices.contains(serviceName);
+    }
+
+    public boolean isUnknown(QueueInfo qinfo)
+    {
+        return unknownQueues.contains(qinfo.getQueueName());
+    }
+
+    public void storeUnknown(String serviceName)
+    {
+        unknownServices.add(serviceName);
+    }
+
+    public void storeUnknown(QueueInfo qinfo)
+    {
+        unknownQueues.add(qinfo.getQueueName());
+    }
+
+    public CacheEviction getServiceCacheEviction()
+    {
+        return serviceCache.getEviction();
+    }
+
+    public CacheEviction getQueueCacheEviction()
+    {
+        return queueCache.getEviction();
+    }
+
+    public NegativeCache getUnknownServices()
+    {
+        return unknownServices;
+    }
+
+    public NegativeCache getUnknownQueues()
+    {
+        return unknownQueues;
     }
 
     public void purge(ConnectionFactoryEntry connectionFactoryEntry)
@@ -83,18 +164,27 @@ public class Cache
         entries.put(CacheType.QUEUE, getQueues());
         return entries;
     }
+    /**
+     * Adds the connection factory to the services and queues found by a domain discovery.
+     * This does not count as an access, so a discovery does not keep otherwise unused entries from being evicted.
+     * With a bounded cache, a service or queue that is no longer cached is left for the next lookup.
+     */
     public void repopulate(DiscoveryReturn discoveryReturn, ConnectionFactoryEntry connectionFactoryEntry)
     {
         discoveryReturn.getServiceDetails().forEach(
                 serviceDetails -> {
-                    ConnectionFactoriesByPriority connectionFactoriesByPriority = get(serviceDetails.getName());
-                    connectionFactoriesByPriority.store(Arrays.asList(serviceDetails), connectionFactoryEntry);
-                    store(serviceDetails.getName(), connectionFactoriesByPriority);
+                    if (serviceCache.repopulate(serviceDetails.getName(), Arrays.asList(serviceDetails), connectionFactoryEntry))
+                    {
+                        unknownServices.remove(serviceDetails.getName());
+                    }
                 });
         discoveryReturn.getQueueDetails().forEach(
-                queueDetails ->
-                        store(QueueInfo.of(queueDetails.getName()), Arrays.asList(connectionFactoryEntry))
-        );
+                queueDetails -> {
+                    if (queueCache.repopulate(QueueInfo.of(queueDetails.getName()), connectionFactoryEntry))
+                    {
+                        unknownQueues.remove(queueDetails.getName());
+                    }
+                });
     }
 
     public List<String> getServices()
@@ -111,4 +201,20 @@ public class Cache
     {
         serviceCache.remove(serviceName);
     }
+
+    /**
+     * @return registry of service lookups in flight, keyed by service name
+     */
+    public InFlightLookups<String, RoutingSnapshot> getServiceLookups()
+    {
+        return serviceLookups;
+    }
+
+    /**
+     * @return registry of queue lookups in flight, keyed by queue name
+     */
+    public InFlightLookups<String, List<ConnectionFactoryEntry>> getQueueLookups()
+    {
+        return queueLookups;
+    }
 }
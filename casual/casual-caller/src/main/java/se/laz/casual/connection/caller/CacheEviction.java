@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Optional size and idle time bound for a cache keyed by name
+ *
+ * Access times are tracked per key, with a coarse resolution so that hot keys are not written on every hit.
+ * When the cache grows above max size roughly the least recently used keys are evicted in one batch, down to 90% of max
+ * size, by whichever thread notices it first. They are picked among a sample of the keys, so that the storing thread
+ * does not have to sort all of them. Keys not used for idle ttl are evicted on access and by a sweep
+ * that runs at most once per idle ttl.
+ *
+ * Max size and idle ttl of 0 means no bound, with both at 0 nothing is tracked.
+ */
+public final class CacheEviction
+{
+    private static final long ACCESS_RESOLUTION_MILLIS = 10;
+    private static final int SAMPLE_FACTOR = 3;
+    private static final int MIN_SAMPLE_SIZE = 32;
+    private final int maxSize;
+    private final long idleTtlMillis;
+    private final LongSupplier clock;
+    private final ConcurrentMap<String, Long> lastAccess = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+    private final LongAdder sizeEvictions = new LongAdder();
+    private final LongAdder idleEvictions = new LongAdder();
+    private volatile long lastSweep;
+
+    private CacheEviction(int maxSize, long idleTtlMillis, LongSupplier clock)
+    {
+        this.maxSize = maxSize;
+        this.idleTtlMillis = idleTtlMillis;
+        this.clock = clock;
+        this.lastSweep = clock.getAsLong();
+    }
+
+    public static CacheEviction of(int maxSize, long idleTtlMillis)
+    {
+        return of(maxSize, idleTtlMillis, System::currentTimeMillis);
+    }
+
+    static CacheEviction of(int maxSize, long idleTtlMillis, LongSupplier clock)
+    {
+        Objects.requireNonNull(clock, "clock can not be null");
+        return new CacheEviction(maxSize, idleTtlMillis, clock);
+    }
+
+    public static CacheEviction unbounded()
+    {
+        return of(0, 0);
+    }
+
+    public boolean isEnabled()
+    {
+        return maxSize > 0 || idleTtlMillis > 0;
+    }
+
+    public void touch(String key)
+    {
+        if (!isEnabled())
+        {
+            return;
+        }
+        long now = clock.getAsLong();
+        Long previous = lastAccess.get(key);
+        if (null == previous || now - previous >= ACCESS_RESOLUTION_MILLIS)
+        {
+            lastAccess.put(key, now);
+        }
+    }
+
+    /**
+     * Checks a single key on access, so that an idle key is never returned even if the sweep has not run yet
+     * @return true if the key has been idle too long, it is then no longer tracked and counted as evicted
+     */
+    public boolean expireIfIdle(String key)
+    {
+        if (idleTtlMillis <= 0)
+        {
+            return false;
+        }
+        Long last = lastAccess.get(key);
+        if (null != last && clock.getAsLong() - last >= idleTtlMillis && lastAccess.remove(key, last))
+        {
+            idleEvictions.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called after adding to the cache, evicts idle keys and the least recently used keys above max size
+     * @param size current size of the cache
+     * @param evictor removes the key from the cache, returns false if it was not there
+     */
+    public void evict(IntSupplier size, Predicate<String> evictor)
+    {
+        if (!isEnabled())
+        {
+            return;
+        }
+        long now = clock.getAsLong();
+        boolean sweepDue = idleTtlMillis > 0 && now - lastSweep >= idleTtlMillis;
+        boolean overSize = maxSize > 0 && size.getAsInt() > maxSize;
+        if (!(sweepDue || overSize) || !evicting.compareAndSet(false, true))
+        {
+            return;
+        }
+        try
+        {
+            if (sweepDue)
+            {
+                lastSweep = now;
+                sweepIdle(now, evictor);
+            }
+            if (maxSize > 0 && size.getAsInt() > maxSize)
+            {
+                evictLeastRecentlyUsed(size.getAsInt() - (maxSize - maxSize / 10), evictor);
+            }
+        }
+        finally
+        {
+            evicting.set(false);
+        }
+    }
+
+    public void remove(String key)
+    {
+        lastAccess.remove(key);
+    }
+
+    public void clear()
+    {
+        lastAccess.clear();
+    }
+
+    // For test
+    int getTrackedCount()
+    {
+        return lastAccess.size();
+    }
+
+    public long getSizeEvictions()
+    {
+        return sizeEvictions.sum();
+    }
+
+    public long getIdleEvictions()
+    {
+        return idleEvictions.sum();
+    }
+
+    private void sweepIdle(long now, Predicate<String> evictor)
+    {
+        for (Map.Entry<String, Long> entry : lastAccess.entrySet())
+        {
+            if (now - entry.getValue() >= idleTtlMillis && lastAccess.remove(entry.getKey(), entry.getValue()) && evictor.test(entry.getKey()))
+            {
+                idleEvictions.increment();
+            }
+        }
+    }
+
+    private void evictLeastRecentlyUsed(int count, Predicate<String> evictor)
+    {
+        List<Map.Entry<String, Long>> byAccess = sample(Math.max(count * SAMPLE_FACTOR, MIN_SAMPLE_SIZE));
+        byAccess.sort(Map.Entry.comparingByValue());
+        int evicted = 0;
+        for (int i = 0; i < byAccess.size() && evicted < count; ++i)
+        {
+            Map.Entry<String, Long> entry = byAccess.get(i);
+            if (lastAccess.remove(entry.getKey(), entry.getValue()) && evictor.test(entry.getKey()))
+            {
+                sizeEvictions.increment();
+                ++evicted;
+            }
+        }
+    }
+
+    /**
+     * The keys are in hash order, unrelated to access, a run starting at a random key is as good as any sample
+     */
+    private List<Map.Entry<String, Long>> sample(int sampleSize)
+    {
+        int tracked = lastAccess.size();
+        if (tracked <= sampleSize)
+        {
+            return new ArrayList<>(lastAccess.entrySet());
+        }
+        int skip = ThreadLocalRandom.current().nextInt(tracked - sampleSize + 1);
+        List<Map.Entry<String, Long>> sampled = new ArrayList<>(sampleSize);
+        Iterator<Map.Entry<String, Long>> entries = lastAccess.entrySet().iterator();
+        for (int i = 0; entries.hasNext() && sampled.size() < sampleSize; ++i)
+        {
+            Map.Entry<String, Long> entry = entries.next();
+            if (i >= skip)
+            {
+                sampled.add(entry);
+            }
+        }
+        return sampled;
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2023, The casual project. All rights reserved.
+ * Copyright (c) 2023 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -40,6 +40,8 @@ public class CacheRepopulator
         {
             Map<CacheType, List<String>> cachedItems = cache.getAll();
             cache.purge(connectionFactoryEntry);
+            // the topology changed, what was unknown may now be known
+            cache.purgeUnknown();
             Optional<DiscoveryReturn> maybeDiscoveryReturn = transactionLess.discover(connectionFactoryEntry, cachedItems);
             maybeDiscoveryReturn.ifPresent(discoveryReturn -> cache.repopulate(discoveryReturn, connectionFactoryEntry));
         }
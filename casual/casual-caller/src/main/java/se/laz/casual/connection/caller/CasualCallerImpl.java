@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2021 - 2023, The casual project. All rights reserved.
+ * Copyright (c) 2021 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -16,6 +16,10 @@ import se.laz.casual.api.queue.MessageSelector;
 import se.laz.casual.api.queue.QueueInfo;
 import se.laz.casual.api.queue.QueueMessage;
 import se.laz.casual.api.service.ServiceDetails;
+import se.laz.casual.connection.caller.bulkhead.Bulkhead;
+import se.laz.casual.connection.caller.bulkhead.Bulkheads;
+import se.laz.casual.connection.caller.metrics.LatencyHistograms;
+import se.laz.casual.connection.caller.metrics.Operation;
 import se.laz.casual.jca.CasualConnection;
 
 import javax.ejb.Remote;
@@ -23,21 +27,32 @@ import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
-import javax.resource.ResourceException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 @Remote(CasualCaller.class)
 @Stateless
 @TransactionAttribute(TransactionAttributeType.SUPPORTS)
 public class CasualCallerImpl implements CasualCaller
 {
+    private static final Logger LOG = Logger.getLogger(CasualCallerImpl.class.getName());
     private TpCaller tpCaller = new TpCallerFailover();
     private ConnectionFactoryLookup lookup;
     private TransactionLess transactionLess;
     private FailedDomainDiscoveryHandler failedDomainDiscoveryHandler;
+    private Bulkheads bulkheads = Bulkheads.getInstance();
+    private LatencyHistograms latencyHistograms = LatencyHistograms.getInstance();
+    private QueueFailover queueFailover = QueueFailover.of();
+    private CurrentTransaction currentTransaction = CurrentTransaction.of();
 
     // NOP constructor needed for WLS
     public CasualCallerImpl()
@@ -60,6 +75,24 @@ public class CasualCallerImpl implements CasualCaller
     public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
     {
         failedDomainDiscoveryHandler.issueDomainDiscoveryAndRepopulateCache();
+        Optional<Bulkhead> bulkhead = bulkheads.get(serviceName);
+        if (!bulkhead.isPresent())
+        {
+            return issueTpcall(serviceName, data, flags);
+        }
+        bulkhead.get().acquire();
+        try
+        {
+            return issueTpcall(serviceName, data, flags);
+        }
+        finally
+        {
+            bulkhead.get().release();
+        }
+    }
+
+    private ServiceReturn<CasualBuffer> issueTpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
         return flags.isSet(AtmiFlags.TPNOTRAN) ? transactionLess.tpcall(() -> tpCaller.tpcall(serviceName, data, flags, lookup)) : tpCaller.tpcall(serviceName, data, flags, lookup);
     }
 
@@ -73,6 +106,42 @@ public class CasualCallerImpl implements CasualCaller
     public CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
     {
         failedDomainDiscoveryHandler.issueDomainDiscoveryAndRepopulateCache();
+        return issueTpacall(serviceName, data, flags, Long.MAX_VALUE);
+    }
+
+    @Override
+    public List<TpcallResult> tpcall(List<TpcallRequest> requests, Duration timeout)
+    {
+        failedDomainDiscoveryHandler.issueDomainDiscoveryAndRepopulateCache();
+        // a call does not wait for its bulkhead past the deadline of the batch
+        return ScatterGather.tpcall(requests, timeout, (request, remainingNanos) -> issueTpacall(request.getServiceName(), request.getData(), request.getFlags(), remainingNanos));
+    }
+
+    private CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> issueTpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, long maxBulkheadWaitNanos)
+    {
+        Optional<Bulkhead> bulkhead = bulkheads.get(serviceName);
+        if (!bulkhead.isPresent())
+        {
+            return doTpacall(serviceName, data, flags);
+        }
+        bulkhead.get().acquire(maxBulkheadWaitNanos);
+        CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> reply;
+        try
+        {
+            reply = doTpacall(serviceName, data, flags);
+        }
+        catch (RuntimeException e)
+        {
+            bulkhead.get().release();
+            throw e;
+        }
+        // the slot is taken until the reply is there
+        reply.whenComplete((result, throwable) -> bulkhead.get().release());
+        return reply;
+    }
+
+    private CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> doTpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags)
+    {
         return flags.isSet(AtmiFlags.TPNOTRAN) ? transactionLess.tpacall(() -> tpCaller.tpacall(serviceName, data, flags, lookup)) : tpCaller.tpacall(serviceName, data, flags, lookup);
     }
 
@@ -98,20 +167,60 @@ public class CasualCallerImpl implements CasualCaller
     public EnqueueReturn enqueue(QueueInfo qinfo, QueueMessage msg)
     {
         failedDomainDiscoveryHandler.issueDomainDiscoveryAndRepopulateCache();
-        Optional<ConnectionFactoryEntry> entry = lookup.get(qinfo);
+        return queueFailover.call(qinfo, lookup,
+                                  (entry, connection) -> recordLatency(Operation.ENQUEUE, qinfo, entry, () -> connection.enqueue(qinfo, msg)),
+                                  () -> EnqueueReturn.createBuilder().withErrorState(ErrorState.TPENOENT).build());
+    }
 
-        if (!entry.isPresent())
-        {
-            return EnqueueReturn.createBuilder().withErrorState(ErrorState.TPENOENT).build();
-        }
+    @Override
+    public List<EnqueueReturn> enqueue(QueueInfo qinfo, List<QueueMessage> messages)
+    {
+        Objects.requireNonNull(messages, "messages can not be null");
+        failedDomainDiscoveryHandler.issueDomainDiscoveryAndRepopulateCache();
+        // one lookup and one connection for the whole batch, instead of one per message
+        return queueFailover.call(qinfo, lookup,
+                                  (entry, connection) -> enqueueAll(qinfo, messages, entry, connection),
+                                  () -> messages.stream()
+                                                .map(message -> EnqueueReturn.createBuilder().withErrorState(ErrorState.TPENOENT).build())
+                                                .collect(Collectors.toList()));
+    }
 
-        try(CasualConnection connection = entry.get().getConnectionFactory().getConnection())
+    private List<EnqueueReturn> enqueueAll(QueueInfo qinfo, List<QueueMessage> messages, ConnectionFactoryEntry entry, CasualConnection connection)
+    {
+        List<EnqueueReturn> replies = new ArrayList<>(messages.size());
+        try
         {
-            return connection.enqueue(qinfo, msg);
+            for (QueueMessage message : messages)
+            {
+                replies.add(recordLatency(Operation.ENQUEUE, qinfo, entry, () -> connection.enqueue(qinfo, message)));
+            }
+            return replies;
         }
-        catch (ResourceException e)
+        catch (RuntimeException e)
         {
-            throw new CasualResourceException(e);
+            if (replies.isEmpty())
+            {
+                // nothing has been enqueued, so the batch can fail over as a whole
+                throw e;
+            }
+            if (QueueFailover.isConnectionFailure(e))
+            {
+                queueFailover.poolFailed(qinfo, lookup, entry);
+            }
+            String failure = "Batch enqueue to " + qinfo.getQueueName() + " failed after " + replies.size() + " of " + messages.size() + " messages";
+            if (!currentTransaction.isTransactionLess())
+            {
+                // the transaction is rolled back, the messages enqueued so far with it
+                throw new CasualResourceException(failure, e);
+            }
+            // the messages enqueued so far stay enqueued, the replies tell the caller which ones they are
+            LOG.warning(() -> failure + ": " + e);
+            EnqueueReturn notEnqueued = EnqueueReturn.createBuilder().withErrorState(ErrorState.TPESYSTEM).build();
+            while (replies.size() < messages.size())
+            {
+                replies.add(notEnqueued);
+            }
+            return replies;
         }
     }
 
@@ -119,20 +228,72 @@ public class CasualCallerImpl implements CasualCaller
     public DequeueReturn dequeue(QueueInfo qinfo, MessageSelector selector)
     {
         failedDomainDiscoveryHandler.issueDomainDiscoveryAndRepopulateCache();
-        Optional<ConnectionFactoryEntry> entry = lookup.get(qinfo);
+        return queueFailover.call(qinfo, lookup,
+                                  (entry, connection) -> recordLatency(Operation.DEQUEUE, qinfo, entry, () -> connection.dequeue(qinfo, selector)),
+                                  () -> DequeueReturn.createBuilder().withErrorState(ErrorState.TPENOENT).build());
+    }
 
-        if (!entry.isPresent())
+    @Override
+    public List<DequeueReturn> dequeue(QueueInfo qinfo, MessageSelector selector, int maxMessages)
+    {
+        if (maxMessages < 1)
         {
-            return DequeueReturn.createBuilder().withErrorState(ErrorState.TPENOENT).build();
+            throw new IllegalArgumentException("maxMessages must be at least 1, maxMessages: " + maxMessages);
         }
+        failedDomainDiscoveryHandler.issueDomainDiscoveryAndRepopulateCache();
+        // one lookup and one connection for the whole batch, instead of one per message
+        return queueFailover.call(qinfo, lookup,
+                                  (entry, connection) -> dequeueAll(qinfo, selector, maxMessages, entry, connection),
+                                  () -> new ArrayList<>(Collections.singletonList(DequeueReturn.createBuilder().withErrorState(ErrorState.TPENOENT).build())));
+    }
 
-        try(CasualConnection connection = entry.get().getConnectionFactory().getConnection())
+    private List<DequeueReturn> dequeueAll(QueueInfo qinfo, MessageSelector selector, int maxMessages, ConnectionFactoryEntry entry, CasualConnection connection)
+    {
+        List<DequeueReturn> replies = new ArrayList<>();
+        try
+        {
+            boolean more = true;
+            while (more && replies.size() < maxMessages)
+            {
+                DequeueReturn reply = recordLatency(Operation.DEQUEUE, qinfo, entry, () -> connection.dequeue(qinfo, selector));
+                more = reply.getErrorState() == ErrorState.OK && reply.getQueueMessage().isPresent();
+                if (more || reply.getErrorState() != ErrorState.OK)
+                {
+                    replies.add(reply);
+                }
+            }
+            return replies;
+        }
+        catch (RuntimeException e)
+        {
+            if (replies.isEmpty())
+            {
+                // nothing has been dequeued, so the batch can fail over as a whole
+                throw e;
+            }
+            if (QueueFailover.isConnectionFailure(e))
+            {
+                queueFailover.poolFailed(qinfo, lookup, entry);
+            }
+            // messages already dequeued are no longer in the queue, throwing would lose them
+            LOG.warning(() -> "dequeue from " + qinfo.getQueueName() + " failed after " + replies.size() + " messages, returning those: " + e);
+            return replies;
+        }
+    }
+
+    private <T> T recordLatency(Operation operation, QueueInfo qinfo, ConnectionFactoryEntry entry, Supplier<T> call)
+    {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try
         {
-            return connection.dequeue(qinfo, selector);
+            T result = call.get();
+            failed = false;
+            return result;
         }
-        catch (ResourceException e)
+        finally
         {
-            throw new CasualResourceException(e);
+            latencyHistograms.record(operation, qinfo.getQueueName(), entry.getJndiName(), System.nanoTime() - start, failed);
         }
     }
 
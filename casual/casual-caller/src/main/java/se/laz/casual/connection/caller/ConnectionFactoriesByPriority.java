@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2021, The casual project. All rights reserved.
+ * Copyright (c) 2021 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -8,9 +8,9 @@ package se.laz.casual.connection.caller;
 
 import se.laz.casual.api.service.ServiceDetails;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -21,6 +21,10 @@ public class ConnectionFactoriesByPriority
 {
     private final PrioritizedCollection<ConnectionFactoryEntry> prioritizedEntries = new PrioritizedCollection<>();
     private final Set<String> checkedConnectionFactories = ConcurrentHashMap.newKeySet();
+    // note:
+    // All reads on the call path go through the snapshot, it is rebuilt after each change while holding the monitor
+    // thus the last change made is always reflected by the last snapshot published
+    private volatile RoutingSnapshot snapshot = RoutingSnapshot.empty();
 
     private ConnectionFactoriesByPriority()
     {
@@ -39,13 +43,21 @@ public class ConnectionFactoriesByPriority
 
     public boolean isEmpty()
     {
-        return prioritizedEntries.isEmpty();
+        return snapshot.isEmpty();
     }
 
-    public void addResolvedFactories(Collection<String> resolvedNames)
+    public RoutingSnapshot getSnapshot()
+    {
+        return snapshot;
+    }
+
+    public synchronized void addResolvedFactories(Collection<String> resolvedNames)
     {
         Objects.requireNonNull(resolvedNames, "resolvedNames can not be null");
-        checkedConnectionFactories.addAll(resolvedNames);
+        if (checkedConnectionFactories.addAll(resolvedNames))
+        {
+            rebuildSnapshot();
+        }
     }
 
     public boolean containsCheckedConnectionFactories()
@@ -58,7 +70,7 @@ public class ConnectionFactoriesByPriority
         return Collections.unmodifiableSet(checkedConnectionFactories);
     }
 
-    public void store(List<ServiceDetails> serviceDetails, ConnectionFactoryEntry entry)
+    public synchronized void store(List<ServiceDetails> serviceDetails, ConnectionFactoryEntry entry)
     {
         Objects.requireNonNull(serviceDetails, "serviceDetails can not be null");
         Objects.requireNonNull(entry, "ConnectionFactoryEntry can not be null");
@@ -71,13 +83,26 @@ public class ConnectionFactoriesByPriority
                         Long priority = discoveryDetails.getHops();
                         prioritizedEntries.add(priority, entry);
                     });
+            rebuildSnapshot();
         }
     }
-    public void store(Long priority, List<ConnectionFactoryEntry> entries)
+    public synchronized void store(Long priority, List<ConnectionFactoryEntry> entries)
     {
         Objects.requireNonNull(priority, "priority can not be null");
         Objects.requireNonNull(entries, "entries can not be null");
         prioritizedEntries.add(priority, entries);
+        rebuildSnapshot();
+    }
+
+    /**
+     * @return jndi names of all connection factories this refers to, either as holding the service or as checked
+     */
+    public Set<String> getConnectionFactoryNames()
+    {
+        Set<String> names = new HashSet<>(checkedConnectionFactories);
+        prioritizedEntries.getPriorities()
+                          .forEach(priority -> prioritizedEntries.get(priority).forEach(entry -> names.add(entry.getJndiName())));
+        return names;
     }
 
     public boolean isResolved(String entryName)
@@ -86,24 +111,19 @@ public class ConnectionFactoriesByPriority
         return checkedConnectionFactories.contains(entryName);
     }
 
-    public void setResolved(String entryName)
+    public synchronized void setResolved(String entryName)
     {
         Objects.requireNonNull(entryName, "entryName can not be null");
-        checkedConnectionFactories.add(entryName);
+        if (checkedConnectionFactories.add(entryName))
+        {
+            rebuildSnapshot();
+        }
     }
 
     public boolean hasCheckedAllValid(List<ConnectionFactoryEntry> entries)
     {
         Objects.requireNonNull(entries, "entries can not be null");
-        for (ConnectionFactoryEntry entry : entries)
-        {
-            if (!checkedConnectionFactories.contains(entry.getJndiName()) && entry.isValid())
-            {
-                return false;
-            }
-        }
-
-        return true;
+        return snapshot.hasCheckedAllValid(entries);
     }
 
     /**
@@ -114,27 +134,7 @@ public class ConnectionFactoriesByPriority
      */
     public List<ConnectionFactoryEntry> randomizeWithPriority()
     {
-        List<ConnectionFactoryEntry> entriesRandomOrderByPriority = new ArrayList<>();
-
-        List<Long> orderedKeys = getOrderedKeys();
-        for (Long priority : orderedKeys)
-        {
-            List<ConnectionFactoryEntry> factoriesForPriority = getForPriority(priority);
-            Collections.shuffle(factoriesForPriority);
-
-            for (ConnectionFactoryEntry cfe : factoriesForPriority)
-            {
-                // note:
-                // this null check is needed since another thread may have called remove
-                // after this method called getOrderedKeys
-                // in that case getForPriority will return an ArrayList with a null element
-                if (null != cfe && !entriesRandomOrderByPriority.contains(cfe))
-                {
-                    entriesRandomOrderByPriority.add(cfe);
-                }
-            }
-        }
-        return entriesRandomOrderByPriority;
+        return snapshot.randomizeWithPriority();
     }
 
     public static ConnectionFactoriesByPriority of(Map<Long, List<ConnectionFactoryEntry>> entries, Collection<String> resolved)
@@ -168,11 +168,17 @@ public class ConnectionFactoriesByPriority
         return new ConnectionFactoriesByPriority();
     }
 
-    public void remove(ConnectionFactoryEntry connectionFactoryEntry)
+    public synchronized void remove(ConnectionFactoryEntry connectionFactoryEntry)
     {
         Objects.requireNonNull(connectionFactoryEntry, "connectionFactoryEntry can not be null");
         checkedConnectionFactories.remove(connectionFactoryEntry.getJndiName());
         prioritizedEntries.remove(connectionFactoryEntry);
+        rebuildSnapshot();
+    }
+
+    private void rebuildSnapshot()
+    {
+        snapshot = RoutingSnapshot.of(prioritizedEntries, checkedConnectionFactories);
     }
 
 }
@@ -1,16 +1,22 @@
 /*
- * Copyright (c) 2021, The casual project. All rights reserved.
+ * Copyright (c) 2021 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
 package se.laz.casual.connection.caller;
 
+import se.laz.casual.connection.caller.circuitbreaker.CircuitBreaker;
+import se.laz.casual.connection.caller.circuitbreaker.CircuitBreakerState;
+import se.laz.casual.connection.caller.concurrencylimit.ConcurrencyLimit;
+import se.laz.casual.connection.caller.config.Configuration;
+import se.laz.casual.connection.caller.config.ConfigurationService;
 import se.laz.casual.jca.CasualConnection;
 import se.laz.casual.jca.CasualConnectionFactory;
 
 import javax.resource.ResourceException;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,22 +25,43 @@ public class ConnectionFactoryEntry
     private static final Logger LOG = Logger.getLogger(ConnectionFactoryEntry.class.getName());
     private final ConnectionFactoryProducer connectionFactoryProducer;
     private final AtomicBoolean needsDomainDiscovery = new AtomicBoolean(false);
+    private final AtomicInteger outstandingRequests = new AtomicInteger(0);
+    private final AtomicBoolean reestablishPending = new AtomicBoolean(false);
 
     /**
-     * Connection factory entries should invalidate on connection errors and revalidate as soon as a new valid
-     * connection can be established.
+     * Connection factory entries open their circuit on connection errors and close it again either by successful
+     * probe calls or as soon as the validation timer can establish a new connection.
      */
-    private boolean valid = true;
+    private final CircuitBreaker circuitBreaker;
+    private final ConcurrencyLimit concurrencyLimit;
 
-    private ConnectionFactoryEntry(ConnectionFactoryProducer connectionFactoryProducer)
+    private ConnectionFactoryEntry(ConnectionFactoryProducer connectionFactoryProducer, CircuitBreaker circuitBreaker, ConcurrencyLimit concurrencyLimit)
     {
         this.connectionFactoryProducer = connectionFactoryProducer;
+        this.circuitBreaker = circuitBreaker;
+        this.concurrencyLimit = concurrencyLimit;
     }
 
     public static ConnectionFactoryEntry of(ConnectionFactoryProducer connectionFactoryProducer)
+    {
+        Configuration configuration = ConfigurationService.getInstance().getConfiguration();
+        return of(connectionFactoryProducer, CircuitBreaker.of(configuration.getCircuitBreakerFailureThreshold(),
+                                                               configuration.getCircuitBreakerWindowMillis(),
+                                                               configuration.getCircuitBreakerOpenDurationMillis(),
+                                                               configuration.getCircuitBreakerHalfOpenProbes()));
+    }
+
+    public static ConnectionFactoryEntry of(ConnectionFactoryProducer connectionFactoryProducer, CircuitBreaker circuitBreaker)
+    {
+        return of(connectionFactoryProducer, circuitBreaker, ConcurrencyLimit.fromConfiguration());
+    }
+
+    public static ConnectionFactoryEntry of(ConnectionFactoryProducer connectionFactoryProducer, CircuitBreaker circuitBreaker, ConcurrencyLimit concurrencyLimit)
     {
         Objects.requireNonNull(connectionFactoryProducer, "CasualConnectionFactoryProducer can not be null");
-        return new ConnectionFactoryEntry(connectionFactoryProducer);
+        Objects.requireNonNull(circuitBreaker, "circuitBreaker can not be null");
+        Objects.requireNonNull(concurrencyLimit, "concurrencyLimit can not be null");
+        return new ConnectionFactoryEntry(connectionFactoryProducer, circuitBreaker, concurrencyLimit);
     }
 
     public String getJndiName()
@@ -47,22 +74,105 @@ public class ConnectionFactoryEntry
         return connectionFactoryProducer.getConnectionFactory();
     }
 
+    /**
+     * Drops the cached connection factory without affecting the validity of the entry
+     */
+    public void invalidateConnectionFactory()
+    {
+        connectionFactoryProducer.invalidate();
+    }
+
+    /**
+     * @return true unless the circuit is open
+     */
     public boolean isValid()
     {
-        return valid;
+        return circuitBreaker.allowsCalls();
     }
 
     public boolean isInvalid()
     {
-        return !valid;
+        return !isValid();
+    }
+
+    /**
+     * Has to be called before issuing a call through this entry
+     * @return false if the circuit is half open and all probe calls are already taken
+     */
+    public boolean tryAcquirePermission()
+    {
+        return circuitBreaker.tryAcquirePermission();
     }
 
+    /**
+     * Has to be called before {@link #tryAcquirePermission()}, a permit has to be released once the call is done
+     * @return false if the entry is at its concurrency limit
+     */
+    public boolean tryAcquireConcurrencyPermit()
+    {
+        return concurrencyLimit.tryAcquire();
+    }
+
+    /**
+     * Releases the permit of a call that was never issued
+     */
+    public void releaseConcurrencyPermit()
+    {
+        concurrencyLimit.release();
+    }
+
+    /**
+     * Releases the permit of a finished call, the outcome adjusts the concurrency limit
+     */
+    public void releaseConcurrencyPermit(String serviceName, long rttNanos, boolean failed)
+    {
+        concurrencyLimit.release(serviceName, rttNanos, failed);
+    }
+
+    public ConcurrencyLimit getConcurrencyLimit()
+    {
+        return concurrencyLimit;
+    }
+
+    public void callSucceeded()
+    {
+        circuitBreaker.recordSuccess();
+    }
+
+    /**
+     * Records a failure, the circuit opens once the configured number of failures is reached within the window
+     */
     public void invalidate()
     {
-        valid = false;
+        if(circuitBreaker.recordFailure())
+        {
+            reestablishPending.set(true);
+            LOG.finest(() -> "Opened circuit for CasualConnection with jndiName=" + connectionFactoryProducer.getJndiName());
+        }
+        // the connection factory may have been redeployed, make sure we look it up again
+        connectionFactoryProducer.invalidate();
         LOG.finest(() -> "Invalidated CasualConnection with jndiName=" + connectionFactoryProducer.getJndiName());
     }
 
+    /**
+     * The circuit may close through a successful probe call before the validation timer sees it as invalid
+     * @return true, once, if the circuit has been opened since the last time this was called
+     */
+    public boolean clearReestablishPending()
+    {
+        return reestablishPending.getAndSet(false);
+    }
+
+    public CircuitBreakerState getCircuitBreakerState()
+    {
+        return circuitBreaker.getState();
+    }
+
+    public CircuitBreaker getCircuitBreaker()
+    {
+        return circuitBreaker;
+    }
+
     //Note: due to try with resources usage where we never use the resource
     @SuppressWarnings("try")
     public void validate()
@@ -70,13 +180,18 @@ public class ConnectionFactoryEntry
         try(CasualConnection con = getConnectionFactory().getConnection())
         {
             // We just want to check that a connection could be established to check connectivity
-            valid = true;
+            // an open circuit lets probe calls through, whether calls succeed is up to them
+            circuitBreaker.halfOpen();
             LOG.finest(() -> "Successfully validated CasualConnection with jndiName=" + connectionFactoryProducer.getJndiName());
         }
         catch (ResourceException e)
         {
-            // Failure to connect during validation should automatically invalidate ConnectionFactoryEntry
-            valid = false;
+            // Failure to connect during validation should automatically open the circuit
+            if(circuitBreaker.trip())
+            {
+                reestablishPending.set(true);
+            }
+            connectionFactoryProducer.invalidate();
             LOG.log(Level.WARNING, e, ()->"Failed validation of CasualConnection with jndiName=" + connectionFactoryProducer.getJndiName() + ", received error: " + e.getMessage());
         }
     }
@@ -107,13 +222,36 @@ public class ConnectionFactoryEntry
     {
         return "ConnectionFactoryEntry{" +
                 "connectionFactoryProducer=" + connectionFactoryProducer +
-                ", valid=" + valid +
+                ", circuitBreaker=" + circuitBreaker +
+                ", concurrencyLimit=" + concurrencyLimit +
                 '}';
     }
 
+    /**
+     * @return number of calls currently in flight through this entry, used for load balancing
+     */
+    public int getOutstandingRequests()
+    {
+        return outstandingRequests.get();
+    }
+
+    public void requestStarted()
+    {
+        outstandingRequests.incrementAndGet();
+    }
+
+    public void requestFinished()
+    {
+        outstandingRequests.decrementAndGet();
+    }
+
     public void setNeedsDomainDiscovery(boolean value)
     {
         needsDomainDiscovery.set(value);
+        if (value)
+        {
+            DomainDiscoveryPending.raise();
+        }
     }
 
     public boolean getNeedsDomainDiscovery()
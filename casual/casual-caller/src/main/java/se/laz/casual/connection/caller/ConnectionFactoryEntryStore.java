@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2017 - 2023, The casual project. All rights reserved.
+ * Copyright (c) 2017 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -25,7 +25,7 @@ public class ConnectionFactoryEntryStore implements ConnectionObserver
     private static final Logger LOG = Logger.getLogger(ConnectionFactoryEntryStore.class.getName());
     private final ConnectionFactoryFinder connectionFactoryFinder;
     private final TopologyChangedHandler topologyChangedHandler;
-    private List<ConnectionFactoryEntry> connectionFactories;
+    private volatile List<ConnectionFactoryEntry> connectionFactories;
     private ConnectionObserverHandler connectionObserverHandler;
 
     public ConnectionFactoryEntryStore()
@@ -52,13 +52,14 @@ public class ConnectionFactoryEntryStore implements ConnectionObserver
                 LOG.warning(() -> "could not find any connection factories, casual-caller will not work. Will retry on next access.\n Either your configuration is wrong or the entries do not yet exist in the JNDI-tree just yet.");
             }
         }
-        return Collections.unmodifiableList(connectionFactories);
+        return connectionFactories;
     }
 
     @PostConstruct
     public synchronized void initialize()
     {
-        connectionFactories = connectionFactoryFinder.findConnectionFactory(getJndiRoot());
+        // note: wrapped once here rather than on every get since get is on the call path
+        connectionFactories = Collections.unmodifiableList(connectionFactoryFinder.findConnectionFactory(getJndiRoot()));
         topologyChangedHandler.setSupplier(this::get);
         connectionFactories.forEach(this::addConnectionObserver);
     }
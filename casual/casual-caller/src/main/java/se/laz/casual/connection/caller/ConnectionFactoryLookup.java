@@ -34,6 +34,15 @@ public interface ConnectionFactoryLookup extends ServiceCacheMutator
      */
     Optional<ConnectionFactoryEntry> get(QueueInfo qinfo);
 
+    /**
+     * Moves the sticky of a queue off a connection factory that failed.
+     *
+     * @param qinfo the queue
+     * @param failed the entry that failed
+     * @return the entry to use for the queue from now on, the failed one if there is no other valid one
+     */
+    ConnectionFactoryEntry moveQueueSticky(QueueInfo qinfo, ConnectionFactoryEntry failed);
+
 
     /**
      * Lookup cache entry for a service.
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2017 - 2021, The casual project. All rights reserved.
+ * Copyright (c) 2017 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -7,24 +7,38 @@
 package se.laz.casual.connection.caller;
 
 import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.connection.caller.config.ConfigurationService;
+import se.laz.casual.connection.caller.loadbalancer.LoadBalancer;
 
 import javax.inject.Inject;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class ConnectionFactoryLookupService implements ConnectionFactoryLookup
 {
-    @Inject
     private ConnectionFactoryEntryStore connectionFactoryProvider;
-    @Inject
     private Cache cache;
-    @Inject
     private Lookup lookup;
-    @Inject
     TransactionLess transactionLess;
+    private final LoadBalancer loadBalancer = ConfigurationService.getInstance().getConfiguration().getLoadBalancer().getLoadBalancer();
+
+    // WLS - no arg constructor
+    public ConnectionFactoryLookupService()
+    {}
+
+    @Inject
+    public ConnectionFactoryLookupService(ConnectionFactoryEntryStore connectionFactoryProvider, Cache cache, Lookup lookup, TransactionLess transactionLess)
+    {
+        this.connectionFactoryProvider = connectionFactoryProvider;
+        this.cache = cache;
+        this.lookup = lookup;
+        this.transactionLess = transactionLess;
+    }
+
     @Override
     public Optional<ConnectionFactoryEntry> get(QueueInfo qinfo)
     {
@@ -34,11 +48,12 @@ public class ConnectionFactoryLookupService implements ConnectionFactoryLookup
         {
             return cachedEntry;
         }
-        List<ConnectionFactoryEntry> newEntries = lookup.find(qinfo, connectionFactoryProvider.get(), transactionLess);
-        if (!newEntries.isEmpty())
+        if (cache.isUnknown(qinfo))
         {
-            cache.store(qinfo, newEntries);
+            return Optional.empty();
         }
+        // concurrent misses for the same queue share one lookup
+        cache.getQueueLookups().execute(qinfo.getQueueName(), () -> discover(qinfo));
         return cache.getSingle(qinfo); // May be something or empty depending on if
     }
 
@@ -47,28 +62,74 @@ public class ConnectionFactoryLookupService implements ConnectionFactoryLookup
     {
         Objects.requireNonNull(serviceName, "serviceName can not be null");
         List<ConnectionFactoryEntry> possibleConnectionFactories = connectionFactoryProvider.get();
-        ConnectionFactoriesByPriority cachedEntries = cache.get(serviceName);
+        // note: one snapshot for the whole decision, it is immutable so it can not change underneath us
+        RoutingSnapshot cachedEntries = cache.get(serviceName).getSnapshot();
         if (!cachedEntries.isEmpty() && cachedEntries.hasCheckedAllValid(possibleConnectionFactories))
         {
             // Using cached entries and no further discovery is appropriate
-            return cachedEntries.randomizeWithPriority();
+            return cachedEntries.orderWithPriority(serviceName, loadBalancer);
+        }
+
+        if (cachedEntries.isEmpty() && cache.isUnknown(serviceName))
+        {
+            return Collections.emptyList();
+        }
+        // concurrent misses for the same service share one lookup, everyone orders the result on their own
+        RoutingSnapshot entries = cache.getServiceLookups().execute(serviceName, () -> discover(serviceName, possibleConnectionFactories, cachedEntries));
+        return entries.isEmpty() ? Collections.emptyList() : entries.orderWithPriority(serviceName, loadBalancer);
+    }
+
+    private List<ConnectionFactoryEntry> discover(QueueInfo qinfo)
+    {
+        List<ConnectionFactoryEntry> possibleConnectionFactories = connectionFactoryProvider.get();
+        List<ConnectionFactoryEntry> newEntries = lookup.find(qinfo, possibleConnectionFactories, transactionLess);
+        if (!newEntries.isEmpty())
+        {
+            cache.store(qinfo, newEntries);
         }
+        else if (possibleConnectionFactories.stream().allMatch(ConnectionFactoryEntry::isValid))
+        {
+            // only remember it as unknown when no connection factory is known to be having problems
+            cache.storeUnknown(qinfo);
+        }
+        return newEntries;
+    }
 
+    private RoutingSnapshot discover(String serviceName, List<ConnectionFactoryEntry> possibleConnectionFactories, RoutingSnapshot cachedEntries)
+    {
         // Services by lookup. Only lookup against previously unresolved connection factories.
-        ConnectionFactoriesByPriority newEntries = lookup.find(serviceName, possibleConnectionFactories
+        List<ConnectionFactoryEntry> unresolved = possibleConnectionFactories
                 .stream()
-                .filter(entry -> !cache.get(serviceName).isResolved(entry.getJndiName()))
-                .collect(Collectors.toList()), transactionLess);
+                .filter(entry -> !cachedEntries.isResolved(entry.getJndiName()))
+                .collect(Collectors.toList());
+        ConnectionFactoriesByPriority newEntries = lookup.find(serviceName, unresolved, transactionLess);
+        if (cachedEntries.isEmpty() && newEntries.isEmpty() && answeredByAll(newEntries, unresolved))
+        {
+            cache.storeUnknown(serviceName);
+        }
         if (!newEntries.isEmpty() || newEntries.containsCheckedConnectionFactories())
         {
             cache.store(serviceName, newEntries);
-            return cache.get(serviceName).randomizeWithPriority();
+            return cache.get(serviceName).getSnapshot();
         }
 
         // If we only have a bunch of invalid connection-factories to report it should be done so,
         // because a different error may be reported depending on if the service has no known backend
         // or if none of the known backends are available
-        return cachedEntries.isEmpty() ? Collections.emptyList() : cachedEntries.randomizeWithPriority();
+        return cachedEntries;
+    }
+
+    private static boolean answeredByAll(ConnectionFactoriesByPriority newEntries, List<ConnectionFactoryEntry> asked)
+    {
+        // a connection factory that failed or timed out may know about the service, so then it is not unknown
+        Set<String> answered = newEntries.getCheckedFactoriesForService();
+        return asked.stream().allMatch(entry -> answered.contains(entry.getJndiName()));
+    }
+
+    @Override
+    public ConnectionFactoryEntry moveQueueSticky(QueueInfo qinfo, ConnectionFactoryEntry failed)
+    {
+        return cache.moveQueueSticky(qinfo, failed);
     }
 
     @Override
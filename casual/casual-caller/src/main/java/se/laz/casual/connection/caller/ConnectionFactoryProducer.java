@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2022, The casual project. All rights reserved.
+ * Copyright (c) 2022 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -11,11 +11,20 @@ import se.laz.casual.jca.CasualConnectionFactory;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
 
 public class ConnectionFactoryProducer
 {
+    private static final Logger LOG = Logger.getLogger(ConnectionFactoryProducer.class.getName());
 
     private final String jndiName;
+    // note:
+    // The resolved factory is kept so that we do not have to go through JNDI on every call
+    // It is dropped via invalidate whenever there is reason to believe that it is no longer usable
+    // invalidate always sets a new Resolved, so a lookup that started before it can not write the old factory back
+    private final AtomicReference<Resolved> resolved = new AtomicReference<>(new Resolved(null));
+
     private ConnectionFactoryProducer(String jndiName)
     {
         this.jndiName = jndiName;
@@ -33,6 +42,29 @@ public class ConnectionFactoryProducer
     }
 
     public CasualConnectionFactory getConnectionFactory()
+    {
+        Resolved cached = resolved.get();
+        if(null != cached.connectionFactory)
+        {
+            return cached.connectionFactory;
+        }
+        // note:
+        // Two threads may race here and both do the lookup, that is fine since they will get the same instance
+        CasualConnectionFactory connectionFactory = lookup();
+        resolved.compareAndSet(cached, new Resolved(connectionFactory));
+        return connectionFactory;
+    }
+
+    /**
+     * Drop the resolved connection factory, the next call to {@link #getConnectionFactory()} will do a new JNDI lookup
+     */
+    public void invalidate()
+    {
+        resolved.set(new Resolved(null));
+        LOG.finest(() -> "Invalidated cached CasualConnectionFactory with jndiName=" + jndiName);
+    }
+
+    private CasualConnectionFactory lookup()
     {
         try
         {
@@ -45,6 +77,16 @@ public class ConnectionFactoryProducer
         }
     }
 
+    private static final class Resolved
+    {
+        private final CasualConnectionFactory connectionFactory;
+
+        private Resolved(CasualConnectionFactory connectionFactory)
+        {
+            this.connectionFactory = connectionFactory;
+        }
+    }
+
     @Override
     public boolean equals(Object o)
     {
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2023 The casual project. All rights reserved.
+ * Copyright (c) 2023 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -47,16 +47,18 @@ public class ConnectionValidator
     {
         boolean invalidBeforeValidation = !connectionFactoryEntry.isValid();
         connectionFactoryEntry.validate();
-        if(connectionReestablished(invalidBeforeValidation, connectionFactoryEntry.isValid()))
+        if(connectionFactoryEntry.isValid() && connectionReestablished(invalidBeforeValidation, connectionFactoryEntry))
         {
             repopulator.repopulate(connectionFactoryEntry);
             connectionFactoryEntryStore.addConnectionObserver(connectionFactoryEntry);
         }
     }
 
-    private boolean connectionReestablished(boolean invalidBeforeRevalidation, boolean valid)
+    private boolean connectionReestablished(boolean invalidBeforeRevalidation, ConnectionFactoryEntry connectionFactoryEntry)
     {
-        return invalidBeforeRevalidation && valid;
+        // always clear, a probe call may have closed the circuit since it was opened
+        boolean reestablishPending = connectionFactoryEntry.clearReestablishPending();
+        return invalidBeforeRevalidation || reestablishPending;
     }
 
 }
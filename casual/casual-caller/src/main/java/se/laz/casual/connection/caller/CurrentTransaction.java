@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Tells whether the calling thread is within a transaction, through the TransactionSynchronizationRegistry
+ *
+ * If the registry can not be found it is not known, and the caller is taken to be within a transaction. A failed lookup
+ * is tried again after a backoff, see {@link JndiResource}, so a registry that is bound later is picked up then.
+ */
+public final class CurrentTransaction
+{
+    private final JndiResource<TransactionSynchronizationRegistry> transactionSynchronizationRegistry;
+
+    private CurrentTransaction(JndiResource<TransactionSynchronizationRegistry> transactionSynchronizationRegistry)
+    {
+        this.transactionSynchronizationRegistry = transactionSynchronizationRegistry;
+    }
+
+    public static CurrentTransaction of()
+    {
+        return new CurrentTransaction(JndiResource.transactionSynchronizationRegistry("calls are taken to be within a transaction"));
+    }
+
+    // For test
+    static CurrentTransaction of(TransactionSynchronizationRegistry transactionSynchronizationRegistry)
+    {
+        return new CurrentTransaction(JndiResource.resolved(transactionSynchronizationRegistry));
+    }
+
+    // For test
+    static CurrentTransaction of(JndiResource<TransactionSynchronizationRegistry> transactionSynchronizationRegistry)
+    {
+        return new CurrentTransaction(transactionSynchronizationRegistry);
+    }
+
+    /**
+     * @return true only if it is known that there is no transaction
+     */
+    public boolean isTransactionLess()
+    {
+        return transactionSynchronizationRegistry.get()
+                                                 .map(registry -> null == registry.getTransactionKey())
+                                                 .orElse(false);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+/**
+ * Raised when any connection factory entry is marked as needing a domain discovery
+ *
+ * Checked before every call, so that when nothing is pending the check is one volatile read instead of going through
+ * all the entries. It is raised after the entry is marked and lowered before the entries are gone through, so a
+ * discovery marked meanwhile is at worst picked up one call later, never lost.
+ */
+final class DomainDiscoveryPending
+{
+    private static volatile boolean raised;
+
+    private DomainDiscoveryPending()
+    {}
+
+    static void raise()
+    {
+        raised = true;
+    }
+
+    static boolean isRaised()
+    {
+        return raised;
+    }
+
+    static void lower()
+    {
+        raised = false;
+    }
+}
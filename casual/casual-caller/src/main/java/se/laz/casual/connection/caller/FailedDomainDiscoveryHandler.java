@@ -1,37 +1,93 @@
 /*
- * Copyright (c) 2023, The casual project. All rights reserved.
+ * Copyright (c) 2023 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
 package se.laz.casual.connection.caller;
 
+import se.laz.casual.connection.caller.config.ConfigurationService;
+
 import javax.inject.Inject;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
 
 /*
  * Handles the domain discoveries that could not be carried out due to not being able to be scheduled
  * This is something that should rarely happen
+ *
+ * Called before every call, so when nothing is pending it only reads one volatile flag, see DomainDiscoveryPending.
+ * Pending discoveries are run on the configured executor so that the call does not wait for them. If the executor
+ * can not be found, or rejects them, they are run on the caller thread.
  */
 public class FailedDomainDiscoveryHandler
 {
+    private static final Logger LOG = Logger.getLogger(FailedDomainDiscoveryHandler.class.getName());
     private CacheRepopulator cacheRepopulator;
     private ConnectionFactoryEntryStore connectionFactoryProvider;
+    // the executor is only looked up on the first pending discovery, the resource is safe to share between threads
+    private final JndiResource<Executor> executor;
 
     // wls NOP-constructor
     public FailedDomainDiscoveryHandler()
-    {}
+    {
+        this.executor = discoveryExecutor();
+    }
 
     @Inject
     public FailedDomainDiscoveryHandler(CacheRepopulator cacheRepopulator, ConnectionFactoryEntryStore connectionFactoryProvider)
+    {
+        this(cacheRepopulator, connectionFactoryProvider, discoveryExecutor());
+    }
+
+    private FailedDomainDiscoveryHandler(CacheRepopulator cacheRepopulator, ConnectionFactoryEntryStore connectionFactoryProvider, JndiResource<Executor> executor)
     {
         this.cacheRepopulator = cacheRepopulator;
         this.connectionFactoryProvider = connectionFactoryProvider;
+        this.executor = executor;
+    }
+
+    // For test
+    static FailedDomainDiscoveryHandler of(CacheRepopulator cacheRepopulator, ConnectionFactoryEntryStore connectionFactoryProvider, Executor executor)
+    {
+        return new FailedDomainDiscoveryHandler(cacheRepopulator, connectionFactoryProvider, JndiResource.resolved(executor));
+    }
+
+    private static JndiResource<Executor> discoveryExecutor()
+    {
+        return JndiResource.of(ConfigurationService.getInstance().getConfiguration().getDiscoveryExecutorJndiName(),
+                               "domain discoveries will be issued on the caller thread");
     }
 
     public void issueDomainDiscoveryAndRepopulateCache()
     {
+        if (!DomainDiscoveryPending.isRaised())
+        {
+            return;
+        }
+        DomainDiscoveryPending.lower();
         connectionFactoryProvider.get().stream()
                                  .filter(ConnectionFactoryEntry::getNeedsDomainDiscovery)
-                                 .forEach(cacheRepopulator::repopulate);
+                                 .forEach(this::repopulate);
+    }
+
+    private void repopulate(ConnectionFactoryEntry connectionFactoryEntry)
+    {
+        Optional<Executor> maybeExecutor = executor.get();
+        if (maybeExecutor.isPresent())
+        {
+            try
+            {
+                maybeExecutor.get().execute(() -> cacheRepopulator.repopulate(connectionFactoryEntry));
+                return;
+            }
+            catch (RejectedExecutionException e)
+            {
+                LOG.warning(() -> "Domain discovery for " + connectionFactoryEntry.getJndiName() + " was rejected by the executor, issuing it on the caller thread: " + e);
+            }
+        }
+        cacheRepopulator.repopulate(connectionFactoryEntry);
     }
 
 }
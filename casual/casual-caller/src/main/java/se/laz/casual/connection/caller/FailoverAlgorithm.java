@@ -9,17 +9,34 @@ package se.laz.casual.connection.caller;
 import se.laz.casual.api.buffer.CasualBuffer;
 import se.laz.casual.api.buffer.ServiceReturn;
 import se.laz.casual.api.flags.ErrorState;
+import se.laz.casual.connection.caller.config.ConfigurationService;
+import se.laz.casual.connection.caller.execution.ExecutionIdGenerator;
 import se.laz.casual.connection.caller.functions.FunctionNoArg;
 import se.laz.casual.connection.caller.functions.FunctionThrowsResourceException;
+import se.laz.casual.connection.caller.hedging.HedgeBudget;
+import se.laz.casual.connection.caller.loadbalancer.LatencyScores;
+import se.laz.casual.connection.caller.loadbalancer.LoadBalancerType;
+import se.laz.casual.connection.caller.metrics.LatencyHistograms;
+import se.laz.casual.connection.caller.metrics.Operation;
 import se.laz.casual.jca.CasualConnection;
 import se.laz.casual.network.connection.CasualConnectionException;
 import se.laz.casual.network.connection.DomainDisconnectedException;
 
 import javax.resource.ResourceException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -27,6 +44,26 @@ public class FailoverAlgorithm
 {
     private static final Logger LOG = Logger.getLogger(FailoverAlgorithm.class.getName());
     private static final String ALL_FAIL_MESSAGE = "Received a set of ConnectionFactoryEntries, but not one was valid for service ";
+    private final ExecutionIdGenerator executionIdGenerator = ConfigurationService.getInstance().getConfiguration().getExecutionIdGenerator().getExecutionIdGenerator();
+    // null unless the latency scores are used, only the EWMA load balancer does
+    private final LatencyScores latencyScores;
+    private final LatencyHistograms latencyHistograms;
+
+    public FailoverAlgorithm()
+    {
+        this(ConfigurationService.getInstance().getConfiguration().getLoadBalancer() == LoadBalancerType.EWMA ? LatencyScores.getInstance() : null);
+    }
+
+    FailoverAlgorithm(LatencyScores latencyScores)
+    {
+        this(latencyScores, LatencyHistograms.getInstance());
+    }
+
+    FailoverAlgorithm(LatencyScores latencyScores, LatencyHistograms latencyHistograms)
+    {
+        this.latencyScores = latencyScores;
+        this.latencyHistograms = latencyHistograms;
+    }
 
     public ServiceReturn<CasualBuffer> tpcallWithFailover(
             String serviceName,
@@ -43,7 +80,7 @@ public class FailoverAlgorithm
             return doTpenoent.apply();
         }
 
-        ServiceReturn<CasualBuffer> result = issueCall(serviceName, validEntries, doCall);
+        ServiceReturn<CasualBuffer> result = issueCall(Operation.TPCALL, serviceName, validEntries, doCall);
         if (result.getErrorState() == ErrorState.TPENOENT)
         {
             // using a known cached service entry results in TPENOENT
@@ -57,7 +94,7 @@ public class FailoverAlgorithm
                 LOG.warning(() -> ALL_FAIL_MESSAGE + serviceName);
                 return doTpenoent.apply();
             }
-            result = issueCall(serviceName, validEntries, doCall);
+            result = issueCall(Operation.TPCALL, serviceName, validEntries, doCall);
         }
         return result;
     }
@@ -76,7 +113,344 @@ public class FailoverAlgorithm
             LOG.warning(() -> ALL_FAIL_MESSAGE + serviceName);
             return doTpenoent.apply();
         }
-        return issueCall(serviceName, validEntries, doCall);
+        return issueCall(Operation.TPACALL, serviceName, validEntries, doCall);
+    }
+
+    /**
+     * Asynchronous variant, discovery, getting a connection, the call and failover all run on the executor
+     *
+     * A reply with TPENOENT leads to a new discovery and one more call, as for tpcall. A call that fails with a
+     * ResourceException or a DomainDisconnectedException, also when the reply future fails with one of them,
+     * fails over to the next connection factory. Only to be used outside of transactions.
+     */
+    public CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> tpacallWithFailover(
+            String serviceName,
+            ConnectionFactoryLookup lookup,
+            FunctionThrowsResourceException<CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>> doCall,
+            FunctionNoArg<CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>> doTpenoent,
+            Executor executor)
+    {
+        return CompletableFuture.supplyAsync(() -> getFoundAndValidEntries(lookup, serviceName), executor)
+                                .thenCompose(validEntries -> issueAsyncCall(serviceName, validEntries, doCall, doTpenoent, executor))
+                                .thenComposeAsync(result -> {
+                                    if (!isTpenoent(result))
+                                    {
+                                        return CompletableFuture.completedFuture(result);
+                                    }
+                                    // same as for tpcall, clear the service from the cache and try again with potentially new entries
+                                    lookup.removeFromServiceCache(serviceName);
+                                    return issueAsyncCall(serviceName, getFoundAndValidEntries(lookup, serviceName), doCall, doTpenoent, executor);
+                                }, executor);
+    }
+
+    /**
+     * Hedged variant, the call is issued as a tpacall on the caller thread and if it has not replied within
+     * {@code delayMillis} a second tpacall is issued to the next connection factory, if the budget allows it and the
+     * first call has not failed over. The hedge goes to that one connection factory only. The first reply wins and
+     * the other call is cancelled, which gives back its connection handle and concurrency permit.
+     * Only to be used outside of transactions, and not for calls without a reply.
+     */
+    public ServiceReturn<CasualBuffer> tpcallWithHedging(
+            String serviceName,
+            ConnectionFactoryLookup lookup,
+            FunctionThrowsResourceException<ServiceReturn<CasualBuffer>> doCall,
+            FunctionThrowsResourceException<CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>> doAsyncCall,
+            FunctionNoArg<ServiceReturn<CasualBuffer>> doTpenoent,
+            HedgeBudget budget,
+            long delayMillis,
+            Executor executor)
+    {
+        List<ConnectionFactoryEntry> validEntries = getFoundAndValidEntries(lookup, serviceName);
+
+        // No valid casual server found (revalidation is on a timer in ConnectionFactoryEntryValidationTimer)
+        if (validEntries.isEmpty())
+        {
+            LOG.warning(() -> ALL_FAIL_MESSAGE + serviceName);
+            return doTpenoent.apply();
+        }
+
+        budget.callStarted();
+        ServiceReturn<CasualBuffer> result = issueHedgedCall(serviceName, validEntries, doAsyncCall, budget, delayMillis, executor)
+                .orElseThrow(() -> new CasualResourceException("No reply to tpcall of service=" + serviceName));
+        if (result.getErrorState() == ErrorState.TPENOENT)
+        {
+            // same as for tpcall, the new call is not hedged
+            lookup.removeFromServiceCache(serviceName);
+            validEntries = getFoundAndValidEntries(lookup, serviceName);
+            if (validEntries.isEmpty())
+            {
+                LOG.warning(() -> ALL_FAIL_MESSAGE + serviceName);
+                return doTpenoent.apply();
+            }
+            result = issueCall(Operation.TPCALL, serviceName, validEntries, doCall);
+        }
+        return result;
+    }
+
+    private <T> T issueHedgedCall(String serviceName,
+                                  List<ConnectionFactoryEntry> validEntries,
+                                  FunctionThrowsResourceException<CompletableFuture<T>> doAsyncCall,
+                                  HedgeBudget budget,
+                                  long delayMillis,
+                                  Executor executor)
+    {
+        IssuedOn issuedOn = new IssuedOn();
+        CompletableFuture<T> primary = issueAsyncCall(serviceName, validEntries, 0, null, doAsyncCall, executor, issuedOn);
+        int hedgeIndex = issuedOn.index + 1;
+        if (issuedOn.attempts.get() != 1 || hedgeIndex >= validEntries.size() || completesWithin(primary, delayMillis))
+        {
+            return await(primary);
+        }
+        if (issuedOn.attempts.get() != 1 || !budget.tryHedge())
+        {
+            // a call that has failed over is not hedged, it is already on another connection factory
+            return await(primary);
+        }
+        ConnectionFactoryEntry hedgeEntry = validEntries.get(hedgeIndex);
+        LOG.finest(() -> "No reply from service=" + serviceName + " within " + delayMillis + " ms, hedging to " + hedgeEntry.getJndiName());
+        CompletableFuture<T> hedge = issueAsyncCall(serviceName, Collections.singletonList(hedgeEntry), 0, null, doAsyncCall, executor, new IssuedOn());
+        CompletableFuture<T> first = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger(0);
+        primary.whenComplete((result, throwable) -> completeFirst(first, result, throwable, failures));
+        hedge.whenComplete((result, throwable) -> {
+            if (completeFirst(first, result, throwable, failures))
+            {
+                budget.hedgeWon();
+            }
+        });
+        try
+        {
+            return await(first);
+        }
+        finally
+        {
+            // the loser is not waited for
+            primary.cancel(false);
+            hedge.cancel(false);
+        }
+    }
+
+    private static <T> boolean completeFirst(CompletableFuture<T> first, T result, Throwable throwable, AtomicInteger failures)
+    {
+        if (null == throwable)
+        {
+            return first.complete(result);
+        }
+        // only fails if both calls failed
+        if (failures.incrementAndGet() == 2)
+        {
+            first.completeExceptionally(unwrap(throwable));
+        }
+        return false;
+    }
+
+    private static boolean completesWithin(CompletableFuture<?> future, long delayMillis)
+    {
+        try
+        {
+            future.get(delayMillis, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch (TimeoutException e)
+        {
+            return false;
+        }
+        catch (ExecutionException e)
+        {
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CasualResourceException("Interrupted while waiting for reply", e);
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = unwrap(e.getCause());
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new CasualResourceException(cause);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CasualResourceException("Interrupted while waiting for reply", e);
+        }
+    }
+
+    private static boolean isTpenoent(Optional<ServiceReturn<CasualBuffer>> result)
+    {
+        return result.map(serviceReturn -> serviceReturn.getErrorState() == ErrorState.TPENOENT).orElse(false);
+    }
+
+    private <T> CompletableFuture<T> issueAsyncCall(String serviceName,
+                                                    List<ConnectionFactoryEntry> validEntries,
+                                                    FunctionThrowsResourceException<CompletableFuture<T>> doCall,
+                                                    FunctionNoArg<CompletableFuture<T>> doTpenoent,
+                                                    Executor executor)
+    {
+        // No valid casual server found (revalidation is on a timer in ConnectionFactoryEntryValidationTimer)
+        if (validEntries.isEmpty())
+        {
+            LOG.warning(() -> ALL_FAIL_MESSAGE + serviceName);
+            return doTpenoent.apply();
+        }
+        return issueAsyncCall(serviceName, validEntries, 0, null, doCall, executor, new IssuedOn());
+    }
+
+    /**
+     * @param issuedOn follows the call to the entry it is issued on, and on through failover
+     */
+    private <T> CompletableFuture<T> issueAsyncCall(String serviceName,
+                                                    List<ConnectionFactoryEntry> validEntries,
+                                                    int index,
+                                                    Exception previousException,
+                                                    FunctionThrowsResourceException<CompletableFuture<T>> doCall,
+                                                    Executor executor,
+                                                    IssuedOn issuedOn)
+    {
+        Exception thrownException = previousException;
+        boolean limited = false;
+        for (int i = index; i < validEntries.size(); ++i)
+        {
+            ConnectionFactoryEntry connectionFactoryEntry = validEntries.get(i);
+            if (!connectionFactoryEntry.tryAcquireConcurrencyPermit())
+            {
+                // spill over to the next entry
+                LOG.finest(() -> "Skipping " + connectionFactoryEntry.getJndiName() + ", at its concurrency limit " + connectionFactoryEntry.getConcurrencyLimit().getLimit());
+                limited = true;
+                continue;
+            }
+            if (!connectionFactoryEntry.tryAcquirePermission())
+            {
+                connectionFactoryEntry.releaseConcurrencyPermit();
+                // circuit is half open and the probe calls are already in flight
+                LOG.finest(() -> "Skipping " + connectionFactoryEntry.getJndiName() + ", circuit breaker is " + connectionFactoryEntry.getCircuitBreakerState());
+                continue;
+            }
+            CasualConnection con = null;
+            CompletableFuture<T> reply;
+            long start = System.nanoTime();
+            connectionFactoryEntry.requestStarted();
+            issuedOn.issued(i);
+            try
+            {
+                con = connectionFactoryEntry.getConnectionFactory().getConnection();
+                reply = doCall.apply(con, executionIdGenerator.next());
+            }
+            catch (CasualConnectionException e)
+            {
+                connectionFactoryEntry.requestFinished();
+                close(con);
+                connectionFactoryEntry.invalidate();
+                callFinished(Operation.TPACALL, serviceName, connectionFactoryEntry, start, true);
+                return failedFuture(networkErrorDuringCall(serviceName, connectionFactoryEntry, e));
+            }
+            catch (ResourceException | DomainDisconnectedException e)
+            {
+                connectionFactoryEntry.requestFinished();
+                close(con);
+                connectionFactoryEntry.invalidate();
+                callFinished(Operation.TPACALL, serviceName, connectionFactoryEntry, start, true);
+                thrownException = e;
+                continue;
+            }
+            catch (RuntimeException e)
+            {
+                connectionFactoryEntry.requestFinished();
+                close(con);
+                // not a failure of the connection factory, reported so that a half open probe is not held
+                connectionFactoryEntry.callSucceeded();
+                callFinished(Operation.TPACALL, serviceName, connectionFactoryEntry, start, true);
+                throw e;
+            }
+            int next = i + 1;
+            CasualConnection connection = con;
+            // the connection handle is kept until the reply has arrived
+            CompletableFuture<T> outcome = reply.<CompletableFuture<T>>handle((result, throwable) -> {
+                            connectionFactoryEntry.requestFinished();
+                            close(connection);
+                            if (null == throwable)
+                            {
+                                connectionFactoryEntry.callSucceeded();
+                                callFinished(Operation.TPACALL, serviceName, connectionFactoryEntry, start, false);
+                                return CompletableFuture.completedFuture(result);
+                            }
+                            Throwable cause = unwrap(throwable);
+                            if (cause instanceof CancellationException)
+                            {
+                                // no longer waited for, says nothing about the connection factory
+                                connectionFactoryEntry.releaseConcurrencyPermit();
+                                return failedFuture(cause);
+                            }
+                            callFinished(Operation.TPACALL, serviceName, connectionFactoryEntry, start, true);
+                            if (cause instanceof CasualConnectionException)
+                            {
+                                connectionFactoryEntry.invalidate();
+                                return failedFuture(networkErrorDuringCall(serviceName, connectionFactoryEntry, (Exception) cause));
+                            }
+                            if (cause instanceof ResourceException || cause instanceof DomainDisconnectedException)
+                            {
+                                LOG.finest(() -> "Failed tpacall to service=" + serviceName + " on " + connectionFactoryEntry.getJndiName() + ", will run failover if applicable: " + cause);
+                                connectionFactoryEntry.invalidate();
+                                return CompletableFuture.supplyAsync(() -> issueAsyncCall(serviceName, validEntries, next, (Exception) cause, doCall, executor, issuedOn), executor)
+                                                        .thenCompose(Function.<CompletableFuture<T>>identity());
+                            }
+                            // not a failure of the connection factory, reported so that a half open probe is not held
+                            connectionFactoryEntry.callSucceeded();
+                            return failedFuture(cause);
+                        })
+                        .thenCompose(Function.identity());
+            // cancelling the outcome cancels the call, so that the connection handle and the permit are given back
+            outcome.whenComplete((result, throwable) -> {
+                if (throwable instanceof CancellationException)
+                {
+                    reply.cancel(false);
+                }
+            });
+            return outcome;
+        }
+        return failedFuture(allFailed(serviceName, validEntries, limited, thrownException));
+    }
+
+    private static CasualResourceException networkErrorDuringCall(String serviceName, ConnectionFactoryEntry connectionFactoryEntry, Exception e)
+    {
+        // These exceptions are rollback-only, do not attempt any retries.
+        return new CasualResourceException("Call failed during execution to service=" + serviceName + " on connection=" + connectionFactoryEntry.getJndiName() + " because of a network connection error, retries not possible.", e);
+    }
+
+    private static Throwable unwrap(Throwable throwable)
+    {
+        return (throwable instanceof CompletionException && null != throwable.getCause()) ? throwable.getCause() : throwable;
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable throwable)
+    {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    private static void close(CasualConnection connection)
+    {
+        if (null == connection)
+        {
+            return;
+        }
+        try
+        {
+            connection.close();
+        }
+        catch (Exception e)
+        {
+            LOG.finest(() -> "Failed to close connection handle: " + e);
+        }
     }
 
     private List<ConnectionFactoryEntry> getFoundAndValidEntries(ConnectionFactoryLookup lookup, String serviceName)
@@ -88,14 +462,28 @@ public class FailoverAlgorithm
         return validEntries;
     }
 
-    private <T> T issueCall(String serviceName, List<ConnectionFactoryEntry> validEntries, FunctionThrowsResourceException<T> doCall)
+    private <T> T issueCall(Operation operation, String serviceName, List<ConnectionFactoryEntry> validEntries, FunctionThrowsResourceException<T> doCall)
     {
         Exception thrownException = null;
 
         // Sticky transaction handling
         try
         {
-            Optional<T> stickyMaybe = StickyTransactionHandler.handleTransactionSticky(serviceName, validEntries, doCall, TransactionPoolMapper::getInstance);
+            // the sticky call does not take a concurrency permit, so only its outcome is recorded
+            Optional<T> stickyMaybe = StickyTransactionHandler.handleTransactionSticky(serviceName, validEntries, doCall, TransactionPoolMapper::getInstance, new StickyTransactionHandler.CallObserver()
+            {
+                @Override
+                public <R> R succeeded(ConnectionFactoryEntry connectionFactoryEntry, long start, R result)
+                {
+                    return whenDone(result, failed -> record(operation, serviceName, connectionFactoryEntry, System.nanoTime() - start, failed));
+                }
+
+                @Override
+                public void failed(ConnectionFactoryEntry connectionFactoryEntry, long start)
+                {
+                    record(operation, serviceName, connectionFactoryEntry, System.nanoTime() - start, true);
+                }
+            });
 
             if (stickyMaybe.isPresent())
             {
@@ -109,16 +497,34 @@ public class FailoverAlgorithm
         }
 
         // Normal flow
+        boolean limited = false;
         for (ConnectionFactoryEntry connectionFactoryEntry : validEntries)
         {
+            if (!connectionFactoryEntry.tryAcquireConcurrencyPermit())
+            {
+                // spill over to the next entry
+                LOG.finest(() -> "Skipping " + connectionFactoryEntry.getJndiName() + ", at its concurrency limit " + connectionFactoryEntry.getConcurrencyLimit().getLimit());
+                limited = true;
+                continue;
+            }
+            if (!connectionFactoryEntry.tryAcquirePermission())
+            {
+                connectionFactoryEntry.releaseConcurrencyPermit();
+                // circuit is half open and the probe calls are already in flight
+                LOG.finest(() -> "Skipping " + connectionFactoryEntry.getJndiName() + ", circuit breaker is " + connectionFactoryEntry.getCircuitBreakerState());
+                continue;
+            }
+            long start = System.nanoTime();
+            T result;
             try (CasualConnection con = connectionFactoryEntry.getConnectionFactory().getConnection())
             {
-                return doCall.apply(con, UUID.randomUUID());
+                result = doCall(connectionFactoryEntry, con, executionIdGenerator.next(), doCall);
             }
             catch (CasualConnectionException e)
             {
                 //This error branch will most likely happen if there are connection errors during a service call
                 connectionFactoryEntry.invalidate();
+                callFinished(operation, serviceName, connectionFactoryEntry, start, true);
 
                 // These exceptions are rollback-only, do not attempt any retries.
                 throw new CasualResourceException("Call failed during execution to service=" + serviceName + " on connection=" + connectionFactoryEntry.getJndiName() + " because of a network connection error, retries not possible.", e);
@@ -128,14 +534,99 @@ public class FailoverAlgorithm
                 // This error branch will most likely happen on failure to establish connection with a casual backend
                 // or when a casual domain is disconnecting
                 connectionFactoryEntry.invalidate();
+                callFinished(operation, serviceName, connectionFactoryEntry, start, true);
 
                 // Do retries on ResourceExceptions. Save the thrown exception and return to the loop
                 // If there are more entries to try that will be done, or the flow will exit and this
                 // exception will be thrown wrapped at the end of the method.
                 thrownException = e;
+                continue;
+            }
+            catch (RuntimeException e)
+            {
+                // not a failure of the connection factory, reported so that a half open probe is not held
+                connectionFactoryEntry.callSucceeded();
+                callFinished(operation, serviceName, connectionFactoryEntry, start, true);
+                throw e;
             }
+            return whenDone(result, failed -> callFinished(operation, serviceName, connectionFactoryEntry, start, failed));
         }
-        throw new CasualResourceException("Call failed to all " + validEntries.size() + " available casual connections.", thrownException);
+        throw allFailed(serviceName, validEntries, limited, thrownException);
+    }
+
+    private static CasualResourceException allFailed(String serviceName, List<ConnectionFactoryEntry> validEntries, boolean limited, Exception thrownException)
+    {
+        if (limited && null == thrownException)
+        {
+            return new ConcurrencyLimitExceededException("All " + validEntries.size() + " available casual connections for service=" + serviceName + " are at their concurrency limit.");
+        }
+        return new CasualResourceException("Call failed to all " + validEntries.size() + " available casual connections.", thrownException);
+    }
+
+    private static <T> T whenDone(T result, Consumer<Boolean> finished)
+    {
+        if (result instanceof CompletableFuture)
+        {
+            // tpacall issued on the caller thread, the call is done once the reply is there
+            ((CompletableFuture<?>) result).whenComplete((reply, throwable) -> finished.accept(null != throwable));
+            return result;
+        }
+        finished.accept(false);
+        return result;
+    }
+
+    private void callFinished(Operation operation, String serviceName, ConnectionFactoryEntry connectionFactoryEntry, long start, boolean failed)
+    {
+        long rttNanos = System.nanoTime() - start;
+        connectionFactoryEntry.releaseConcurrencyPermit(serviceName, rttNanos, failed);
+        record(operation, serviceName, connectionFactoryEntry, rttNanos, failed);
     }
 
-}
\ No newline at end of file
+    private void record(Operation operation, String serviceName, ConnectionFactoryEntry connectionFactoryEntry, long rttNanos, boolean failed)
+    {
+        latencyHistograms.record(operation, serviceName, connectionFactoryEntry.getJndiName(), rttNanos, failed);
+        if (null == latencyScores)
+        {
+            return;
+        }
+        if (failed)
+        {
+            latencyScores.recordFailure(serviceName, connectionFactoryEntry.getJndiName());
+        }
+        else
+        {
+            latencyScores.recordSuccess(serviceName, connectionFactoryEntry.getJndiName(), rttNanos);
+        }
+    }
+
+    static <T> T doCall(ConnectionFactoryEntry connectionFactoryEntry, CasualConnection con, UUID execution, FunctionThrowsResourceException<T> doCall) throws ResourceException
+    {
+        // note: for a tpacall issued on the caller thread this only covers issuing the call, not waiting for the reply
+        connectionFactoryEntry.requestStarted();
+        try
+        {
+            T result = doCall.apply(con, execution);
+            connectionFactoryEntry.callSucceeded();
+            return result;
+        }
+        finally
+        {
+            connectionFactoryEntry.requestFinished();
+        }
+    }
+
+    /**
+     * Where an asynchronous call has been issued, the index of the entry and how many entries it has been issued on
+     */
+    private static final class IssuedOn
+    {
+        private volatile int index = -1;
+        private final AtomicInteger attempts = new AtomicInteger(0);
+
+        void issued(int index)
+        {
+            this.index = index;
+            attempts.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Single flight registry for lookups
+ *
+ * The first caller for a key, the leader, runs the lookup. Callers for the same key arriving while it is in flight
+ * wait for the leaders result instead of issuing their own. If the leader has not finished within the max wait
+ * they fall back to doing the lookup themselves.
+ */
+public final class InFlightLookups<K, V>
+{
+    private static final Logger LOG = Logger.getLogger(InFlightLookups.class.getName());
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final long maxWaitMillis;
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    private InFlightLookups(long maxWaitMillis)
+    {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public static <K, V> InFlightLookups<K, V> of(long maxWaitMillis)
+    {
+        return new InFlightLookups<>(maxWaitMillis);
+    }
+
+    public V execute(K key, Supplier<V> lookup)
+    {
+        Objects.requireNonNull(key, "key can not be null");
+        Objects.requireNonNull(lookup, "lookup can not be null");
+        CompletableFuture<V> ours = new CompletableFuture<>();
+        CompletableFuture<V> theirs = inFlight.putIfAbsent(key, ours);
+        if (null == theirs)
+        {
+            leaders.increment();
+            return lead(key, ours, lookup);
+        }
+        coalesced.increment();
+        return await(key, theirs, lookup);
+    }
+
+    public long getLeaders()
+    {
+        return leaders.sum();
+    }
+
+    public long getCoalesced()
+    {
+        return coalesced.sum();
+    }
+
+    public long getTimeouts()
+    {
+        return timeouts.sum();
+    }
+
+    public int getInFlight()
+    {
+        return inFlight.size();
+    }
+
+    private V lead(K key, CompletableFuture<V> ours, Supplier<V> lookup)
+    {
+        try
+        {
+            V value = lookup.get();
+            ours.complete(value);
+            return value;
+        }
+        catch (RuntimeException | Error e)
+        {
+            ours.completeExceptionally(e);
+            throw e;
+        }
+        finally
+        {
+            inFlight.remove(key, ours);
+        }
+    }
+
+    private V await(K key, CompletableFuture<V> theirs, Supplier<V> lookup)
+    {
+        try
+        {
+            return theirs.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            timeouts.increment();
+            LOG.warning(() -> "Waited more than " + maxWaitMillis + "ms for in flight lookup of " + key + ", doing the lookup directly");
+            return lookup.get();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new CasualResourceException("In flight lookup of " + key + " failed", cause);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CasualResourceException("Interrupted while waiting for in flight lookup of " + key, e);
+        }
+    }
+}
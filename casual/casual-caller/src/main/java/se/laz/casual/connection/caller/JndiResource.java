@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * A resource looked up in JNDI on first use and kept from then on, safe to share between threads
+ *
+ * Threads racing on the first use may all do the lookup, they get the same instance. A failed lookup is logged and
+ * tried again on a later use, at the earliest after a backoff that doubles with every failure, from one second up to
+ * one minute. An empty jndi name means that the resource is not wanted, it is then never looked up.
+ */
+final class JndiResource<T>
+{
+    private static final Logger LOG = Logger.getLogger(JndiResource.class.getName());
+    private static final String TRANSACTION_SYNCHRONIZATION_REGISTRY = "java:comp/TransactionSynchronizationRegistry";
+    private static final long MIN_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_RETRY_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private final String jndiName;
+    private final String whenMissing;
+    private final boolean wanted;
+    private final LongSupplier clock;
+    private volatile T resource;
+    // 0 until a lookup has failed
+    private volatile long retryNanos;
+    private volatile long nextAttempt;
+
+    private JndiResource(String jndiName, String whenMissing, T resource, LongSupplier clock)
+    {
+        this.jndiName = jndiName;
+        this.whenMissing = whenMissing;
+        this.resource = resource;
+        this.wanted = null != resource || !jndiName.isEmpty();
+        this.clock = clock;
+    }
+
+    /**
+     * @param whenMissing what it means for the caller if the lookup fails, logged along with the failure
+     */
+    static <T> JndiResource<T> of(String jndiName, String whenMissing)
+    {
+        return of(jndiName, whenMissing, System::nanoTime);
+    }
+
+    // For test
+    static <T> JndiResource<T> of(String jndiName, String whenMissing, LongSupplier clock)
+    {
+        Objects.requireNonNull(whenMissing, "whenMissing can not be null");
+        Objects.requireNonNull(clock, "clock can not be null");
+        return new JndiResource<>(null == jndiName ? "" : jndiName, whenMissing, null, clock);
+    }
+
+    static JndiResource<TransactionSynchronizationRegistry> transactionSynchronizationRegistry(String whenMissing)
+    {
+        return of(TRANSACTION_SYNCHRONIZATION_REGISTRY, whenMissing);
+    }
+
+    // For test, null is a resource that is missing
+    static <T> JndiResource<T> resolved(T resource)
+    {
+        return new JndiResource<>("", "", resource, System::nanoTime);
+    }
+
+    Optional<T> get()
+    {
+        T current = resource;
+        if (null != current || !wanted)
+        {
+            return Optional.ofNullable(current);
+        }
+        long now = clock.getAsLong();
+        long retry = retryNanos;
+        if (retry > 0 && now - nextAttempt < 0)
+        {
+            return Optional.empty();
+        }
+        try
+        {
+            current = InitialContext.doLookup(jndiName);
+            resource = current;
+            return Optional.ofNullable(current);
+        }
+        catch (NamingException e)
+        {
+            long delay = retry > 0 ? Math.min(retry * 2, MAX_RETRY_NANOS) : MIN_RETRY_NANOS;
+            nextAttempt = now + delay;
+            retryNanos = delay;
+            LOG.warning(() -> "Failed to look up " + jndiName + ", " + whenMissing + " for at least " + TimeUnit.NANOSECONDS.toMillis(delay) + " ms: " + e);
+            return Optional.empty();
+        }
+    }
+}
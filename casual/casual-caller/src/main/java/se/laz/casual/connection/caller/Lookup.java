@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2017 - 2021, The casual project. All rights reserved.
+ * Copyright (c) 2017 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -8,73 +8,321 @@ package se.laz.casual.connection.caller;
 
 import se.laz.casual.api.queue.QueueInfo;
 import se.laz.casual.api.service.ServiceDetails;
+import se.laz.casual.connection.caller.config.ConfigurationService;
+import se.laz.casual.connection.caller.metrics.LatencyHistograms;
+import se.laz.casual.connection.caller.metrics.Operation;
 import se.laz.casual.jca.CasualConnection;
 
 import javax.resource.ResourceException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class Lookup
 {
     private static final Logger LOG = Logger.getLogger(Lookup.class.getName());
+    private JndiResource<Executor> executor = JndiResource.of(ConfigurationService.getInstance().getConfiguration().getLookupExecutorJndiName(),
+                                                              "service and queue lookups will be issued on the caller thread");
+    private long discoveryTimeoutMillis = ConfigurationService.getInstance().getConfiguration().getDiscoveryTimeoutMillis();
+    private LatencyHistograms latencyHistograms = LatencyHistograms.getInstance();
+
+    // For test
+    void setExecutor(Executor executor)
+    {
+        this.executor = JndiResource.resolved(executor);
+    }
+
+    void setDiscoveryTimeoutMillis(long discoveryTimeoutMillis)
+    {
+        this.discoveryTimeoutMillis = discoveryTimeoutMillis;
+    }
+
+    void setLatencyHistograms(LatencyHistograms latencyHistograms)
+    {
+        this.latencyHistograms = latencyHistograms;
+    }
 
     public List<ConnectionFactoryEntry> find(QueueInfo qinfo, List<ConnectionFactoryEntry> cacheEntries, TransactionLess transactionLess)
     {
-        return findQueue(cacheEntries, con -> con.queueExists(qinfo), transactionLess);
+        return findQueue(qinfo.getQueueName(), cacheEntries, con -> con.queueExists(qinfo), transactionLess);
     }
 
     public ConnectionFactoriesByPriority find(String serviceName, List<ConnectionFactoryEntry> cacheEntries, TransactionLess transactionLess)
     {
-        return findService(cacheEntries, con -> con.serviceDetails(serviceName), transactionLess);
+        return findService(serviceName, cacheEntries, con -> con.serviceDetails(serviceName), transactionLess);
     }
 
-    private ConnectionFactoriesByPriority findService(List<ConnectionFactoryEntry> cacheEntries,
+    private ConnectionFactoriesByPriority findService(String serviceName,
+                                                      List<ConnectionFactoryEntry> cacheEntries,
                                                       Function<CasualConnection, List<ServiceDetails>> fetchFunction, TransactionLess transactionLess)
     {
         ConnectionFactoriesByPriority foundEntries = ConnectionFactoriesByPriority.emptyInstance();
+        List<ConnectionFactoryEntry> distinctEntries = cacheEntries.stream()
+                                                                   .filter(distinctByJndiName())
+                                                                   .collect(Collectors.toList());
+        DiscoveryLatencies latencies = new DiscoveryLatencies(latencyHistograms, serviceName);
+        discover(distinctEntries,
+                 latencies.recording(entry -> transactionLess.serviceDetails(entry, fetchFunction)),
+                 (entry, serviceDetails) -> {
+                     foundEntries.store(serviceDetails, entry);
+                     foundEntries.setResolved(entry.getJndiName());
+                 },
+                 "service");
+        latencies.done(!foundEntries.isEmpty());
+        return foundEntries;
+    }
+
+    private List<ConnectionFactoryEntry> findQueue(String queueName, List<ConnectionFactoryEntry> cacheEntries, PredicateThrowsResourceException<CasualConnection> predicate, TransactionLess transactionLess)
+    {
+        Set<ConnectionFactoryEntry> found = new HashSet<>();
+        DiscoveryLatencies latencies = new DiscoveryLatencies(latencyHistograms, queueName);
+        discover(cacheEntries,
+                 latencies.recording(entry -> transactionLess.queueExists(entry, predicate)),
+                 (entry, exists) -> {
+                     if (Boolean.TRUE.equals(exists))
+                     {
+                         found.add(entry);
+                     }
+                 },
+                 "queue");
+        latencies.done(!found.isEmpty());
+        // keep the order of the entries we were given
+        List<ConnectionFactoryEntry> foundEntries = new ArrayList<>();
         for (ConnectionFactoryEntry entry : cacheEntries)
         {
-            if (!foundEntries.isResolved(entry.getJndiName()))
+            if (found.contains(entry))
             {
-                try
-                {
-                   foundEntries.store(transactionLess.serviceDetails(entry, fetchFunction), entry);
-                   foundEntries.setResolved(entry.getJndiName());
-                }
-                catch (ResourceException e)
-                {
-                   LOG.log(Level.WARNING, e, ()->"Skipping connection factory " + entry.getJndiName() + " for service lookup, received error: " + e.getMessage());
-                }
+                foundEntries.add(entry);
             }
         }
         return foundEntries;
     }
 
-    private List<ConnectionFactoryEntry> findQueue(List<ConnectionFactoryEntry> cacheEntries, PredicateThrowsResourceException<CasualConnection> predicate, TransactionLess transactionLess)
+    /**
+     * Issues the discovery for all entries in parallel on the lookup executor and merges the results, on the calling
+     * thread, as they arrive. Entries that have not answered within the discovery timeout are left out, so that they
+     * are still unresolved and will be asked again on a later lookup.
+     *
+     * Without an executor, or with a single entry, the entries are asked one after another on the calling thread.
+     * A call that has been issued can not be cut short there, so the timeout only keeps the remaining entries from
+     * being asked once it has passed.
+     */
+    private <T> void discover(List<ConnectionFactoryEntry> entries, DiscoveryFunction<T> discoveryFunction, ResultConsumer<T> merge, String type)
     {
-        List<ConnectionFactoryEntry> foundEntries = new ArrayList<>();
-        for (ConnectionFactoryEntry entry : cacheEntries)
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(discoveryTimeoutMillis);
+        Optional<Executor> maybeExecutor = executor.get();
+        if (!maybeExecutor.isPresent() || entries.size() < 2)
+        {
+            discoverSequentially(entries, discoveryFunction, merge, type, deadline);
+            return;
+        }
+        Executor executorService = maybeExecutor.get();
+        BlockingQueue<DiscoveryResult<T>> completed = new LinkedBlockingQueue<>();
+        Set<ConnectionFactoryEntry> pending = new LinkedHashSet<>(entries);
+        for (ConnectionFactoryEntry entry : entries)
         {
             try
             {
-                if (transactionLess.queueExists(entry, predicate))
+                executorService.execute(() -> completed.add(DiscoveryResult.of(entry, discoveryFunction)));
+            }
+            catch (RejectedExecutionException e)
+            {
+                LOG.log(Level.FINE, e, () -> "Could not schedule " + type + " lookup for " + entry.getJndiName() + ", running it on the calling thread");
+                completed.add(DiscoveryResult.of(entry, discoveryFunction));
+            }
+        }
+        try
+        {
+            while (!pending.isEmpty())
+            {
+                DiscoveryResult<T> result = completed.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (null == result)
                 {
-                    foundEntries.add(entry);
+                    LOG.warning(() -> "Timed out waiting for " + type + " lookup, leaving connection factories unresolved: " + pending.stream().map(ConnectionFactoryEntry::getJndiName).collect(Collectors.joining(",")));
+                    return;
                 }
+                pending.remove(result.entry);
+                result.mergeInto(merge, type);
             }
-            catch (ResourceException e)
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            LOG.log(Level.WARNING, e, () -> "Interrupted waiting for " + type + " lookup, leaving connection factories unresolved: " + pending.stream().map(ConnectionFactoryEntry::getJndiName).collect(Collectors.joining(",")));
+        }
+    }
+
+    private static <T> void discoverSequentially(List<ConnectionFactoryEntry> entries, DiscoveryFunction<T> discoveryFunction, ResultConsumer<T> merge, String type, long deadline)
+    {
+        for (int i = 0; i < entries.size(); ++i)
+        {
+            if (i > 0 && deadline - System.nanoTime() <= 0)
             {
-                LOG.log(Level.WARNING, e, ()->"Skipping connection factory " + entry.getJndiName() + " for queue lookup on, received error: " + e.getMessage());
+                List<ConnectionFactoryEntry> notAsked = entries.subList(i, entries.size());
+                LOG.warning(() -> "Timed out during " + type + " lookup, leaving connection factories unresolved: " + notAsked.stream().map(ConnectionFactoryEntry::getJndiName).collect(Collectors.joining(",")));
+                return;
             }
+            DiscoveryResult.of(entries.get(i), discoveryFunction).mergeInto(merge, type);
         }
-        return foundEntries;
+    }
+
+    private static Predicate<ConnectionFactoryEntry> distinctByJndiName()
+    {
+        Set<String> seen = new HashSet<>();
+        return entry -> seen.add(entry.getJndiName());
     }
 
     public interface PredicateThrowsResourceException<T>
     {
         boolean test(T object) throws ResourceException;
     }
+
+    @FunctionalInterface
+    private interface DiscoveryFunction<T>
+    {
+        T apply(ConnectionFactoryEntry entry) throws ResourceException;
+    }
+
+    @FunctionalInterface
+    private interface ResultConsumer<T>
+    {
+        void accept(ConnectionFactoryEntry entry, T result);
+    }
+
+    /**
+     * The discovery latencies of one lookup. They are held back until the lookup is done and only recorded if the name
+     * was found, so that lookups of names that do not exist can not grow the histograms. Entries that answer after
+     * the lookup has timed out are recorded as they arrive, if it was found.
+     */
+    private static final class DiscoveryLatencies
+    {
+        private final LatencyHistograms latencyHistograms;
+        private final String name;
+        private final List<Latency> pending = new ArrayList<>();
+        // null until the lookup is done
+        private Boolean found;
+
+        DiscoveryLatencies(LatencyHistograms latencyHistograms, String name)
+        {
+            this.latencyHistograms = latencyHistograms;
+            this.name = name;
+        }
+
+        <T> DiscoveryFunction<T> recording(DiscoveryFunction<T> discoveryFunction)
+        {
+            if (!latencyHistograms.isEnabled())
+            {
+                return discoveryFunction;
+            }
+            return entry -> {
+                long start = System.nanoTime();
+                boolean failed = true;
+                try
+                {
+                    T value = discoveryFunction.apply(entry);
+                    failed = false;
+                    return value;
+                }
+                finally
+                {
+                    record(new Latency(entry.getJndiName(), System.nanoTime() - start, failed));
+                }
+            };
+        }
+
+        synchronized void done(boolean found)
+        {
+            this.found = found;
+            if (found)
+            {
+                pending.forEach(this::store);
+            }
+            pending.clear();
+        }
+
+        private synchronized void record(Latency latency)
+        {
+            if (null == found)
+            {
+                pending.add(latency);
+            }
+            else if (found)
+            {
+                store(latency);
+            }
+        }
+
+        private void store(Latency latency)
+        {
+            latencyHistograms.record(Operation.DISCOVERY, name, latency.jndiName, latency.nanos, latency.failed);
+        }
+    }
+
+    private static final class Latency
+    {
+        private final String jndiName;
+        private final long nanos;
+        private final boolean failed;
+
+        private Latency(String jndiName, long nanos, boolean failed)
+        {
+            this.jndiName = jndiName;
+            this.nanos = nanos;
+            this.failed = failed;
+        }
+    }
+
+    private static final class DiscoveryResult<T>
+    {
+        private final ConnectionFactoryEntry entry;
+        private final T value;
+        private final Exception failure;
+
+        private DiscoveryResult(ConnectionFactoryEntry entry, T value, Exception failure)
+        {
+            this.entry = entry;
+            this.value = value;
+            this.failure = failure;
+        }
+
+        static <T> DiscoveryResult<T> of(ConnectionFactoryEntry entry, DiscoveryFunction<T> discoveryFunction)
+        {
+            try
+            {
+                return new DiscoveryResult<>(entry, discoveryFunction.apply(entry), null);
+            }
+            catch (ResourceException | RuntimeException e)
+            {
+                return new DiscoveryResult<>(entry, null, e);
+            }
+        }
+
+        void mergeInto(ResultConsumer<T> merge, String type)
+        {
+            if (failure instanceof RuntimeException)
+            {
+                // same as when looking up on the calling thread, only resource errors are skipped
+                throw (RuntimeException) failure;
+            }
+            if (null != failure)
+            {
+                LOG.log(Level.WARNING, failure, () -> "Skipping connection factory " + entry.getJndiName() + " for " + type + " lookup, received error: " + failure.getMessage());
+                return;
+            }
+            merge.accept(entry, value);
+        }
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers names that no connection factory knows about, for a limited time
+ *
+ * It holds at most maxSize names, when full expired names are dropped and if that is not enough new names are
+ * simply not remembered. A ttl of 0 turns it off.
+ */
+public final class NegativeCache
+{
+    private final ConcurrentMap<String, Long> expiresAt = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final int maxSize;
+    private final LongSupplier clock;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private NegativeCache(long ttlMillis, int maxSize, LongSupplier clock)
+    {
+        this.ttlMillis = ttlMillis;
+        this.maxSize = maxSize;
+        this.clock = clock;
+    }
+
+    public static NegativeCache of(long ttlMillis, int maxSize)
+    {
+        return of(ttlMillis, maxSize, System::currentTimeMillis);
+    }
+
+    static NegativeCache of(long ttlMillis, int maxSize, LongSupplier clock)
+    {
+        Objects.requireNonNull(clock, "clock can not be null");
+        return new NegativeCache(ttlMillis, maxSize, clock);
+    }
+
+    public boolean contains(String name)
+    {
+        Long expires = expiresAt.get(name);
+        if (null != expires && clock.getAsLong() < expires)
+        {
+            hits.increment();
+            return true;
+        }
+        if (null != expires)
+        {
+            expiresAt.remove(name, expires);
+        }
+        misses.increment();
+        return false;
+    }
+
+    public void add(String name)
+    {
+        if (ttlMillis <= 0)
+        {
+            return;
+        }
+        long now = clock.getAsLong();
+        if (expiresAt.size() >= maxSize && !expiresAt.containsKey(name))
+        {
+            expiresAt.values().removeIf(expires -> now >= expires);
+            if (expiresAt.size() >= maxSize)
+            {
+                return;
+            }
+        }
+        expiresAt.put(name, now + ttlMillis);
+    }
+
+    public void remove(String name)
+    {
+        expiresAt.remove(name);
+    }
+
+    public void clear()
+    {
+        expiresAt.clear();
+    }
+
+    public int size()
+    {
+        return expiresAt.size();
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reverse index from connection factory jndi name to the cached keys, services or queues, that refer to it
+ *
+ * The index may hold keys that are no longer cached, users have to check the cache for every key they get.
+ */
+final class PoolIndex
+{
+    private final Map<String, Set<String>> keysByPool = new ConcurrentHashMap<>();
+
+    void add(Collection<String> jndiNames, String key)
+    {
+        // added within the map operation, a set that removeKey empties at the same time is dropped from the map
+        jndiNames.forEach(jndiName -> keysByPool.compute(jndiName, (name, current) -> {
+            Set<String> keys = null == current ? ConcurrentHashMap.newKeySet() : current;
+            keys.add(key);
+            return keys;
+        }));
+    }
+
+    /**
+     * @return the keys that referred to the connection factory, it is no longer indexed
+     */
+    Set<String> removePool(String jndiName)
+    {
+        Set<String> keys = keysByPool.remove(jndiName);
+        return null == keys ? Collections.emptySet() : keys;
+    }
+
+    void removeKey(String key, Collection<String> jndiNames)
+    {
+        jndiNames.forEach(jndiName -> keysByPool.computeIfPresent(jndiName, (name, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        }));
+    }
+
+    Set<String> getKeys(String jndiName)
+    {
+        return Collections.unmodifiableSet(keysByPool.getOrDefault(jndiName, Collections.emptySet()));
+    }
+
+    void clear()
+    {
+        keysByPool.clear();
+    }
+}
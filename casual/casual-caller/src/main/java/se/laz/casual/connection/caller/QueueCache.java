@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2022, The casual project. All rights reserved.
+ * Copyright (c) 2022 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -7,13 +7,19 @@
 package se.laz.casual.connection.caller;
 
 import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.connection.caller.config.ConfigurationService;
+import se.laz.casual.connection.caller.metrics.LatencyHistograms;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -23,6 +29,28 @@ public class QueueCache
 
     private final Map<String, List<ConnectionFactoryEntry>> cacheMap = new ConcurrentHashMap<>();
     private final Map<String, ConnectionFactoryEntry> stickies = new ConcurrentHashMap<>();
+    private final CacheEviction eviction;
+    private final PoolIndex poolIndex = new PoolIndex();
+    private final LongAdder restickies = new LongAdder();
+    private final LatencyHistograms latencyHistograms;
+
+    public QueueCache()
+    {
+        this(CacheEviction.of(ConfigurationService.getInstance().getConfiguration().getQueueCacheMaxSize(),
+                              ConfigurationService.getInstance().getConfiguration().getQueueCacheIdleTtlMillis()));
+    }
+
+    QueueCache(CacheEviction eviction)
+    {
+        this(eviction, LatencyHistograms.getInstance());
+    }
+
+    // For test
+    QueueCache(CacheEviction eviction, LatencyHistograms latencyHistograms)
+    {
+        this.eviction = eviction;
+        this.latencyHistograms = latencyHistograms;
+    }
 
     public Set<String> getCachedQueueNames()
     {
@@ -36,77 +64,195 @@ public class QueueCache
     public Optional<ConnectionFactoryEntry> getOrEmpty(QueueInfo queueInfo)
     {
         String queueName = queueInfo.getQueueName();
-        if (stickies.containsKey(queueName))
+        ConnectionFactoryEntry sticky = stickies.get(queueName);
+        List<ConnectionFactoryEntry> cachedForQueue = cacheMap.get(queueName);
+        if (null == sticky && null == cachedForQueue)
         {
-            return Optional.of(stickies.get(queueName));
+            // only cached queues are tracked for eviction
+            return Optional.empty();
         }
-        else if (cacheMap.containsKey(queueName))
+        if (eviction.expireIfIdle(queueName))
         {
-            // Prevent the unlikely case that two different threads manage to find and set different stickies
-            synchronized (stickies) {
-                if (stickies.containsKey(queueName))
-                {
-                    // While waiting another thread may have already set a sticky
-                    return Optional.of(stickies.get(queueName));
-                }
-
-                List<ConnectionFactoryEntry> cachedForQueue = cacheMap.get(queueName)
-                        .stream()
-                        .filter(ConnectionFactoryEntry::isValid)
-                        .collect(Collectors.toList());
-
-                if(cachedForQueue.isEmpty())
-                {
-                    LOG.info(() -> "No valid connection for queuename: " + queueName);
-                    return Optional.empty();
-                }
-
-                // We never expect more than one source for a queue. Just pick first one and stick to it
-                ConnectionFactoryEntry selectedFactory = cachedForQueue.get(0);
-                stickies.put(queueName, selectedFactory);
-
-                if (cachedForQueue.size() > 1) {
-                    LOG.info(() -> "Found multiple (" + cachedForQueue.size() + ") sources for queue '" + queueName
-                            + "', selecting and setting sticky for CasualConnectionFactory=" + selectedFactory);
-                }
-
-                return Optional.of(selectedFactory);
-            }
+            evict(queueName);
+            return Optional.empty();
         }
-        else
+        eviction.touch(queueName);
+        if (null != sticky)
+        {
+            // an open circuit moves the sticky, if there is another valid connection factory for the queue
+            return Optional.of(sticky.isValid() ? sticky : moveSticky(queueInfo, sticky));
+        }
+        if (null == cachedForQueue)
         {
             return Optional.empty();
         }
+        // Selection is atomic per queue, threads selecting a sticky for other queues are not blocked
+        return Optional.ofNullable(stickies.computeIfAbsent(queueName, name -> selectSticky(name, cachedForQueue)));
+    }
+
+    private static ConnectionFactoryEntry selectSticky(String queueName, List<ConnectionFactoryEntry> cachedForQueue)
+    {
+        List<ConnectionFactoryEntry> valid = cachedForQueue.stream()
+                                                           .filter(ConnectionFactoryEntry::isValid)
+                                                           .collect(Collectors.toList());
+        if(valid.isEmpty())
+        {
+            LOG.info(() -> "No valid connection for queuename: " + queueName);
+            return null;
+        }
+
+        // We never expect more than one source for a queue. Just pick first one and stick to it
+        ConnectionFactoryEntry selectedFactory = valid.get(0);
+        if (valid.size() > 1) {
+            LOG.info(() -> "Found multiple (" + valid.size() + ") sources for queue '" + queueName
+                    + "', selecting and setting sticky for CasualConnectionFactory=" + selectedFactory);
+        }
+        return selectedFactory;
+    }
+
+    /**
+     * Drops the sticky for the queue, the next lookup selects a new one among the cached connection factories
+     */
+    void removeSticky(QueueInfo queueInfo)
+    {
+        stickies.remove(queueInfo.getQueueName());
+    }
+
+    /**
+     * Moves the sticky of the queue off the failed connection factory to the next valid one that has the queue
+     *
+     * @return the sticky of the queue after the move, the failed one if there is no other valid connection factory
+     */
+    ConnectionFactoryEntry moveSticky(QueueInfo queueInfo, ConnectionFactoryEntry failed)
+    {
+        String queueName = queueInfo.getQueueName();
+        List<ConnectionFactoryEntry> cachedForQueue = cacheMap.get(queueName);
+        if (null == cachedForQueue)
+        {
+            return failed;
+        }
+        Optional<ConnectionFactoryEntry> next = cachedForQueue.stream()
+                                                              .filter(ConnectionFactoryEntry::isValid)
+                                                              .filter(entry -> !entry.getJndiName().equals(failed.getJndiName()))
+                                                              .findFirst();
+        if (!next.isPresent())
+        {
+            return failed;
+        }
+        // only counted once if several threads see the same failure
+        AtomicBoolean moved = new AtomicBoolean(false);
+        ConnectionFactoryEntry current = stickies.computeIfPresent(queueName, (name, sticky) -> {
+            if (!sticky.getJndiName().equals(failed.getJndiName()))
+            {
+                return sticky;
+            }
+            moved.set(true);
+            return next.get();
+        });
+        if (moved.get())
+        {
+            restickies.increment();
+            LOG.info(() -> "Moved sticky for queue '" + queueName + "' from " + failed.getJndiName() + " to " + next.get().getJndiName());
+        }
+        return null == current ? failed : current;
+    }
+
+    /**
+     * @return the number of times the sticky of a queue has been moved off a failed connection factory
+     */
+    public long getRestickCount()
+    {
+        return restickies.sum();
     }
 
     public void store(QueueInfo queueInfo, List<ConnectionFactoryEntry> entries)
     {
         cacheMap.put(queueInfo.getQueueName(), entries);
+        // note: a replaced list leaves its connection factories indexed, a sticky may still refer to one of them
+        poolIndex.add(entries.stream().map(ConnectionFactoryEntry::getJndiName).collect(Collectors.toList()), queueInfo.getQueueName());
+        eviction.touch(queueInfo.getQueueName());
+        eviction.evict(cacheMap::size, this::evict);
     }
 
-    public void remove(ConnectionFactoryEntry connectionFactoryEntry)
+    /**
+     * Adds the connection factory to the queue without counting it as an access
+     * @return false if the queue was left out, it is no longer cached and the cache is bounded
+     */
+    public boolean repopulate(QueueInfo queueInfo, ConnectionFactoryEntry entry)
     {
-        for(Map.Entry<String, ConnectionFactoryEntry> entry : stickies.entrySet())
+        String queueName = queueInfo.getQueueName();
+        List<ConnectionFactoryEntry> updated = cacheMap.computeIfPresent(queueName, (name, cachedForQueue) -> {
+            if (cachedForQueue.stream().anyMatch(cachedEntry -> cachedEntry.getJndiName().equals(entry.getJndiName())))
+            {
+                return cachedForQueue;
+            }
+            List<ConnectionFactoryEntry> entries = new ArrayList<>(cachedForQueue);
+            entries.add(entry);
+            return entries;
+        });
+        if (null == updated)
         {
-            if(entry.getValue().getJndiName().equals(connectionFactoryEntry.getJndiName()))
+            // it may have been evicted while discovering, an untracked entry would never be evicted again
+            if (eviction.isEnabled())
             {
-                stickies.remove(entry.getKey());
+                return false;
             }
+            cacheMap.putIfAbsent(queueName, new ArrayList<>(Collections.singletonList(entry)));
+        }
+        poolIndex.add(Collections.singletonList(entry.getJndiName()), queueName);
+        return true;
+    }
+
+    private boolean evict(String queueName)
+    {
+        stickies.remove(queueName);
+        List<ConnectionFactoryEntry> removed = cacheMap.remove(queueName);
+        if (null == removed)
+        {
+            return false;
         }
-        for(Map.Entry<String, List<ConnectionFactoryEntry>> entry : cacheMap.entrySet())
+        poolIndex.removeKey(queueName, removed.stream().map(ConnectionFactoryEntry::getJndiName).collect(Collectors.toList()));
+        latencyHistograms.removeQueue(queueName);
+        return true;
+    }
+
+    public void remove(ConnectionFactoryEntry connectionFactoryEntry)
+    {
+        // only the queues referring to the connection factory are touched
+        String jndiName = connectionFactoryEntry.getJndiName();
+        for(String queueName : poolIndex.removePool(jndiName))
         {
-            List<ConnectionFactoryEntry> l = entry.getValue();
-            l.removeIf(cachedEntry -> Objects.equals(cachedEntry.getJndiName(), connectionFactoryEntry.getJndiName()));
-            if(l.isEmpty())
+            stickies.computeIfPresent(queueName, (name, sticky) -> jndiName.equals(sticky.getJndiName()) ? null : sticky);
+            List<ConnectionFactoryEntry> l = cacheMap.get(queueName);
+            if(null == l)
             {
-                cacheMap.remove(entry.getKey());
+                continue;
+            }
+            l.removeIf(cachedEntry -> Objects.equals(cachedEntry.getJndiName(), jndiName));
+            if(l.isEmpty() && cacheMap.remove(queueName, l))
+            {
+                eviction.remove(queueName);
+                latencyHistograms.removeQueue(queueName);
             }
         }
     }
 
+    Set<String> getQueuesReferring(String jndiName)
+    {
+        return poolIndex.getKeys(jndiName);
+    }
+
     public void clear()
     {
         cacheMap.clear();
         stickies.clear();
+        eviction.clear();
+        poolIndex.clear();
+        latencyHistograms.clearQueues();
+    }
+
+    public CacheEviction getEviction()
+    {
+        return eviction;
     }
 }
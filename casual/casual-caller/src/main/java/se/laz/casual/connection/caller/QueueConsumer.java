@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import se.laz.casual.api.flags.ErrorState;
+import se.laz.casual.api.queue.DequeueReturn;
+import se.laz.casual.api.queue.MessageSelector;
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.api.queue.QueueMessage;
+import se.laz.casual.connection.caller.config.Configuration;
+import se.laz.casual.connection.caller.config.ConfigurationService;
+
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Drains a queue, fetching up to the prefetch depth of messages per round to the caller and handing them out one at a
+ * time from a local buffer
+ *
+ * Prefetched messages are already dequeued. Within a transaction they are committed with it even if they are never
+ * handed out, so within a transaction one message is fetched at a time unless prefetch in transactions is configured.
+ * If it can not be told whether there is a transaction there is no prefetch.
+ * {@link #hasNext()} is false when the queue is empty, it can be called again later to go on draining.
+ * Not thread safe, use one consumer per thread.
+ */
+public final class QueueConsumer implements Iterator<QueueMessage>
+{
+    private final CasualCaller caller;
+    private final QueueInfo qinfo;
+    private final MessageSelector selector;
+    private final int prefetch;
+    private final boolean prefetchInTransaction;
+    private final ArrayDeque<QueueMessage> buffer = new ArrayDeque<>();
+    private CurrentTransaction currentTransaction = CurrentTransaction.of();
+
+    private QueueConsumer(CasualCaller caller, QueueInfo qinfo, MessageSelector selector, int prefetch, boolean prefetchInTransaction)
+    {
+        this.caller = caller;
+        this.qinfo = qinfo;
+        this.selector = selector;
+        this.prefetch = prefetch;
+        this.prefetchInTransaction = prefetchInTransaction;
+    }
+
+    public static QueueConsumer of(CasualCaller caller, QueueInfo qinfo, MessageSelector selector)
+    {
+        return of(caller, qinfo, selector, ConfigurationService.getInstance().getConfiguration().getDequeuePrefetch());
+    }
+
+    /**
+     * @param prefetch the most messages to fetch per round, at least 1
+     */
+    public static QueueConsumer of(CasualCaller caller, QueueInfo qinfo, MessageSelector selector, int prefetch)
+    {
+        Configuration configuration = ConfigurationService.getInstance().getConfiguration();
+        return of(caller, qinfo, selector, prefetch, configuration.isDequeuePrefetchInTransaction());
+    }
+
+    public static QueueConsumer of(CasualCaller caller, QueueInfo qinfo, MessageSelector selector, int prefetch, boolean prefetchInTransaction)
+    {
+        Objects.requireNonNull(caller, "caller can not be null");
+        Objects.requireNonNull(qinfo, "qinfo can not be null");
+        Objects.requireNonNull(selector, "selector can not be null");
+        if (prefetch < 1)
+        {
+            throw new IllegalArgumentException("prefetch must be at least 1, prefetch: " + prefetch);
+        }
+        return new QueueConsumer(caller, qinfo, selector, prefetch, prefetchInTransaction);
+    }
+
+    // For test
+    static QueueConsumer of(CasualCaller caller, QueueInfo qinfo, MessageSelector selector, int prefetch, boolean prefetchInTransaction, TransactionSynchronizationRegistry transactionSynchronizationRegistry)
+    {
+        QueueConsumer consumer = of(caller, qinfo, selector, prefetch, prefetchInTransaction);
+        consumer.currentTransaction = CurrentTransaction.of(transactionSynchronizationRegistry);
+        return consumer;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (buffer.isEmpty())
+        {
+            fetch();
+        }
+        return !buffer.isEmpty();
+    }
+
+    @Override
+    public QueueMessage next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException("queue " + qinfo.getQueueName() + " is empty");
+        }
+        return buffer.poll();
+    }
+
+    /**
+     * @return the number of messages dequeued but not yet handed out
+     */
+    public int getBuffered()
+    {
+        return buffer.size();
+    }
+
+    private void fetch()
+    {
+        List<DequeueReturn> replies = caller.dequeue(qinfo, selector, getFetchSize());
+        for (DequeueReturn reply : replies)
+        {
+            Optional<QueueMessage> message = reply.getQueueMessage();
+            if (reply.getErrorState() == ErrorState.OK && message.isPresent())
+            {
+                buffer.add(message.get());
+            }
+            else if (buffer.isEmpty())
+            {
+                throw new CasualCallerException("dequeue from " + qinfo.getQueueName() + " failed: " + reply.getErrorState());
+            }
+        }
+    }
+
+    private int getFetchSize()
+    {
+        if (prefetch == 1 || prefetchInTransaction)
+        {
+            return prefetch;
+        }
+        return currentTransaction.isTransactionLess() ? prefetch : 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "QueueConsumer{" +
+                "queue=" + qinfo.getQueueName() +
+                ", prefetch=" + prefetch +
+                ", prefetchInTransaction=" + prefetchInTransaction +
+                ", buffered=" + buffer.size() +
+                '}';
+    }
+}
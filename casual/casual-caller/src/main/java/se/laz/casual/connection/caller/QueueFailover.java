@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import se.laz.casual.api.queue.QueueInfo;
+import se.laz.casual.jca.CasualConnection;
+import se.laz.casual.network.connection.CasualConnectionException;
+import se.laz.casual.network.connection.DomainDisconnectedException;
+
+import javax.resource.ResourceException;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Failover for enqueue and dequeue, the queue counterpart of {@link FailoverAlgorithm}
+ *
+ * A queue is stuck to one connection factory. When a call through it fails the entry is invalidated and the sticky of
+ * the queue is moved to the next valid connection factory that has the queue. The call is issued again there only if
+ * that is safe: outside of a transaction and when the call did not reach the domain, that is when getting the
+ * connection failed or the domain was disconnecting. After a CasualConnectionException the call may have been
+ * carried out, so it is never issued again.
+ */
+public class QueueFailover
+{
+    private static final Logger LOG = Logger.getLogger(QueueFailover.class.getName());
+    private final CurrentTransaction currentTransaction;
+
+    @FunctionalInterface
+    public interface QueueCall<T>
+    {
+        T apply(ConnectionFactoryEntry entry, CasualConnection connection);
+    }
+
+    private QueueFailover(CurrentTransaction currentTransaction)
+    {
+        this.currentTransaction = currentTransaction;
+    }
+
+    public static QueueFailover of()
+    {
+        return new QueueFailover(CurrentTransaction.of());
+    }
+
+    // For test
+    static QueueFailover of(CurrentTransaction currentTransaction)
+    {
+        return new QueueFailover(currentTransaction);
+    }
+
+    public <T> T call(QueueInfo qinfo, ConnectionFactoryLookup lookup, QueueCall<T> doCall, Supplier<T> doTpenoent)
+    {
+        Optional<ConnectionFactoryEntry> found = lookup.get(qinfo);
+        if (!found.isPresent())
+        {
+            return doTpenoent.get();
+        }
+        ConnectionFactoryEntry entry = found.get();
+        Set<String> tried = null;
+        while (true)
+        {
+            boolean called = false;
+            boolean done = false;
+            T result = null;
+            boolean retryable;
+            Exception thrownException;
+            try (CasualConnection connection = entry.getConnectionFactory().getConnection())
+            {
+                called = true;
+                result = doCall.apply(entry, connection);
+                done = true;
+                return result;
+            }
+            catch (ResourceException e)
+            {
+                if (done)
+                {
+                    // closing the connection failed, the call is done though
+                    String jndiName = entry.getJndiName();
+                    LOG.warning(() -> "Failed to close connection=" + jndiName + " after a call for queue=" + qinfo.getQueueName() + ": " + e);
+                    entry.invalidateConnectionFactory();
+                    return result;
+                }
+                // when getting the connection failed nothing reached the domain
+                retryable = !called;
+                thrownException = e;
+            }
+            catch (DomainDisconnectedException e)
+            {
+                // the domain is disconnecting and did not take the call
+                retryable = true;
+                thrownException = e;
+            }
+            catch (CasualConnectionException e)
+            {
+                retryable = false;
+                thrownException = e;
+            }
+            ConnectionFactoryEntry failed = entry;
+            Exception cause = thrownException;
+            CasualResourceException failure = new CasualResourceException("Call failed for queue=" + qinfo.getQueueName() + " on connection=" + failed.getJndiName(), cause);
+            ConnectionFactoryEntry next = poolFailed(qinfo, lookup, failed);
+            tried = null == tried ? new HashSet<>() : tried;
+            tried.add(failed.getJndiName());
+            if (!retryable || !currentTransaction.isTransactionLess() || tried.contains(next.getJndiName()))
+            {
+                throw failure;
+            }
+            LOG.warning(() -> "Call failed for queue=" + qinfo.getQueueName() + " on connection=" + failed.getJndiName() + ", issuing it on connection=" + next.getJndiName() + ": " + cause);
+            entry = next;
+        }
+    }
+
+    /**
+     * Invalidates the entry and moves the sticky of the queue off it
+     *
+     * @return the entry to use for the queue from now on, the failed one if there is no other valid one
+     */
+    public ConnectionFactoryEntry poolFailed(QueueInfo qinfo, ConnectionFactoryLookup lookup, ConnectionFactoryEntry failed)
+    {
+        failed.invalidate();
+        return lookup.moveQueueSticky(qinfo, failed);
+    }
+
+    /**
+     * @return true if the exception means that the connection factory failed, rather than the call
+     */
+    public static boolean isConnectionFailure(RuntimeException e)
+    {
+        return e instanceof DomainDisconnectedException || e instanceof CasualConnectionException;
+    }
+}
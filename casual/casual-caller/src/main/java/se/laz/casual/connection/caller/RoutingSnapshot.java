@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import se.laz.casual.connection.caller.loadbalancer.LoadBalancer;
+import se.laz.casual.connection.caller.loadbalancer.LoadBalancerType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable, precompiled view of the connection factories that serve a service
+ *
+ * The entries are kept flattened in priority order, lowest number of hops first, where each entry
+ * only occurs once - at the highest priority it is known at.
+ * tierStart[i] is the index in entries where priority[i] starts, tierStart[priorities.length] == entries.length
+ *
+ * Instances are never mutated, any change to the owning {@link ConnectionFactoriesByPriority} results in a new snapshot.
+ */
+public final class RoutingSnapshot
+{
+    private static final RoutingSnapshot EMPTY = new RoutingSnapshot(new long[0], new int[]{0}, new ConnectionFactoryEntry[0], Collections.emptySet());
+    private final long[] priorities;
+    private final int[] tierStart;
+    private final ConnectionFactoryEntry[] entries;
+    private final Set<String> checkedConnectionFactories;
+
+    private RoutingSnapshot(long[] priorities, int[] tierStart, ConnectionFactoryEntry[] entries, Set<String> checkedConnectionFactories)
+    {
+        this.priorities = priorities;
+        this.tierStart = tierStart;
+        this.entries = entries;
+        this.checkedConnectionFactories = checkedConnectionFactories;
+    }
+
+    public static RoutingSnapshot empty()
+    {
+        return EMPTY;
+    }
+
+    public static RoutingSnapshot of(PrioritizedCollection<ConnectionFactoryEntry> prioritizedEntries, Set<String> checkedConnectionFactories)
+    {
+        Objects.requireNonNull(prioritizedEntries, "prioritizedEntries can not be null");
+        Objects.requireNonNull(checkedConnectionFactories, "checkedConnectionFactories can not be null");
+        List<Long> orderedKeys = prioritizedEntries.getPriorities();
+        List<Long> usedPriorities = new ArrayList<>(orderedKeys.size());
+        List<Integer> starts = new ArrayList<>(orderedKeys.size() + 1);
+        List<ConnectionFactoryEntry> flattened = new ArrayList<>();
+        Set<ConnectionFactoryEntry> seen = new HashSet<>();
+        for (Long priority : orderedKeys)
+        {
+            int start = flattened.size();
+            for (ConnectionFactoryEntry entry : prioritizedEntries.get(priority))
+            {
+                // note:
+                // the null check is needed since another thread may have called remove
+                // after getPriorities was called, see PrioritizedCollection::get
+                if (null != entry && seen.add(entry))
+                {
+                    flattened.add(entry);
+                }
+            }
+            if (flattened.size() > start)
+            {
+                usedPriorities.add(priority);
+                starts.add(start);
+            }
+        }
+        if (flattened.isEmpty() && checkedConnectionFactories.isEmpty())
+        {
+            return EMPTY;
+        }
+        starts.add(flattened.size());
+        return new RoutingSnapshot(usedPriorities.stream().mapToLong(Long::longValue).toArray(),
+                starts.stream().mapToInt(Integer::intValue).toArray(),
+                flattened.toArray(new ConnectionFactoryEntry[0]),
+                Collections.unmodifiableSet(new HashSet<>(checkedConnectionFactories)));
+    }
+
+    public boolean isEmpty()
+    {
+        return entries.length == 0;
+    }
+
+    public int size()
+    {
+        return entries.length;
+    }
+
+    public int numberOfPriorities()
+    {
+        return priorities.length;
+    }
+
+    public long getPriority(int tier)
+    {
+        return priorities[tier];
+    }
+
+    public boolean isResolved(String entryName)
+    {
+        return checkedConnectionFactories.contains(entryName);
+    }
+
+    public Set<String> getCheckedConnectionFactories()
+    {
+        return checkedConnectionFactories;
+    }
+
+    public boolean hasCheckedAllValid(List<ConnectionFactoryEntry> possibleEntries)
+    {
+        Objects.requireNonNull(possibleEntries, "possibleEntries can not be null");
+        for (int i = 0; i < possibleEntries.size(); ++i)
+        {
+            ConnectionFactoryEntry entry = possibleEntries.get(i);
+            if (!checkedConnectionFactories.contains(entry.getJndiName()) && entry.isValid())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return all entries in priority order, the order within a priority is random
+     */
+    public List<ConnectionFactoryEntry> randomizeWithPriority()
+    {
+        return orderWithPriority(LoadBalancerType.RANDOM.getLoadBalancer());
+    }
+
+    /**
+     * @param loadBalancer decides the order within each priority
+     * @return all entries in priority order
+     */
+    public List<ConnectionFactoryEntry> orderWithPriority(LoadBalancer loadBalancer)
+    {
+        ArrayList<ConnectionFactoryEntry> result = new ArrayList<>(entries.length);
+        Collections.addAll(result, entries);
+        for (int tier = 0; tier < priorities.length; ++tier)
+        {
+            loadBalancer.arrange(result, tierStart[tier], tierStart[tier + 1]);
+        }
+        return result;
+    }
+
+    /**
+     * @param serviceName the service the entries are ordered for
+     * @param loadBalancer decides the order within each priority
+     * @return all entries in priority order
+     */
+    public List<ConnectionFactoryEntry> orderWithPriority(String serviceName, LoadBalancer loadBalancer)
+    {
+        ArrayList<ConnectionFactoryEntry> result = new ArrayList<>(entries.length);
+        Collections.addAll(result, entries);
+        for (int tier = 0; tier < priorities.length; ++tier)
+        {
+            loadBalancer.arrange(serviceName, result, tierStart[tier], tierStart[tier + 1]);
+        }
+        return result;
+    }
+}
@@ -1,11 +1,16 @@
 /*
- * Copyright (c) 2021, The casual project. All rights reserved.
+ * Copyright (c) 2021 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
 
 package se.laz.casual.connection.caller;
 
+import se.laz.casual.api.service.ServiceDetails;
+import se.laz.casual.connection.caller.config.ConfigurationService;
+import se.laz.casual.connection.caller.loadbalancer.LatencyScores;
+import se.laz.casual.connection.caller.metrics.LatencyHistograms;
+
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -15,6 +20,35 @@ import java.util.concurrent.ConcurrentHashMap;
 public class ServiceCache
 {
     private final Map<String, ConnectionFactoriesByPriority> cacheMap = new ConcurrentHashMap<>();
+    private final CacheEviction eviction;
+    private final PoolIndex poolIndex = new PoolIndex();
+    private final LatencyScores latencyScores;
+    private final LatencyHistograms latencyHistograms;
+
+    public ServiceCache()
+    {
+        this(CacheEviction.of(ConfigurationService.getInstance().getConfiguration().getServiceCacheMaxSize(),
+                              ConfigurationService.getInstance().getConfiguration().getServiceCacheIdleTtlMillis()));
+    }
+
+    ServiceCache(CacheEviction eviction)
+    {
+        this(eviction, LatencyScores.getInstance());
+    }
+
+    // For test
+    ServiceCache(CacheEviction eviction, LatencyScores latencyScores)
+    {
+        this(eviction, latencyScores, LatencyHistograms.getInstance());
+    }
+
+    // For test
+    ServiceCache(CacheEviction eviction, LatencyScores latencyScores, LatencyHistograms latencyHistograms)
+    {
+        this.eviction = eviction;
+        this.latencyScores = latencyScores;
+        this.latencyHistograms = latencyHistograms;
+    }
 
     public Set<String> getCachedServiceNames()
     {
@@ -23,14 +57,23 @@ public class ServiceCache
 
     public ConnectionFactoriesByPriority getOrEmpty(String serviceName)
     {
-        if (cacheMap.containsKey(serviceName))
+        ConnectionFactoriesByPriority cached = cacheMap.get(serviceName);
+        if (null == cached)
         {
-            return cacheMap.get(serviceName);
+            return ConnectionFactoriesByPriority.emptyInstance();
         }
-        else
+        if (eviction.expireIfIdle(serviceName))
         {
+            if (cacheMap.remove(serviceName, cached))
+            {
+                poolIndex.removeKey(serviceName, cached.getConnectionFactoryNames());
+                latencyScores.remove(serviceName);
+                latencyHistograms.removeService(serviceName);
+            }
             return ConnectionFactoriesByPriority.emptyInstance();
         }
+        eviction.touch(serviceName);
+        return cached;
     }
 
     public void store(String serviceName, ConnectionFactoriesByPriority entries)
@@ -42,10 +85,48 @@ public class ServiceCache
 
         // Guard against service lookups that only contain checked services list for a service that is unknown
         // We do not want to store unknown services
-        if (cacheMap.containsKey(serviceName))
+        ConnectionFactoriesByPriority cached = cacheMap.get(serviceName);
+        if (null != cached)
+        {
+            cached.addResolvedFactories(entries.getCheckedFactoriesForService());
+            poolIndex.add(cached.getConnectionFactoryNames(), serviceName);
+            eviction.touch(serviceName);
+            eviction.evict(cacheMap::size, this::evict);
+        }
+    }
+
+    /**
+     * Adds the connection factory to the service without counting it as an access
+     * @return false if the service was left out, it is no longer cached and the cache is bounded
+     */
+    public boolean repopulate(String serviceName, List<ServiceDetails> serviceDetails, ConnectionFactoryEntry entry)
+    {
+        ConnectionFactoriesByPriority cached = cacheMap.get(serviceName);
+        if (null == cached)
+        {
+            // it may have been evicted while discovering, an untracked entry would never be evicted again
+            if (eviction.isEnabled())
+            {
+                return false;
+            }
+            cached = cacheMap.computeIfAbsent(serviceName, name -> ConnectionFactoriesByPriority.emptyInstance());
+        }
+        cached.store(serviceDetails, entry);
+        poolIndex.add(cached.getConnectionFactoryNames(), serviceName);
+        return true;
+    }
+
+    private boolean evict(String serviceName)
+    {
+        ConnectionFactoriesByPriority removed = cacheMap.remove(serviceName);
+        if (null == removed)
         {
-            cacheMap.get(serviceName).addResolvedFactories(entries.getCheckedFactoriesForService());
+            return false;
         }
+        poolIndex.removeKey(serviceName, removed.getConnectionFactoryNames());
+        latencyScores.remove(serviceName);
+        latencyHistograms.removeService(serviceName);
+        return true;
     }
 
     private void storeServiceWithPriority(String serviceName, Long priority, List<ConnectionFactoryEntry> entries)
@@ -63,23 +144,53 @@ public class ServiceCache
 
     public void remove(ConnectionFactoryEntry connectionFactoryEntry)
     {
-        for (Map.Entry<String, ConnectionFactoriesByPriority> cachedEntry : cacheMap.entrySet())
+        // only the services referring to the connection factory are touched
+        for (String serviceName : poolIndex.removePool(connectionFactoryEntry.getJndiName()))
         {
-            cachedEntry.getValue().remove(connectionFactoryEntry);
-            if(cachedEntry.getValue().isEmpty())
+            ConnectionFactoriesByPriority cached = cacheMap.get(serviceName);
+            if (null == cached)
             {
-                cacheMap.remove(cachedEntry.getKey());
+                continue;
+            }
+            cached.remove(connectionFactoryEntry);
+            if(cached.isEmpty() && cacheMap.remove(serviceName, cached))
+            {
+                poolIndex.removeKey(serviceName, cached.getConnectionFactoryNames());
+                eviction.remove(serviceName);
+                latencyScores.remove(serviceName);
+                latencyHistograms.removeService(serviceName);
             }
         }
     }
 
+    Set<String> getServicesReferring(String jndiName)
+    {
+        return poolIndex.getKeys(jndiName);
+    }
+
     public void clear()
     {
         cacheMap.clear();
+        eviction.clear();
+        poolIndex.clear();
+        latencyScores.clear();
+        latencyHistograms.clearServices();
     }
 
     public void remove(String serviceName)
     {
-        cacheMap.remove(serviceName);
+        ConnectionFactoriesByPriority removed = cacheMap.remove(serviceName);
+        if (null != removed)
+        {
+            poolIndex.removeKey(serviceName, removed.getConnectionFactoryNames());
+        }
+        eviction.remove(serviceName);
+        latencyScores.remove(serviceName);
+        latencyHistograms.removeService(serviceName);
+    }
+
+    public CacheEviction getEviction()
+    {
+        return eviction;
     }
 }
@@ -5,14 +5,16 @@
  */
 package se.laz.casual.connection.caller;
 
+import se.laz.casual.connection.caller.config.ConfigurationService;
+import se.laz.casual.connection.caller.execution.ExecutionIdGenerator;
 import se.laz.casual.connection.caller.functions.FunctionThrowsResourceException;
 import se.laz.casual.jca.CasualConnection;
 import se.laz.casual.network.connection.CasualConnectionException;
+import se.laz.casual.network.connection.DomainDisconnectedException;
 
 import javax.resource.ResourceException;
 import java.util.List;
 import java.util.Optional;
-import java.util.UUID;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -20,15 +22,56 @@ import java.util.stream.Collectors;
 public class StickyTransactionHandler
 {
     private static final Logger LOG = Logger.getLogger(StickyTransactionHandler.class.getName());
+    private static final ExecutionIdGenerator EXECUTION_ID_GENERATOR = ConfigurationService.getInstance().getConfiguration().getExecutionIdGenerator().getExecutionIdGenerator();
+
+    /**
+     * Told when the call to the stickied pool is done, to record its latency
+     */
+    public interface CallObserver
+    {
+        CallObserver NONE = new CallObserver()
+        {
+            @Override
+            public <T> T succeeded(ConnectionFactoryEntry connectionFactoryEntry, long start, T result)
+            {
+                return result;
+            }
+
+            @Override
+            public void failed(ConnectionFactoryEntry connectionFactoryEntry, long start)
+            {
+                // NOP
+            }
+        };
+
+        /**
+         * @param start System.nanoTime() when the call was started
+         * @return the result of the call
+         */
+        <T> T succeeded(ConnectionFactoryEntry connectionFactoryEntry, long start, T result);
+
+        void failed(ConnectionFactoryEntry connectionFactoryEntry, long start);
+    }
 
     private StickyTransactionHandler()
     {}
+
+    public static <T> Optional<T> handleTransactionSticky(
+            String serviceName,
+            List<ConnectionFactoryEntry> factories,
+            FunctionThrowsResourceException<T> doCall,
+            Supplier<TransactionPoolMapper> transactionPoolMapperSupplier) throws ResourceException
+    {
+        return handleTransactionSticky(serviceName, factories, doCall, transactionPoolMapperSupplier, CallObserver.NONE);
+    }
+
     /**
      * Try to use a stickied pool if pool stickiness is configured and any stickied pool is available and serves the requested service
      *
      * @param serviceName Service to call
      * @param factories   Currently available factories for service to call
      * @param doCall      Provided service call procedure
+     * @param observer    Told about the outcome of the call to the stickied pool
      * @return Optional ServiceReturn. An empty result could indicate that stickiness isn't enabled, sticky isn't set yet for the current transaction (which will be the case for the first call) or the stickied pool was unavailable so call to sticky was skipped. Empty should always lead to retry down the line if possible, otherwise a TPENOENT response.
      * @throws ResourceException Some softer errors are reported as resource exceptions. If these are thrown later retries with other pools is possible.
      */
@@ -36,14 +79,18 @@ public class StickyTransactionHandler
             String serviceName,
             List<ConnectionFactoryEntry> factories,
             FunctionThrowsResourceException<T> doCall,
-            Supplier<TransactionPoolMapper> transactionPoolMapperSupplier) throws ResourceException
+            Supplier<TransactionPoolMapper> transactionPoolMapperSupplier,
+            CallObserver observer) throws ResourceException
     {
-        if (!transactionPoolMapperSupplier.get().isPoolMappingActive())
+        // the transaction is resolved once, both reading and setting the sticky use it
+        Optional<TransactionSticky> transactionMaybe = transactionPoolMapperSupplier.get().getCurrentTransaction();
+        if (!transactionMaybe.isPresent())
         {
             return Optional.empty();
         }
 
-        Optional<StickiedCallInfo> stickyMaybe = getAndSetSticky(serviceName, factories, transactionPoolMapperSupplier);
+        TransactionSticky transaction = transactionMaybe.get();
+        Optional<StickiedCallInfo> stickyMaybe = getAndSetSticky(serviceName, factories, transaction);
 
         if (stickyMaybe.isPresent())
         {
@@ -51,24 +98,42 @@ public class StickyTransactionHandler
             StickiedCallInfo sticky = stickyMaybe.get();
             factories.remove(sticky.getConnectionFactoryEntry()); // If we later need to do failover stuff we don't want to retry with this one
             LOG.finest(() -> "Attempting to use pool=" + sticky.getConnectionFactoryEntry().getJndiName() + " with sticky to current transaction.");
+            long start = System.nanoTime();
+            T result;
             try (CasualConnection con = sticky.getConnectionFactoryEntry().getConnectionFactory().getConnection())
             {
-                return Optional.of(doCall.apply(con, sticky.getExecution()));
+                result = FailoverAlgorithm.doCall(sticky.getConnectionFactoryEntry(), con, sticky.getExecution(), doCall);
             }
             catch (CasualConnectionException e)
             {
                 //This error branch will most likely happen if there are connection errors during a service call
                 sticky.getConnectionFactoryEntry().invalidate();
+                observer.failed(sticky.getConnectionFactoryEntry(), start);
 
                 // These exceptions are rollback-only, do not attempt any retries.
                 throw new CasualResourceException("Call failed during execution to service=" + serviceName
                         + " on connection=" + sticky.getConnectionFactoryEntry().getJndiName()
                         + " because of a network connection error, retries not possible.", e);
             }
+            catch (ResourceException | DomainDisconnectedException e)
+            {
+                // failover to other pools may follow, the outcome of the call is reported as for any other call
+                sticky.getConnectionFactoryEntry().invalidate();
+                observer.failed(sticky.getConnectionFactoryEntry(), start);
+                throw e;
+            }
+            catch (RuntimeException e)
+            {
+                // not a failure of the connection factory, reported so that a half open probe is not held
+                sticky.getConnectionFactoryEntry().callSucceeded();
+                observer.failed(sticky.getConnectionFactoryEntry(), start);
+                throw e;
+            }
+            return Optional.of(observer.succeeded(sticky.getConnectionFactoryEntry(), start, result));
         }
         else
         {
-            LOG.finest(() -> "Current sticky is " + transactionPoolMapperSupplier.get().getStickyInformationForCurrentTransaction()
+            LOG.finest(() -> "Current sticky is " + transaction.getStickyInformation().orElse(null)
                     + " but called service=" + serviceName
                     + " is currently available in pools [" + factories.stream().map(ConnectionFactoryEntry::getJndiName).collect(Collectors.joining(","))
                     + "]. Will use available pools instead of stickied pool.");
@@ -76,16 +141,25 @@ public class StickyTransactionHandler
         }
     }
 
-    private static Optional<StickiedCallInfo> getAndSetSticky(String serviceName, List<ConnectionFactoryEntry> validFactories, Supplier<TransactionPoolMapper> transactionPoolMapperSupplier)
+    private static Optional<StickiedCallInfo> getAndSetSticky(String serviceName, List<ConnectionFactoryEntry> validFactories, TransactionSticky transaction)
     {
-        StickyInformation stickyInformation = transactionPoolMapperSupplier.get().getStickyInformationForCurrentTransaction();
+        StickyInformation stickyInformation = transaction.getStickyInformation().orElse(null);
 
         if (stickyInformation == null)
         {
             // Service exists in some pool, pick first one as sticky (would otherwise be picked later in normal flow)
-            ConnectionFactoryEntry newStickyFactory = validFactories.get(0);
-            StickyInformation newStickyInformation =  StickyInformation.of(newStickyFactory.getJndiName(), UUID.randomUUID());
-            transactionPoolMapperSupplier.get().setStickyInformationForCurrentTransaction(newStickyInformation);
+            // a half open circuit only lets a limited number of probe calls through
+            Optional<ConnectionFactoryEntry> permitted = validFactories.stream()
+                                                                       .filter(ConnectionFactoryEntry::tryAcquirePermission)
+                                                                       .findFirst();
+            if (!permitted.isPresent())
+            {
+                LOG.finest(() -> "No pool lets a call to service=" + serviceName + " through, no sticky set");
+                return Optional.empty();
+            }
+            ConnectionFactoryEntry newStickyFactory = permitted.get();
+            StickyInformation newStickyInformation =  StickyInformation.of(newStickyFactory.getJndiName(), EXECUTION_ID_GENERATOR.next());
+            transaction.setStickyInformation(newStickyInformation);
             LOG.finest(() -> "No sticky present for call to service=" + serviceName + ", setting sticky=" + newStickyFactory.getJndiName() + " with=" + newStickyInformation);
             return Optional.of(StickiedCallInfo.of(newStickyFactory, newStickyInformation.getExecution()));
         }
@@ -94,7 +168,8 @@ public class StickyTransactionHandler
             Optional<ConnectionFactoryEntry> stickyMatch = validFactories
                     .stream()
                     .filter(connectionFactoryEntry -> stickyInformation.getPoolName().equals(connectionFactoryEntry.getJndiName()) && connectionFactoryEntry.isValid())
-                    .findFirst();
+                    .findFirst()
+                    .filter(ConnectionFactoryEntry::tryAcquirePermission);
 
             if (stickyMatch.isPresent())
             {
@@ -105,7 +180,7 @@ public class StickyTransactionHandler
             }
             else
             {
-                LOG.finest(() -> "There was a sticky=" + stickyInformation + ", but it did not match the valid factories for the called service=" + serviceName);
+                LOG.finest(() -> "There was a sticky=" + stickyInformation + ", but it did not match the valid factories for the called service=" + serviceName + " or its circuit let no call through");
                 return Optional.empty();
             }
         }
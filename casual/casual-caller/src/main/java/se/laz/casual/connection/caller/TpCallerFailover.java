@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2021 - 2023, The casual project. All rights reserved.
+ * Copyright (c) 2021 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -13,9 +13,12 @@ import se.laz.casual.api.flags.AtmiFlags;
 import se.laz.casual.api.flags.ErrorState;
 import se.laz.casual.api.flags.Flag;
 import se.laz.casual.api.flags.ServiceReturnState;
+import se.laz.casual.connection.caller.hedging.HedgeBudget;
+import se.laz.casual.connection.caller.hedging.Hedging;
 
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Casual caller strategy that does a few things:
@@ -30,10 +33,46 @@ import java.util.concurrent.CompletableFuture;
 public class TpCallerFailover implements TpCaller
 {
     private static final FailoverAlgorithm algorithm = new FailoverAlgorithm();
+    private static final TpacallExecutor defaultTpacallExecutor = TpacallExecutor.fromConfiguration();
+    private final TpacallExecutor tpacallExecutor;
+    private final Hedging hedging;
+
+    public TpCallerFailover()
+    {
+        this(defaultTpacallExecutor, Hedging.getInstance());
+    }
+
+    TpCallerFailover(TpacallExecutor tpacallExecutor)
+    {
+        this(tpacallExecutor, Hedging.getInstance());
+    }
+
+    TpCallerFailover(TpacallExecutor tpacallExecutor, Hedging hedging)
+    {
+        this.tpacallExecutor = tpacallExecutor;
+        this.hedging = hedging;
+    }
 
     @Override
     public ServiceReturn<CasualBuffer> tpcall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, ConnectionFactoryLookup lookup)
     {
+        // a call without a reply has nothing to wait for
+        Optional<HedgeBudget> budget = flags.isSet(AtmiFlags.TPNOREPLY) ? Optional.empty() : hedging.getBudget(serviceName);
+        // never hedged within a transaction, forCurrentCall is empty then
+        Optional<Executor> executor = budget.isPresent() ? tpacallExecutor.forCurrentCall() : Optional.empty();
+        if (executor.isPresent())
+        {
+            return algorithm.tpcallWithHedging(
+                    serviceName,
+                    lookup,
+                    (con, execution) -> con.tpcall(serviceName, data, flags, execution),
+                    (con, execution) -> con.tpacall(serviceName, data, flags, execution),
+                    this::tpenoentReply,
+                    budget.get(),
+                    hedging.getDelayMillis(),
+                    executor.get()
+            );
+        }
         return algorithm.tpcallWithFailover(
                 serviceName,
                 lookup,
@@ -47,6 +86,18 @@ public class TpCallerFailover implements TpCaller
     @Override
     public CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> tpacall(String serviceName, CasualBuffer data, Flag<AtmiFlags> flags, ConnectionFactoryLookup lookup)
     {
+        Optional<Executor> executor = tpacallExecutor.forCurrentCall();
+        if (executor.isPresent())
+        {
+            // returns at once, everything up to the reply runs on the executor
+            return algorithm.tpacallWithFailover(
+                    serviceName,
+                    lookup,
+                    (con, execution) -> con.tpacall(serviceName, data, flags, execution),
+                    () -> CompletableFuture.completedFuture(optionalTpenoentReply()),
+                    executor.get()
+            );
+        }
         return algorithm.tpacallWithFailover(
                 serviceName,
                 lookup,
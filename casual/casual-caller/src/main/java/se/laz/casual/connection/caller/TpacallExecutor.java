@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import se.laz.casual.connection.caller.config.ConfigurationService;
+
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+
+/**
+ * Decides if a tpacall runs asynchronously, and on which executor. Also used for hedged tpcalls.
+ *
+ * A call within a transaction is always issued on the caller thread since the transaction is bound to that thread.
+ * If the configured executor, or the TransactionSynchronizationRegistry, can not be found all calls are issued on
+ * the caller thread.
+ */
+public class TpacallExecutor
+{
+    private final JndiResource<Executor> executor;
+    private final JndiResource<TransactionSynchronizationRegistry> transactionSynchronizationRegistry;
+
+    private TpacallExecutor(JndiResource<Executor> executor, JndiResource<TransactionSynchronizationRegistry> transactionSynchronizationRegistry)
+    {
+        this.executor = executor;
+        this.transactionSynchronizationRegistry = transactionSynchronizationRegistry;
+    }
+
+    public static TpacallExecutor of(String executorJndiName)
+    {
+        return new TpacallExecutor(JndiResource.of(executorJndiName, "tpacall will be issued on the caller thread"),
+                                   JndiResource.transactionSynchronizationRegistry("tpacall will be issued on the caller thread"));
+    }
+
+    public static TpacallExecutor fromConfiguration()
+    {
+        return of(ConfigurationService.getInstance().getConfiguration().getTpacallExecutorJndiName());
+    }
+
+    // For test
+    static TpacallExecutor of(Executor executor, TransactionSynchronizationRegistry transactionSynchronizationRegistry)
+    {
+        return new TpacallExecutor(JndiResource.resolved(executor), JndiResource.resolved(transactionSynchronizationRegistry));
+    }
+
+    /**
+     * @return the executor to run the call on, empty if the call has to be issued on the caller thread
+     */
+    public Optional<Executor> forCurrentCall()
+    {
+        Optional<Executor> maybeExecutor = executor.get();
+        if (!maybeExecutor.isPresent())
+        {
+            return Optional.empty();
+        }
+        return transactionSynchronizationRegistry.get().filter(registry -> null == registry.getTransactionKey())
+                                                       .flatMap(registry -> maybeExecutor);
+    }
+}
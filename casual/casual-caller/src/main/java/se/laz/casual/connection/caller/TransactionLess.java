@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2022 - 2023, The casual project. All rights reserved.
+ * Copyright (c) 2022 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -9,6 +9,8 @@ import se.laz.casual.api.buffer.CasualBuffer;
 import se.laz.casual.api.buffer.ServiceReturn;
 import se.laz.casual.api.discovery.DiscoveryReturn;
 import se.laz.casual.api.service.ServiceDetails;
+import se.laz.casual.connection.caller.config.ConfigurationService;
+import se.laz.casual.connection.caller.execution.ExecutionIdGenerator;
 import se.laz.casual.jca.CasualConnection;
 
 import javax.resource.ResourceException;
@@ -16,7 +18,6 @@ import javax.transaction.Transactional;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -25,6 +26,8 @@ import java.util.logging.Logger;
 public class TransactionLess
 {
     private static final Logger LOG = Logger.getLogger(TransactionLess.class.getName());
+    private final ExecutionIdGenerator executionIdGenerator = ConfigurationService.getInstance().getConfiguration().getExecutionIdGenerator().getExecutionIdGenerator();
+
     @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public ServiceReturn<CasualBuffer> tpcall(Supplier<ServiceReturn<CasualBuffer>> supplier)
     {
@@ -62,7 +65,7 @@ public class TransactionLess
        {
           LOG.finest(() -> "domain discovery for all known services/queues will be issued for " + connectionFactoryEntry );
           LOG.finest(() -> "all known services/queues being, services: " + cachedItems.get(CacheType.SERVICE) + " queues: " + cachedItems.get(CacheType.QUEUE));
-          return Optional.of(connection.discover(UUID.randomUUID(),
+          return Optional.of(connection.discover(executionIdGenerator.next(),
                   cachedItems.get(CacheType.SERVICE),
                   cachedItems.get(CacheType.QUEUE)));
        }
@@ -1,47 +1,43 @@
 /*
- * Copyright (c) 2022, The casual project. All rights reserved.
+ * Copyright (c) 2022 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
 
 package se.laz.casual.connection.caller;
 
-import se.laz.casual.api.CasualRuntimeException;
 import se.laz.casual.connection.caller.config.ConfigurationService;
 
-import javax.naming.InitialContext;
-import javax.naming.NamingException;
 import javax.transaction.Synchronization;
-import javax.transaction.SystemException;
-import javax.transaction.Transaction;
-import javax.transaction.TransactionManager;
 import javax.transaction.TransactionSynchronizationRegistry;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Keeps the pool sticky of a transaction as a resource of that transaction in the TransactionSynchronizationRegistry
+ *
+ * The only shared state is one counter per pool of the transactions stickied to it. A purge replaces the counter,
+ * stickies registered with a replaced counter are ignored from then on.
+ */
 public class TransactionPoolMapper
 {
-    private static final Logger LOG = Logger.getLogger(TransactionPoolMapper.class.getName());
-    private final Map<Transaction, StickyInformation> transactionStickies = new ConcurrentHashMap<>();
+    private static final String STICKY_RESOURCE_KEY = TransactionPoolMapper.class.getName() + ".sticky";
+    private static final AtomicReference<TransactionPoolMapper> INSTANCE = new AtomicReference<>();
 
-    private boolean stickyEnabled = ConfigurationService.getInstance().getConfiguration().isTransactionStickyEnabled();
-    private final Object lock = new Object();
+    private final Map<String, AtomicInteger> trackedByPool = new ConcurrentHashMap<>();
 
-    TransactionManager transactionManager;
-
-    TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+    private boolean stickyEnabled = ConfigurationService.getInstance().getConfiguration().isTransactionStickyEnabled();
 
-    private static TransactionPoolMapper instance;
+    private JndiResource<TransactionSynchronizationRegistry> transactionSynchronizationRegistry = JndiResource.transactionSynchronizationRegistry("transaction pool sticky will not be used");
 
     // For test
     static void resetForTest()
     {
-        instance = null;
+        INSTANCE.set(null);
     }
 
     void setActiveForTest(boolean isActive)
@@ -49,9 +45,9 @@ public class TransactionPoolMapper
         this.stickyEnabled = isActive;
     }
 
-    void setTransactionManager(TransactionManager transactionManager)
+    void setTransactionSynchronizationRegistry(TransactionSynchronizationRegistry transactionSynchronizationRegistry)
     {
-        this.transactionManager = transactionManager;
+        this.transactionSynchronizationRegistry = JndiResource.resolved(transactionSynchronizationRegistry);
     }
 
     private TransactionPoolMapper()
@@ -59,60 +55,59 @@ public class TransactionPoolMapper
         // NOP
     }
 
-    public static synchronized TransactionPoolMapper getInstance()
+    public static TransactionPoolMapper getInstance()
     {
-        if (instance == null)
+        TransactionPoolMapper current = INSTANCE.get();
+        if (null == current)
         {
-            instance = new TransactionPoolMapper();
+            INSTANCE.compareAndSet(null, new TransactionPoolMapper());
+            current = INSTANCE.get();
         }
-
-        return instance;
+        return current;
     }
 
-    public StickyInformation getStickyInformationForCurrentTransaction()
+    /**
+     * Resolves the current transaction, the result is used both to read and to set its sticky.
+     *
+     * @return the current transaction, empty if sticky is not enabled by configuration or there is no transaction
+     */
+    public Optional<TransactionSticky> getCurrentTransaction()
     {
         if (!stickyEnabled)
         {
-            return null;
+            return Optional.empty();
         }
+        return getTransactionSynchronizationRegistry()
+                .filter(registry -> null != registry.getTransactionKey())
+                .map(registry -> new TransactionSticky(this, registry, getCurrentSticky(registry)));
+    }
 
-        Optional<Transaction> transactionMaybe = getCurrentTransaction();
-        return transactionMaybe.map(transactionStickies::get).orElse(null);
+    public StickyInformation getStickyInformationForCurrentTransaction()
+    {
+        return getCurrentTransaction().flatMap(TransactionSticky::getStickyInformation).orElse(null);
     }
 
     public void setStickyInformationForCurrentTransaction(StickyInformation stickyInformation)
     {
-        if (!stickyEnabled)
-        {
-            return;
-        }
-
-        Optional<Transaction> transactionMaybe = getCurrentTransaction();
-
-        transactionMaybe.ifPresent(transaction ->
-        {
-            synchronized (lock)
-            {
-                if (transactionStickies.containsKey(transaction))
-                {
-                    throw new CasualRuntimeException("Attempted to set a pool sticky ("
-                            + stickyInformation + ") for a transaction that was already stickied to another pool ("
-                            + transactionStickies.get(transaction) + ").");
-                }
-                else
-                {
-                    transactionStickies.put(transaction, stickyInformation);
-                    ensureTransactionPruningOnCompletion(transaction);
-                }
-            }
-        });
+        getCurrentTransaction().ifPresent(transaction -> transaction.setStickyInformation(stickyInformation));
     }
 
-    private void ensureTransactionPruningOnCompletion(Transaction transaction)
+    /**
+     * Pool mapping is treated as disabled if sticky is not enabled by configuration or there is no transaction
+     * in the current context.
+     * @return true if pool mapping for transactions is enabled in the current context, otherwise false.
+     */
+    public boolean isPoolMappingActive()
     {
-        Objects.requireNonNull(transaction, "Must supply transaction to handle.");
+        return getCurrentTransaction().isPresent();
+    }
 
-        getTransactionSynchronizationRegistry().ifPresent(registry -> registry.registerInterposedSynchronization(new Synchronization()
+    void register(TransactionSynchronizationRegistry registry, StickyInformation stickyInformation)
+    {
+        Objects.requireNonNull(stickyInformation, "stickyInformation can not be null");
+        AtomicInteger tracked = trackedByPool.computeIfAbsent(stickyInformation.getPoolName(), poolName -> new AtomicInteger());
+        // registered first, a transaction that can no longer take a synchronization is then never counted
+        registry.registerInterposedSynchronization(new Synchronization()
         {
             @Override
             public void beforeCompletion()
@@ -123,103 +118,63 @@ public class TransactionPoolMapper
             @Override
             public void afterCompletion(int status)
             {
-                // Remove after completion because this should happen at the end of all transactions, while
-                // beforeCompletion may not fire for rollbacks etc.
-                transactionStickies.remove(transaction);
-            }
-        }));
-    }
-
-    private Optional<TransactionSynchronizationRegistry> getTransactionSynchronizationRegistry()
-    {
-        if (transactionSynchronizationRegistry == null)
-        {
-            try
-            {
-                transactionSynchronizationRegistry = InitialContext.doLookup("java:comp/TransactionSynchronizationRegistry");
+                // the resource itself goes away with the transaction
+                tracked.decrementAndGet();
             }
-            catch (NamingException e)
-            {
-                LOG.severe("Failed to load TransactionSynchronizationRegistry, will not be able to remove registered transaction pool mappings on completion.");
-            }
-        }
-
-        return Optional.ofNullable(transactionSynchronizationRegistry);
+        });
+        tracked.incrementAndGet();
+        registry.putResource(STICKY_RESOURCE_KEY, new TrackedSticky(stickyInformation, tracked));
     }
 
-    private Optional<Transaction> getCurrentTransaction()
+    private StickyInformation getCurrentSticky(TransactionSynchronizationRegistry registry)
     {
-        try
-        {
-            return Optional.ofNullable(getTransactionManager().getTransaction());
-        }
-        catch (SystemException e)
+        Object resource = registry.getResource(STICKY_RESOURCE_KEY);
+        if (!(resource instanceof TrackedSticky))
         {
-            return Optional.empty();
+            return null;
         }
+        TrackedSticky sticky = (TrackedSticky) resource;
+        // a purge replaces the counter of the pool
+        return trackedByPool.get(sticky.stickyInformation.getPoolName()) == sticky.tracked ? sticky.stickyInformation : null;
     }
 
-    private TransactionManager getTransactionManager()
+    private Optional<TransactionSynchronizationRegistry> getTransactionSynchronizationRegistry()
     {
-        if (transactionManager == null)
-        {
-            transactionManager = new TransactionManagerProvider().getTransactionManager();
-        }
-
-        return transactionManager;
+        return transactionSynchronizationRegistry.get();
     }
 
     public int getNumberOfTrackedTransactions()
     {
-        return transactionStickies.size();
+        return trackedByPool.values().stream().mapToInt(AtomicInteger::get).sum();
     }
 
     public int getNumberOfTrackedTransactions(String poolName)
     {
         Objects.requireNonNull(poolName, "poolName must have a value");
-        return (int) transactionStickies.values().stream().filter(s -> s.getPoolName().equals(poolName)).count();
-    }
-
-    /**
-     * Pool mapping is treated as disabled if sticky is not enabled by configuration or a transaction instance can't
-     * be acquired in the current context.
-     * @return true if pool mapping for transactions is enabled in the current context, otherwise false.
-     */
-    public boolean isPoolMappingActive()
-    {
-        try
-        {
-            return stickyEnabled && getTransactionManager().getTransaction() != null;
-        }
-        catch (SystemException e)
-        {
-            LOG.log(Level.SEVERE, "Failed to get transaction from TransactionManager, will report pool mapping disabled", e);
-            return false;
-        }
+        AtomicInteger tracked = trackedByPool.get(poolName);
+        return null == tracked ? 0 : tracked.get();
     }
 
     public void purgeMappings()
     {
-        synchronized (lock)
-        {
-            transactionStickies.clear();
-        }
+        trackedByPool.clear();
     }
 
     public void purgeMappings(String poolName)
     {
         Objects.requireNonNull(poolName, "poolName must have a value");
-        synchronized (lock)
+        trackedByPool.remove(poolName);
+    }
+
+    private static final class TrackedSticky
+    {
+        private final StickyInformation stickyInformation;
+        private final AtomicInteger tracked;
+
+        private TrackedSticky(StickyInformation stickyInformation, AtomicInteger tracked)
         {
-            Set<Transaction> keys = transactionStickies.keySet();
-            for (Transaction key : keys)
-            {
-                StickyInformation entry = transactionStickies.get(key);
-                if (poolName.equals(entry.getPoolName()))
-                {
-                    transactionStickies.remove(key);
-                }
-            }
+            this.stickyInformation = stickyInformation;
+            this.tracked = tracked;
         }
     }
 }
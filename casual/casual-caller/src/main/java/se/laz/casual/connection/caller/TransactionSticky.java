@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller;
+
+import se.laz.casual.api.CasualRuntimeException;
+
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.Optional;
+
+/**
+ * The pool sticky of the transaction that was current when it was resolved by {@link TransactionPoolMapper}
+ *
+ * Only to be used on the thread that resolved it, while the transaction is still associated with that thread.
+ */
+public final class TransactionSticky
+{
+    private final TransactionPoolMapper mapper;
+    private final TransactionSynchronizationRegistry registry;
+    private StickyInformation stickyInformation;
+
+    TransactionSticky(TransactionPoolMapper mapper, TransactionSynchronizationRegistry registry, StickyInformation stickyInformation)
+    {
+        this.mapper = mapper;
+        this.registry = registry;
+        this.stickyInformation = stickyInformation;
+    }
+
+    public Optional<StickyInformation> getStickyInformation()
+    {
+        return Optional.ofNullable(stickyInformation);
+    }
+
+    public void setStickyInformation(StickyInformation stickyInformation)
+    {
+        if (null != this.stickyInformation)
+        {
+            throw new CasualRuntimeException("Attempted to set a pool sticky ("
+                    + stickyInformation + ") for a transaction that was already stickied to another pool ("
+                    + this.stickyInformation + ").");
+        }
+        mapper.register(registry, stickyInformation);
+        this.stickyInformation = stickyInformation;
+    }
+}
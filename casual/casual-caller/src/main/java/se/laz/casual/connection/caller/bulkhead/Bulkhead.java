@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.bulkhead;
+
+import se.laz.casual.connection.caller.BulkheadFullException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the number of concurrent calls to one service
+ *
+ * Up to {@code maxConcurrentCalls} calls are let through. If all are taken, up to {@code maxWaitingCalls} calls wait
+ * at most {@code maxWaitMillis} for a free slot, any other call is rejected at once with a
+ * {@link BulkheadFullException}. Every {@link #acquire()} that returns has to be followed by one {@link #release()}.
+ * A caller with a deadline of its own can wait for less, through {@link #acquire(long)}.
+ */
+public final class Bulkhead
+{
+    private final String serviceName;
+    private final int maxConcurrentCalls;
+    private final int maxWaitingCalls;
+    private final long maxWaitMillis;
+    private final Semaphore slots;
+    private final AtomicInteger waiting = new AtomicInteger(0);
+    private final AtomicLong accepted = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final AtomicLong timedOut = new AtomicLong(0);
+    private final AtomicLong waited = new AtomicLong(0);
+    private final AtomicLong totalWaitNanos = new AtomicLong(0);
+    private final AtomicLong maxWaitNanos = new AtomicLong(0);
+
+    private Bulkhead(String serviceName, int maxConcurrentCalls, int maxWaitingCalls, long maxWaitMillis)
+    {
+        this.serviceName = serviceName;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxWaitingCalls = maxWaitingCalls;
+        this.maxWaitMillis = maxWaitMillis;
+        this.slots = new Semaphore(maxConcurrentCalls, true);
+    }
+
+    public static Bulkhead of(String serviceName, int maxConcurrentCalls, int maxWaitingCalls, long maxWaitMillis)
+    {
+        if (maxConcurrentCalls < 1 || maxWaitingCalls < 0 || maxWaitMillis < 0)
+        {
+            throw new IllegalArgumentException("maxConcurrentCalls must be at least 1, maxWaitingCalls and maxWaitMillis can not be negative, maxConcurrentCalls: " + maxConcurrentCalls + " maxWaitingCalls: " + maxWaitingCalls + " maxWaitMillis: " + maxWaitMillis);
+        }
+        return new Bulkhead(serviceName, maxConcurrentCalls, maxWaitingCalls, maxWaitMillis);
+    }
+
+    public void acquire()
+    {
+        acquire(Long.MAX_VALUE);
+    }
+
+    /**
+     * Waits at most the shorter of maxWaitNanos and the max wait of the bulkhead for a free slot
+     */
+    public void acquire(long maxWaitNanos)
+    {
+        if (slots.tryAcquire())
+        {
+            accepted.incrementAndGet();
+            return;
+        }
+        if (waiting.incrementAndGet() > maxWaitingCalls)
+        {
+            waiting.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new BulkheadFullException("Bulkhead for service=" + serviceName + " is full, " + maxConcurrentCalls + " calls in flight and " + maxWaitingCalls + " waiting");
+        }
+        long waitNanos = Math.min(maxWaitNanos, TimeUnit.MILLISECONDS.toNanos(maxWaitMillis));
+        long start = System.nanoTime();
+        try
+        {
+            boolean acquired = slots.tryAcquire(waitNanos, TimeUnit.NANOSECONDS);
+            recordWait(System.nanoTime() - start);
+            if (!acquired)
+            {
+                timedOut.incrementAndGet();
+                rejected.incrementAndGet();
+                throw new BulkheadFullException("Bulkhead for service=" + serviceName + " is full, no free slot within " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms");
+            }
+            accepted.incrementAndGet();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            rejected.incrementAndGet();
+            throw new BulkheadFullException("Interrupted while waiting for the bulkhead of service=" + serviceName);
+        }
+        finally
+        {
+            waiting.decrementAndGet();
+        }
+    }
+
+    public void release()
+    {
+        slots.release();
+    }
+
+    private void recordWait(long nanos)
+    {
+        waited.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public int getMaxConcurrentCalls()
+    {
+        return maxConcurrentCalls;
+    }
+
+    public int getInFlight()
+    {
+        return maxConcurrentCalls - slots.availablePermits();
+    }
+
+    /**
+     * @return share of the slots in use, 1.0 means that the bulkhead is full
+     */
+    public double getSaturation()
+    {
+        return (double) getInFlight() / maxConcurrentCalls;
+    }
+
+    public int getWaiting()
+    {
+        return waiting.get();
+    }
+
+    public long getAccepted()
+    {
+        return accepted.get();
+    }
+
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+
+    public long getTimedOut()
+    {
+        return timedOut.get();
+    }
+
+    public long getWaited()
+    {
+        return waited.get();
+    }
+
+    public double getAverageWaitMillis()
+    {
+        long count = waited.get();
+        return count == 0 ? 0.0 : (double) totalWaitNanos.get() / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getMaxWaitMillis()
+    {
+        return (double) maxWaitNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Bulkhead{" +
+                "inFlight=" + getInFlight() +
+                ", maxConcurrentCalls=" + maxConcurrentCalls +
+                ", saturation=" + String.format("%.2f", getSaturation()) +
+                ", waiting=" + getWaiting() +
+                ", maxWaitingCalls=" + maxWaitingCalls +
+                ", accepted=" + getAccepted() +
+                ", rejected=" + getRejected() +
+                ", timedOut=" + getTimedOut() +
+                ", waited=" + getWaited() +
+                ", averageWaitMillis=" + String.format("%.3f", getAverageWaitMillis()) +
+                ", maxWaitMillis=" + String.format("%.3f", getMaxWaitMillis()) +
+                '}';
+    }
+}
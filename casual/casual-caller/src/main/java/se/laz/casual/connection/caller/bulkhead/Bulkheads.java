@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.bulkhead;
+
+import se.laz.casual.connection.caller.config.BulkheadConfiguration;
+import se.laz.casual.connection.caller.config.ConfigurationService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The bulkheads per service
+ *
+ * A service gets the bulkhead configured for its name, or else the one of the first wildcard that matches.
+ * Services without a bulkhead are not limited.
+ */
+public final class Bulkheads
+{
+    private static final Bulkheads INSTANCE = fromConfiguration();
+    private final List<BulkheadConfiguration> configurations;
+    // only services with a bulkhead are kept, so that services without one can not grow the map
+    // the configuration is searched on every call to those, it is a handful of entries with precompiled patterns
+    private final ConcurrentMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    private Bulkheads(List<BulkheadConfiguration> configurations)
+    {
+        this.configurations = configurations;
+    }
+
+    public static Bulkheads of(List<BulkheadConfiguration> configurations)
+    {
+        Objects.requireNonNull(configurations, "configurations can not be null");
+        return new Bulkheads(new ArrayList<>(configurations));
+    }
+
+    public static Bulkheads fromConfiguration()
+    {
+        return of(ConfigurationService.getInstance().getConfiguration().getBulkheads());
+    }
+
+    public static Bulkheads getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the bulkhead of the service, empty if the service is not limited
+     */
+    public Optional<Bulkhead> get(String serviceName)
+    {
+        Objects.requireNonNull(serviceName, "serviceName can not be null");
+        if (configurations.isEmpty())
+        {
+            return Optional.empty();
+        }
+        Bulkhead bulkhead = bulkheads.get(serviceName);
+        if (null != bulkhead)
+        {
+            return Optional.of(bulkhead);
+        }
+        return find(serviceName).map(configuration -> bulkheads.computeIfAbsent(serviceName, name -> create(name, configuration)));
+    }
+
+    /**
+     * @return the bulkheads of the services that have been called and have one, by service name
+     */
+    public Map<String, Bulkhead> getBulkheads()
+    {
+        return new TreeMap<>(bulkheads);
+    }
+
+    private static Bulkhead create(String serviceName, BulkheadConfiguration configuration)
+    {
+        return Bulkhead.of(serviceName, configuration.getMaxConcurrentCalls(), configuration.getMaxWaitingCalls(), configuration.getMaxWaitMillis());
+    }
+
+    private Optional<BulkheadConfiguration> find(String serviceName)
+    {
+        Optional<BulkheadConfiguration> byName = configurations.stream()
+                                                               .filter(configuration -> !configuration.isWildcard() && configuration.matches(serviceName))
+                                                               .findFirst();
+        if (byName.isPresent())
+        {
+            return byName;
+        }
+        return configurations.stream()
+                             .filter(configuration -> configuration.isWildcard() && configuration.matches(serviceName))
+                             .findFirst();
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.circuitbreaker;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Per connection factory circuit breaker
+ *
+ * The breaker opens when {@code failureThreshold} failures have been recorded within {@code windowMillis}.
+ * After {@code openMillis} it lets up to {@code halfOpenProbes} calls through, if they all succeed it closes
+ * again and if any of them fails it opens again.
+ *
+ * All transitions are done with compare and set, there is no locking.
+ */
+public final class CircuitBreaker
+{
+    // the clock is monotonic, so any value may be a time, this one marks a slot without a failure
+    private static final long NO_FAILURE = Long.MIN_VALUE;
+    private final int failureThreshold;
+    private final long windowMillis;
+    private final long openMillis;
+    private final int halfOpenProbes;
+    private final LongSupplier clock;
+    private final AtomicReference<Status> status;
+    // ring buffer with the timestamps of the latest failureThreshold failures
+    private final AtomicLongArray failures;
+    private final AtomicInteger failureIndex = new AtomicInteger(0);
+    private final AtomicLong timesOpened = new AtomicLong(0);
+    private final AtomicLong timesHalfOpened = new AtomicLong(0);
+    private final AtomicLong timesClosed = new AtomicLong(0);
+
+    CircuitBreaker(int failureThreshold, long windowMillis, long openMillis, int halfOpenProbes, LongSupplier clock)
+    {
+        this.failureThreshold = failureThreshold;
+        this.windowMillis = windowMillis;
+        this.openMillis = openMillis;
+        this.halfOpenProbes = halfOpenProbes;
+        this.clock = clock;
+        this.failures = new AtomicLongArray(failureThreshold);
+        clearFailures();
+        this.status = new AtomicReference<>(new Status(CircuitBreakerState.CLOSED, clock.getAsLong(), 0, 0));
+    }
+
+    public static CircuitBreaker of(int failureThreshold, long windowMillis, long openMillis, int halfOpenProbes)
+    {
+        // monotonic, wall clock adjustments must not open or close the breaker
+        return of(failureThreshold, windowMillis, openMillis, halfOpenProbes, () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    static CircuitBreaker of(int failureThreshold, long windowMillis, long openMillis, int halfOpenProbes, LongSupplier clock)
+    {
+        Objects.requireNonNull(clock, "clock can not be null");
+        if(failureThreshold < 1 || halfOpenProbes < 1)
+        {
+            throw new IllegalArgumentException("failureThreshold and halfOpenProbes must be at least 1, failureThreshold: " + failureThreshold + " halfOpenProbes: " + halfOpenProbes);
+        }
+        if(windowMillis < 0 || openMillis < 0)
+        {
+            throw new IllegalArgumentException("windowMillis and openMillis can not be negative, windowMillis: " + windowMillis + " openMillis: " + openMillis);
+        }
+        return new CircuitBreaker(failureThreshold, windowMillis, openMillis, halfOpenProbes, clock);
+    }
+
+    public CircuitBreakerState getState()
+    {
+        return status.get().state;
+    }
+
+    /**
+     * @return true unless the breaker is open and the open duration has not yet passed
+     */
+    public boolean allowsCalls()
+    {
+        Status current = status.get();
+        return current.state != CircuitBreakerState.OPEN || openDurationPassed(current);
+    }
+
+    /**
+     * Has to be called before issuing a call, in half open it hands out a limited number of probe permits.
+     * @return true if the call may be issued
+     */
+    public boolean tryAcquirePermission()
+    {
+        while(true)
+        {
+            Status current = status.get();
+            switch(current.state)
+            {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if(!openDurationPassed(current))
+                    {
+                        return false;
+                    }
+                    if(status.compareAndSet(current, new Status(CircuitBreakerState.HALF_OPEN, clock.getAsLong(), 1, 0)))
+                    {
+                        timesHalfOpened.incrementAndGet();
+                        return true;
+                    }
+                    break;
+                case HALF_OPEN:
+                    if(current.probesIssued < halfOpenProbes)
+                    {
+                        if(status.compareAndSet(current, current.withProbeIssued()))
+                        {
+                            return true;
+                        }
+                    }
+                    else if(openDurationPassed(current))
+                    {
+                        // probes that never reported back must not keep the breaker half open forever
+                        if(status.compareAndSet(current, new Status(CircuitBreakerState.HALF_OPEN, clock.getAsLong(), 1, 0)))
+                        {
+                            return true;
+                        }
+                    }
+                    else
+                    {
+                        return false;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown state: " + current.state);
+            }
+        }
+    }
+
+    public void recordSuccess()
+    {
+        while(true)
+        {
+            Status current = status.get();
+            if(current.state != CircuitBreakerState.HALF_OPEN)
+            {
+                return;
+            }
+            if(current.probesSucceeded + 1 >= halfOpenProbes)
+            {
+                if(close(current))
+                {
+                    return;
+                }
+            }
+            else if(status.compareAndSet(current, current.withProbeSucceeded()))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if this failure opened the breaker
+     */
+    public boolean recordFailure()
+    {
+        long now = clock.getAsLong();
+        while(true)
+        {
+            Status current = status.get();
+            switch(current.state)
+            {
+                case OPEN:
+                    return false;
+                case HALF_OPEN:
+                    if(open(current, now))
+                    {
+                        return true;
+                    }
+                    break;
+                case CLOSED:
+                    if(!thresholdReached(now))
+                    {
+                        return false;
+                    }
+                    return open(current, now);
+                default:
+                    throw new IllegalStateException("Unknown state: " + current.state);
+            }
+        }
+    }
+
+    /**
+     * Opens the breaker regardless of the number of failures
+     * @return true if the breaker was not already open
+     */
+    public boolean trip()
+    {
+        long now = clock.getAsLong();
+        while(true)
+        {
+            Status current = status.get();
+            if(current.state == CircuitBreakerState.OPEN)
+            {
+                return false;
+            }
+            if(open(current, now))
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Closes the breaker regardless of state, used when a connection has been verified out of band
+     */
+    public void reset()
+    {
+        while(true)
+        {
+            Status current = status.get();
+            if(current.state == CircuitBreakerState.CLOSED || close(current))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Lets probe calls through at once if the breaker is open, used when a connection has been verified out of band.
+     * Getting a connection does not prove that calls succeed, so the probes decide whether the breaker closes.
+     */
+    public void halfOpen()
+    {
+        while(true)
+        {
+            Status current = status.get();
+            if(current.state != CircuitBreakerState.OPEN)
+            {
+                return;
+            }
+            if(status.compareAndSet(current, new Status(CircuitBreakerState.HALF_OPEN, clock.getAsLong(), 0, 0)))
+            {
+                timesHalfOpened.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    public long getTimesOpened()
+    {
+        return timesOpened.get();
+    }
+
+    public long getTimesHalfOpened()
+    {
+        return timesHalfOpened.get();
+    }
+
+    public long getTimesClosed()
+    {
+        return timesClosed.get();
+    }
+
+    private boolean thresholdReached(long now)
+    {
+        int slot = Math.floorMod(failureIndex.getAndIncrement(), failureThreshold);
+        failures.set(slot, now);
+        // the slot after ours holds the oldest of the latest failureThreshold failures
+        long oldest = failures.get((slot + 1) % failureThreshold);
+        return oldest != NO_FAILURE && now - oldest <= windowMillis;
+    }
+
+    private boolean open(Status current, long now)
+    {
+        if(status.compareAndSet(current, new Status(CircuitBreakerState.OPEN, now, 0, 0)))
+        {
+            timesOpened.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean close(Status current)
+    {
+        if(status.compareAndSet(current, new Status(CircuitBreakerState.CLOSED, clock.getAsLong(), 0, 0)))
+        {
+            clearFailures();
+            timesClosed.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void clearFailures()
+    {
+        for(int i = 0; i < failureThreshold; ++i)
+        {
+            failures.set(i, NO_FAILURE);
+        }
+    }
+
+    private boolean openDurationPassed(Status current)
+    {
+        return clock.getAsLong() - current.since >= openMillis;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CircuitBreaker{" +
+                "state=" + getState() +
+                ", timesOpened=" + getTimesOpened() +
+                ", timesHalfOpened=" + getTimesHalfOpened() +
+                ", timesClosed=" + getTimesClosed() +
+                '}';
+    }
+
+    private static final class Status
+    {
+        private final CircuitBreakerState state;
+        private final long since;
+        private final int probesIssued;
+        private final int probesSucceeded;
+
+        private Status(CircuitBreakerState state, long since, int probesIssued, int probesSucceeded)
+        {
+            this.state = state;
+            this.since = since;
+            this.probesIssued = probesIssued;
+            this.probesSucceeded = probesSucceeded;
+        }
+
+        private Status withProbeIssued()
+        {
+            return new Status(state, since, probesIssued + 1, probesSucceeded);
+        }
+
+        private Status withProbeSucceeded()
+        {
+            return new Status(state, since, probesIssued, probesSucceeded + 1);
+        }
+    }
+}
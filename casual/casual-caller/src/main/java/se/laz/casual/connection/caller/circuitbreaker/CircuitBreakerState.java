@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.circuitbreaker;
+
+public enum CircuitBreakerState
+{
+    /**
+     * Calls are let through, failures are counted
+     */
+    CLOSED,
+    /**
+     * No calls are let through until the open duration has passed
+     */
+    OPEN,
+    /**
+     * A limited number of probe calls are let through to decide whether to close or open again
+     */
+    HALF_OPEN
+}
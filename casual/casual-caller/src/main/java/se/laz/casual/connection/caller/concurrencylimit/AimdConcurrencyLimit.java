@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.concurrencylimit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Additive increase, multiplicative decrease concurrency limit
+ *
+ * Every call that finishes in time raises the limit by 1/limit, so roughly by one per limit calls. A call that
+ * fails, or takes more than {@code TOLERANCE} times the baseline round trip time, lowers it by {@code BACKOFF}.
+ * The baseline is a slow moving average of the round trip time of the calls to the same service that did not fail,
+ * so that a service that is always slow does not keep lowering the limit of a pool shared with fast services.
+ * At most {@code MAX_BASELINES} services get a baseline of their own, any further ones share one.
+ *
+ * The limit and the baselines are doubles kept as raw bits in atomics, there is no locking.
+ */
+public final class AimdConcurrencyLimit implements ConcurrencyLimit
+{
+    static final double BACKOFF = 0.9;
+    static final double TOLERANCE = 2.0;
+    // weight of the newest sample in the baseline
+    static final double BASELINE_ALPHA = 0.05;
+    static final int MAX_BASELINES = 1024;
+    private static final int MIN_LIMIT = 1;
+    private static final long NO_BASELINE = Double.doubleToRawLongBits(-1.0);
+    private final int maxLimit;
+    private final AtomicLong limit;
+    private final ConcurrentMap<String, AtomicLong> baselineRttNanos = new ConcurrentHashMap<>();
+    private final AtomicLong sharedBaselineRttNanos = new AtomicLong(NO_BASELINE);
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+
+    private AimdConcurrencyLimit(int initialLimit, int maxLimit)
+    {
+        this.maxLimit = maxLimit;
+        this.limit = new AtomicLong(Double.doubleToRawLongBits(initialLimit));
+    }
+
+    public static AimdConcurrencyLimit of(int initialLimit, int maxLimit)
+    {
+        if (initialLimit < MIN_LIMIT || maxLimit < initialLimit)
+        {
+            throw new IllegalArgumentException("initialLimit must be at least 1 and at most maxLimit, initialLimit: " + initialLimit + " maxLimit: " + maxLimit);
+        }
+        return new AimdConcurrencyLimit(initialLimit, maxLimit);
+    }
+
+    @Override
+    public boolean tryAcquire()
+    {
+        while (true)
+        {
+            int current = inFlight.get();
+            if (current >= getLimit())
+            {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1))
+            {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void release()
+    {
+        inFlight.decrementAndGet();
+    }
+
+    @Override
+    public void release(String serviceName, long rttNanos, boolean failed)
+    {
+        inFlight.decrementAndGet();
+        AtomicLong baseline = baselineFor(serviceName);
+        boolean overloaded = failed || isSlow(baseline, rttNanos);
+        if (!failed)
+        {
+            updateBaseline(baseline, rttNanos);
+        }
+        while (true)
+        {
+            long current = limit.get();
+            double value = Double.longBitsToDouble(current);
+            double updated = overloaded ? Math.max(MIN_LIMIT, value * BACKOFF) : Math.min(maxLimit, value + 1.0 / value);
+            if (updated == value || limit.compareAndSet(current, Double.doubleToRawLongBits(updated)))
+            {
+                return;
+            }
+        }
+    }
+
+    private AtomicLong baselineFor(String serviceName)
+    {
+        // get before computeIfAbsent, that locks the bin even if the mapping is there on java 8
+        AtomicLong baseline = baselineRttNanos.get(serviceName);
+        if (null != baseline)
+        {
+            return baseline;
+        }
+        if (baselineRttNanos.size() >= MAX_BASELINES)
+        {
+            return sharedBaselineRttNanos;
+        }
+        return baselineRttNanos.computeIfAbsent(serviceName, name -> new AtomicLong(NO_BASELINE));
+    }
+
+    private static boolean isSlow(AtomicLong baselineRttNanos, long rttNanos)
+    {
+        double baseline = Double.longBitsToDouble(baselineRttNanos.get());
+        return baseline >= 0 && rttNanos > TOLERANCE * baseline;
+    }
+
+    private static void updateBaseline(AtomicLong baselineRttNanos, long rttNanos)
+    {
+        while (true)
+        {
+            long current = baselineRttNanos.get();
+            double baseline = Double.longBitsToDouble(current);
+            double updated = baseline < 0 ? rttNanos : baseline + BASELINE_ALPHA * (rttNanos - baseline);
+            if (baselineRttNanos.compareAndSet(current, Double.doubleToRawLongBits(updated)))
+            {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int getLimit()
+    {
+        return (int) Double.longBitsToDouble(limit.get());
+    }
+
+    @Override
+    public int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    @Override
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AimdConcurrencyLimit{" +
+                "limit=" + getLimit() +
+                ", maxLimit=" + maxLimit +
+                ", inFlight=" + getInFlight() +
+                ", rejected=" + getRejected() +
+                '}';
+    }
+}
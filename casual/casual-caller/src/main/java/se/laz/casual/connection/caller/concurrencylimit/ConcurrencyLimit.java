@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.concurrencylimit;
+
+import se.laz.casual.connection.caller.config.Configuration;
+import se.laz.casual.connection.caller.config.ConfigurationService;
+
+/**
+ * Limit on the number of concurrent calls through one connection factory
+ *
+ * Every successful {@link #tryAcquire()} has to be followed by exactly one release.
+ */
+public interface ConcurrencyLimit
+{
+    /**
+     * @return false if the limit is reached, the call should then go elsewhere
+     */
+    boolean tryAcquire();
+
+    /**
+     * Releases a permit for a call that was never issued
+     */
+    void release();
+
+    /**
+     * Releases a permit for a call that has finished
+     *
+     * @param serviceName the service called, what is slow is judged per service
+     * @param rttNanos how long the call took
+     * @param failed true if the call failed because of the connection or the domain
+     */
+    void release(String serviceName, long rttNanos, boolean failed);
+
+    int getLimit();
+
+    int getInFlight();
+
+    long getRejected();
+
+    static ConcurrencyLimit unlimited()
+    {
+        return NoConcurrencyLimit.INSTANCE;
+    }
+
+    static ConcurrencyLimit fromConfiguration()
+    {
+        Configuration configuration = ConfigurationService.getInstance().getConfiguration();
+        if (!configuration.isConcurrencyLimitEnabled())
+        {
+            return unlimited();
+        }
+        return AimdConcurrencyLimit.of(configuration.getConcurrencyLimitInitial(), configuration.getConcurrencyLimitMax());
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.concurrencylimit;
+
+final class NoConcurrencyLimit implements ConcurrencyLimit
+{
+    static final NoConcurrencyLimit INSTANCE = new NoConcurrencyLimit();
+
+    private NoConcurrencyLimit()
+    {}
+
+    @Override
+    public boolean tryAcquire()
+    {
+        return true;
+    }
+
+    @Override
+    public void release()
+    {
+        // nothing is counted
+    }
+
+    @Override
+    public void release(String serviceName, long rttNanos, boolean failed)
+    {
+        // nothing is counted
+    }
+
+    @Override
+    public int getLimit()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getInFlight()
+    {
+        return 0;
+    }
+
+    @Override
+    public long getRejected()
+    {
+        return 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "NoConcurrencyLimit{}";
+    }
+}
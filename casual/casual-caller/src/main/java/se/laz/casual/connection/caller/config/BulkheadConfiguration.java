@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.config;
+
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Bulkhead for the services matching {@code service}, either a service name or a pattern where * matches anything
+ *
+ * Every matching service gets a bulkhead of its own.
+ */
+public final class BulkheadConfiguration
+{
+    private String service;
+    private Integer maxConcurrentCalls;
+    private Integer maxWaitingCalls;
+    private Long maxWaitMillis;
+    // built by gson, so the pattern is compiled on first use rather than in the constructor
+    private transient volatile Pattern pattern;
+
+    private BulkheadConfiguration(String service, int maxConcurrentCalls, int maxWaitingCalls, long maxWaitMillis)
+    {
+        this.service = service;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxWaitingCalls = maxWaitingCalls;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public static BulkheadConfiguration of(String service, int maxConcurrentCalls, int maxWaitingCalls, long maxWaitMillis)
+    {
+        Objects.requireNonNull(service, "service can not be null");
+        return new BulkheadConfiguration(service, maxConcurrentCalls, maxWaitingCalls, maxWaitMillis);
+    }
+
+    public String getService()
+    {
+        return service;
+    }
+
+    public int getMaxConcurrentCalls()
+    {
+        return null == maxConcurrentCalls ? 0 : maxConcurrentCalls;
+    }
+
+    /**
+     * @return how many calls may wait for a free slot, 0 means that a call is rejected at once
+     */
+    public int getMaxWaitingCalls()
+    {
+        return null == maxWaitingCalls ? 0 : maxWaitingCalls;
+    }
+
+    public long getMaxWaitMillis()
+    {
+        return null == maxWaitMillis ? 0 : maxWaitMillis;
+    }
+
+    public boolean isWildcard()
+    {
+        return service.contains("*");
+    }
+
+    public boolean matches(String serviceName)
+    {
+        if (!isWildcard())
+        {
+            return service.equals(serviceName);
+        }
+        return getPattern().matcher(serviceName).matches();
+    }
+
+    private Pattern getPattern()
+    {
+        // a race compiles the same pattern twice, that is harmless
+        Pattern compiled = pattern;
+        if (null == compiled)
+        {
+            compiled = compile(service);
+            pattern = compiled;
+        }
+        return compiled;
+    }
+
+    private static Pattern compile(String service)
+    {
+        String[] parts = service.split("\\*", -1);
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < parts.length; ++i)
+        {
+            if (i > 0)
+            {
+                regex.append(".*");
+            }
+            regex.append(Pattern.quote(parts[i]));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass())
+        {
+            return false;
+        }
+        BulkheadConfiguration that = (BulkheadConfiguration) o;
+        return Objects.equals(service, that.service) && getMaxConcurrentCalls() == that.getMaxConcurrentCalls() && getMaxWaitingCalls() == that.getMaxWaitingCalls() && getMaxWaitMillis() == that.getMaxWaitMillis();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(service, getMaxConcurrentCalls(), getMaxWaitingCalls(), getMaxWaitMillis());
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BulkheadConfiguration{" +
+                "service='" + service + '\'' +
+                ", maxConcurrentCalls=" + getMaxConcurrentCalls() +
+                ", maxWaitingCalls=" + getMaxWaitingCalls() +
+                ", maxWaitMillis=" + getMaxWaitMillis() +
+                '}';
+    }
+}
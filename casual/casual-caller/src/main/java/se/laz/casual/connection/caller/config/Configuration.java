@@ -1,11 +1,20 @@
 /*
- * Copyright (c) 2022-2023, The casual project. All rights reserved.
+ * Copyright (c) 2022 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
 
 package se.laz.casual.connection.caller.config;
 
+import se.laz.casual.api.external.json.JsonProviderFactory;
+import se.laz.casual.connection.caller.execution.ExecutionIdGeneratorType;
+import se.laz.casual.connection.caller.loadbalancer.LoadBalancerType;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -15,16 +24,99 @@ public class Configuration
     public static final String CASUAL_CALLER_VALIDATION_INTERVAL_ENV_NAME = "CASUAL_CALLER_VALIDATION_INTERVAL";
     public static final String CASUAL_CALLER_TRANSACTION_STICKY_ENV_NAME = "CASUAL_CALLER_TRANSACTION_STICKY";
     public static final String CASUAL_CALLER_TOPOLOGY_CHANGED_DELAY_ENV_NAME = "CASUAL_CALLER_TOPOLOGY_CHANGED_DELAY";
+    public static final String CASUAL_CALLER_LOAD_BALANCER_ENV_NAME = "CASUAL_CALLER_LOAD_BALANCER";
+    public static final String CASUAL_CALLER_CIRCUIT_BREAKER_FAILURE_THRESHOLD_ENV_NAME = "CASUAL_CALLER_CIRCUIT_BREAKER_FAILURE_THRESHOLD";
+    public static final String CASUAL_CALLER_CIRCUIT_BREAKER_WINDOW_ENV_NAME = "CASUAL_CALLER_CIRCUIT_BREAKER_WINDOW";
+    public static final String CASUAL_CALLER_CIRCUIT_BREAKER_OPEN_DURATION_ENV_NAME = "CASUAL_CALLER_CIRCUIT_BREAKER_OPEN_DURATION";
+    public static final String CASUAL_CALLER_CIRCUIT_BREAKER_HALF_OPEN_PROBES_ENV_NAME = "CASUAL_CALLER_CIRCUIT_BREAKER_HALF_OPEN_PROBES";
+    public static final String CASUAL_CALLER_DISCOVERY_TIMEOUT_ENV_NAME = "CASUAL_CALLER_DISCOVERY_TIMEOUT";
+    public static final String CASUAL_CALLER_LOOKUP_COALESCING_MAX_WAIT_ENV_NAME = "CASUAL_CALLER_LOOKUP_COALESCING_MAX_WAIT";
+    public static final String CASUAL_CALLER_NEGATIVE_CACHE_TTL_ENV_NAME = "CASUAL_CALLER_NEGATIVE_CACHE_TTL";
+    public static final String CASUAL_CALLER_NEGATIVE_CACHE_MAX_SIZE_ENV_NAME = "CASUAL_CALLER_NEGATIVE_CACHE_MAX_SIZE";
+    public static final String CASUAL_CALLER_SERVICE_CACHE_MAX_SIZE_ENV_NAME = "CASUAL_CALLER_SERVICE_CACHE_MAX_SIZE";
+    public static final String CASUAL_CALLER_SERVICE_CACHE_IDLE_TTL_ENV_NAME = "CASUAL_CALLER_SERVICE_CACHE_IDLE_TTL";
+    public static final String CASUAL_CALLER_QUEUE_CACHE_MAX_SIZE_ENV_NAME = "CASUAL_CALLER_QUEUE_CACHE_MAX_SIZE";
+    public static final String CASUAL_CALLER_QUEUE_CACHE_IDLE_TTL_ENV_NAME = "CASUAL_CALLER_QUEUE_CACHE_IDLE_TTL";
+    public static final String CASUAL_CALLER_EXECUTION_ID_GENERATOR_ENV_NAME = "CASUAL_CALLER_EXECUTION_ID_GENERATOR";
+    public static final String CASUAL_CALLER_TPACALL_EXECUTOR_ENV_NAME = "CASUAL_CALLER_TPACALL_EXECUTOR";
+    public static final String CASUAL_CALLER_HEDGED_SERVICES_ENV_NAME = "CASUAL_CALLER_HEDGED_SERVICES";
+    public static final String CASUAL_CALLER_HEDGE_DELAY_ENV_NAME = "CASUAL_CALLER_HEDGE_DELAY";
+    public static final String CASUAL_CALLER_HEDGE_BUDGET_PERCENT_ENV_NAME = "CASUAL_CALLER_HEDGE_BUDGET_PERCENT";
+    public static final String CASUAL_CALLER_LOAD_BALANCER_EXPLORATION_PERCENT_ENV_NAME = "CASUAL_CALLER_LOAD_BALANCER_EXPLORATION_PERCENT";
+    public static final String CASUAL_CALLER_CONCURRENCY_LIMIT_ENV_NAME = "CASUAL_CALLER_CONCURRENCY_LIMIT";
+    public static final String CASUAL_CALLER_CONCURRENCY_LIMIT_INITIAL_ENV_NAME = "CASUAL_CALLER_CONCURRENCY_LIMIT_INITIAL";
+    public static final String CASUAL_CALLER_CONCURRENCY_LIMIT_MAX_ENV_NAME = "CASUAL_CALLER_CONCURRENCY_LIMIT_MAX";
+    public static final String CASUAL_CALLER_BULKHEADS_ENV_NAME = "CASUAL_CALLER_BULKHEADS";
+    public static final String CASUAL_CALLER_LATENCY_HISTOGRAMS_ENV_NAME = "CASUAL_CALLER_LATENCY_HISTOGRAMS";
+    public static final String CASUAL_CALLER_DEQUEUE_PREFETCH_ENV_NAME = "CASUAL_CALLER_DEQUEUE_PREFETCH";
+    public static final String CASUAL_CALLER_DEQUEUE_PREFETCH_IN_TRANSACTION_ENV_NAME = "CASUAL_CALLER_DEQUEUE_PREFETCH_IN_TRANSACTION";
+    public static final String CASUAL_CALLER_DISCOVERY_EXECUTOR_ENV_NAME = "CASUAL_CALLER_DISCOVERY_EXECUTOR";
+    public static final String CASUAL_CALLER_LOOKUP_EXECUTOR_ENV_NAME = "CASUAL_CALLER_LOOKUP_EXECUTOR";
 
     private String jndiSearchRoot;
     private Integer validationIntervalMillis;
     private Boolean transactionStickyEnabled;
     private Long topologyChangeDelayMillis;
+    private LoadBalancerType loadBalancer;
+    private Integer circuitBreakerFailureThreshold;
+    private Long circuitBreakerWindowMillis;
+    private Long circuitBreakerOpenDurationMillis;
+    private Integer circuitBreakerHalfOpenProbes;
+    private Long discoveryTimeoutMillis;
+    private Long lookupCoalescingMaxWaitMillis;
+    private Long negativeCacheTtlMillis;
+    private Integer negativeCacheMaxSize;
+    private Integer serviceCacheMaxSize;
+    private Long serviceCacheIdleTtlMillis;
+    private Integer queueCacheMaxSize;
+    private Long queueCacheIdleTtlMillis;
+    private ExecutionIdGeneratorType executionIdGenerator;
+    private String tpacallExecutorJndiName;
+    private String hedgedServices;
+    private Long hedgeDelayMillis;
+    private Integer hedgeBudgetPercent;
+    private Integer loadBalancerExplorationPercent;
+    private Boolean concurrencyLimitEnabled;
+    private Integer concurrencyLimitInitial;
+    private Integer concurrencyLimitMax;
+    private Boolean latencyHistogramsEnabled;
+    private Integer dequeuePrefetch;
+    private Boolean dequeuePrefetchInTransaction;
+    private String discoveryExecutorJndiName;
+    private String lookupExecutorJndiName;
+    private List<BulkheadConfiguration> bulkheads;
 
     private static final String DEFAULT_JNDI_SEARCH_ROOT = "eis";
     private static final String DEFAULT_VALIDATION_INTERVAL_MILLIS = "5000";
     private static final String DEFAULT_TRANSACTION_STICKY = "false";
     private static final String DEFAULT_TOPOLOGY_CHANGED_DELAY = "50";
+    private static final String DEFAULT_LOAD_BALANCER = LoadBalancerType.RANDOM.name();
+    private static final String DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = "3";
+    private static final String DEFAULT_CIRCUIT_BREAKER_WINDOW = "10000";
+    private static final String DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = "5000";
+    private static final String DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_PROBES = "1";
+    private static final String DEFAULT_DISCOVERY_TIMEOUT = "5000";
+    private static final String DEFAULT_LOOKUP_COALESCING_MAX_WAIT = "10000";
+    private static final String DEFAULT_NEGATIVE_CACHE_TTL = "10000";
+    private static final String DEFAULT_NEGATIVE_CACHE_MAX_SIZE = "10000";
+    private static final String DEFAULT_SERVICE_CACHE_MAX_SIZE = "0";
+    private static final String DEFAULT_SERVICE_CACHE_IDLE_TTL = "0";
+    private static final String DEFAULT_QUEUE_CACHE_MAX_SIZE = "0";
+    private static final String DEFAULT_QUEUE_CACHE_IDLE_TTL = "0";
+    private static final String DEFAULT_EXECUTION_ID_GENERATOR = ExecutionIdGeneratorType.PER_THREAD.name();
+    private static final String DEFAULT_TPACALL_EXECUTOR = "java:comp/DefaultManagedExecutorService";
+    private static final String DEFAULT_HEDGED_SERVICES = "";
+    private static final String DEFAULT_HEDGE_DELAY = "50";
+    private static final String DEFAULT_HEDGE_BUDGET_PERCENT = "10";
+    private static final String DEFAULT_LOAD_BALANCER_EXPLORATION_PERCENT = "5";
+    private static final String DEFAULT_CONCURRENCY_LIMIT = "false";
+    private static final String DEFAULT_CONCURRENCY_LIMIT_INITIAL = "20";
+    private static final String DEFAULT_CONCURRENCY_LIMIT_MAX = "200";
+    private static final String DEFAULT_LATENCY_HISTOGRAMS = "true";
+    private static final String DEFAULT_DEQUEUE_PREFETCH = "10";
+    private static final String DEFAULT_DEQUEUE_PREFETCH_IN_TRANSACTION = "false";
+    private static final String DEFAULT_DISCOVERY_EXECUTOR = "java:comp/DefaultManagedExecutorService";
+    private static final String DEFAULT_LOOKUP_EXECUTOR = "java:comp/DefaultManagedExecutorService";
 
     private Configuration(Builder builder)
     {
@@ -32,6 +124,34 @@ public class Configuration
         validationIntervalMillis = builder.validationIntervalMillis;
         transactionStickyEnabled = builder.transactionStickyEnabled;
         topologyChangeDelayMillis = builder.topologyChangeDelayMillis;
+        loadBalancer = builder.loadBalancer;
+        circuitBreakerFailureThreshold = builder.circuitBreakerFailureThreshold;
+        circuitBreakerWindowMillis = builder.circuitBreakerWindowMillis;
+        circuitBreakerOpenDurationMillis = builder.circuitBreakerOpenDurationMillis;
+        circuitBreakerHalfOpenProbes = builder.circuitBreakerHalfOpenProbes;
+        discoveryTimeoutMillis = builder.discoveryTimeoutMillis;
+        lookupCoalescingMaxWaitMillis = builder.lookupCoalescingMaxWaitMillis;
+        negativeCacheTtlMillis = builder.negativeCacheTtlMillis;
+        negativeCacheMaxSize = builder.negativeCacheMaxSize;
+        serviceCacheMaxSize = builder.serviceCacheMaxSize;
+        serviceCacheIdleTtlMillis = builder.serviceCacheIdleTtlMillis;
+        queueCacheMaxSize = builder.queueCacheMaxSize;
+        queueCacheIdleTtlMillis = builder.queueCacheIdleTtlMillis;
+        executionIdGenerator = builder.executionIdGenerator;
+        tpacallExecutorJndiName = builder.tpacallExecutorJndiName;
+        hedgedServices = builder.hedgedServices;
+        hedgeDelayMillis = builder.hedgeDelayMillis;
+        hedgeBudgetPercent = builder.hedgeBudgetPercent;
+        loadBalancerExplorationPercent = builder.loadBalancerExplorationPercent;
+        concurrencyLimitEnabled = builder.concurrencyLimitEnabled;
+        concurrencyLimitInitial = builder.concurrencyLimitInitial;
+        concurrencyLimitMax = builder.concurrencyLimitMax;
+        bulkheads = builder.bulkheads;
+        latencyHistogramsEnabled = builder.latencyHistogramsEnabled;
+        dequeuePrefetch = builder.dequeuePrefetch;
+        dequeuePrefetchInTransaction = builder.dequeuePrefetchInTransaction;
+        discoveryExecutorJndiName = builder.discoveryExecutorJndiName;
+        lookupExecutorJndiName = builder.lookupExecutorJndiName;
     }
 
     public String getJndiSearchRoot()
@@ -61,6 +181,258 @@ public class Configuration
         return topologyChangeDelayMillis;
     }
 
+    public LoadBalancerType getLoadBalancer()
+    {
+        if(null == loadBalancer)
+        {
+            loadBalancer = getLoadBalancerFromEnv();
+        }
+        return loadBalancer;
+    }
+
+    public int getCircuitBreakerFailureThreshold()
+    {
+        if(null == circuitBreakerFailureThreshold)
+        {
+            circuitBreakerFailureThreshold = getCircuitBreakerFailureThresholdFromEnv();
+        }
+        return circuitBreakerFailureThreshold;
+    }
+
+    public long getCircuitBreakerWindowMillis()
+    {
+        if(null == circuitBreakerWindowMillis)
+        {
+            circuitBreakerWindowMillis = getCircuitBreakerWindowMillisFromEnv();
+        }
+        return circuitBreakerWindowMillis;
+    }
+
+    public long getCircuitBreakerOpenDurationMillis()
+    {
+        if(null == circuitBreakerOpenDurationMillis)
+        {
+            circuitBreakerOpenDurationMillis = getCircuitBreakerOpenDurationMillisFromEnv();
+        }
+        return circuitBreakerOpenDurationMillis;
+    }
+
+    public int getCircuitBreakerHalfOpenProbes()
+    {
+        if(null == circuitBreakerHalfOpenProbes)
+        {
+            circuitBreakerHalfOpenProbes = getCircuitBreakerHalfOpenProbesFromEnv();
+        }
+        return circuitBreakerHalfOpenProbes;
+    }
+
+    public long getDiscoveryTimeoutMillis()
+    {
+        if(null == discoveryTimeoutMillis)
+        {
+            discoveryTimeoutMillis = getDiscoveryTimeoutMillisFromEnv();
+        }
+        return discoveryTimeoutMillis;
+    }
+
+    public long getLookupCoalescingMaxWaitMillis()
+    {
+        if(null == lookupCoalescingMaxWaitMillis)
+        {
+            lookupCoalescingMaxWaitMillis = getLookupCoalescingMaxWaitMillisFromEnv();
+        }
+        return lookupCoalescingMaxWaitMillis;
+    }
+
+    public long getNegativeCacheTtlMillis()
+    {
+        if(null == negativeCacheTtlMillis)
+        {
+            negativeCacheTtlMillis = getNegativeCacheTtlMillisFromEnv();
+        }
+        return negativeCacheTtlMillis;
+    }
+
+    public int getNegativeCacheMaxSize()
+    {
+        if(null == negativeCacheMaxSize)
+        {
+            negativeCacheMaxSize = getNegativeCacheMaxSizeFromEnv();
+        }
+        return negativeCacheMaxSize;
+    }
+
+    public int getServiceCacheMaxSize()
+    {
+        if(null == serviceCacheMaxSize)
+        {
+            serviceCacheMaxSize = getServiceCacheMaxSizeFromEnv();
+        }
+        return serviceCacheMaxSize;
+    }
+
+    public long getServiceCacheIdleTtlMillis()
+    {
+        if(null == serviceCacheIdleTtlMillis)
+        {
+            serviceCacheIdleTtlMillis = getServiceCacheIdleTtlMillisFromEnv();
+        }
+        return serviceCacheIdleTtlMillis;
+    }
+
+    public int getQueueCacheMaxSize()
+    {
+        if(null == queueCacheMaxSize)
+        {
+            queueCacheMaxSize = getQueueCacheMaxSizeFromEnv();
+        }
+        return queueCacheMaxSize;
+    }
+
+    public long getQueueCacheIdleTtlMillis()
+    {
+        if(null == queueCacheIdleTtlMillis)
+        {
+            queueCacheIdleTtlMillis = getQueueCacheIdleTtlMillisFromEnv();
+        }
+        return queueCacheIdleTtlMillis;
+    }
+
+    public ExecutionIdGeneratorType getExecutionIdGenerator()
+    {
+        if(null == executionIdGenerator)
+        {
+            executionIdGenerator = getExecutionIdGeneratorFromEnv();
+        }
+        return executionIdGenerator;
+    }
+
+    public String getTpacallExecutorJndiName()
+    {
+        if(null == tpacallExecutorJndiName)
+        {
+            tpacallExecutorJndiName = getTpacallExecutorJndiNameFromEnv();
+        }
+        return tpacallExecutorJndiName;
+    }
+
+    public String getHedgedServices()
+    {
+        if(null == hedgedServices)
+        {
+            hedgedServices = getHedgedServicesFromEnv();
+        }
+        return hedgedServices;
+    }
+
+    public long getHedgeDelayMillis()
+    {
+        if(null == hedgeDelayMillis)
+        {
+            hedgeDelayMillis = getHedgeDelayMillisFromEnv();
+        }
+        return hedgeDelayMillis;
+    }
+
+    public int getHedgeBudgetPercent()
+    {
+        if(null == hedgeBudgetPercent)
+        {
+            hedgeBudgetPercent = getHedgeBudgetPercentFromEnv();
+        }
+        return hedgeBudgetPercent;
+    }
+
+    public int getLoadBalancerExplorationPercent()
+    {
+        if(null == loadBalancerExplorationPercent)
+        {
+            loadBalancerExplorationPercent = getLoadBalancerExplorationPercentFromEnv();
+        }
+        return loadBalancerExplorationPercent;
+    }
+
+    public boolean isConcurrencyLimitEnabled()
+    {
+        if(null == concurrencyLimitEnabled)
+        {
+            concurrencyLimitEnabled = isConcurrencyLimitEnabledFromEnv();
+        }
+        return concurrencyLimitEnabled;
+    }
+
+    public int getConcurrencyLimitInitial()
+    {
+        if(null == concurrencyLimitInitial)
+        {
+            concurrencyLimitInitial = getConcurrencyLimitInitialFromEnv();
+        }
+        return concurrencyLimitInitial;
+    }
+
+    public int getConcurrencyLimitMax()
+    {
+        if(null == concurrencyLimitMax)
+        {
+            concurrencyLimitMax = getConcurrencyLimitMaxFromEnv();
+        }
+        return concurrencyLimitMax;
+    }
+
+    public List<BulkheadConfiguration> getBulkheads()
+    {
+        if(null == bulkheads)
+        {
+            bulkheads = getBulkheadsFromEnv();
+        }
+        return bulkheads;
+    }
+
+    public boolean isLatencyHistogramsEnabled()
+    {
+        if(null == latencyHistogramsEnabled)
+        {
+            latencyHistogramsEnabled = isLatencyHistogramsEnabledFromEnv();
+        }
+        return latencyHistogramsEnabled;
+    }
+
+    public int getDequeuePrefetch()
+    {
+        if(null == dequeuePrefetch)
+        {
+            dequeuePrefetch = getDequeuePrefetchFromEnv();
+        }
+        return dequeuePrefetch;
+    }
+
+    public boolean isDequeuePrefetchInTransaction()
+    {
+        if(null == dequeuePrefetchInTransaction)
+        {
+            dequeuePrefetchInTransaction = isDequeuePrefetchInTransactionFromEnv();
+        }
+        return dequeuePrefetchInTransaction;
+    }
+
+    public String getDiscoveryExecutorJndiName()
+    {
+        if(null == discoveryExecutorJndiName)
+        {
+            discoveryExecutorJndiName = getDiscoveryExecutorJndiNameFromEnv();
+        }
+        return discoveryExecutorJndiName;
+    }
+
+    public String getLookupExecutorJndiName()
+    {
+        if(null == lookupExecutorJndiName)
+        {
+            lookupExecutorJndiName = getLookupExecutorJndiNameFromEnv();
+        }
+        return lookupExecutorJndiName;
+    }
+
     public static Configuration fromEnvOrDefaults()
     {
         return builder()
@@ -68,6 +440,34 @@ public class Configuration
                 .validationIntervalMillis(getValidationIntervalMillisFromEnv())
                 .transactionStickyEnabled(isTransactionStickyEnabledFromEnv())
                 .topologyChangeDelayMillis(getTopologyChangeDelayMillisFromEnv())
+                .loadBalancer(getLoadBalancerFromEnv())
+                .circuitBreakerFailureThreshold(getCircuitBreakerFailureThresholdFromEnv())
+                .circuitBreakerWindowMillis(getCircuitBreakerWindowMillisFromEnv())
+                .circuitBreakerOpenDurationMillis(getCircuitBreakerOpenDurationMillisFromEnv())
+                .circuitBreakerHalfOpenProbes(getCircuitBreakerHalfOpenProbesFromEnv())
+                .discoveryTimeoutMillis(getDiscoveryTimeoutMillisFromEnv())
+                .lookupCoalescingMaxWaitMillis(getLookupCoalescingMaxWaitMillisFromEnv())
+                .negativeCacheTtlMillis(getNegativeCacheTtlMillisFromEnv())
+                .negativeCacheMaxSize(getNegativeCacheMaxSizeFromEnv())
+                .serviceCacheMaxSize(getServiceCacheMaxSizeFromEnv())
+                .serviceCacheIdleTtlMillis(getServiceCacheIdleTtlMillisFromEnv())
+                .queueCacheMaxSize(getQueueCacheMaxSizeFromEnv())
+                .queueCacheIdleTtlMillis(getQueueCacheIdleTtlMillisFromEnv())
+                .executionIdGenerator(getExecutionIdGeneratorFromEnv())
+                .tpacallExecutorJndiName(getTpacallExecutorJndiNameFromEnv())
+                .hedgedServices(getHedgedServicesFromEnv())
+                .hedgeDelayMillis(getHedgeDelayMillisFromEnv())
+                .hedgeBudgetPercent(getHedgeBudgetPercentFromEnv())
+                .loadBalancerExplorationPercent(getLoadBalancerExplorationPercentFromEnv())
+                .concurrencyLimitEnabled(isConcurrencyLimitEnabledFromEnv())
+                .concurrencyLimitInitial(getConcurrencyLimitInitialFromEnv())
+                .concurrencyLimitMax(getConcurrencyLimitMaxFromEnv())
+                .bulkheads(getBulkheadsFromEnv())
+                .latencyHistogramsEnabled(isLatencyHistogramsEnabledFromEnv())
+                .dequeuePrefetch(getDequeuePrefetchFromEnv())
+                .dequeuePrefetchInTransaction(isDequeuePrefetchInTransactionFromEnv())
+                .discoveryExecutorJndiName(getDiscoveryExecutorJndiNameFromEnv())
+                .lookupExecutorJndiName(getLookupExecutorJndiNameFromEnv())
                 .build();
     }
 
@@ -98,6 +498,181 @@ public class Configuration
                         .orElse(DEFAULT_TOPOLOGY_CHANGED_DELAY)));
     }
 
+    private static LoadBalancerType getLoadBalancerFromEnv()
+    {
+        return LoadBalancerType.valueOf(
+                Optional.ofNullable(System.getenv(CASUAL_CALLER_LOAD_BALANCER_ENV_NAME))
+                        .orElse(DEFAULT_LOAD_BALANCER)
+                        .toUpperCase(Locale.ROOT));
+    }
+
+    private static int getCircuitBreakerFailureThresholdFromEnv()
+    {
+        return Integer.parseInt(Optional.ofNullable(System.getenv(CASUAL_CALLER_CIRCUIT_BREAKER_FAILURE_THRESHOLD_ENV_NAME))
+                .orElse(DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD));
+    }
+
+    private static long getCircuitBreakerWindowMillisFromEnv()
+    {
+        return Long.parseLong(Optional.ofNullable(System.getenv(CASUAL_CALLER_CIRCUIT_BREAKER_WINDOW_ENV_NAME))
+                .orElse(DEFAULT_CIRCUIT_BREAKER_WINDOW));
+    }
+
+    private static long getCircuitBreakerOpenDurationMillisFromEnv()
+    {
+        return Long.parseLong(Optional.ofNullable(System.getenv(CASUAL_CALLER_CIRCUIT_BREAKER_OPEN_DURATION_ENV_NAME))
+                .orElse(DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION));
+    }
+
+    private static int getCircuitBreakerHalfOpenProbesFromEnv()
+    {
+        return Integer.parseInt(Optional.ofNullable(System.getenv(CASUAL_CALLER_CIRCUIT_BREAKER_HALF_OPEN_PROBES_ENV_NAME))
+                .orElse(DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_PROBES));
+    }
+
+    private static long getDiscoveryTimeoutMillisFromEnv()
+    {
+        return Long.parseLong(Optional.ofNullable(System.getenv(CASUAL_CALLER_DISCOVERY_TIMEOUT_ENV_NAME))
+                .orElse(DEFAULT_DISCOVERY_TIMEOUT));
+    }
+
+    private static long getLookupCoalescingMaxWaitMillisFromEnv()
+    {
+        return Long.parseLong(Optional.ofNullable(System.getenv(CASUAL_CALLER_LOOKUP_COALESCING_MAX_WAIT_ENV_NAME))
+                .orElse(DEFAULT_LOOKUP_COALESCING_MAX_WAIT));
+    }
+
+    private static long getNegativeCacheTtlMillisFromEnv()
+    {
+        return Long.parseLong(Optional.ofNullable(System.getenv(CASUAL_CALLER_NEGATIVE_CACHE_TTL_ENV_NAME))
+                .orElse(DEFAULT_NEGATIVE_CACHE_TTL));
+    }
+
+    private static int getNegativeCacheMaxSizeFromEnv()
+    {
+        return Integer.parseInt(Optional.ofNullable(System.getenv(CASUAL_CALLER_NEGATIVE_CACHE_MAX_SIZE_ENV_NAME))
+                .orElse(DEFAULT_NEGATIVE_CACHE_MAX_SIZE));
+    }
+
+    private static int getServiceCacheMaxSizeFromEnv()
+    {
+        return Integer.parseInt(Optional.ofNullable(System.getenv(CASUAL_CALLER_SERVICE_CACHE_MAX_SIZE_ENV_NAME))
+                .orElse(DEFAULT_SERVICE_CACHE_MAX_SIZE));
+    }
+
+    private static long getServiceCacheIdleTtlMillisFromEnv()
+    {
+        return Long.parseLong(Optional.ofNullable(System.getenv(CASUAL_CALLER_SERVICE_CACHE_IDLE_TTL_ENV_NAME))
+                .orElse(DEFAULT_SERVICE_CACHE_IDLE_TTL));
+    }
+
+    private static int getQueueCacheMaxSizeFromEnv()
+    {
+        return Integer.parseInt(Optional.ofNullable(System.getenv(CASUAL_CALLER_QUEUE_CACHE_MAX_SIZE_ENV_NAME))
+                .orElse(DEFAULT_QUEUE_CACHE_MAX_SIZE));
+    }
+
+    private static long getQueueCacheIdleTtlMillisFromEnv()
+    {
+        return Long.parseLong(Optional.ofNullable(System.getenv(CASUAL_CALLER_QUEUE_CACHE_IDLE_TTL_ENV_NAME))
+                .orElse(DEFAULT_QUEUE_CACHE_IDLE_TTL));
+    }
+
+    private static ExecutionIdGeneratorType getExecutionIdGeneratorFromEnv()
+    {
+        return ExecutionIdGeneratorType.valueOf(
+                Optional.ofNullable(System.getenv(CASUAL_CALLER_EXECUTION_ID_GENERATOR_ENV_NAME))
+                        .orElse(DEFAULT_EXECUTION_ID_GENERATOR)
+                        .toUpperCase(Locale.ROOT));
+    }
+
+    private static String getTpacallExecutorJndiNameFromEnv()
+    {
+        return Optional.ofNullable(System.getenv(CASUAL_CALLER_TPACALL_EXECUTOR_ENV_NAME))
+                .orElse(DEFAULT_TPACALL_EXECUTOR);
+    }
+
+    private static String getHedgedServicesFromEnv()
+    {
+        return Optional.ofNullable(System.getenv(CASUAL_CALLER_HEDGED_SERVICES_ENV_NAME))
+                .orElse(DEFAULT_HEDGED_SERVICES);
+    }
+
+    private static long getHedgeDelayMillisFromEnv()
+    {
+        return Long.parseLong(Optional.ofNullable(System.getenv(CASUAL_CALLER_HEDGE_DELAY_ENV_NAME))
+                .orElse(DEFAULT_HEDGE_DELAY));
+    }
+
+    private static int getHedgeBudgetPercentFromEnv()
+    {
+        return Integer.parseInt(Optional.ofNullable(System.getenv(CASUAL_CALLER_HEDGE_BUDGET_PERCENT_ENV_NAME))
+                .orElse(DEFAULT_HEDGE_BUDGET_PERCENT));
+    }
+
+    private static int getLoadBalancerExplorationPercentFromEnv()
+    {
+        return Integer.parseInt(Optional.ofNullable(System.getenv(CASUAL_CALLER_LOAD_BALANCER_EXPLORATION_PERCENT_ENV_NAME))
+                .orElse(DEFAULT_LOAD_BALANCER_EXPLORATION_PERCENT));
+    }
+
+    private static boolean isConcurrencyLimitEnabledFromEnv()
+    {
+        return Boolean.parseBoolean(Optional.ofNullable(System.getenv(CASUAL_CALLER_CONCURRENCY_LIMIT_ENV_NAME))
+                .orElse(DEFAULT_CONCURRENCY_LIMIT));
+    }
+
+    private static int getConcurrencyLimitInitialFromEnv()
+    {
+        return Integer.parseInt(Optional.ofNullable(System.getenv(CASUAL_CALLER_CONCURRENCY_LIMIT_INITIAL_ENV_NAME))
+                .orElse(DEFAULT_CONCURRENCY_LIMIT_INITIAL));
+    }
+
+    private static int getConcurrencyLimitMaxFromEnv()
+    {
+        return Integer.parseInt(Optional.ofNullable(System.getenv(CASUAL_CALLER_CONCURRENCY_LIMIT_MAX_ENV_NAME))
+                .orElse(DEFAULT_CONCURRENCY_LIMIT_MAX));
+    }
+
+    private static List<BulkheadConfiguration> getBulkheadsFromEnv()
+    {
+        // same json as in the configuration file, a list of bulkheads
+        return Optional.ofNullable(System.getenv(CASUAL_CALLER_BULKHEADS_ENV_NAME))
+                .filter(json -> !json.trim().isEmpty())
+                .map(json -> Arrays.asList(JsonProviderFactory.getJsonProvider().fromJson(new StringReader(json), BulkheadConfiguration[].class)))
+                .orElseGet(Collections::emptyList);
+    }
+
+    private static boolean isLatencyHistogramsEnabledFromEnv()
+    {
+        return Boolean.parseBoolean(Optional.ofNullable(System.getenv(CASUAL_CALLER_LATENCY_HISTOGRAMS_ENV_NAME))
+                .orElse(DEFAULT_LATENCY_HISTOGRAMS));
+    }
+
+    private static int getDequeuePrefetchFromEnv()
+    {
+        return Integer.parseInt(Optional.ofNullable(System.getenv(CASUAL_CALLER_DEQUEUE_PREFETCH_ENV_NAME))
+                .orElse(DEFAULT_DEQUEUE_PREFETCH));
+    }
+
+    private static boolean isDequeuePrefetchInTransactionFromEnv()
+    {
+        return Boolean.parseBoolean(Optional.ofNullable(System.getenv(CASUAL_CALLER_DEQUEUE_PREFETCH_IN_TRANSACTION_ENV_NAME))
+                .orElse(DEFAULT_DEQUEUE_PREFETCH_IN_TRANSACTION));
+    }
+
+    private static String getDiscoveryExecutorJndiNameFromEnv()
+    {
+        return Optional.ofNullable(System.getenv(CASUAL_CALLER_DISCOVERY_EXECUTOR_ENV_NAME))
+                .orElse(DEFAULT_DISCOVERY_EXECUTOR);
+    }
+
+    private static String getLookupExecutorJndiNameFromEnv()
+    {
+        return Optional.ofNullable(System.getenv(CASUAL_CALLER_LOOKUP_EXECUTOR_ENV_NAME))
+                .orElse(DEFAULT_LOOKUP_EXECUTOR);
+    }
+
     @Override
     public boolean equals(Object o)
     {
@@ -110,13 +685,13 @@ public class Configuration
             return false;
         }
         Configuration that = (Configuration) o;
-        return Objects.equals(getJndiSearchRoot(), that.getJndiSearchRoot()) && Objects.equals(getValidationIntervalMillis(), that.getValidationIntervalMillis()) && Objects.equals(isTransactionStickyEnabled(), that.isTransactionStickyEnabled()) && Objects.equals(getTopologyChangeDelayMillis(), that.getTopologyChangeDelayMillis());
+        return Objects.equals(getJndiSearchRoot(), that.getJndiSearchRoot()) && Objects.equals(getValidationIntervalMillis(), that.getValidationIntervalMillis()) && Objects.equals(isTransactionStickyEnabled(), that.isTransactionStickyEnabled()) && Objects.equals(getTopologyChangeDelayMillis(), that.getTopologyChangeDelayMillis()) && getLoadBalancer() == that.getLoadBalancer() && getCircuitBreakerFailureThreshold() == that.getCircuitBreakerFailureThreshold() && getCircuitBreakerWindowMillis() == that.getCircuitBreakerWindowMillis() && getCircuitBreakerOpenDurationMillis() == that.getCircuitBreakerOpenDurationMillis() && getCircuitBreakerHalfOpenProbes() == that.getCircuitBreakerHalfOpenProbes() && getDiscoveryTimeoutMillis() == that.getDiscoveryTimeoutMillis() && getLookupCoalescingMaxWaitMillis() == that.getLookupCoalescingMaxWaitMillis() && getNegativeCacheTtlMillis() == that.getNegativeCacheTtlMillis() && getNegativeCacheMaxSize() == that.getNegativeCacheMaxSize() && getServiceCacheMaxSize() == that.getServiceCacheMaxSize() && getServiceCacheIdleTtlMillis() == that.getServiceCacheIdleTtlMillis() && getQueueCacheMaxSize() == that.getQueueCacheMaxSize() && getQueueCacheIdleTtlMillis() == that.getQueueCacheIdleTtlMillis() && getExecutionIdGenerator() == that.getExecutionIdGenerator() && Objects.equals(getTpacallExecutorJndiName(), that.getTpacallExecutorJndiName()) && Objects.equals(getHedgedServices(), that.getHedgedServices()) && getHedgeDelayMillis() == that.getHedgeDelayMillis() && getHedgeBudgetPercent() == that.getHedgeBudgetPercent() && getLoadBalancerExplorationPercent() == that.getLoadBalancerExplorationPercent() && isConcurrencyLimitEnabled() == that.isConcurrencyLimitEnabled() && getConcurrencyLimitInitial() == that.getConcurrencyLimitInitial() && getConcurrencyLimitMax() == that.getConcurrencyLimitMax() && Objects.equals(getBulkheads(), that.getBulkheads()) && isLatencyHistogramsEnabled() == that.isLatencyHistogramsEnabled() && getDequeuePrefetch() == that.getDequeuePrefetch() && isDequeuePrefetchInTransaction() == that.isDequeuePrefetchInTransaction() && Objects.equals(getDiscoveryExecutorJndiName(), that.getDiscoveryExecutorJndiName()) && Objects.equals(getLookupExecutorJndiName(), that.getLookupExecutorJndiName());
     }
 
     @Override
     public int hashCode()
     {
-        return Objects.hash(getJndiSearchRoot(), getValidationIntervalMillis(), isTransactionStickyEnabled(), getTopologyChangeDelayMillis());
+        return Objects.hash(getJndiSearchRoot(), getValidationIntervalMillis(), isTransactionStickyEnabled(), getTopologyChangeDelayMillis(), getLoadBalancer(), getCircuitBreakerFailureThreshold(), getCircuitBreakerWindowMillis(), getCircuitBreakerOpenDurationMillis(), getCircuitBreakerHalfOpenProbes(), getDiscoveryTimeoutMillis(), getLookupCoalescingMaxWaitMillis(), getNegativeCacheTtlMillis(), getNegativeCacheMaxSize(), getServiceCacheMaxSize(), getServiceCacheIdleTtlMillis(), getQueueCacheMaxSize(), getQueueCacheIdleTtlMillis(), getExecutionIdGenerator(), getTpacallExecutorJndiName(), getHedgedServices(), getHedgeDelayMillis(), getHedgeBudgetPercent(), getLoadBalancerExplorationPercent(), isConcurrencyLimitEnabled(), getConcurrencyLimitInitial(), getConcurrencyLimitMax(), getBulkheads(), isLatencyHistogramsEnabled(), getDequeuePrefetch(), isDequeuePrefetchInTransaction(), getDiscoveryExecutorJndiName(), getLookupExecutorJndiName());
     }
 
     @Override
@@ -127,6 +702,34 @@ public class Configuration
                 ", validationIntervalMillis=" + getValidationIntervalMillis() +
                 ", transactionStickyEnabled=" + isTransactionStickyEnabled() +
                 ", topologyChangeDelayMillis=" + getTopologyChangeDelayMillis() +
+                ", loadBalancer=" + getLoadBalancer() +
+                ", circuitBreakerFailureThreshold=" + getCircuitBreakerFailureThreshold() +
+                ", circuitBreakerWindowMillis=" + getCircuitBreakerWindowMillis() +
+                ", circuitBreakerOpenDurationMillis=" + getCircuitBreakerOpenDurationMillis() +
+                ", circuitBreakerHalfOpenProbes=" + getCircuitBreakerHalfOpenProbes() +
+                ", discoveryTimeoutMillis=" + getDiscoveryTimeoutMillis() +
+                ", lookupCoalescingMaxWaitMillis=" + getLookupCoalescingMaxWaitMillis() +
+                ", negativeCacheTtlMillis=" + getNegativeCacheTtlMillis() +
+                ", negativeCacheMaxSize=" + getNegativeCacheMaxSize() +
+                ", serviceCacheMaxSize=" + getServiceCacheMaxSize() +
+                ", serviceCacheIdleTtlMillis=" + getServiceCacheIdleTtlMillis() +
+                ", queueCacheMaxSize=" + getQueueCacheMaxSize() +
+                ", queueCacheIdleTtlMillis=" + getQueueCacheIdleTtlMillis() +
+                ", executionIdGenerator=" + getExecutionIdGenerator() +
+                ", tpacallExecutorJndiName=" + getTpacallExecutorJndiName() +
+                ", hedgedServices=" + getHedgedServices() +
+                ", hedgeDelayMillis=" + getHedgeDelayMillis() +
+                ", hedgeBudgetPercent=" + getHedgeBudgetPercent() +
+                ", loadBalancerExplorationPercent=" + getLoadBalancerExplorationPercent() +
+                ", concurrencyLimitEnabled=" + isConcurrencyLimitEnabled() +
+                ", concurrencyLimitInitial=" + getConcurrencyLimitInitial() +
+                ", concurrencyLimitMax=" + getConcurrencyLimitMax() +
+                ", bulkheads=" + getBulkheads() +
+                ", latencyHistogramsEnabled=" + isLatencyHistogramsEnabled() +
+                ", dequeuePrefetch=" + getDequeuePrefetch() +
+                ", dequeuePrefetchInTransaction=" + isDequeuePrefetchInTransaction() +
+                ", discoveryExecutorJndiName=" + getDiscoveryExecutorJndiName() +
+                ", lookupExecutorJndiName=" + getLookupExecutorJndiName() +
                 '}';
     }
 
@@ -141,6 +744,34 @@ public class Configuration
         private Integer validationIntervalMillis;
         private Boolean transactionStickyEnabled;
         private Long topologyChangeDelayMillis;
+        private LoadBalancerType loadBalancer;
+        private Integer circuitBreakerFailureThreshold;
+        private Long circuitBreakerWindowMillis;
+        private Long circuitBreakerOpenDurationMillis;
+        private Integer circuitBreakerHalfOpenProbes;
+        private Long discoveryTimeoutMillis;
+        private Long lookupCoalescingMaxWaitMillis;
+        private Long negativeCacheTtlMillis;
+        private Integer negativeCacheMaxSize;
+        private Integer serviceCacheMaxSize;
+        private Long serviceCacheIdleTtlMillis;
+        private Integer queueCacheMaxSize;
+        private Long queueCacheIdleTtlMillis;
+        private ExecutionIdGeneratorType executionIdGenerator;
+        private String tpacallExecutorJndiName;
+        private String hedgedServices;
+        private Long hedgeDelayMillis;
+        private Integer hedgeBudgetPercent;
+        private Integer loadBalancerExplorationPercent;
+        private Boolean concurrencyLimitEnabled;
+        private Integer concurrencyLimitInitial;
+        private Integer concurrencyLimitMax;
+        private List<BulkheadConfiguration> bulkheads;
+        private Boolean latencyHistogramsEnabled;
+        private Integer dequeuePrefetch;
+        private Boolean dequeuePrefetchInTransaction;
+        private String discoveryExecutorJndiName;
+        private String lookupExecutorJndiName;
 
         public Configuration build()
         {
@@ -170,5 +801,173 @@ public class Configuration
             this.topologyChangeDelayMillis = domainDiscoveryOnTopologyChangeDelayMillis;
             return this;
         }
+
+        public Builder loadBalancer(LoadBalancerType loadBalancer)
+        {
+            this.loadBalancer = loadBalancer;
+            return this;
+        }
+
+        public Builder circuitBreakerFailureThreshold(Integer circuitBreakerFailureThreshold)
+        {
+            this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+            return this;
+        }
+
+        public Builder circuitBreakerWindowMillis(Long circuitBreakerWindowMillis)
+        {
+            this.circuitBreakerWindowMillis = circuitBreakerWindowMillis;
+            return this;
+        }
+
+        public Builder circuitBreakerOpenDurationMillis(Long circuitBreakerOpenDurationMillis)
+        {
+            this.circuitBreakerOpenDurationMillis = circuitBreakerOpenDurationMillis;
+            return this;
+        }
+
+        public Builder circuitBreakerHalfOpenProbes(Integer circuitBreakerHalfOpenProbes)
+        {
+            this.circuitBreakerHalfOpenProbes = circuitBreakerHalfOpenProbes;
+            return this;
+        }
+
+        public Builder discoveryTimeoutMillis(Long discoveryTimeoutMillis)
+        {
+            this.discoveryTimeoutMillis = discoveryTimeoutMillis;
+            return this;
+        }
+
+        public Builder lookupCoalescingMaxWaitMillis(Long lookupCoalescingMaxWaitMillis)
+        {
+            this.lookupCoalescingMaxWaitMillis = lookupCoalescingMaxWaitMillis;
+            return this;
+        }
+
+        public Builder negativeCacheTtlMillis(Long negativeCacheTtlMillis)
+        {
+            this.negativeCacheTtlMillis = negativeCacheTtlMillis;
+            return this;
+        }
+
+        public Builder negativeCacheMaxSize(Integer negativeCacheMaxSize)
+        {
+            this.negativeCacheMaxSize = negativeCacheMaxSize;
+            return this;
+        }
+
+        public Builder serviceCacheMaxSize(Integer serviceCacheMaxSize)
+        {
+            this.serviceCacheMaxSize = serviceCacheMaxSize;
+            return this;
+        }
+
+        public Builder serviceCacheIdleTtlMillis(Long serviceCacheIdleTtlMillis)
+        {
+            this.serviceCacheIdleTtlMillis = serviceCacheIdleTtlMillis;
+            return this;
+        }
+
+        public Builder queueCacheMaxSize(Integer queueCacheMaxSize)
+        {
+            this.queueCacheMaxSize = queueCacheMaxSize;
+            return this;
+        }
+
+        public Builder queueCacheIdleTtlMillis(Long queueCacheIdleTtlMillis)
+        {
+            this.queueCacheIdleTtlMillis = queueCacheIdleTtlMillis;
+            return this;
+        }
+
+        public Builder executionIdGenerator(ExecutionIdGeneratorType executionIdGenerator)
+        {
+            this.executionIdGenerator = executionIdGenerator;
+            return this;
+        }
+
+        public Builder tpacallExecutorJndiName(String tpacallExecutorJndiName)
+        {
+            this.tpacallExecutorJndiName = tpacallExecutorJndiName;
+            return this;
+        }
+
+        public Builder hedgedServices(String hedgedServices)
+        {
+            this.hedgedServices = hedgedServices;
+            return this;
+        }
+
+        public Builder hedgeDelayMillis(Long hedgeDelayMillis)
+        {
+            this.hedgeDelayMillis = hedgeDelayMillis;
+            return this;
+        }
+
+        public Builder hedgeBudgetPercent(Integer hedgeBudgetPercent)
+        {
+            this.hedgeBudgetPercent = hedgeBudgetPercent;
+            return this;
+        }
+
+        public Builder loadBalancerExplorationPercent(Integer loadBalancerExplorationPercent)
+        {
+            this.loadBalancerExplorationPercent = loadBalancerExplorationPercent;
+            return this;
+        }
+
+        public Builder concurrencyLimitEnabled(Boolean concurrencyLimitEnabled)
+        {
+            this.concurrencyLimitEnabled = concurrencyLimitEnabled;
+            return this;
+        }
+
+        public Builder concurrencyLimitInitial(Integer concurrencyLimitInitial)
+        {
+            this.concurrencyLimitInitial = concurrencyLimitInitial;
+            return this;
+        }
+
+        public Builder concurrencyLimitMax(Integer concurrencyLimitMax)
+        {
+            this.concurrencyLimitMax = concurrencyLimitMax;
+            return this;
+        }
+
+        public Builder bulkheads(List<BulkheadConfiguration> bulkheads)
+        {
+            this.bulkheads = bulkheads;
+            return this;
+        }
+
+        public Builder latencyHistogramsEnabled(Boolean latencyHistogramsEnabled)
+        {
+            this.latencyHistogramsEnabled = latencyHistogramsEnabled;
+            return this;
+        }
+
+        public Builder dequeuePrefetch(Integer dequeuePrefetch)
+        {
+            this.dequeuePrefetch = dequeuePrefetch;
+            return this;
+        }
+
+        public Builder dequeuePrefetchInTransaction(Boolean dequeuePrefetchInTransaction)
+        {
+            this.dequeuePrefetchInTransaction = dequeuePrefetchInTransaction;
+            return this;
+        }
+
+        public Builder discoveryExecutorJndiName(String discoveryExecutorJndiName)
+        {
+            this.discoveryExecutorJndiName = discoveryExecutorJndiName;
+            return this;
+        }
+
+        public Builder lookupExecutorJndiName(String lookupExecutorJndiName)
+        {
+            this.lookupExecutorJndiName = lookupExecutorJndiName;
+            return this;
+        }
     }
 }
@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.execution;
+
+import java.util.UUID;
+
+/**
+ * Creates the execution id that identifies a call, or a discovery, towards casual
+ *
+ * Ids have to be unique across all JVMs calling the same casual domain.
+ */
+@FunctionalInterface
+public interface ExecutionIdGenerator
+{
+    UUID next();
+}
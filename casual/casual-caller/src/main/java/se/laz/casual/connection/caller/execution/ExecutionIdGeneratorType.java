@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.execution;
+
+public enum ExecutionIdGeneratorType
+{
+    PER_THREAD(new PerThreadExecutionIdGenerator()),
+    RANDOM_UUID(new RandomUUIDExecutionIdGenerator());
+
+    private final ExecutionIdGenerator executionIdGenerator;
+
+    ExecutionIdGeneratorType(ExecutionIdGenerator executionIdGenerator)
+    {
+        this.executionIdGenerator = executionIdGenerator;
+    }
+
+    public ExecutionIdGenerator getExecutionIdGenerator()
+    {
+        return executionIdGenerator;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.execution;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+
+/**
+ * Version 4 UUIDs made of a random prefix per thread and a counter per thread
+ *
+ * The prefix and the start of the counter are drawn from a shared SecureRandom once per thread, after that
+ * no shared state is touched. Two ids can only collide if two threads, in any JVM, draw the same 60 bit prefix
+ * and their counters overlap.
+ */
+public class PerThreadExecutionIdGenerator implements ExecutionIdGenerator
+{
+    private static final long VERSION_MASK = 0xF000L;
+    private static final long VERSION_4 = 0x4000L;
+    private static final long VARIANT_MASK = 0x3FFFFFFFFFFFFFFFL;
+    private static final long VARIANT_IETF = 0x8000000000000000L;
+    private static final SecureRandom SEED = new SecureRandom();
+    // state is a long[] so that threads of a pool do not keep the application class loader alive after undeploy
+    private static final ThreadLocal<long[]> STATE = ThreadLocal.withInitial(() -> new long[]{(SEED.nextLong() & ~VERSION_MASK) | VERSION_4, SEED.nextLong()});
+
+    @Override
+    public UUID next()
+    {
+        long[] state = STATE.get();
+        long counter = state[1]++;
+        return new UUID(state[0], (counter & VARIANT_MASK) | VARIANT_IETF);
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.execution;
+
+import java.util.UUID;
+
+/**
+ * UUID.randomUUID for every id, all threads share one SecureRandom
+ */
+public class RandomUUIDExecutionIdGenerator implements ExecutionIdGenerator
+{
+    @Override
+    public UUID next()
+    {
+        return UUID.randomUUID();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.hedging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per service hedge budget and statistics
+ *
+ * A hedge is only allowed while the number of hedges stays within {@code budgetPercent} of the calls.
+ */
+public final class HedgeBudget
+{
+    private final int budgetPercent;
+    private final AtomicLong calls = new AtomicLong(0);
+    private final AtomicLong hedges = new AtomicLong(0);
+    private final AtomicLong hedgeWins = new AtomicLong(0);
+    private final AtomicLong hedgesDenied = new AtomicLong(0);
+
+    private HedgeBudget(int budgetPercent)
+    {
+        this.budgetPercent = budgetPercent;
+    }
+
+    public static HedgeBudget of(int budgetPercent)
+    {
+        if(budgetPercent < 0)
+        {
+            throw new IllegalArgumentException("budgetPercent can not be negative, budgetPercent: " + budgetPercent);
+        }
+        return new HedgeBudget(budgetPercent);
+    }
+
+    public void callStarted()
+    {
+        calls.incrementAndGet();
+    }
+
+    /**
+     * @return true if a hedge may be issued, it is then counted against the budget
+     */
+    public boolean tryHedge()
+    {
+        while(true)
+        {
+            long current = hedges.get();
+            if((current + 1) * 100 > calls.get() * budgetPercent)
+            {
+                hedgesDenied.incrementAndGet();
+                return false;
+            }
+            if(hedges.compareAndSet(current, current + 1))
+            {
+                return true;
+            }
+        }
+    }
+
+    public void hedgeWon()
+    {
+        hedgeWins.incrementAndGet();
+    }
+
+    public long getCalls()
+    {
+        return calls.get();
+    }
+
+    public long getHedges()
+    {
+        return hedges.get();
+    }
+
+    public long getHedgeWins()
+    {
+        return hedgeWins.get();
+    }
+
+    public long getHedgesDenied()
+    {
+        return hedgesDenied.get();
+    }
+
+    /**
+     * @return the share of hedges that replied before the primary call, 0 if there have been no hedges
+     */
+    public double getWinRate()
+    {
+        long issued = hedges.get();
+        return issued == 0 ? 0.0 : (double) hedgeWins.get() / issued;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HedgeBudget{" +
+                "budgetPercent=" + budgetPercent +
+                ", calls=" + getCalls() +
+                ", hedges=" + getHedges() +
+                ", hedgeWins=" + getHedgeWins() +
+                ", hedgesDenied=" + getHedgesDenied() +
+                ", winRate=" + getWinRate() +
+                '}';
+    }
+}
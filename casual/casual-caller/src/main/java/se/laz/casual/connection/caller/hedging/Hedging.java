@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.hedging;
+
+import se.laz.casual.connection.caller.config.Configuration;
+import se.laz.casual.connection.caller.config.ConfigurationService;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Which services are hedged, and how
+ *
+ * A tpcall to a hedged service that has not replied within {@code delayMillis} gets a second call to the next
+ * connection factory, as long as the service has hedge budget left. The first reply wins.
+ */
+public final class Hedging
+{
+    private static final Hedging INSTANCE = fromConfiguration();
+    private final Set<String> services;
+    private final long delayMillis;
+    private final int budgetPercent;
+    private final Map<String, HedgeBudget> budgets = new ConcurrentHashMap<>();
+
+    private Hedging(Set<String> services, long delayMillis, int budgetPercent)
+    {
+        this.services = services;
+        this.delayMillis = delayMillis;
+        this.budgetPercent = budgetPercent;
+    }
+
+    public static Hedging of(Set<String> services, long delayMillis, int budgetPercent)
+    {
+        Objects.requireNonNull(services, "services can not be null");
+        if(delayMillis < 0 || budgetPercent < 0)
+        {
+            throw new IllegalArgumentException("delayMillis and budgetPercent can not be negative, delayMillis: " + delayMillis + " budgetPercent: " + budgetPercent);
+        }
+        return new Hedging(Collections.unmodifiableSet(new HashSet<>(services)), delayMillis, budgetPercent);
+    }
+
+    public static Hedging fromConfiguration()
+    {
+        Configuration configuration = ConfigurationService.getInstance().getConfiguration();
+        Set<String> services = Arrays.stream(configuration.getHedgedServices().split(","))
+                                     .map(String::trim)
+                                     .filter(name -> !name.isEmpty())
+                                     .collect(Collectors.toSet());
+        return of(services, configuration.getHedgeDelayMillis(), configuration.getHedgeBudgetPercent());
+    }
+
+    public static Hedging getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the budget of the service, empty if the service is not hedged
+     */
+    public Optional<HedgeBudget> getBudget(String serviceName)
+    {
+        if(!services.contains(serviceName))
+        {
+            return Optional.empty();
+        }
+        return Optional.of(budgets.computeIfAbsent(serviceName, name -> HedgeBudget.of(budgetPercent)));
+    }
+
+    public long getDelayMillis()
+    {
+        return delayMillis;
+    }
+
+    public Set<String> getServices()
+    {
+        return services;
+    }
+
+    /**
+     * @return the budgets of the hedged services that have been called, by service name
+     */
+    public Map<String, HedgeBudget> getBudgets()
+    {
+        return new TreeMap<>(budgets);
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2021, The casual project. All rights reserved.
+ * Copyright (c) 2021 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -11,10 +11,19 @@ import se.laz.casual.connection.caller.Cache;
 import se.laz.casual.connection.caller.ConnectionFactoryEntry;
 import se.laz.casual.connection.caller.ConnectionFactoryEntryStore;
 import se.laz.casual.connection.caller.TransactionPoolMapper;
+import se.laz.casual.connection.caller.bulkhead.Bulkhead;
+import se.laz.casual.connection.caller.bulkhead.Bulkheads;
 import se.laz.casual.connection.caller.config.ConfigurationService;
+import se.laz.casual.connection.caller.hedging.HedgeBudget;
+import se.laz.casual.connection.caller.hedging.Hedging;
+import se.laz.casual.connection.caller.loadbalancer.LatencyScores;
+import se.laz.casual.connection.caller.metrics.LatencyHistograms;
+import se.laz.casual.connection.caller.metrics.Operation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -49,6 +58,33 @@ public class CasualCallerControl implements CasualCallerControlMBean
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public void purgeConnectionFactoryCache()
+    {
+        connectionFactoryEntryStore.get()
+                .forEach(ConnectionFactoryEntry::invalidateConnectionFactory);
+    }
+
+    @Override
+    public String circuitBreakerState(String poolName)
+    {
+        return connectionFactoryEntryStore.get()
+                .stream()
+                .filter(connectionFactoryEntry -> connectionFactoryEntry.getJndiName().equals(poolName))
+                .findFirst()
+                .map(connectionFactoryEntry -> connectionFactoryEntry.getCircuitBreakerState().name())
+                .orElse(null);
+    }
+
+    @Override
+    public List<String> circuitBreakers()
+    {
+        return connectionFactoryEntryStore.get()
+                .stream()
+                .map(connectionFactoryEntry -> connectionFactoryEntry.getJndiName() + ": " + connectionFactoryEntry.getCircuitBreaker())
+                .sorted()
+                .collect(Collectors.toList());
+    }
 
     @Override
     public void purgeServiceCache()
@@ -94,6 +130,54 @@ public class CasualCallerControl implements CasualCallerControlMBean
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public long serviceLookupLeaders()
+    {
+        return cache.getServiceLookups().getLeaders();
+    }
+
+    @Override
+    public long serviceLookupsCoalesced()
+    {
+        return cache.getServiceLookups().getCoalesced();
+    }
+
+    @Override
+    public long serviceLookupWaitTimeouts()
+    {
+        return cache.getServiceLookups().getTimeouts();
+    }
+
+    @Override
+    public long unknownServiceCacheHits()
+    {
+        return cache.getUnknownServices().getHits();
+    }
+
+    @Override
+    public long unknownServiceCacheMisses()
+    {
+        return cache.getUnknownServices().getMisses();
+    }
+
+    @Override
+    public int unknownServiceCacheSize()
+    {
+        return cache.getUnknownServices().size();
+    }
+
+    @Override
+    public long serviceCacheSizeEvictions()
+    {
+        return cache.getServiceCacheEviction().getSizeEvictions();
+    }
+
+    @Override
+    public long serviceCacheIdleEvictions()
+    {
+        return cache.getServiceCacheEviction().getIdleEvictions();
+    }
+
     @Override
     public List<String> queueInPools(String queueName)
     {
@@ -112,6 +196,66 @@ public class CasualCallerControl implements CasualCallerControlMBean
         return queueEntry.map(ConnectionFactoryEntry::getJndiName).orElse(null);
     }
 
+    @Override
+    public long queueLookupLeaders()
+    {
+        return cache.getQueueLookups().getLeaders();
+    }
+
+    @Override
+    public long queueLookupsCoalesced()
+    {
+        return cache.getQueueLookups().getCoalesced();
+    }
+
+    @Override
+    public long queueLookupWaitTimeouts()
+    {
+        return cache.getQueueLookups().getTimeouts();
+    }
+
+    @Override
+    public long unknownQueueCacheHits()
+    {
+        return cache.getUnknownQueues().getHits();
+    }
+
+    @Override
+    public long unknownQueueCacheMisses()
+    {
+        return cache.getUnknownQueues().getMisses();
+    }
+
+    @Override
+    public int unknownQueueCacheSize()
+    {
+        return cache.getUnknownQueues().size();
+    }
+
+    @Override
+    public long queueCacheSizeEvictions()
+    {
+        return cache.getQueueCacheEviction().getSizeEvictions();
+    }
+
+    @Override
+    public long queueCacheIdleEvictions()
+    {
+        return cache.getQueueCacheEviction().getIdleEvictions();
+    }
+
+    @Override
+    public long queueRestickCount()
+    {
+        return cache.getQueueRestickCount();
+    }
+
+    @Override
+    public void purgeUnknownCache()
+    {
+        cache.purgeUnknown();
+    }
+
     @Override
     public boolean transactionStickyEnabled()
     {
@@ -137,4 +281,138 @@ public class CasualCallerControl implements CasualCallerControlMBean
     public Integer currentTransactionStickiesForPool(String poolName) {
         return TransactionPoolMapper.getInstance().getNumberOfTrackedTransactions(poolName);
     }
+
+    @Override
+    public List<String> hedgedServices()
+    {
+        return Hedging.getInstance().getServices()
+                .stream()
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<String> hedgeStatistics()
+    {
+        return Hedging.getInstance().getBudgets()
+                .entrySet()
+                .stream()
+                .map(entry -> entry.getKey() + ": " + entry.getValue())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public double hedgeWinRate(String serviceName)
+    {
+        HedgeBudget budget = Hedging.getInstance().getBudgets().get(serviceName);
+        return null == budget ? 0.0 : budget.getWinRate();
+    }
+
+    @Override
+    public String loadBalancer()
+    {
+        return ConfigurationService.getInstance().getConfiguration().getLoadBalancer().name();
+    }
+
+    @Override
+    public List<String> latencyScores(String serviceName)
+    {
+        return LatencyScores.getInstance().getScores(serviceName)
+                .entrySet()
+                .stream()
+                .map(entry -> entry.getKey() + ": " + entry.getValue())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void resetLatencyScores()
+    {
+        LatencyScores.getInstance().clear();
+    }
+
+    @Override
+    public List<String> concurrencyLimits()
+    {
+        return connectionFactoryEntryStore.get()
+                .stream()
+                .map(connectionFactoryEntry -> connectionFactoryEntry.getJndiName() + ": " + connectionFactoryEntry.getConcurrencyLimit())
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public long concurrencyLimitRejections()
+    {
+        return connectionFactoryEntryStore.get()
+                .stream()
+                .mapToLong(connectionFactoryEntry -> connectionFactoryEntry.getConcurrencyLimit().getRejected())
+                .sum();
+    }
+
+    @Override
+    public List<String> bulkheads()
+    {
+        return Bulkheads.getInstance().getBulkheads()
+                .entrySet()
+                .stream()
+                .map(entry -> entry.getKey() + ": " + entry.getValue())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public double bulkheadSaturation(String serviceName)
+    {
+        Bulkhead bulkhead = Bulkheads.getInstance().getBulkheads().get(serviceName);
+        return null == bulkhead ? 0.0 : bulkhead.getSaturation();
+    }
+
+    @Override
+    public double bulkheadAverageWaitMillis(String serviceName)
+    {
+        Bulkhead bulkhead = Bulkheads.getInstance().getBulkheads().get(serviceName);
+        return null == bulkhead ? 0.0 : bulkhead.getAverageWaitMillis();
+    }
+
+    @Override
+    public boolean latencyHistogramsEnabled()
+    {
+        return LatencyHistograms.getInstance().isEnabled();
+    }
+
+    @Override
+    public List<String> latencyHistograms()
+    {
+        return LatencyHistograms.getInstance().getHistograms()
+                .entrySet()
+                .stream()
+                .map(entry -> entry.getKey() + ": " + entry.getValue())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public double latencyPercentileMillis(String operation, String name, String poolName, double percentile)
+    {
+        // an unknown operation is treated as one without histograms, same as an unknown name
+        return toOperation(operation).flatMap(known -> LatencyHistograms.getInstance().getHistogram(known, name, poolName))
+                .map(histogram -> histogram.getValueAtPercentileMillis(percentile))
+                .orElse(0.0);
+    }
+
+    @Override
+    public void resetLatencyHistograms()
+    {
+        LatencyHistograms.getInstance().reset();
+    }
+
+    private static Optional<Operation> toOperation(String operation)
+    {
+        if (null == operation)
+        {
+            return Optional.empty();
+        }
+        String wanted = operation.trim().toUpperCase(Locale.ROOT);
+        return Arrays.stream(Operation.values())
+                     .filter(candidate -> candidate.name().equals(wanted))
+                     .findFirst();
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2021, The casual project. All rights reserved.
+ * Copyright (c) 2021 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -12,20 +12,61 @@ public interface CasualCallerControlMBean
 {
     List<String> validPools();
     List<String> invalidPools();
+    void purgeConnectionFactoryCache();
+    String circuitBreakerState(String poolName);
+    List<String> circuitBreakers();
 
     void purgeServiceCache();
     List<String> cachedServices();
     List<String> poolsCheckedForService(String serviceName);
     List<String> poolsContainingService(String serviceName);
+    long serviceLookupLeaders();
+    long serviceLookupsCoalesced();
+    long serviceLookupWaitTimeouts();
+    long unknownServiceCacheHits();
+    long unknownServiceCacheMisses();
+    int unknownServiceCacheSize();
+    long serviceCacheSizeEvictions();
+    long serviceCacheIdleEvictions();
 
     void purgeQueueCache();
     List<String> cachedQueues();
     List<String> queueInPools(String queueName);
     String getQueueStickiedPool(String queueName);
+    long queueLookupLeaders();
+    long queueLookupsCoalesced();
+    long queueLookupWaitTimeouts();
+    long unknownQueueCacheHits();
+    long unknownQueueCacheMisses();
+    int unknownQueueCacheSize();
+    long queueCacheSizeEvictions();
+    long queueCacheIdleEvictions();
+    long queueRestickCount();
+    void purgeUnknownCache();
 
     boolean transactionStickyEnabled();
     void purgeTransactionStickies();
     void purgeTransactionStickiesForPool(String poolName);
     Integer currentTransactionStickies();
     Integer currentTransactionStickiesForPool(String poolName);
+
+    List<String> hedgedServices();
+    List<String> hedgeStatistics();
+    double hedgeWinRate(String serviceName);
+
+    String loadBalancer();
+    List<String> latencyScores(String serviceName);
+    void resetLatencyScores();
+
+    List<String> concurrencyLimits();
+    long concurrencyLimitRejections();
+
+    List<String> bulkheads();
+    double bulkheadSaturation(String serviceName);
+    double bulkheadAverageWaitMillis(String serviceName);
+
+    boolean latencyHistogramsEnabled();
+    List<String> latencyHistograms();
+    double latencyPercentileMillis(String operation, String name, String poolName, double percentile);
+    void resetLatencyHistograms();
 }
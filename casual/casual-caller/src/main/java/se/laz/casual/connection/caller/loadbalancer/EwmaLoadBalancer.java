@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.loadbalancer;
+
+import se.laz.casual.connection.caller.ConnectionFactoryEntry;
+import se.laz.casual.connection.caller.config.ConfigurationService;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntSupplier;
+
+/**
+ * Latency and error aware order within a priority
+ *
+ * The entries are ordered by their {@link LatencyScore} for the service, lowest first, ties in random order.
+ * A share of the calls, the exploration percent, gets a random order instead so that a pool that has recovered
+ * gets new samples and can be picked again.
+ */
+public class EwmaLoadBalancer implements LoadBalancer
+{
+    private final LatencyScores scores;
+    private final IntSupplier explorationPercent;
+
+    public EwmaLoadBalancer()
+    {
+        // note: read on use, the load balancer is created while the configuration is loaded
+        this(LatencyScores.getInstance(), () -> ConfigurationService.getInstance().getConfiguration().getLoadBalancerExplorationPercent());
+    }
+
+    EwmaLoadBalancer(LatencyScores scores, IntSupplier explorationPercent)
+    {
+        this.scores = scores;
+        this.explorationPercent = explorationPercent;
+    }
+
+    @Override
+    public void arrange(List<ConnectionFactoryEntry> entries, int from, int to)
+    {
+        // nothing is known without the service
+        RandomLoadBalancer.shuffle(entries, from, to, ThreadLocalRandom.current());
+    }
+
+    // note: Pseudorandom is fine in this context
+    @SuppressWarnings("java:S2245")
+    @Override
+    public void arrange(String serviceName, List<ConnectionFactoryEntry> entries, int from, int to)
+    {
+        int size = to - from;
+        if (size < 2)
+        {
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomLoadBalancer.shuffle(entries, from, to, random);
+        if (random.nextInt(100) < explorationPercent.getAsInt())
+        {
+            return;
+        }
+        double[] entryScores = new double[size];
+        for (int i = 0; i < size; ++i)
+        {
+            entryScores[i] = scores.getScore(serviceName, entries.get(from + i).getJndiName());
+        }
+        // insertion sort, stable so that ties keep the random order - tiers are small
+        for (int i = 1; i < size; ++i)
+        {
+            double score = entryScores[i];
+            ConnectionFactoryEntry entry = entries.get(from + i);
+            int j = i - 1;
+            while (j >= 0 && entryScores[j] > score)
+            {
+                entryScores[j + 1] = entryScores[j];
+                entries.set(from + j + 1, entries.get(from + j));
+                --j;
+            }
+            entryScores[j + 1] = score;
+            entries.set(from + j + 1, entry);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.loadbalancer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exponentially weighted moving averages of the latency and the error rate of calls to one service on one pool
+ *
+ * Both averages are doubles kept as raw bits in atomics and updated with compare and set.
+ */
+public final class LatencyScore
+{
+    // weight of the newest sample
+    static final double ALPHA = 0.2;
+    // a pool that always fails scores as if it was this many times slower
+    static final double ERROR_PENALTY = 10.0;
+    private static final long NO_LATENCY = Double.doubleToRawLongBits(-1.0);
+    private final AtomicLong latencyNanos = new AtomicLong(NO_LATENCY);
+    private final AtomicLong errorRate = new AtomicLong(Double.doubleToRawLongBits(0.0));
+    private final AtomicLong samples = new AtomicLong(0);
+
+    public void recordSuccess(long nanos)
+    {
+        samples.incrementAndGet();
+        while (true)
+        {
+            long current = latencyNanos.get();
+            double average = Double.longBitsToDouble(current);
+            double updated = average < 0 ? nanos : average + ALPHA * (nanos - average);
+            if (latencyNanos.compareAndSet(current, Double.doubleToRawLongBits(updated)))
+            {
+                break;
+            }
+        }
+        updateErrorRate(0.0);
+    }
+
+    public void recordFailure()
+    {
+        samples.incrementAndGet();
+        updateErrorRate(1.0);
+    }
+
+    private void updateErrorRate(double sample)
+    {
+        while (true)
+        {
+            long current = errorRate.get();
+            double average = Double.longBitsToDouble(current);
+            double updated = average + ALPHA * (sample - average);
+            if (errorRate.compareAndSet(current, Double.doubleToRawLongBits(updated)))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return lower is better, a pool without any samples scores 0 so that it gets tried
+     */
+    public double getScore()
+    {
+        double latency = Double.longBitsToDouble(latencyNanos.get());
+        double errors = getErrorRate();
+        if (latency < 0)
+        {
+            // only failures so far
+            return errors > 0 ? Double.MAX_VALUE : 0.0;
+        }
+        return latency * (1.0 + ERROR_PENALTY * errors);
+    }
+
+    /**
+     * @return average latency in nanoseconds, -1 if there has not been a successful call
+     */
+    public double getLatencyNanos()
+    {
+        return Double.longBitsToDouble(latencyNanos.get());
+    }
+
+    public double getErrorRate()
+    {
+        return Double.longBitsToDouble(errorRate.get());
+    }
+
+    public long getSamples()
+    {
+        return samples.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        double latency = getLatencyNanos();
+        return "LatencyScore{" +
+                "latencyMillis=" + (latency < 0 ? "n/a" : String.format("%.3f", latency / TimeUnit.MILLISECONDS.toNanos(1))) +
+                ", errorRate=" + String.format("%.3f", getErrorRate()) +
+                ", samples=" + getSamples() +
+                '}';
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.loadbalancer;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latency scores per service and pool, used by {@link EwmaLoadBalancer}
+ *
+ * The scores of a service are dropped when it leaves the service cache, see {@link #remove(String)}.
+ */
+public final class LatencyScores
+{
+    private static final LatencyScores INSTANCE = new LatencyScores();
+    private final ConcurrentMap<String, ConcurrentMap<String, LatencyScore>> scores = new ConcurrentHashMap<>();
+
+    LatencyScores()
+    {}
+
+    public static LatencyScores getInstance()
+    {
+        return INSTANCE;
+    }
+
+    public void recordSuccess(String serviceName, String jndiName, long nanos)
+    {
+        get(serviceName, jndiName).recordSuccess(nanos);
+    }
+
+    public void recordFailure(String serviceName, String jndiName)
+    {
+        get(serviceName, jndiName).recordFailure();
+    }
+
+    /**
+     * @return the score of the pool for the service, 0 if there are no samples
+     */
+    public double getScore(String serviceName, String jndiName)
+    {
+        Map<String, LatencyScore> forService = scores.get(serviceName);
+        LatencyScore score = null == forService ? null : forService.get(jndiName);
+        return null == score ? 0.0 : score.getScore();
+    }
+
+    /**
+     * @return the scores for the service by pool jndi name
+     */
+    public Map<String, LatencyScore> getScores(String serviceName)
+    {
+        Objects.requireNonNull(serviceName, "serviceName can not be null");
+        Map<String, LatencyScore> forService = scores.get(serviceName);
+        return null == forService ? Collections.emptyMap() : new TreeMap<>(forService);
+    }
+
+    public void remove(String serviceName)
+    {
+        scores.remove(serviceName);
+    }
+
+    public void clear()
+    {
+        scores.clear();
+    }
+
+    private LatencyScore get(String serviceName, String jndiName)
+    {
+        // get before computeIfAbsent, that locks the bin even if the mapping is there on java 8
+        ConcurrentMap<String, LatencyScore> forService = scores.get(serviceName);
+        if (null == forService)
+        {
+            forService = scores.computeIfAbsent(serviceName, name -> new ConcurrentHashMap<>());
+        }
+        LatencyScore score = forService.get(jndiName);
+        return null == score ? forService.computeIfAbsent(jndiName, name -> new LatencyScore()) : score;
+    }
+}
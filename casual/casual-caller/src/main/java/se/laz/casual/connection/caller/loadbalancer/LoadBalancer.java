@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.loadbalancer;
+
+import se.laz.casual.connection.caller.ConnectionFactoryEntry;
+
+import java.util.List;
+
+/**
+ * Decides the order in which the connection factories within one priority are tried
+ *
+ * The first entry is the one the call is issued to, the rest are only used for failover
+ */
+@FunctionalInterface
+public interface LoadBalancer
+{
+    /**
+     * Reorders, in place, the entries in the range [from, to)
+     *
+     * @param entries all entries for the call, in priority order
+     * @param from start of the priority, inclusive
+     * @param to end of the priority, exclusive
+     */
+    void arrange(List<ConnectionFactoryEntry> entries, int from, int to);
+
+    /**
+     * Reorders, in place, the entries in the range [from, to) for a call to the service
+     *
+     * @param serviceName the service that is called
+     * @param entries all entries for the call, in priority order
+     * @param from start of the priority, inclusive
+     * @param to end of the priority, exclusive
+     */
+    default void arrange(String serviceName, List<ConnectionFactoryEntry> entries, int from, int to)
+    {
+        arrange(entries, from, to);
+    }
+}
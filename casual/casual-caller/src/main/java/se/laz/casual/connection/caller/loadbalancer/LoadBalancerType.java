@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.loadbalancer;
+
+public enum LoadBalancerType
+{
+    RANDOM(new RandomLoadBalancer()),
+    POWER_OF_TWO_CHOICES(new PowerOfTwoChoicesLoadBalancer()),
+    EWMA(new EwmaLoadBalancer());
+
+    private final LoadBalancer loadBalancer;
+
+    LoadBalancerType(LoadBalancer loadBalancer)
+    {
+        this.loadBalancer = loadBalancer;
+    }
+
+    public LoadBalancer getLoadBalancer()
+    {
+        return loadBalancer;
+    }
+}
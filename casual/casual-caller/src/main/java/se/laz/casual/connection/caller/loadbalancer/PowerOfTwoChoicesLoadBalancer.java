@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.loadbalancer;
+
+import se.laz.casual.connection.caller.ConnectionFactoryEntry;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Power of two choices
+ *
+ * Two distinct entries are picked at random and the one with the fewest outstanding requests is tried first.
+ * The rest of the entries are only used for failover and are kept in random order.
+ *
+ * The outstanding request counters are plain atomics on the entries, there is no locking involved.
+ */
+public class PowerOfTwoChoicesLoadBalancer implements LoadBalancer
+{
+    // note: Pseudorandom is fine in this context
+    @SuppressWarnings("java:S2245")
+    @Override
+    public void arrange(List<ConnectionFactoryEntry> entries, int from, int to)
+    {
+        int size = to - from;
+        if (size < 2)
+        {
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = from + random.nextInt(size);
+        int second = from + random.nextInt(size - 1);
+        if (second >= first)
+        {
+            ++second;
+        }
+        int chosen = entries.get(second).getOutstandingRequests() < entries.get(first).getOutstandingRequests() ? second : first;
+        entries.set(chosen, entries.set(from, entries.get(chosen)));
+        RandomLoadBalancer.shuffle(entries, from + 1, to, random);
+    }
+}
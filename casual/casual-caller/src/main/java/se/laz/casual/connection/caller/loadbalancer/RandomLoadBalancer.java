@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.loadbalancer;
+
+import se.laz.casual.connection.caller.ConnectionFactoryEntry;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Uniformly random order within a priority
+ */
+public class RandomLoadBalancer implements LoadBalancer
+{
+    @Override
+    public void arrange(List<ConnectionFactoryEntry> entries, int from, int to)
+    {
+        shuffle(entries, from, to, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Fisher-Yates shuffle of the range [from, to)
+     */
+    // note: Pseudorandom is fine in this context
+    @SuppressWarnings("java:S2245")
+    static <T> void shuffle(List<T> list, int from, int to, Random random)
+    {
+        for (int i = to - 1; i > from; --i)
+        {
+            int j = from + random.nextInt(i - from + 1);
+            list.set(i, list.set(j, list.get(i)));
+        }
+    }
+}
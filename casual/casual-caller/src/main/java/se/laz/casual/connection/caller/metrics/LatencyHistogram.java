@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free latency histogram with fixed memory, in the same manner as HdrHistogram
+ *
+ * Every power of two of nanoseconds is split into 16 linear buckets, so a recorded value is off by at most 1/16.
+ * Values above {@link #HIGHEST_TRACKABLE_NANOS}, about 137 seconds, are counted in the last bucket.
+ * Recording is one increment of a bucket and a few adders, reading sums up the buckets.
+ */
+public final class LatencyHistogram
+{
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final long HIGHEST_TRACKABLE_NANOS = (1L << 37) - 1;
+    static final int BUCKETS = indexOf(HIGHEST_TRACKABLE_NANOS) + 1;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong(0);
+
+    public void record(long nanos, boolean failed)
+    {
+        long value = Math.min(Math.max(nanos, 0), HIGHEST_TRACKABLE_NANOS);
+        counts.incrementAndGet(indexOf(value));
+        totalNanos.add(value);
+        if (failed)
+        {
+            errors.increment();
+        }
+        if (value > maxNanos.get())
+        {
+            maxNanos.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public long getCount()
+    {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long getErrorCount()
+    {
+        return errors.sum();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency that {@code percentile} percent of the calls are within, 0 if nothing has been recorded
+     */
+    public long getValueAtPercentileNanos(double percentile)
+    {
+        if (percentile < 0.0 || percentile > 100.0)
+        {
+            throw new IllegalArgumentException("percentile must be between 0 and 100, percentile: " + percentile);
+        }
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0)
+        {
+            return 0;
+        }
+        long wanted = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            seen += snapshot[i];
+            if (seen >= wanted)
+            {
+                return Math.min(highestValueOf(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    public double getValueAtPercentileMillis(double percentile)
+    {
+        return toMillis(getValueAtPercentileNanos(percentile));
+    }
+
+    public double getMeanMillis()
+    {
+        long count = getCount();
+        return count == 0 ? 0.0 : toMillis(totalNanos.sum()) / count;
+    }
+
+    public double getMaxMillis()
+    {
+        return toMillis(maxNanos.get());
+    }
+
+    /**
+     * Not atomic, values recorded while resetting may be kept in part
+     */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            counts.set(i, 0);
+        }
+        errors.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    static int indexOf(long nanos)
+    {
+        if (nanos < SUB_BUCKETS)
+        {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestValueOf(int index)
+    {
+        if (index < SUB_BUCKETS)
+        {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    private static double toMillis(long nanos)
+    {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LatencyHistogram{" +
+                "count=" + getCount() +
+                ", errors=" + getErrorCount() +
+                ", p50=" + String.format("%.3f", getValueAtPercentileMillis(50.0)) +
+                ", p90=" + String.format("%.3f", getValueAtPercentileMillis(90.0)) +
+                ", p99=" + String.format("%.3f", getValueAtPercentileMillis(99.0)) +
+                ", p999=" + String.format("%.3f", getValueAtPercentileMillis(99.9)) +
+                ", max=" + String.format("%.3f", getMaxMillis()) +
+                ", mean=" + String.format("%.3f", getMeanMillis()) +
+                '}';
+    }
+}
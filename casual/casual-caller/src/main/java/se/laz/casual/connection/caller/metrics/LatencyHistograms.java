@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.metrics;
+
+import se.laz.casual.connection.caller.config.ConfigurationService;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latency histograms per operation, service or queue name and pool jndi name
+ *
+ * The histograms of a service or queue are dropped when it leaves the cache, see {@link #removeService(String)} and
+ * {@link #removeQueue(String)}. Discovery is keyed by name only, so a queue and a service with the same name share
+ * those histograms and drop them together.
+ */
+public final class LatencyHistograms
+{
+    private static final LatencyHistograms INSTANCE = of(ConfigurationService.getInstance().getConfiguration().isLatencyHistogramsEnabled());
+    private static final Set<Operation> SERVICE_OPERATIONS = EnumSet.of(Operation.TPCALL, Operation.TPACALL, Operation.DISCOVERY);
+    private static final Set<Operation> QUEUE_OPERATIONS = EnumSet.of(Operation.ENQUEUE, Operation.DEQUEUE, Operation.DISCOVERY);
+    private final boolean enabled;
+    private final Map<Operation, ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>>> histograms = new EnumMap<>(Operation.class);
+
+    private LatencyHistograms(boolean enabled)
+    {
+        this.enabled = enabled;
+        for (Operation operation : Operation.values())
+        {
+            histograms.put(operation, new ConcurrentHashMap<>());
+        }
+    }
+
+    public static LatencyHistograms of(boolean enabled)
+    {
+        return new LatencyHistograms(enabled);
+    }
+
+    public static LatencyHistograms getInstance()
+    {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void record(Operation operation, String name, String jndiName, long nanos, boolean failed)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        get(operation, name, jndiName).record(nanos, failed);
+    }
+
+    public Optional<LatencyHistogram> getHistogram(Operation operation, String name, String jndiName)
+    {
+        Objects.requireNonNull(operation, "operation can not be null");
+        Map<String, LatencyHistogram> forName = histograms.get(operation).get(name);
+        return Optional.ofNullable(null == forName ? null : forName.get(jndiName));
+    }
+
+    /**
+     * @return all histograms keyed by operation, name and pool jndi name, in that order
+     */
+    public Map<String, LatencyHistogram> getHistograms()
+    {
+        Map<String, LatencyHistogram> result = new TreeMap<>();
+        histograms.forEach((operation, byName) ->
+            byName.forEach((name, byPool) ->
+                byPool.forEach((jndiName, histogram) -> result.put(operation + " " + name + " " + jndiName, histogram))));
+        return result;
+    }
+
+    /**
+     * Resets the histograms, they are kept so that the ones in use are not replaced while recording
+     */
+    public void reset()
+    {
+        histograms.values().forEach(byName -> byName.values().forEach(byPool -> byPool.values().forEach(LatencyHistogram::reset)));
+    }
+
+    public void removeService(String serviceName)
+    {
+        SERVICE_OPERATIONS.forEach(operation -> histograms.get(operation).remove(serviceName));
+    }
+
+    public void removeQueue(String queueName)
+    {
+        QUEUE_OPERATIONS.forEach(operation -> histograms.get(operation).remove(queueName));
+    }
+
+    public void clearServices()
+    {
+        SERVICE_OPERATIONS.forEach(operation -> histograms.get(operation).clear());
+    }
+
+    public void clearQueues()
+    {
+        QUEUE_OPERATIONS.forEach(operation -> histograms.get(operation).clear());
+    }
+
+    private LatencyHistogram get(Operation operation, String name, String jndiName)
+    {
+        // get before computeIfAbsent, that locks the bin even if the mapping is there on java 8
+        ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> byName = histograms.get(operation);
+        ConcurrentMap<String, LatencyHistogram> byPool = byName.get(name);
+        if (null == byPool)
+        {
+            byPool = byName.computeIfAbsent(name, key -> new ConcurrentHashMap<>());
+        }
+        LatencyHistogram histogram = byPool.get(jndiName);
+        return null == histogram ? byPool.computeIfAbsent(jndiName, key -> new LatencyHistogram()) : histogram;
+    }
+}
@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.metrics;
+
+/**
+ * The kinds of calls that latency is recorded for
+ */
+public enum Operation
+{
+    TPCALL,
+    TPACALL,
+    ENQUEUE,
+    DEQUEUE,
+    DISCOVERY
+}
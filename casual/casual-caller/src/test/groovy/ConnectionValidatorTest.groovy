@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2023, The casual project. All rights reserved.
+ * Copyright (c) 2023 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -55,4 +55,26 @@ class ConnectionValidatorTest extends Specification
       then:
       noExceptionThrown()
    }
+
+   def 'circuit closed by a probe call since last validation, still repopulated'()
+   {
+      given:
+      ConnectionFactoryEntry entry = Mock(ConnectionFactoryEntry){
+         2 * isValid() >>> [true, true]
+         1 * validate()
+         1 * clearReestablishPending() >> true
+      }
+      CacheRepopulator cacheRepopulator = Mock(CacheRepopulator){
+         1 * repopulate(entry)
+      }
+      ConnectionFactoryEntryStore connectionFactoryEntryStore = Mock(ConnectionFactoryEntryStore){
+         1 * addConnectionObserver(entry)
+         get() >> [entry]
+      }
+      ConnectionValidator instance = new ConnectionValidator(cacheRepopulator, connectionFactoryEntryStore)
+      when:
+      instance.validateAllConnections()
+      then:
+      noExceptionThrown()
+   }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+
+package se.laz.casual.connection.caller
+
+import se.laz.casual.api.queue.QueueInfo
+import se.laz.casual.api.service.ServiceDetails
+import se.laz.casual.connection.caller.loadbalancer.LatencyScores
+import se.laz.casual.connection.caller.metrics.LatencyHistograms
+import se.laz.casual.connection.caller.metrics.Operation
+import se.laz.casual.network.messages.domain.TransactionType
+import spock.lang.Specification
+
+import java.util.function.LongSupplier
+
+class CacheEvictionTest extends Specification
+{
+   long now = 1000
+   LongSupplier clock = { now } as LongSupplier
+
+   def 'unbounded does not track anything'()
+   {
+      given:
+      def instance = CacheEviction.unbounded()
+      def evicted = []
+      when:
+      instance.touch('echo')
+      instance.evict({ 100 }, { evicted << it; true })
+      then:
+      !instance.isEnabled()
+      evicted.isEmpty()
+   }
+
+   def 'least recently used services are evicted above max size'()
+   {
+      given:
+      def instance = new ServiceCache(CacheEviction.of(2, 0, clock))
+      def entry = ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer) { getJndiName() >> 'eis/one' })
+      when:
+      instance.store('one', ConnectionFactoriesByPriority.of([(1L): [entry]]))
+      now += 20
+      instance.store('two', ConnectionFactoriesByPriority.of([(1L): [entry]]))
+      now += 20
+      instance.getOrEmpty('one')
+      now += 20
+      instance.store('three', ConnectionFactoriesByPriority.of([(1L): [entry]]))
+      then:
+      instance.getCachedServiceNames() == ['one', 'three'] as Set
+      instance.getEviction().getSizeEvictions() == 1
+   }
+
+   def 'latency scores of an evicted service are dropped with it'()
+   {
+      given:
+      def scores = LatencyScores.getInstance()
+      scores.clear()
+      def instance = new ServiceCache(CacheEviction.of(1, 0, clock), scores)
+      def entry = ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer) { getJndiName() >> 'eis/one' })
+      instance.store('one', ConnectionFactoriesByPriority.of([(1L): [entry]]))
+      scores.recordSuccess('one', 'eis/one', 1000)
+      when:
+      now += 20
+      instance.store('two', ConnectionFactoriesByPriority.of([(1L): [entry]]))
+      then:
+      instance.getCachedServiceNames() == ['two'] as Set
+      scores.getScores('one').isEmpty()
+      cleanup:
+      scores.clear()
+   }
+
+   def 'latency histograms of an evicted service are dropped with it'()
+   {
+      given:
+      def histograms = LatencyHistograms.of(true)
+      def instance = new ServiceCache(CacheEviction.of(1, 0, clock), LatencyScores.getInstance(), histograms)
+      def entry = ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer) { getJndiName() >> 'eis/one' })
+      instance.store('one', ConnectionFactoriesByPriority.of([(1L): [entry]]))
+      histograms.record(Operation.TPCALL, 'one', 'eis/one', 1000, false)
+      histograms.record(Operation.DISCOVERY, 'one', 'eis/one', 1000, false)
+      when:
+      now += 20
+      instance.store('two', ConnectionFactoriesByPriority.of([(1L): [entry]]))
+      then:
+      histograms.histograms.isEmpty()
+   }
+
+   def 'latency histograms of an evicted queue are dropped with it'()
+   {
+      given:
+      def histograms = LatencyHistograms.of(true)
+      def instance = new QueueCache(CacheEviction.of(0, 100, clock), histograms)
+      def entry = ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer) { getJndiName() >> 'eis/one' })
+      instance.store(QueueInfo.of('one'), [entry])
+      histograms.record(Operation.ENQUEUE, 'one', 'eis/one', 1000, false)
+      histograms.record(Operation.DEQUEUE, 'two', 'eis/one', 1000, false)
+      when:
+      now += 100
+      instance.getOrEmpty(QueueInfo.of('one'))
+      then:
+      histograms.histograms.keySet() as List == ['DEQUEUE two eis/one']
+   }
+
+   def 'idle queues are evicted on access and by the sweep'()
+   {
+      given:
+      def instance = new QueueCache(CacheEviction.of(0, 100, clock))
+      def entry = ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer) { getJndiName() >> 'eis/one' })
+      instance.store(QueueInfo.of('one'), [entry])
+      instance.store(QueueInfo.of('two'), [entry])
+      expect:
+      instance.getOrEmpty(QueueInfo.of('one')).isPresent()
+      when:
+      now += 100
+      then:
+      !instance.getOrEmpty(QueueInfo.of('one')).isPresent()
+      instance.getCachedQueueNames() == ['two'] as Set
+      when:
+      instance.store(QueueInfo.of('three'), [entry])
+      then:
+      instance.getCachedQueueNames() == ['three'] as Set
+      instance.getEviction().getIdleEvictions() == 2
+   }
+
+   def 'repopulation does not count as access and leaves evicted services out'()
+   {
+      given:
+      def instance = new ServiceCache(CacheEviction.of(0, 100, clock))
+      def one = ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer) { getJndiName() >> 'eis/one' })
+      def two = ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer) { getJndiName() >> 'eis/two' })
+      def details = [ServiceDetails.createBuilder().withName('one').withHops(1L).withCategory('').withTransactionType(TransactionType.NONE).build()]
+      instance.store('one', ConnectionFactoriesByPriority.of([(1L): [one]]))
+      when:
+      now += 50
+      def repopulated = instance.repopulate('one', details, two)
+      def notCached = instance.repopulate('two', details, two)
+      then:
+      repopulated
+      !notCached
+      instance.getCachedServiceNames() == ['one'] as Set
+      instance.getServicesReferring('eis/two') == ['one'] as Set
+      when:
+      now += 50
+      then:
+      instance.getOrEmpty('one').isEmpty()
+   }
+
+   def 'above max size keys picked from a sample are evicted down to 90% of max size'()
+   {
+      given:
+      def instance = CacheEviction.of(1000, 0, clock)
+      def evicted = []
+      (1..1100).each {
+         instance.touch("queue-${it}".toString())
+         now += 20
+      }
+      when:
+      instance.evict({ 1100 - evicted.size() }, { evicted << it; true })
+      then:
+      evicted.size() == 200
+      instance.getTrackedCount() == 900
+      instance.getSizeEvictions() == 200
+   }
+}
@@ -7,12 +7,16 @@ import se.laz.casual.api.flags.ErrorState
 import se.laz.casual.api.flags.Flag
 import se.laz.casual.api.flags.ServiceReturnState
 import se.laz.casual.api.queue.*
+import se.laz.casual.connection.caller.bulkhead.Bulkheads
+import se.laz.casual.connection.caller.config.BulkheadConfiguration
 import se.laz.casual.jca.CasualConnection
 import se.laz.casual.jca.CasualConnectionFactory
+import se.laz.casual.network.connection.DomainDisconnectedException
 import spock.lang.Specification
 
 import javax.resource.ResourceException
 import javax.resource.spi.EISSystemException
+import javax.transaction.TransactionSynchronizationRegistry
 import java.util.concurrent.CompletableFuture
 
 class CasualCallerImplTest extends Specification
@@ -329,6 +333,44 @@ class CasualCallerImplTest extends Specification
       noExceptionThrown()
    }
 
+   def 'tpcall frees the bulkhead slot when done'()
+   {
+      given:
+      def caller = new CasualCallerImpl(lookup, connectionFactoryProvider, transactionLess, Mock(FailedDomainDiscoveryHandler))
+      caller.tpCaller = Mock(TpCallerFailover) {
+         2 * tpcall('foo', _, _, _) >> { throw new CasualResourceException('failed') } >> createServiceReturn(Mock(CasualBuffer))
+      }
+      caller.bulkheads = Bulkheads.of([BulkheadConfiguration.of('foo', 1, 0, 0)])
+      when:
+      caller.tpcall('foo', Mock(CasualBuffer), Flag.of(AtmiFlags.NOFLAG))
+      then:
+      thrown(CasualResourceException)
+      when:
+      caller.tpcall('foo', Mock(CasualBuffer), Flag.of(AtmiFlags.NOFLAG))
+      then:
+      caller.bulkheads.get('foo').get().inFlight == 0
+   }
+
+   def 'tpacall holds the bulkhead slot until the reply is there'()
+   {
+      given:
+      def reply = new CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>()
+      def caller = new CasualCallerImpl(lookup, connectionFactoryProvider, transactionLess, Mock(FailedDomainDiscoveryHandler))
+      caller.tpCaller = Mock(TpCallerFailover) {
+         1 * tpacall('foo', _, _, _) >> reply
+      }
+      caller.bulkheads = Bulkheads.of([BulkheadConfiguration.of('foo', 1, 0, 0)])
+      when:
+      caller.tpacall('foo', Mock(CasualBuffer), Flag.of(AtmiFlags.NOFLAG))
+      caller.tpacall('foo', Mock(CasualBuffer), Flag.of(AtmiFlags.NOFLAG))
+      then:
+      thrown(BulkheadFullException)
+      when:
+      reply.complete(Optional.empty())
+      then:
+      caller.bulkheads.get('foo').get().inFlight == 0
+   }
+
     def 'enqueue ok'()
     {
         given:
@@ -389,6 +431,183 @@ class CasualCallerImplTest extends Specification
         actual == DequeueReturn.createBuilder().withErrorState(ErrorState.OK).withQueueMessage(queueMessage).build()
     }
 
+    def 'batch enqueue uses one connection and replies in order'()
+    {
+        given:
+        def queueInfo = QueueInfo.of("bar.foo")
+        def messages = (1..3).collect { QueueMessage.of(Mock(CasualBuffer)) }
+        def ids = (1..3).collect { UUID.randomUUID() }
+        def connection = Mock(CasualConnection)
+        def connectionFactory = Mock(CasualConnectionFactory)
+        def producer = Mock(ConnectionFactoryProducer){
+           getConnectionFactory() >> connectionFactory
+           getJndiName() >> 'someJndiName'
+        }
+        lookup.get(queueInfo) >> Optional.of(ConnectionFactoryEntry.of(producer))
+        when:
+        def actual = instance.enqueue(queueInfo, messages)
+        then:
+        1 * connectionFactory.getConnection() >> connection
+        3 * connection.enqueue(queueInfo, _) >>> ids.collect { EnqueueReturn.createBuilder().withErrorState(ErrorState.OK).withId(it).build() }
+        1 * connection.close()
+        actual == ids.collect { EnqueueReturn.createBuilder().withErrorState(ErrorState.OK).withId(it).build() }
+    }
+
+    def 'batch enqueue failing part way outside of a transaction replies TPESYSTEM from the failed message on'()
+    {
+        given:
+        def queueInfo = QueueInfo.of("bar.foo")
+        def messages = (1..3).collect { QueueMessage.of(Mock(CasualBuffer)) }
+        def enqueued = EnqueueReturn.createBuilder().withErrorState(ErrorState.OK).withId(UUID.randomUUID()).build()
+        def connection = Mock(CasualConnection)
+        def connectionFactory = Mock(CasualConnectionFactory){
+           getConnection() >> connection
+        }
+        def producer = Mock(ConnectionFactoryProducer){
+           getConnectionFactory() >> connectionFactory
+           getJndiName() >> 'someJndiName'
+        }
+        lookup.get(queueInfo) >> Optional.of(ConnectionFactoryEntry.of(producer))
+        connection.enqueue(queueInfo, messages[0]) >> enqueued
+        connection.enqueue(queueInfo, messages[1]) >> { throw new CasualResourceException("disconnected") }
+        instance.currentTransaction = CurrentTransaction.of(Mock(TransactionSynchronizationRegistry) { getTransactionKey() >> null })
+        when:
+        def actual = instance.enqueue(queueInfo, messages)
+        then:
+        actual[0] == enqueued
+        actual[1..2]*.errorState == [ErrorState.TPESYSTEM, ErrorState.TPESYSTEM]
+        0 * connection.enqueue(queueInfo, messages[2])
+    }
+
+    def 'batch enqueue failing part way within a transaction throws'()
+    {
+        given:
+        def queueInfo = QueueInfo.of("bar.foo")
+        def messages = (1..3).collect { QueueMessage.of(Mock(CasualBuffer)) }
+        def enqueued = EnqueueReturn.createBuilder().withErrorState(ErrorState.OK).withId(UUID.randomUUID()).build()
+        def connection = Mock(CasualConnection)
+        def connectionFactory = Mock(CasualConnectionFactory){
+           getConnection() >> connection
+        }
+        def producer = Mock(ConnectionFactoryProducer){
+           getConnectionFactory() >> connectionFactory
+           getJndiName() >> 'someJndiName'
+        }
+        lookup.get(queueInfo) >> Optional.of(ConnectionFactoryEntry.of(producer))
+        connection.enqueue(queueInfo, messages[0]) >> enqueued
+        connection.enqueue(queueInfo, messages[1]) >> { throw new CasualResourceException("disconnected") }
+        instance.currentTransaction = CurrentTransaction.of(Mock(TransactionSynchronizationRegistry) { getTransactionKey() >> new Object() })
+        when:
+        instance.enqueue(queueInfo, messages)
+        then:
+        thrown(CasualResourceException)
+        0 * connection.enqueue(queueInfo, messages[2])
+    }
+
+    def 'batch enqueue disconnected part way moves the sticky of the queue'()
+    {
+        given:
+        def queueInfo = QueueInfo.of("bar.foo")
+        def messages = (1..2).collect { QueueMessage.of(Mock(CasualBuffer)) }
+        def enqueued = EnqueueReturn.createBuilder().withErrorState(ErrorState.OK).withId(UUID.randomUUID()).build()
+        def connection = Mock(CasualConnection)
+        def connectionFactory = Mock(CasualConnectionFactory){
+           getConnection() >> connection
+        }
+        def producer = Mock(ConnectionFactoryProducer){
+           getConnectionFactory() >> connectionFactory
+           getJndiName() >> 'someJndiName'
+        }
+        def entry = ConnectionFactoryEntry.of(producer)
+        lookup.get(queueInfo) >> Optional.of(entry)
+        connection.enqueue(queueInfo, messages[0]) >> enqueued
+        connection.enqueue(queueInfo, messages[1]) >> { throw new DomainDisconnectedException("disconnecting") }
+        when:
+        instance.enqueue(queueInfo, messages)
+        then:
+        1 * lookup.moveQueueSticky(queueInfo, entry) >> entry
+        thrown(CasualResourceException)
+    }
+
+    def 'batch enqueue to unknown queue, TPENOENT for every message'()
+    {
+        given:
+        def queueInfo = QueueInfo.of("bar.foo")
+        def messages = (1..2).collect { QueueMessage.of(Mock(CasualBuffer)) }
+        lookup.get(queueInfo) >> Optional.empty()
+        when:
+        def actual = instance.enqueue(queueInfo, messages)
+        then:
+        actual*.errorState == [ErrorState.TPENOENT, ErrorState.TPENOENT]
+    }
+
+    def 'batch dequeue uses one connection and stops when the queue is empty'()
+    {
+        given:
+        def queueInfo = QueueInfo.of("bar.foo")
+        def messageSelector = MessageSelector.of()
+        def messages = (1..2).collect { QueueMessage.of(Mock(CasualBuffer)) }
+        def replies = messages.collect { DequeueReturn.createBuilder().withErrorState(ErrorState.OK).withQueueMessage(it).build() }
+        def empty = DequeueReturn.createBuilder().withErrorState(ErrorState.OK).build()
+        def connection = Mock(CasualConnection)
+        def connectionFactory = Mock(CasualConnectionFactory)
+        def producer = Mock(ConnectionFactoryProducer){
+           getConnectionFactory() >> connectionFactory
+           getJndiName() >> 'someJndiName'
+        }
+        lookup.get(queueInfo) >> Optional.of(ConnectionFactoryEntry.of(producer))
+        when:
+        def actual = instance.dequeue(queueInfo, messageSelector, 10)
+        then:
+        1 * connectionFactory.getConnection() >> connection
+        3 * connection.dequeue(queueInfo, messageSelector) >>> replies + [empty]
+        actual == replies
+    }
+
+    def 'batch dequeue stops at maxMessages'()
+    {
+        given:
+        def queueInfo = QueueInfo.of("bar.foo")
+        def messageSelector = MessageSelector.of()
+        def reply = DequeueReturn.createBuilder().withErrorState(ErrorState.OK).withQueueMessage(QueueMessage.of(Mock(CasualBuffer))).build()
+        def connection = Mock(CasualConnection)
+        def connectionFactory = Mock(CasualConnectionFactory){
+           getConnection() >> connection
+        }
+        def producer = Mock(ConnectionFactoryProducer){
+           getConnectionFactory() >> connectionFactory
+           getJndiName() >> 'someJndiName'
+        }
+        lookup.get(queueInfo) >> Optional.of(ConnectionFactoryEntry.of(producer))
+        when:
+        def actual = instance.dequeue(queueInfo, messageSelector, 2)
+        then:
+        2 * connection.dequeue(queueInfo, messageSelector) >> reply
+        actual == [reply, reply]
+    }
+
+    def 'batch dequeue failing part way returns the messages already dequeued'()
+    {
+        given:
+        def queueInfo = QueueInfo.of("bar.foo")
+        def messageSelector = MessageSelector.of()
+        def reply = DequeueReturn.createBuilder().withErrorState(ErrorState.OK).withQueueMessage(QueueMessage.of(Mock(CasualBuffer))).build()
+        def connection = Mock(CasualConnection)
+        def connectionFactory = Mock(CasualConnectionFactory){
+           getConnection() >> connection
+        }
+        def producer = Mock(ConnectionFactoryProducer){
+           getConnectionFactory() >> connectionFactory
+           getJndiName() >> 'someJndiName'
+        }
+        lookup.get(queueInfo) >> Optional.of(ConnectionFactoryEntry.of(producer))
+        connection.dequeue(queueInfo, messageSelector) >>> [reply] >> { throw new CasualResourceException("disconnected") }
+        when:
+        def actual = instance.dequeue(queueInfo, messageSelector, 10)
+        then:
+        actual == [reply]
+    }
+
     ServiceReturn<CasualBuffer> createServiceReturn(CasualBuffer casualBuffer)
     {
         new ServiceReturn<CasualBuffer>(casualBuffer, ServiceReturnState.TPSUCCESS, ErrorState.OK, 0)
@@ -1,10 +1,23 @@
 package se.laz.casual.connection.caller
 
-
+import se.laz.casual.jca.CasualConnectionFactory
 import spock.lang.Specification
 
+import javax.naming.Context
+import javax.naming.NameNotFoundException
+import javax.naming.NamingException
+import javax.naming.spi.InitialContextFactory
+
 class CasualConnectionFactoryProducerTest extends Specification
 {
+   def cleanup()
+   {
+      System.clearProperty(Context.INITIAL_CONTEXT_FACTORY)
+      CountingInitialContextFactory.bound = null
+      CountingInitialContextFactory.lookups = 0
+      CountingInitialContextFactory.duringLookup = null
+   }
+
    def 'failed construction'()
    {
       when:
@@ -22,4 +35,83 @@ class CasualConnectionFactoryProducerTest extends Specification
       then:
       producer.getJndiName() == jndiName
    }
+
+   def 'resolved connection factory is cached until invalidated'()
+   {
+      given:
+      def connectionFactory = Mock(CasualConnectionFactory)
+      CountingInitialContextFactory.bound = connectionFactory
+      System.setProperty(Context.INITIAL_CONTEXT_FACTORY, CountingInitialContextFactory.class.getName())
+      def producer = ConnectionFactoryProducer.of('eis/foo')
+      when:
+      def first = producer.getConnectionFactory()
+      def second = producer.getConnectionFactory()
+      then:
+      first == connectionFactory
+      second == connectionFactory
+      CountingInitialContextFactory.lookups == 1
+      when:
+      producer.invalidate()
+      def afterInvalidate = producer.getConnectionFactory()
+      then:
+      afterInvalidate == connectionFactory
+      CountingInitialContextFactory.lookups == 2
+   }
+
+   def 'failed lookup is not cached'()
+   {
+      given:
+      System.setProperty(Context.INITIAL_CONTEXT_FACTORY, CountingInitialContextFactory.class.getName())
+      def producer = ConnectionFactoryProducer.of('eis/foo')
+      when:
+      producer.getConnectionFactory()
+      then:
+      thrown(CasualResourceException)
+      when:
+      def connectionFactory = Mock(CasualConnectionFactory)
+      CountingInitialContextFactory.bound = connectionFactory
+      def actual = producer.getConnectionFactory()
+      then:
+      actual == connectionFactory
+      CountingInitialContextFactory.lookups == 2
+   }
+
+   def 'invalidate during a lookup is not undone by that lookup'()
+   {
+      given:
+      def connectionFactory = Mock(CasualConnectionFactory)
+      CountingInitialContextFactory.bound = connectionFactory
+      System.setProperty(Context.INITIAL_CONTEXT_FACTORY, CountingInitialContextFactory.class.getName())
+      def producer = ConnectionFactoryProducer.of('eis/foo')
+      CountingInitialContextFactory.duringLookup = { producer.invalidate() }
+      when:
+      def first = producer.getConnectionFactory()
+      CountingInitialContextFactory.duringLookup = null
+      def second = producer.getConnectionFactory()
+      then:
+      first == connectionFactory
+      second == connectionFactory
+      CountingInitialContextFactory.lookups == 2
+   }
+
+   static class CountingInitialContextFactory implements InitialContextFactory
+   {
+      static Object bound
+      static int lookups
+      static Closure duringLookup
+
+      @Override
+      Context getInitialContext(Hashtable<?, ?> environment) throws NamingException
+      {
+         return [lookup: { name ->
+            lookups++
+            duringLookup?.call()
+            if (null == bound)
+            {
+               throw new NameNotFoundException(name.toString())
+            }
+            return bound
+         }] as Context
+      }
+   }
 }
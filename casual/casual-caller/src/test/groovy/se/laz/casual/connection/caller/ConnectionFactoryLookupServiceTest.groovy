@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2017 - 2018, The casual project. All rights reserved.
+ * Copyright (c) 2017 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -174,6 +174,56 @@ class ConnectionFactoryLookupServiceTest extends Specification
         entries.isEmpty()
     }
 
+    def 'service not known by any connection factory is remembered as unknown'()
+    {
+        setup:
+        ConnectionFactoryEntry entry = ConnectionFactoryEntry.of(producerTwo)
+        connnectionFactoryProvider.get() >> [entry]
+        when:
+        def first = instance.get(serviceName)
+        def second = instance.get(serviceName)
+        then:
+        1 * lookup.find(serviceName, _, transactionLess) >> ConnectionFactoriesByPriority.of([:], [entry.getJndiName()])
+        first.isEmpty()
+        second.isEmpty()
+        cache.getUnknownServices().getHits() == 1
+        when:
+        cache.purgeServices()
+        instance.get(serviceName)
+        then:
+        1 * lookup.find(serviceName, _, transactionLess) >> ConnectionFactoriesByPriority.of([:], [entry.getJndiName()])
+    }
+
+    def 'service not found but a connection factory did not answer is not remembered as unknown'()
+    {
+        setup:
+        ConnectionFactoryEntry entry = ConnectionFactoryEntry.of(producerTwo)
+        connnectionFactoryProvider.get() >> [entry]
+        when:
+        instance.get(serviceName)
+        instance.get(serviceName)
+        then:
+        2 * lookup.find(serviceName, _, transactionLess) >> ConnectionFactoriesByPriority.of([:])
+    }
+
+    def 'queue not known by any connection factory is remembered as unknown'()
+    {
+        setup:
+        connnectionFactoryProvider.get() >> [ConnectionFactoryEntry.of(producerTwo)]
+        when:
+        def first = instance.get(qinfo)
+        def second = instance.get(qinfo)
+        then:
+        1 * lookup.find(qinfo, _, transactionLess) >> []
+        !first.isPresent()
+        !second.isPresent()
+        when:
+        cache.purgeUnknown()
+        instance.get(qinfo)
+        then:
+        1 * lookup.find(qinfo, _, transactionLess) >> []
+    }
+
     def 'service get jndi name, cached entry'()
     {
         setup:
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller
+
+import spock.lang.Specification
+
+import javax.naming.Context
+import javax.transaction.TransactionSynchronizationRegistry
+import java.util.concurrent.TimeUnit
+import java.util.function.LongSupplier
+
+class CurrentTransactionTest extends Specification
+{
+   def cleanup()
+   {
+      System.clearProperty(Context.INITIAL_CONTEXT_FACTORY)
+      JndiResourceTest.CountingInitialContextFactory.bound = null
+      JndiResourceTest.CountingInitialContextFactory.lookups = 0
+   }
+
+   def 'without a registry calls are taken to be within a transaction'()
+   {
+      expect:
+      !CurrentTransaction.of((TransactionSynchronizationRegistry) null).isTransactionLess()
+   }
+
+   def 'a registry that is bound after a failed lookup is used once the backoff has passed'()
+   {
+      given:
+      System.setProperty(Context.INITIAL_CONTEXT_FACTORY, JndiResourceTest.CountingInitialContextFactory.class.getName())
+      long now = 0
+      def instance = CurrentTransaction.of(JndiResource.of('java:comp/TransactionSynchronizationRegistry', 'nothing', { now } as LongSupplier))
+      def registry = Mock(TransactionSynchronizationRegistry) {
+         getTransactionKey() >> null
+      }
+      when:
+      def beforeBound = instance.isTransactionLess()
+      JndiResourceTest.CountingInitialContextFactory.bound = registry
+      def withinBackoff = instance.isTransactionLess()
+      now += TimeUnit.SECONDS.toNanos(1)
+      def afterBackoff = instance.isTransactionLess()
+      then:
+      !beforeBound
+      !withinBackoff
+      afterBackoff
+   }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller
+
+import spock.lang.Specification
+
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+
+class FailedDomainDiscoveryHandlerTest extends Specification
+{
+   ConnectionFactoryEntry entry = ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer))
+   ConnectionFactoryEntryStore connectionFactoryProvider = Mock(ConnectionFactoryEntryStore){
+      get() >> [entry]
+   }
+   CacheRepopulator cacheRepopulator = Mock(CacheRepopulator)
+
+   def setup()
+   {
+      // other tests may have left a discovery pending
+      DomainDiscoveryPending.lower()
+   }
+
+   def 'nothing pending, the entries are not looked at'()
+   {
+      given:
+      ConnectionFactoryEntryStore provider = Mock(ConnectionFactoryEntryStore)
+      def instance = FailedDomainDiscoveryHandler.of(cacheRepopulator, provider, Mock(Executor))
+      when:
+      instance.issueDomainDiscoveryAndRepopulateCache()
+      then:
+      0 * provider.get()
+      0 * cacheRepopulator.repopulate(_)
+   }
+
+   def 'pending discovery runs on the executor, once'()
+   {
+      given:
+      List<Runnable> submitted = []
+      Executor executor = { Runnable task -> submitted.add(task) } as Executor
+      def instance = FailedDomainDiscoveryHandler.of(cacheRepopulator, connectionFactoryProvider, executor)
+      entry.setNeedsDomainDiscovery(true)
+      when:
+      instance.issueDomainDiscoveryAndRepopulateCache()
+      instance.issueDomainDiscoveryAndRepopulateCache()
+      then:
+      0 * cacheRepopulator.repopulate(_)
+      submitted.size() == 1
+      !DomainDiscoveryPending.isRaised()
+      when:
+      submitted[0].run()
+      then:
+      1 * cacheRepopulator.repopulate(entry)
+   }
+
+   def 'executor rejects, discovery runs on the caller thread'()
+   {
+      given:
+      Executor executor = { Runnable task -> throw new RejectedExecutionException('full') } as Executor
+      def instance = FailedDomainDiscoveryHandler.of(cacheRepopulator, connectionFactoryProvider, executor)
+      entry.setNeedsDomainDiscovery(true)
+      when:
+      instance.issueDomainDiscoveryAndRepopulateCache()
+      then:
+      1 * cacheRepopulator.repopulate(entry)
+   }
+
+   def 'no executor, discovery runs on the caller thread'()
+   {
+      given:
+      def instance = FailedDomainDiscoveryHandler.of(cacheRepopulator, connectionFactoryProvider, null)
+      entry.setNeedsDomainDiscovery(true)
+      when:
+      instance.issueDomainDiscoveryAndRepopulateCache()
+      then:
+      1 * cacheRepopulator.repopulate(entry)
+   }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2023, The casual project. All rights reserved.
+ * Copyright (c) 2023 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -12,6 +12,11 @@ import se.laz.casual.api.buffer.type.ServiceBuffer
 import se.laz.casual.api.flags.ErrorState
 import se.laz.casual.api.flags.Flag
 import se.laz.casual.api.flags.ServiceReturnState
+import se.laz.casual.connection.caller.circuitbreaker.CircuitBreaker
+import se.laz.casual.connection.caller.concurrencylimit.AimdConcurrencyLimit
+import se.laz.casual.connection.caller.loadbalancer.LatencyScores
+import se.laz.casual.connection.caller.metrics.LatencyHistograms
+import se.laz.casual.connection.caller.metrics.Operation
 import se.laz.casual.jca.CasualConnection
 import se.laz.casual.jca.CasualConnectionFactory
 import spock.lang.Shared
@@ -19,7 +24,7 @@ import spock.lang.Specification
 
 import javax.resource.ResourceException
 import javax.transaction.Status
-import javax.transaction.TransactionManager
+import javax.transaction.TransactionSynchronizationRegistry
 
 class FailoverAlgorithmTest extends Specification
 {
@@ -112,12 +117,38 @@ class FailoverAlgorithmTest extends Specification
       TransactionPoolMapper.getInstance().getNumberOfTrackedTransactions() == 0 // because stickies disabled
    }
 
+   def 'failover: entry without permission from its circuit breaker is skipped'()
+   {
+      setup:
+      def halfOpen = Mock(ConnectionFactoryEntry)
+      halfOpen.isValid() >> true
+      halfOpen.getJndiName() >> "eis/pool-half-open"
+      halfOpen.tryAcquireConcurrencyPermit() >> true
+      halfOpen.tryAcquirePermission() >> false
+      0 * halfOpen.getConnectionFactory()
+      def entry = getFactoryMockServiceReturn("eis/pool-two", serviceReturnSuccess)
+
+      def lookup = Mock(ConnectionFactoryLookup)
+      def service = "service1"
+      1 * lookup.get(service) >> [halfOpen, entry]
+
+      when:
+      ServiceReturn<CasualBuffer> response = failoverAlgorithm.tpcallWithFailover(
+              service,
+              lookup,
+              {con, execution -> con.tpcall(service, ServiceBuffer.empty(), Flag.of(), execution)},
+              {serviceReturnTpenoent})
+
+      then:
+      response.errorState == ErrorState.OK
+   }
+
    def 'stickies: transaction sticky enabled but call not in transaction, should use first connection factory'()
    {
       setup:
-      def transactionManager = Mock(TransactionManager)
+      def registry = Mock(TransactionSynchronizationRegistry)
       TransactionPoolMapper.getInstance().setActiveForTest(true)
-      TransactionPoolMapper.getInstance().setTransactionManager(transactionManager)
+      TransactionPoolMapper.getInstance().setTransactionSynchronizationRegistry(registry)
 
       def pool1name = "eis/pool-one"
       def entry1 = getFactoryMockServiceReturn(pool1name, serviceReturnSuccess)
@@ -218,6 +249,135 @@ class FailoverAlgorithmTest extends Specification
       TransactionPoolMapper.getInstance().getStickyInformationForCurrentTransaction().getPoolName() == pool1name
    }
 
+   def 'concurrency limit: an entry at its limit is skipped and the call spills over to the next one'()
+   {
+      setup:
+      def limit = AimdConcurrencyLimit.of(1, 1)
+      limit.tryAcquire()
+      def connectionFactory = Mock(CasualConnectionFactory)
+      0 * connectionFactory.getConnection()
+      def full = limitedEntry("eis/pool-full", connectionFactory, limit)
+      def entry = getFactoryMockServiceReturn("eis/pool-two", serviceReturnSuccess)
+      def lookup = Mock(ConnectionFactoryLookup)
+      def service = "service1"
+      1 * lookup.get(service) >> [full, entry]
+
+      when:
+      ServiceReturn<CasualBuffer> response = failoverAlgorithm.tpcallWithFailover(
+              service,
+              lookup,
+              {con, execution -> con.tpcall(service, ServiceBuffer.empty(), Flag.of(), execution)},
+              {serviceReturnTpenoent})
+
+      then:
+      response.errorState == ErrorState.OK
+      limit.rejected == 1
+   }
+
+   def 'concurrency limit: fails fast when all entries are at their limit'()
+   {
+      setup:
+      def limit = AimdConcurrencyLimit.of(1, 1)
+      limit.tryAcquire()
+      def full = limitedEntry("eis/pool-full", Mock(CasualConnectionFactory), limit)
+      def lookup = Mock(ConnectionFactoryLookup)
+      def service = "service1"
+      1 * lookup.get(service) >> [full]
+
+      when:
+      failoverAlgorithm.tpcallWithFailover(
+              service,
+              lookup,
+              {con, execution -> con.tpcall(service, ServiceBuffer.empty(), Flag.of(), execution)},
+              {serviceReturnTpenoent})
+
+      then:
+      thrown(ConcurrencyLimitExceededException)
+   }
+
+   def 'concurrency limit: the permit is released when the call is done'()
+   {
+      setup:
+      def limit = AimdConcurrencyLimit.of(1, 10)
+      def connection = Mock(CasualConnection)
+      connection.tpcall(*_) >> serviceReturnSuccess
+      def connectionFactory = Mock(CasualConnectionFactory)
+      connectionFactory.getConnection() >> connection
+      def entry = limitedEntry("eis/pool-one", connectionFactory, limit)
+      def lookup = Mock(ConnectionFactoryLookup)
+      def service = "service1"
+      lookup.get(service) >> [entry]
+
+      when:
+      2.times {
+         failoverAlgorithm.tpcallWithFailover(
+                 service,
+                 lookup,
+                 {con, execution -> con.tpcall(service, ServiceBuffer.empty(), Flag.of(), execution)},
+                 {serviceReturnTpenoent})
+      }
+
+      then:
+      limit.inFlight == 0
+      limit.rejected == 0
+   }
+
+   def 'latency aware: outcomes are recorded per service and pool'()
+   {
+      setup:
+      def scores = LatencyScores.getInstance()
+      scores.clear()
+      def latencyAware = new FailoverAlgorithm(scores)
+      def failing = getFactoryMockThrowsOnConnection("eis/pool-one")
+      def working = getFactoryMockServiceReturn("eis/pool-two", serviceReturnSuccess)
+      def lookup = Mock(ConnectionFactoryLookup)
+      def service = "service1"
+      1 * lookup.get(service) >> [failing, working]
+
+      when:
+      latencyAware.tpcallWithFailover(
+              service,
+              lookup,
+              {con, execution -> con.tpcall(service, ServiceBuffer.empty(), Flag.of(), execution)},
+              {serviceReturnTpenoent})
+
+      then:
+      scores.getScores(service).keySet() == ["eis/pool-one", "eis/pool-two"] as Set
+      scores.getScores(service)["eis/pool-one"].errorRate > 0
+      scores.getScores(service)["eis/pool-one"].score == Double.MAX_VALUE
+      scores.getScores(service)["eis/pool-two"].errorRate == 0
+      scores.getScores(service)["eis/pool-two"].latencyNanos >= 0
+
+      cleanup:
+      scores.clear()
+   }
+
+   def 'latency histograms: every call is recorded per service and pool'()
+   {
+      setup:
+      def histograms = LatencyHistograms.of(true)
+      def recording = new FailoverAlgorithm(null, histograms)
+      def failing = getFactoryMockThrowsOnConnection("eis/pool-one")
+      def working = getFactoryMockServiceReturn("eis/pool-two", serviceReturnSuccess)
+      def lookup = Mock(ConnectionFactoryLookup)
+      def service = "service1"
+      1 * lookup.get(service) >> [failing, working]
+
+      when:
+      recording.tpcallWithFailover(
+              service,
+              lookup,
+              {con, execution -> con.tpcall(service, ServiceBuffer.empty(), Flag.of(), execution)},
+              {serviceReturnTpenoent})
+
+      then:
+      histograms.getHistogram(Operation.TPCALL, service, "eis/pool-one").get().count == 1
+      histograms.getHistogram(Operation.TPCALL, service, "eis/pool-one").get().errorCount == 1
+      histograms.getHistogram(Operation.TPCALL, service, "eis/pool-two").get().count == 1
+      histograms.getHistogram(Operation.TPCALL, service, "eis/pool-two").get().errorCount == 0
+      !histograms.getHistogram(Operation.TPACALL, service, "eis/pool-two").isPresent()
+   }
+
    private ConnectionFactoryEntry getFactoryMockServiceReturn(String jndiName, ServiceReturn<CasualBuffer> expectedReturn)
    {
       getFactoryMockServiceReturn(jndiName, expectedReturn, 1L)
@@ -234,12 +394,22 @@ class FailoverAlgorithmTest extends Specification
       ConnectionFactoryEntry connectionFactoryEntry = Mock(ConnectionFactoryEntry)
       connectionFactoryEntry.isValid() >> true
       connectionFactoryEntry.isInvalid() >> false
+      connectionFactoryEntry.tryAcquireConcurrencyPermit() >> true
+      connectionFactoryEntry.tryAcquirePermission() >> true
       connectionFactoryEntry.getJndiName() >> jndiName
       connectionFactoryEntry.getConnectionFactory() >> connectionFactory
 
       return connectionFactoryEntry
    }
 
+   private ConnectionFactoryEntry limitedEntry(String jndiName, CasualConnectionFactory connectionFactory, AimdConcurrencyLimit limit)
+   {
+      ConnectionFactoryProducer producer = Mock(ConnectionFactoryProducer)
+      producer.getJndiName() >> jndiName
+      producer.getConnectionFactory() >> connectionFactory
+      return ConnectionFactoryEntry.of(producer, CircuitBreaker.of(3, 10000, 5000, 1), limit)
+   }
+
    private ConnectionFactoryEntry getFactoryMockThrowsOnConnection(String jndiName)
    {
       CasualConnectionFactory connectionFactory = Mock(CasualConnectionFactory)
@@ -250,6 +420,8 @@ class FailoverAlgorithmTest extends Specification
       ConnectionFactoryEntry connectionFactoryEntry = Mock(ConnectionFactoryEntry)
       connectionFactoryEntry.isValid() >> true
       connectionFactoryEntry.isInvalid() >> false
+      connectionFactoryEntry.tryAcquireConcurrencyPermit() >> true
+      connectionFactoryEntry.tryAcquirePermission() >> true
       connectionFactoryEntry.getJndiName() >> jndiName
       connectionFactoryEntry.getConnectionFactory() >> connectionFactory
 
@@ -258,12 +430,9 @@ class FailoverAlgorithmTest extends Specification
 
    private void enableTransactionStickyForTest()
    {
-      def transactionManager = Mock(TransactionManager)
-      def transaction = new TransactionImpl(Status.STATUS_ACTIVE)
-      transactionManager.getTransaction() >> {
-         transaction
-      }
+      def registry = new TransactionSynchronizationRegistryImpl()
+      registry.setCurrentTransaction(new TransactionImpl(Status.STATUS_ACTIVE))
       TransactionPoolMapper.getInstance().setActiveForTest(true)
-      TransactionPoolMapper.getInstance().setTransactionManager(transactionManager)
+      TransactionPoolMapper.getInstance().setTransactionSynchronizationRegistry(registry)
    }
 }
\ No newline at end of file
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller
+
+import se.laz.casual.api.buffer.CasualBuffer
+import se.laz.casual.api.buffer.ServiceReturn
+import se.laz.casual.api.buffer.type.ServiceBuffer
+import se.laz.casual.api.flags.AtmiFlags
+import se.laz.casual.api.flags.ErrorState
+import se.laz.casual.api.flags.Flag
+import se.laz.casual.api.flags.ServiceReturnState
+import se.laz.casual.connection.caller.hedging.Hedging
+import se.laz.casual.jca.CasualConnection
+import se.laz.casual.jca.CasualConnectionFactory
+import spock.lang.Specification
+
+import javax.resource.ResourceException
+import javax.transaction.TransactionSynchronizationRegistry
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class HedgedTpcallTest extends Specification
+{
+   def serviceName = 'readOnly'
+   def data = ServiceBuffer.empty()
+   def flags = Flag.of(AtmiFlags.NOFLAG)
+   def primaryReply = new ServiceReturn<CasualBuffer>(ServiceBuffer.empty(), ServiceReturnState.TPSUCCESS, ErrorState.OK, 1L)
+   def hedgeReply = new ServiceReturn<CasualBuffer>(ServiceBuffer.empty(), ServiceReturnState.TPSUCCESS, ErrorState.OK, 2L)
+   def noTransaction = Mock(TransactionSynchronizationRegistry) {
+      getTransactionKey() >> null
+   }
+   def lookup = Mock(ConnectionFactoryLookup)
+   def release = new CountDownLatch(1)
+   ExecutorService executor = Executors.newCachedThreadPool()
+
+   def cleanup()
+   {
+      release.countDown()
+      executor.shutdownNow()
+   }
+
+   def 'a fast reply is not hedged'()
+   {
+      given:
+      def hedging = Hedging.of([serviceName] as Set, 1000, 100)
+      def caller = new TpCallerFailover(TpacallExecutor.of(executor, noTransaction), hedging)
+      def primary = entry('eis/one', replyWith(primaryReply))
+      def second = entry('eis/two', replyWith(hedgeReply))
+      lookup.get(serviceName) >> [primary, second]
+      when:
+      def result = caller.tpcall(serviceName, data, flags, lookup)
+      then:
+      result == primaryReply
+      0 * second.getConnectionFactory()
+      hedging.getBudget(serviceName).get().hedges == 0
+   }
+
+   def 'a slow primary is hedged to the next connection factory and the first reply wins'()
+   {
+      given:
+      def hedging = Hedging.of([serviceName] as Set, 10, 100)
+      def caller = new TpCallerFailover(TpacallExecutor.of(executor, noTransaction), hedging)
+      lookup.get(serviceName) >> [entry('eis/one', slowReply()), entry('eis/two', replyWith(hedgeReply))]
+      when:
+      def result = caller.tpcall(serviceName, data, flags, lookup)
+      then:
+      result == hedgeReply
+      hedging.getBudget(serviceName).get().hedges == 1
+      hedging.getBudget(serviceName).get().hedgeWins == 1
+   }
+
+   def 'the losing call is cancelled and gives back its permit'()
+   {
+      given:
+      def hedging = Hedging.of([serviceName] as Set, 10, 100)
+      def caller = new TpCallerFailover(TpacallExecutor.of(executor, noTransaction), hedging)
+      def never = new CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>()
+      def primary = entry('eis/one', { never })
+      lookup.get(serviceName) >> [primary, entry('eis/two', replyWith(hedgeReply))]
+      when:
+      def result = caller.tpcall(serviceName, data, flags, lookup)
+      then:
+      result == hedgeReply
+      never.isCancelled()
+      1 * primary.releaseConcurrencyPermit()
+      0 * primary.releaseConcurrencyPermit(_, _, _)
+   }
+
+   def 'the hedge goes to the next connection factory only'()
+   {
+      given:
+      def hedging = Hedging.of([serviceName] as Set, 10, 100)
+      def caller = new TpCallerFailover(TpacallExecutor.of(executor, noTransaction), hedging)
+      def failed = new CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>()
+      failed.completeExceptionally(new ResourceException('no connection'))
+      def third = entry('eis/three', replyWith(hedgeReply))
+      lookup.get(serviceName) >> [entry('eis/one', slowReply()), entry('eis/two', { failed }), third]
+      executor.submit({ Thread.sleep(100); release.countDown() } as Runnable)
+      when:
+      def result = caller.tpcall(serviceName, data, flags, lookup)
+      then:
+      result == primaryReply
+      0 * third.getConnectionFactory()
+      hedging.getBudget(serviceName).get().hedges == 1
+      hedging.getBudget(serviceName).get().hedgeWins == 0
+   }
+
+   def 'a call that has failed over is not hedged'()
+   {
+      given:
+      def hedging = Hedging.of([serviceName] as Set, 10, 100)
+      def caller = new TpCallerFailover(TpacallExecutor.of(executor, noTransaction), hedging)
+      def unreachable = Mock(ConnectionFactoryEntry) {
+         isValid() >> true
+         tryAcquireConcurrencyPermit() >> true
+         tryAcquirePermission() >> true
+         getJndiName() >> 'eis/zero'
+         getConnectionFactory() >> Mock(CasualConnectionFactory) {
+            getConnection() >> { throw new ResourceException('no connection') }
+         }
+      }
+      def third = entry('eis/two', replyWith(hedgeReply))
+      lookup.get(serviceName) >> [unreachable, entry('eis/one', slowReply()), third]
+      executor.submit({ Thread.sleep(50); release.countDown() } as Runnable)
+      when:
+      def result = caller.tpcall(serviceName, data, flags, lookup)
+      then:
+      result == primaryReply
+      0 * third.getConnectionFactory()
+      hedging.getBudget(serviceName).get().hedges == 0
+   }
+
+   def 'without budget the primary reply is awaited'()
+   {
+      given:
+      def hedging = Hedging.of([serviceName] as Set, 10, 0)
+      def caller = new TpCallerFailover(TpacallExecutor.of(executor, noTransaction), hedging)
+      def second = entry('eis/two', replyWith(hedgeReply))
+      lookup.get(serviceName) >> [entry('eis/one', slowReply()), second]
+      executor.submit({ Thread.sleep(50); release.countDown() } as Runnable)
+      when:
+      def result = caller.tpcall(serviceName, data, flags, lookup)
+      then:
+      result == primaryReply
+      0 * second.getConnectionFactory()
+      hedging.getBudget(serviceName).get().hedgesDenied == 1
+   }
+
+   def 'calls within a transaction are never hedged'()
+   {
+      given:
+      def inTransaction = Mock(TransactionSynchronizationRegistry) {
+         getTransactionKey() >> new Object()
+      }
+      List<Runnable> tasks = []
+      def hedging = Hedging.of([serviceName] as Set, 0, 100)
+      def caller = new TpCallerFailover(TpacallExecutor.of({ Runnable task -> tasks.add(task) } as Executor, inTransaction), hedging)
+      lookup.get(serviceName) >> [entry('eis/one', replyWith(primaryReply)), entry('eis/two', replyWith(hedgeReply))]
+      when:
+      def result = caller.tpcall(serviceName, data, flags, lookup)
+      then:
+      result == primaryReply
+      tasks.isEmpty()
+      hedging.getBudget(serviceName).get().calls == 0
+   }
+
+   def 'services that are not configured are not hedged'()
+   {
+      given:
+      List<Runnable> tasks = []
+      def hedging = Hedging.of(['other'] as Set, 0, 100)
+      def caller = new TpCallerFailover(TpacallExecutor.of({ Runnable task -> tasks.add(task) } as Executor, noTransaction), hedging)
+      lookup.get(serviceName) >> [entry('eis/one', replyWith(primaryReply))]
+      when:
+      def result = caller.tpcall(serviceName, data, flags, lookup)
+      then:
+      result == primaryReply
+      tasks.isEmpty()
+   }
+
+   private Closure<CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>> slowReply()
+   {
+      return {
+         def reply = new CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>()
+         executor.submit({
+            release.await(5, TimeUnit.SECONDS)
+            reply.complete(Optional.of(primaryReply))
+         } as Runnable)
+         reply
+      }
+   }
+
+   private static Closure<CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>> replyWith(ServiceReturn<CasualBuffer> serviceReturn)
+   {
+      return { CompletableFuture.completedFuture(Optional.of(serviceReturn)) }
+   }
+
+   private ConnectionFactoryEntry entry(String jndiName, Closure<CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>> reply)
+   {
+      CasualConnection connection = Mock(CasualConnection) {
+         tpacall(serviceName, data, flags, _ as UUID) >> { reply() }
+         tpcall(serviceName, data, flags, _ as UUID) >> { reply().get().get() }
+      }
+      CasualConnectionFactory connectionFactory = Mock(CasualConnectionFactory) {
+         getConnection() >> connection
+      }
+      Mock(ConnectionFactoryEntry) {
+         isValid() >> true
+         tryAcquireConcurrencyPermit() >> true
+         tryAcquirePermission() >> true
+         getJndiName() >> jndiName
+         getConnectionFactory() >> connectionFactory
+      }
+   }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+
+package se.laz.casual.connection.caller
+
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Supplier
+
+class InFlightLookupsTest extends Specification
+{
+   def executor = Executors.newCachedThreadPool()
+
+   def cleanup()
+   {
+      executor.shutdownNow()
+   }
+
+   def 'concurrent lookups for the same key share one lookup'()
+   {
+      given:
+      InFlightLookups<String, String> instance = InFlightLookups.of(10_000)
+      def started = new CountDownLatch(1)
+      def release = new CountDownLatch(1)
+      def lookups = new AtomicInteger()
+      Supplier<String> lookup = {
+         lookups.incrementAndGet()
+         started.countDown()
+         release.await()
+         'result'
+      }
+      def leader = CompletableFuture.supplyAsync({ instance.execute('echo', lookup) }, executor)
+      started.await()
+      when:
+      def followers = (1..5).collect { CompletableFuture.supplyAsync({ instance.execute('echo', lookup) }, executor) }
+      waitFor { instance.getCoalesced() == 5 }
+      release.countDown()
+      then:
+      leader.get(5, TimeUnit.SECONDS) == 'result'
+      followers.every { it.get(5, TimeUnit.SECONDS) == 'result' }
+      lookups.get() == 1
+      instance.getLeaders() == 1
+      instance.getCoalesced() == 5
+      instance.getInFlight() == 0
+   }
+
+   def 'lookups for different keys do not wait for each other'()
+   {
+      given:
+      InFlightLookups<String, String> instance = InFlightLookups.of(10_000)
+      when:
+      def first = instance.execute('one', { 'first' } as Supplier<String>)
+      def second = instance.execute('two', { 'second' } as Supplier<String>)
+      then:
+      first == 'first'
+      second == 'second'
+      instance.getLeaders() == 2
+      instance.getCoalesced() == 0
+   }
+
+   def 'follower does its own lookup when the leader takes longer than the max wait'()
+   {
+      given:
+      InFlightLookups<String, String> instance = InFlightLookups.of(50)
+      def started = new CountDownLatch(1)
+      def release = new CountDownLatch(1)
+      def leader = CompletableFuture.supplyAsync({
+         instance.execute('echo', {
+            started.countDown()
+            release.await()
+            'leader'
+         } as Supplier<String>)
+      }, executor)
+      started.await()
+      when:
+      def follower = instance.execute('echo', { 'follower' } as Supplier<String>)
+      release.countDown()
+      then:
+      follower == 'follower'
+      leader.get(5, TimeUnit.SECONDS) == 'leader'
+      instance.getTimeouts() == 1
+   }
+
+   def 'failure of the leader is seen by the followers and the key is released'()
+   {
+      given:
+      InFlightLookups<String, String> instance = InFlightLookups.of(10_000)
+      def started = new CountDownLatch(1)
+      def release = new CountDownLatch(1)
+      def leader = CompletableFuture.supplyAsync({
+         instance.execute('echo', {
+            started.countDown()
+            release.await()
+            throw new CasualResourceException('Bazinga!')
+         } as Supplier<String>)
+      }, executor)
+      started.await()
+      def follower = CompletableFuture.supplyAsync({ instance.execute('echo', { 'never' } as Supplier<String>) }, executor)
+      waitFor { instance.getCoalesced() == 1 }
+      when:
+      release.countDown()
+      follower.join()
+      then:
+      def e = thrown(Exception)
+      e.cause instanceof CasualResourceException
+      when:
+      leader.join()
+      then:
+      thrown(Exception)
+      instance.execute('echo', { 'again' } as Supplier<String>) == 'again'
+   }
+
+   private static void waitFor(Closure<Boolean> condition)
+   {
+      long deadline = System.currentTimeMillis() + 5000
+      while (!condition() && System.currentTimeMillis() < deadline)
+      {
+         Thread.sleep(5)
+      }
+   }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller
+
+import spock.lang.Specification
+
+import javax.naming.Context
+import javax.naming.NameNotFoundException
+import javax.naming.NamingException
+import javax.naming.spi.InitialContextFactory
+import java.util.concurrent.TimeUnit
+import java.util.function.LongSupplier
+
+class JndiResourceTest extends Specification
+{
+   def cleanup()
+   {
+      System.clearProperty(Context.INITIAL_CONTEXT_FACTORY)
+      CountingInitialContextFactory.bound = null
+      CountingInitialContextFactory.lookups = 0
+   }
+
+   def 'empty jndi name is never looked up'()
+   {
+      given:
+      System.setProperty(Context.INITIAL_CONTEXT_FACTORY, CountingInitialContextFactory.class.getName())
+      def instance = JndiResource.of('', 'nothing')
+      expect:
+      !instance.get().isPresent()
+      CountingInitialContextFactory.lookups == 0
+   }
+
+   def 'found resource is looked up once'()
+   {
+      given:
+      CountingInitialContextFactory.bound = 'resource'
+      System.setProperty(Context.INITIAL_CONTEXT_FACTORY, CountingInitialContextFactory.class.getName())
+      def instance = JndiResource.of('eis/foo', 'nothing')
+      when:
+      def first = instance.get()
+      def second = instance.get()
+      then:
+      first.get() == 'resource'
+      second.get() == 'resource'
+      CountingInitialContextFactory.lookups == 1
+   }
+
+   def 'failed lookup is tried again after a backoff'()
+   {
+      given:
+      System.setProperty(Context.INITIAL_CONTEXT_FACTORY, CountingInitialContextFactory.class.getName())
+      long now = 0
+      def instance = JndiResource.of('eis/foo', 'nothing', { now } as LongSupplier)
+      when:
+      def first = instance.get()
+      CountingInitialContextFactory.bound = 'resource'
+      def withinBackoff = instance.get()
+      then:
+      !first.isPresent()
+      !withinBackoff.isPresent()
+      CountingInitialContextFactory.lookups == 1
+      when:
+      now += TimeUnit.SECONDS.toNanos(1)
+      def afterBackoff = instance.get()
+      def found = instance.get()
+      then:
+      afterBackoff.get() == 'resource'
+      found.get() == 'resource'
+      CountingInitialContextFactory.lookups == 2
+   }
+
+   def 'backoff doubles with every failed lookup'()
+   {
+      given:
+      System.setProperty(Context.INITIAL_CONTEXT_FACTORY, CountingInitialContextFactory.class.getName())
+      long now = 0
+      def instance = JndiResource.of('eis/foo', 'nothing', { now } as LongSupplier)
+      when:
+      instance.get()
+      now += TimeUnit.SECONDS.toNanos(1)
+      instance.get()
+      now += TimeUnit.SECONDS.toNanos(1)
+      instance.get()
+      then:
+      CountingInitialContextFactory.lookups == 2
+      when:
+      now += TimeUnit.SECONDS.toNanos(1)
+      instance.get()
+      then:
+      CountingInitialContextFactory.lookups == 3
+   }
+
+   static class CountingInitialContextFactory implements InitialContextFactory
+   {
+      static Object bound
+      static int lookups
+
+      @Override
+      Context getInitialContext(Hashtable<?, ?> environment) throws NamingException
+      {
+         return [lookup: { name ->
+            lookups++
+            if (null == bound)
+            {
+               throw new NameNotFoundException(name.toString())
+            }
+            return bound
+         }] as Context
+      }
+   }
+}
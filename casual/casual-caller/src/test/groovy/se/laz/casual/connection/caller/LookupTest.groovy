@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2017 - 2018, The casual project. All rights reserved.
+ * Copyright (c) 2017 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -9,6 +9,8 @@ package se.laz.casual.connection.caller
 
 import se.laz.casual.api.queue.QueueInfo
 import se.laz.casual.api.service.ServiceDetails
+import se.laz.casual.connection.caller.metrics.LatencyHistograms
+import se.laz.casual.connection.caller.metrics.Operation
 import se.laz.casual.jca.CasualConnection
 import se.laz.casual.jca.CasualConnectionFactory
 import se.laz.casual.network.messages.domain.TransactionType
@@ -16,6 +18,8 @@ import spock.lang.Shared
 import spock.lang.Specification
 
 import javax.naming.InitialContext
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
 
 class LookupTest extends Specification
 {
@@ -67,6 +71,7 @@ class LookupTest extends Specification
     def setup()
     {
         instance = new Lookup()
+        instance.setExecutor(null)
         con = Mock(CasualConnection)
         conTwo = Mock(CasualConnection)
         conFac = Mock(CasualConnectionFactory)
@@ -129,4 +134,99 @@ class LookupTest extends Specification
         then:
         entries.isEmpty()
     }
+
+    def 'parallel service lookup merges results from all connection factories'()
+    {
+        setup:
+        def pool = Executors.newFixedThreadPool(2)
+        instance.setExecutor(pool)
+        def cacheEntries = [ConnectionFactoryEntry.of(producerOne), ConnectionFactoryEntry.of(producerTwo)]
+        con.serviceDetails(serviceName) >> [new ServiceDetails(serviceName, "", TransactionType.NONE, 0L, priority)]
+        conTwo.serviceDetails(serviceName) >> [new ServiceDetails(serviceName, "", TransactionType.NONE, 0L, priority + 1)]
+        when:
+        def entries = instance.find(serviceName, cacheEntries, new TransactionLess())
+        then:
+        entries.getForPriority(priority)[0].jndiName == jndiNameOne
+        entries.getForPriority(priority + 1)[0].jndiName == jndiNameTwo
+        entries.isResolved(jndiNameOne)
+        entries.isResolved(jndiNameTwo)
+        cleanup:
+        pool.shutdownNow()
+    }
+
+    def 'parallel service lookup, connection factory that times out is left unresolved'()
+    {
+        setup:
+        def pool = Executors.newFixedThreadPool(2)
+        def release = new CountDownLatch(1)
+        instance.setExecutor(pool)
+        instance.setDiscoveryTimeoutMillis(100)
+        def cacheEntries = [ConnectionFactoryEntry.of(producerOne), ConnectionFactoryEntry.of(producerTwo)]
+        con.serviceDetails(serviceName) >> [new ServiceDetails(serviceName, "", TransactionType.NONE, 0L, priority)]
+        conTwo.serviceDetails(serviceName) >> {
+            release.await()
+            [new ServiceDetails(serviceName, "", TransactionType.NONE, 0L, priority)]
+        }
+        when:
+        def entries = instance.find(serviceName, cacheEntries, new TransactionLess())
+        then:
+        entries.getForPriority(priority).collect { it.jndiName } == [jndiNameOne]
+        entries.isResolved(jndiNameOne)
+        !entries.isResolved(jndiNameTwo)
+        cleanup:
+        release.countDown()
+        pool.shutdownNow()
+    }
+
+    def 'parallel queue lookup keeps the order of the given entries'()
+    {
+        setup:
+        def pool = Executors.newFixedThreadPool(2)
+        instance.setExecutor(pool)
+        def cacheEntries = [ConnectionFactoryEntry.of(producerOne), ConnectionFactoryEntry.of(producerTwo)]
+        con.queueExists(qinfo) >> true
+        conTwo.queueExists(qinfo) >> true
+        when:
+        def entries = instance.find(qinfo, cacheEntries, new TransactionLess())
+        then:
+        entries.collect { it.jndiName } == [jndiNameOne, jndiNameTwo]
+        cleanup:
+        pool.shutdownNow()
+    }
+
+    def 'sequential service lookup does not ask the remaining connection factories once timed out'()
+    {
+        setup:
+        instance.setDiscoveryTimeoutMillis(0)
+        def cacheEntries = [ConnectionFactoryEntry.of(producerOne), ConnectionFactoryEntry.of(producerTwo)]
+        when:
+        def entries = instance.find(serviceName, cacheEntries, new TransactionLess())
+        then:
+        1 * con.serviceDetails(serviceName) >> [new ServiceDetails(serviceName, "", TransactionType.NONE, 0L, priority)]
+        0 * conTwo.serviceDetails(serviceName)
+        entries.isResolved(jndiNameOne)
+        !entries.isResolved(jndiNameTwo)
+    }
+
+    def 'discovery latency is only recorded for names that are found'()
+    {
+        setup:
+        def histograms = LatencyHistograms.of(true)
+        instance.setLatencyHistograms(histograms)
+        def cacheEntries = [ConnectionFactoryEntry.of(producerOne), ConnectionFactoryEntry.of(producerTwo)]
+        con.serviceDetails(serviceName) >> []
+        conTwo.serviceDetails(serviceName) >> [new ServiceDetails(serviceName, "", TransactionType.NONE, 0L, priority)]
+        con.serviceDetails('unknown') >> []
+        conTwo.serviceDetails('unknown') >> []
+        con.queueExists(qinfo) >> false
+        conTwo.queueExists(qinfo) >> false
+        when:
+        instance.find(serviceName, cacheEntries, new TransactionLess())
+        instance.find('unknown', cacheEntries, new TransactionLess())
+        instance.find(qinfo, cacheEntries, new TransactionLess())
+        then:
+        histograms.getHistogram(Operation.DISCOVERY, serviceName, jndiNameOne).get().count == 1
+        histograms.getHistogram(Operation.DISCOVERY, serviceName, jndiNameTwo).get().count == 1
+        histograms.histograms.size() == 2
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+
+package se.laz.casual.connection.caller
+
+import spock.lang.Specification
+
+import java.util.function.LongSupplier
+
+class NegativeCacheTest extends Specification
+{
+   long now = 1000
+   LongSupplier clock = { now } as LongSupplier
+
+   def 'names expire after the ttl'()
+   {
+      given:
+      def instance = NegativeCache.of(100, 10, clock)
+      instance.add('echo')
+      expect:
+      instance.contains('echo')
+      !instance.contains('other')
+      instance.getHits() == 1
+      instance.getMisses() == 1
+      when:
+      now += 100
+      then:
+      !instance.contains('echo')
+      instance.size() == 0
+   }
+
+   def 'when full only expired names make room'()
+   {
+      given:
+      def instance = NegativeCache.of(100, 2, clock)
+      instance.add('one')
+      now += 50
+      instance.add('two')
+      when:
+      instance.add('three')
+      then:
+      !instance.contains('three')
+      when:
+      now += 50
+      instance.add('three')
+      then:
+      instance.contains('three')
+      instance.contains('two')
+      !instance.contains('one')
+   }
+
+   def 'a ttl of 0 turns it off'()
+   {
+      given:
+      def instance = NegativeCache.of(0, 10, clock)
+      when:
+      instance.add('echo')
+      then:
+      !instance.contains('echo')
+   }
+
+   def 'remove and clear'()
+   {
+      given:
+      def instance = NegativeCache.of(100, 10, clock)
+      instance.add('one')
+      instance.add('two')
+      when:
+      instance.remove('one')
+      then:
+      !instance.contains('one')
+      instance.contains('two')
+      when:
+      instance.clear()
+      then:
+      instance.size() == 0
+   }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller
+
+import se.laz.casual.api.queue.QueueInfo
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class PoolIndexTest extends Specification
+{
+   def priority = 1L
+   def entryOne = ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer) { getJndiName() >> 'eis/one' })
+   def entryTwo = ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer) { getJndiName() >> 'eis/two' })
+
+   def 'index follows add and remove'()
+   {
+      given:
+      def index = new PoolIndex()
+      when:
+      index.add(['eis/one', 'eis/two'], 'a')
+      index.add(['eis/one'], 'b')
+      then:
+      index.getKeys('eis/one') == ['a', 'b'] as Set
+      index.getKeys('eis/two') == ['a'] as Set
+      when:
+      index.removeKey('a', ['eis/one', 'eis/two'])
+      then:
+      index.getKeys('eis/one') == ['b'] as Set
+      index.getKeys('eis/two').isEmpty()
+      when:
+      def removed = index.removePool('eis/one')
+      then:
+      removed == ['b'] as Set
+      index.getKeys('eis/one').isEmpty()
+      index.removePool('eis/unknown').isEmpty()
+   }
+
+   def 'keys added while others are removed are never lost'()
+   {
+      given:
+      def index = new PoolIndex()
+      def threads = 4
+      def rounds = 10000
+      def pool = Executors.newFixedThreadPool(threads)
+      def start = new CountDownLatch(1)
+      when:
+      def done = (1..threads).collect { thread ->
+         pool.submit({
+            start.await()
+            def key = "key-${thread}".toString()
+            rounds.times {
+               index.add(['eis/one'], key)
+               index.removeKey(key, ['eis/one'])
+            }
+            index.add(['eis/one'], key)
+         } as Callable)
+      }
+      start.countDown()
+      done.each { it.get(30, TimeUnit.SECONDS) }
+      then:
+      index.getKeys('eis/one') == (1..threads).collect { "key-${it}".toString() } as Set
+      cleanup:
+      pool.shutdownNow()
+   }
+
+   def 'service purge only touches services referring to the connection factory'()
+   {
+      given:
+      def cache = new ServiceCache()
+      cache.store('both', ConnectionFactoriesByPriority.of([(priority): [entryOne, entryTwo]]))
+      cache.store('one', ConnectionFactoriesByPriority.of([(priority): [entryOne]]))
+      cache.store('two', ConnectionFactoriesByPriority.of([(priority): [entryTwo]]))
+      cache.store('checked', ConnectionFactoriesByPriority.of([(priority): [entryTwo]], ['eis/one', 'eis/two']))
+      expect:
+      cache.getServicesReferring('eis/one') == ['both', 'one', 'checked'] as Set
+      cache.getServicesReferring('eis/two') == ['both', 'two', 'checked'] as Set
+      when:
+      cache.remove(entryOne)
+      then:
+      cache.getCachedServiceNames() == ['both', 'two', 'checked'] as Set
+      cache.getOrEmpty('both').getForPriority(priority) == [entryTwo]
+      !cache.getOrEmpty('checked').isResolved('eis/one')
+      cache.getOrEmpty('checked').isResolved('eis/two')
+      cache.getServicesReferring('eis/one').isEmpty()
+      when:
+      cache.remove('two')
+      then:
+      cache.getServicesReferring('eis/two') == ['both', 'checked'] as Set
+      when:
+      cache.clear()
+      then:
+      cache.getServicesReferring('eis/two').isEmpty()
+   }
+
+   def 'queue purge only touches queues referring to the connection factory and drops their stickies'()
+   {
+      given:
+      def cache = new QueueCache()
+      def shared = QueueInfo.of('space.shared')
+      def onlyOne = QueueInfo.of('space.one')
+      def onlyTwo = QueueInfo.of('space.two')
+      cache.store(shared, [entryOne, entryTwo])
+      cache.store(onlyOne, [entryOne])
+      cache.store(onlyTwo, [entryTwo])
+      when:
+      def sticky = cache.getOrEmpty(shared)
+      then:
+      sticky.get() == entryOne
+      cache.getQueuesReferring('eis/one') == ['space.shared', 'space.one'] as Set
+      when:
+      cache.remove(entryOne)
+      then:
+      cache.getCachedQueueNames() == ['space.shared', 'space.two'] as Set
+      cache.getOrEmpty(shared).get() == entryTwo
+      cache.getAll(onlyTwo) == [entryTwo]
+      cache.getQueuesReferring('eis/one').isEmpty()
+      cache.getQueuesReferring('eis/two') == ['space.shared', 'space.two'] as Set
+   }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+
+package se.laz.casual.connection.caller
+
+import se.laz.casual.connection.caller.loadbalancer.PowerOfTwoChoicesLoadBalancer
+import spock.lang.Specification
+
+class PowerOfTwoChoicesLoadBalancerTest extends Specification
+{
+   def 'with two entries the least loaded one is always first'()
+   {
+      given:
+      def busy = ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer))
+      def idle = ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer))
+      busy.requestStarted()
+      busy.requestStarted()
+      def instance = new PowerOfTwoChoicesLoadBalancer()
+      when:
+      def firsts = (1..50).collect {
+         def entries = [busy, idle]
+         instance.arrange(entries, 0, entries.size())
+         entries[0]
+      }
+      then:
+      firsts.every { it == idle }
+   }
+
+   def 'arranging keeps all entries and leaves entries outside the range alone'()
+   {
+      given:
+      def entries = (1..6).collect { ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer)) }
+      def original = new ArrayList<>(entries)
+      def instance = new PowerOfTwoChoicesLoadBalancer()
+      when:
+      instance.arrange(entries, 1, 5)
+      then:
+      entries[0] == original[0]
+      entries[5] == original[5]
+      entries as Set == original as Set
+   }
+
+   def 'outstanding requests are released when the call finishes'()
+   {
+      given:
+      def entry = ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer))
+      when:
+      entry.requestStarted()
+      entry.requestFinished()
+      then:
+      entry.getOutstandingRequests() == 0
+   }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller
+
+import se.laz.casual.api.queue.QueueInfo
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class QueueCacheTest extends Specification
+{
+   def queueInfo = QueueInfo.of('space.queue')
+
+   def 'lookups of queues that are not cached are not tracked for eviction'()
+   {
+      given:
+      def cache = new QueueCache(CacheEviction.of(10, 0))
+      when:
+      (0..<100).each { cache.getOrEmpty(QueueInfo.of("unknown.queue.${it}")) }
+      then:
+      cache.getEviction().getTrackedCount() == 0
+      when:
+      cache.store(queueInfo, [Mock(ConnectionFactoryEntry) { isValid() >> true; getJndiName() >> 'eis/pool' }])
+      cache.getOrEmpty(queueInfo)
+      then:
+      cache.getEviction().getTrackedCount() == 1
+   }
+
+   def 'concurrent first lookups agree on a single sticky'()
+   {
+      given:
+      def entries = (0..<4).collect { index ->
+         Mock(ConnectionFactoryEntry) {
+            isValid() >> true
+            getJndiName() >> "eis/pool-${index}"
+         }
+      }
+      def cache = new QueueCache(CacheEviction.unbounded())
+      cache.store(queueInfo, entries)
+      def threads = 16
+      def start = new CountDownLatch(1)
+      def executor = Executors.newFixedThreadPool(threads)
+      when:
+      def futures = (0..<threads).collect {
+         executor.submit({ start.await(); cache.getOrEmpty(queueInfo).get() } as Callable<ConnectionFactoryEntry>)
+      }
+      start.countDown()
+      def selected = futures.collect { it.get(10, TimeUnit.SECONDS) } as Set
+      then:
+      selected.size() == 1
+      cleanup:
+      executor.shutdownNow()
+   }
+
+   def 'no sticky is set while no connection factory is valid'()
+   {
+      given:
+      def valid = false
+      def entry = Mock(ConnectionFactoryEntry) {
+         isValid() >> { valid }
+         getJndiName() >> 'eis/pool'
+      }
+      def cache = new QueueCache(CacheEviction.unbounded())
+      cache.store(queueInfo, [entry])
+      expect:
+      !cache.getOrEmpty(queueInfo).isPresent()
+      when:
+      valid = true
+      then:
+      cache.getOrEmpty(queueInfo).get() == entry
+   }
+
+   def 'a removed sticky is reselected among the valid connection factories'()
+   {
+      given:
+      def firstValid = true
+      def first = Mock(ConnectionFactoryEntry) {
+         isValid() >> { firstValid }
+         getJndiName() >> 'eis/first'
+      }
+      def second = Mock(ConnectionFactoryEntry) {
+         isValid() >> true
+         getJndiName() >> 'eis/second'
+      }
+      def cache = new QueueCache(CacheEviction.unbounded())
+      cache.store(queueInfo, [first, second])
+      expect:
+      cache.getOrEmpty(queueInfo).get() == first
+      when:
+      firstValid = false
+      cache.removeSticky(queueInfo)
+      then:
+      cache.getOrEmpty(queueInfo).get() == second
+   }
+
+   def 'an invalid sticky is moved to the next valid connection factory'()
+   {
+      given:
+      def firstValid = true
+      def first = Mock(ConnectionFactoryEntry) {
+         isValid() >> { firstValid }
+         getJndiName() >> 'eis/first'
+      }
+      def second = Mock(ConnectionFactoryEntry) {
+         isValid() >> true
+         getJndiName() >> 'eis/second'
+      }
+      def cache = new QueueCache(CacheEviction.unbounded())
+      cache.store(queueInfo, [first, second])
+      expect:
+      cache.getOrEmpty(queueInfo).get() == first
+      when:
+      firstValid = false
+      then:
+      cache.getOrEmpty(queueInfo).get() == second
+      cache.getOrEmpty(queueInfo).get() == second
+      cache.restickCount == 1
+   }
+
+   def 'a failed sticky is moved, unless there is no other valid connection factory'()
+   {
+      given:
+      def secondValid = false
+      def first = Mock(ConnectionFactoryEntry) {
+         isValid() >> true
+         getJndiName() >> 'eis/first'
+      }
+      def second = Mock(ConnectionFactoryEntry) {
+         isValid() >> { secondValid }
+         getJndiName() >> 'eis/second'
+      }
+      def cache = new QueueCache(CacheEviction.unbounded())
+      cache.store(queueInfo, [first, second])
+      cache.getOrEmpty(queueInfo)
+      expect:
+      cache.moveSticky(queueInfo, first) == first
+      cache.restickCount == 0
+      when:
+      secondValid = true
+      then:
+      cache.moveSticky(queueInfo, first) == second
+      cache.getOrEmpty(queueInfo).get() == second
+      cache.restickCount == 1
+      when: // another thread reporting the same failure does not move it back
+      def again = cache.moveSticky(queueInfo, first)
+      then:
+      again == second
+      cache.restickCount == 1
+   }
+}
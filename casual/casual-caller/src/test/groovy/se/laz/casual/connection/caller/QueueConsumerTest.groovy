@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller
+
+import se.laz.casual.api.buffer.type.ServiceBuffer
+import se.laz.casual.api.flags.ErrorState
+import se.laz.casual.api.queue.DequeueReturn
+import se.laz.casual.api.queue.MessageSelector
+import se.laz.casual.api.queue.QueueInfo
+import se.laz.casual.api.queue.QueueMessage
+import spock.lang.Specification
+
+import javax.transaction.TransactionSynchronizationRegistry
+
+class QueueConsumerTest extends Specification
+{
+   def queueInfo = QueueInfo.of('queue')
+   def selector = MessageSelector.of()
+   def caller = Mock(CasualCaller)
+   def noTransaction = Mock(TransactionSynchronizationRegistry) {
+      getTransactionKey() >> null
+   }
+   def inTransaction = Mock(TransactionSynchronizationRegistry) {
+      getTransactionKey() >> 'transaction'
+   }
+
+   def 'messages are fetched prefetch at a time and handed out in order'()
+   {
+      given:
+      def messages = (1..3).collect { QueueMessage.of(ServiceBuffer.empty()) }
+      def consumer = QueueConsumer.of(caller, queueInfo, selector, 2, false, noTransaction)
+      when:
+      def first = consumer.next()
+      then:
+      1 * caller.dequeue(queueInfo, selector, 2) >> [dequeued(messages[0]), dequeued(messages[1])]
+      first.is(messages[0])
+      consumer.buffered == 1
+      when:
+      def second = consumer.next()
+      def third = consumer.next()
+      then:
+      1 * caller.dequeue(queueInfo, selector, 2) >> [dequeued(messages[2])]
+      second.is(messages[1])
+      third.is(messages[2])
+      when:
+      def more = consumer.hasNext()
+      then:
+      1 * caller.dequeue(queueInfo, selector, 2) >> []
+      !more
+   }
+
+   def 'no prefetch within a transaction unless configured'()
+   {
+      given:
+      def consumer = QueueConsumer.of(caller, queueInfo, selector, 10, prefetchInTransaction, inTransaction)
+      when:
+      consumer.hasNext()
+      then:
+      1 * caller.dequeue(queueInfo, selector, expected) >> [dequeued(QueueMessage.of(ServiceBuffer.empty()))]
+      where:
+      prefetchInTransaction || expected
+      false                 || 1
+      true                  || 10
+   }
+
+   def 'an error with nothing buffered is thrown'()
+   {
+      given:
+      def consumer = QueueConsumer.of(caller, queueInfo, selector, 10, false, noTransaction)
+      caller.dequeue(queueInfo, selector, 10) >> [DequeueReturn.createBuilder().withErrorState(ErrorState.TPENOENT).build()]
+      when:
+      consumer.hasNext()
+      then:
+      thrown(CasualCallerException)
+   }
+
+   def 'prefetch must be at least one'()
+   {
+      when:
+      QueueConsumer.of(caller, queueInfo, selector, 0, false)
+      then:
+      thrown(IllegalArgumentException)
+   }
+
+   private static DequeueReturn dequeued(QueueMessage message)
+   {
+      DequeueReturn.createBuilder().withErrorState(ErrorState.OK).withQueueMessage(message).build()
+   }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller
+
+import se.laz.casual.api.flags.ErrorState
+import se.laz.casual.api.queue.EnqueueReturn
+import se.laz.casual.api.queue.QueueInfo
+import se.laz.casual.jca.CasualConnection
+import se.laz.casual.jca.CasualConnectionFactory
+import se.laz.casual.network.connection.CasualConnectionException
+import se.laz.casual.network.connection.DomainDisconnectedException
+import spock.lang.Specification
+
+import javax.resource.ResourceException
+import javax.resource.spi.EISSystemException
+import javax.transaction.TransactionSynchronizationRegistry
+
+class QueueFailoverTest extends Specification
+{
+   def queueInfo = QueueInfo.of('space.queue')
+   def tpenoent = EnqueueReturn.createBuilder().withErrorState(ErrorState.TPENOENT).build()
+   def ok = EnqueueReturn.createBuilder().withErrorState(ErrorState.OK).withId(UUID.randomUUID()).build()
+   def lookup = Mock(ConnectionFactoryLookup)
+   def firstFactory = Mock(CasualConnectionFactory)
+   def secondFactory = Mock(CasualConnectionFactory)
+   def firstProducer = producer('eis/first', firstFactory)
+   def first = ConnectionFactoryEntry.of(firstProducer)
+   def second = ConnectionFactoryEntry.of(producer('eis/second', secondFactory))
+
+   def 'getting a connection fails outside of a transaction, the sticky moves and the call is issued there'()
+   {
+      given:
+      def failover = QueueFailover.of(transaction(null))
+      def connection = Mock(CasualConnection)
+      lookup.get(queueInfo) >> Optional.of(first)
+      firstFactory.getConnection() >> { throw new EISSystemException('down') }
+      secondFactory.getConnection() >> connection
+      when:
+      def reply = failover.call(queueInfo, lookup, { entry, con -> con.enqueue(queueInfo, null) }, { tpenoent })
+      then:
+      1 * firstProducer.invalidate()
+      1 * lookup.moveQueueSticky(queueInfo, first) >> second
+      1 * connection.enqueue(queueInfo, null) >> ok
+      reply == ok
+   }
+
+   def 'a disconnecting domain did not take the call, it is issued on the next pool'()
+   {
+      given:
+      def failover = QueueFailover.of(transaction(null))
+      def firstConnection = Mock(CasualConnection)
+      def secondConnection = Mock(CasualConnection)
+      lookup.get(queueInfo) >> Optional.of(first)
+      lookup.moveQueueSticky(queueInfo, first) >> second
+      firstFactory.getConnection() >> firstConnection
+      secondFactory.getConnection() >> secondConnection
+      firstConnection.enqueue(queueInfo, null) >> { throw new DomainDisconnectedException('disconnecting') }
+      secondConnection.enqueue(queueInfo, null) >> ok
+      expect:
+      failover.call(queueInfo, lookup, { entry, con -> con.enqueue(queueInfo, null) }, { tpenoent }) == ok
+   }
+
+   def 'no new call within a transaction or after a network error during the call'()
+   {
+      given:
+      def failover = QueueFailover.of(transaction(transactionKey))
+      def connection = Mock(CasualConnection)
+      lookup.get(queueInfo) >> Optional.of(first)
+      firstFactory.getConnection() >> connection
+      connection.enqueue(queueInfo, null) >> { throw failure }
+      when:
+      failover.call(queueInfo, lookup, { entry, con -> con.enqueue(queueInfo, null) }, { tpenoent })
+      then:
+      1 * lookup.moveQueueSticky(queueInfo, first) >> second
+      0 * secondFactory.getConnection()
+      def e = thrown(CasualResourceException)
+      e.cause.is(failure)
+      where:
+      transactionKey | failure
+      'transaction'  | new DomainDisconnectedException('disconnecting')
+      null           | new CasualConnectionException('network error')
+   }
+
+   def 'fails once there is no other pool for the queue'()
+   {
+      given:
+      def failover = QueueFailover.of(transaction(null))
+      lookup.get(queueInfo) >> Optional.of(first)
+      lookup.moveQueueSticky(queueInfo, first) >> second
+      lookup.moveQueueSticky(queueInfo, second) >> first
+      firstFactory.getConnection() >> { throw new EISSystemException('down') }
+      secondFactory.getConnection() >> { throw new EISSystemException('down') }
+      when:
+      failover.call(queueInfo, lookup, { entry, con -> con.enqueue(queueInfo, null) }, { tpenoent })
+      then:
+      def e = thrown(CasualResourceException)
+      e.cause instanceof ResourceException
+   }
+
+   def 'unknown queue'()
+   {
+      given:
+      def failover = QueueFailover.of(transaction(null))
+      lookup.get(queueInfo) >> Optional.empty()
+      expect:
+      failover.call(queueInfo, lookup, { entry, con -> ok }, { tpenoent }) == tpenoent
+   }
+
+   private ConnectionFactoryProducer producer(String jndiName, CasualConnectionFactory connectionFactory)
+   {
+      Mock(ConnectionFactoryProducer) {
+         getJndiName() >> jndiName
+         getConnectionFactory() >> connectionFactory
+      }
+   }
+
+   private CurrentTransaction transaction(Object transactionKey)
+   {
+      CurrentTransaction.of(Mock(TransactionSynchronizationRegistry) {
+         getTransactionKey() >> transactionKey
+      })
+   }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller
+
+import spock.lang.Specification
+
+class RoutingSnapshotTest extends Specification
+{
+   def 'entry known at several priorities is only returned once, at the highest priority'()
+   {
+      given:
+      def entryOne = createEntry('eis/one')
+      def entryTwo = createEntry('eis/two')
+      def entryThree = createEntry('eis/three')
+      ConnectionFactoriesByPriority instance = ConnectionFactoriesByPriority.of([
+              (2L): [entryOne, entryThree],
+              (0L): [entryTwo, entryOne]
+      ])
+      when:
+      def result = instance.randomizeWithPriority()
+      then:
+      result.size() == 3
+      result.subList(0, 2).sort() == [entryTwo, entryOne].sort()
+      result[2] == entryThree
+      instance.getSnapshot().numberOfPriorities() == 2
+   }
+
+   def 'snapshot is replaced on change, the old one is left as is'()
+   {
+      given:
+      def entryOne = createEntry('eis/one')
+      def entryTwo = createEntry('eis/two')
+      ConnectionFactoriesByPriority instance = ConnectionFactoriesByPriority.of([(1L): [entryOne, entryTwo]], ['eis/one', 'eis/two'])
+      def before = instance.getSnapshot()
+      when:
+      instance.remove(entryOne)
+      def after = instance.getSnapshot()
+      then:
+      before.size() == 2
+      before.isResolved('eis/one')
+      after.size() == 1
+      !after.isResolved('eis/one')
+      instance.randomizeWithPriority() == [entryTwo]
+   }
+
+   def 'returned list can be modified by the caller'()
+   {
+      given:
+      def entryOne = createEntry('eis/one')
+      ConnectionFactoriesByPriority instance = ConnectionFactoriesByPriority.of([(1L): [entryOne]])
+      when:
+      def result = instance.randomizeWithPriority()
+      result.remove(entryOne)
+      then:
+      result.isEmpty()
+      instance.randomizeWithPriority() == [entryOne]
+   }
+
+   def 'checked all valid'()
+   {
+      given:
+      def entryOne = createEntry('eis/one')
+      def entryTwo = createEntry('eis/two')
+      ConnectionFactoriesByPriority instance = ConnectionFactoriesByPriority.of([(1L): [entryOne]], ['eis/one'])
+      expect:
+      instance.hasCheckedAllValid([entryOne])
+      !instance.hasCheckedAllValid([entryOne, entryTwo])
+      when:
+      entryTwo.getCircuitBreaker().trip()
+      then:
+      instance.hasCheckedAllValid([entryOne, entryTwo])
+   }
+
+   ConnectionFactoryEntry createEntry(String jndiName)
+   {
+      ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer) {
+         getJndiName() >> jndiName
+      })
+   }
+}
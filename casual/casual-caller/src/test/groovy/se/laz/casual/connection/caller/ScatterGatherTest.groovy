@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller
+
+import se.laz.casual.api.buffer.CasualBuffer
+import se.laz.casual.api.buffer.ServiceReturn
+import se.laz.casual.api.buffer.type.ServiceBuffer
+import se.laz.casual.api.flags.AtmiFlags
+import se.laz.casual.api.flags.ErrorState
+import se.laz.casual.api.flags.Flag
+import se.laz.casual.api.flags.ServiceReturnState
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+
+class ScatterGatherTest extends Specification
+{
+   def data = ServiceBuffer.empty()
+   def flags = Flag.of(AtmiFlags.NOFLAG)
+
+   def 'results are returned in request order'()
+   {
+      given:
+      def first = new CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>()
+      def second = new CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>()
+      def replies = ['first': first, 'second': second]
+      def requests = [TpcallRequest.of('first', data, flags), TpcallRequest.of('second', data, flags)]
+      second.complete(Optional.of(reply(ErrorState.OK)))
+      first.complete(Optional.of(reply(ErrorState.TPESVCERR)))
+      when:
+      def results = ScatterGather.tpcall(requests, Duration.ofSeconds(1), { request, remainingNanos -> replies[request.serviceName] })
+      then:
+      results.size() == 2
+      results[0].serviceReturn.get().errorState == ErrorState.TPESVCERR
+      results[1].serviceReturn.get().errorState == ErrorState.OK
+   }
+
+   def 'a failing call does not affect the rest of the batch'()
+   {
+      given:
+      def failure = new CasualResourceException('no entries')
+      def requests = [TpcallRequest.of('missing', data, flags), TpcallRequest.of('echo', data, flags)]
+      def tpacall = { TpcallRequest request, long remainingNanos ->
+         if (request.serviceName == 'missing')
+         {
+            throw failure
+         }
+         CompletableFuture.completedFuture(Optional.of(reply(ErrorState.OK)))
+      }
+      when:
+      def results = ScatterGather.tpcall(requests, Duration.ofSeconds(1), tpacall)
+      then:
+      !results[0].hasReply()
+      results[0].error.get() == failure
+      results[1].serviceReturn.get().errorState == ErrorState.OK
+   }
+
+   def 'asynchronous failures are reported per call'()
+   {
+      given:
+      def failure = new CasualResourceException('disconnected')
+      def failed = new CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>()
+      failed.completeExceptionally(failure)
+      when:
+      def results = ScatterGather.tpcall([TpcallRequest.of('echo', data, flags)], Duration.ofSeconds(1), { request, remainingNanos -> failed })
+      then:
+      results[0].error.get() == failure
+   }
+
+   def 'calls without a reply before the deadline get TPETIME'()
+   {
+      given:
+      def never = new CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>()
+      def requests = [TpcallRequest.of('slow', data, flags), TpcallRequest.of('fast', data, flags)]
+      def tpacall = { TpcallRequest request, long remainingNanos ->
+         request.serviceName == 'slow' ? never : CompletableFuture.completedFuture(Optional.of(reply(ErrorState.OK)))
+      }
+      when:
+      def results = ScatterGather.tpcall(requests, Duration.ofMillis(20), tpacall)
+      then:
+      results[0].serviceReturn.get().errorState == ErrorState.TPETIME
+      results[0].serviceReturn.get().serviceReturnState == ServiceReturnState.TPFAIL
+      results[1].serviceReturn.get().errorState == ErrorState.OK
+   }
+
+   def 'a call without reply has neither reply nor error'()
+   {
+      when:
+      def results = ScatterGather.tpcall([TpcallRequest.of('echo', data, Flag.of(AtmiFlags.TPNOREPLY))], Duration.ofSeconds(1), { request, remainingNanos -> CompletableFuture.completedFuture(Optional.empty()) })
+      then:
+      !results[0].hasReply()
+      !results[0].error.isPresent()
+   }
+
+   def 'every call is told the time left of the batch'()
+   {
+      given:
+      def remaining = []
+      def requests = [TpcallRequest.of('first', data, flags), TpcallRequest.of('second', data, flags)]
+      def tpacall = { TpcallRequest request, long remainingNanos ->
+         remaining << remainingNanos
+         Thread.sleep(5)
+         CompletableFuture.completedFuture(Optional.of(reply(ErrorState.OK)))
+      }
+      when:
+      ScatterGather.tpcall(requests, Duration.ofSeconds(1), tpacall)
+      then:
+      remaining[0] <= Duration.ofSeconds(1).toNanos()
+      remaining[1] < remaining[0]
+   }
+
+   def reply(ErrorState errorState)
+   {
+      new ServiceReturn<CasualBuffer>(ServiceBuffer.empty(), errorState == ErrorState.OK ? ServiceReturnState.TPSUCCESS : ServiceReturnState.TPFAIL, errorState, 0L)
+   }
+}
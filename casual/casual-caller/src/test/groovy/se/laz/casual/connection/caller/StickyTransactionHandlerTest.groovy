@@ -6,7 +6,6 @@
 package se.laz.casual.connection.caller
 
 import javax.transaction.Status
-import javax.transaction.TransactionManager
 import se.laz.casual.api.buffer.CasualBuffer
 import se.laz.casual.api.buffer.ServiceReturn
 import se.laz.casual.api.buffer.type.ServiceBuffer
@@ -32,7 +31,7 @@ class StickyTransactionHandlerTest extends Specification
    {
       given:
       TransactionPoolMapper mapper = Mock(TransactionPoolMapper){
-         isPoolMappingActive() >> false
+         getCurrentTransaction() >> Optional.empty()
       }
       when:
       Optional result = StickyTransactionHandler.handleTransactionSticky('serviceOne', [], {con, execution -> }, () -> mapper)
@@ -73,6 +72,57 @@ class StickyTransactionHandlerTest extends Specification
       TransactionPoolMapper.getInstance().getStickyInformationForCurrentTransaction().getExecution() == sharedExecution
    }
 
+   def 'the outcome of the sticky call is told to the observer'()
+   {
+      given:
+      enableTransactionStickyForTest()
+      def connectionFactory = getFactoryMockServiceReturn("eis/pool-one", serviceReturnSuccess, 1)
+      List<String> outcomes = []
+      def observer = new StickyTransactionHandler.CallObserver() {
+         @Override
+         <T> T succeeded(ConnectionFactoryEntry connectionFactoryEntry, long start, T result)
+         {
+            outcomes << "succeeded ${connectionFactoryEntry.jndiName}".toString()
+            return result
+         }
+
+         @Override
+         void failed(ConnectionFactoryEntry connectionFactoryEntry, long start)
+         {
+            outcomes << "failed ${connectionFactoryEntry.jndiName}".toString()
+         }
+      }
+      when:
+      Optional<ServiceReturn<CasualBuffer>> response = StickyTransactionHandler.handleTransactionSticky('service1',
+              [connectionFactory],
+              {con, execution -> con.tpcall('service1', ServiceBuffer.empty(), Flag.of(), execution)},
+              {TransactionPoolMapper.getInstance()},
+              observer)
+      then:
+      response.get().errorState == ErrorState.OK
+      outcomes == ['succeeded eis/pool-one']
+   }
+
+   def 'no sticky call when the circuit of the pool lets no call through'()
+   {
+      given:
+      enableTransactionStickyForTest()
+      def connectionFactory = Mock(CasualConnectionFactory)
+      ConnectionFactoryEntry entry = Mock(ConnectionFactoryEntry) {
+         isValid() >> true
+         tryAcquirePermission() >> false
+         getJndiName() >> 'eis/pool-one'
+         getConnectionFactory() >> connectionFactory
+      }
+      def factories = [entry]
+      when:
+      Optional result = StickyTransactionHandler.handleTransactionSticky('service1', factories, {con, execution -> }, {TransactionPoolMapper.getInstance()})
+      then:
+      result.isEmpty()
+      0 * connectionFactory.getConnection()
+      factories == [entry]
+   }
+
    private ConnectionFactoryEntry getFactoryMockServiceReturn(String jndiName, ServiceReturn<CasualBuffer> expectedReturn, long expectedCalls)
    {
       CasualConnection connection = Mock(CasualConnection)
@@ -84,6 +134,7 @@ class StickyTransactionHandlerTest extends Specification
       ConnectionFactoryEntry connectionFactoryEntry = Mock(ConnectionFactoryEntry)
       connectionFactoryEntry.isValid() >> true
       connectionFactoryEntry.isInvalid() >> false
+      connectionFactoryEntry.tryAcquirePermission() >> true
       connectionFactoryEntry.getJndiName() >> jndiName
       connectionFactoryEntry.getConnectionFactory() >> connectionFactory
 
@@ -92,13 +143,10 @@ class StickyTransactionHandlerTest extends Specification
 
    def enableTransactionStickyForTest()
    {
-      def transactionManager = Mock(TransactionManager)
-      def transaction = new TransactionImpl(Status.STATUS_ACTIVE)
-      transactionManager.getTransaction() >> {
-         transaction
-      }
+      def registry = new TransactionSynchronizationRegistryImpl()
+      registry.setCurrentTransaction(new TransactionImpl(Status.STATUS_ACTIVE))
       TransactionPoolMapper.getInstance().setActiveForTest(true)
-      TransactionPoolMapper.getInstance().setTransactionManager(transactionManager)
+      TransactionPoolMapper.getInstance().setTransactionSynchronizationRegistry(registry)
    }
 
 }
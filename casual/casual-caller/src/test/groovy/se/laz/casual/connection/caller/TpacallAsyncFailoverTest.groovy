@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller
+
+import se.laz.casual.api.buffer.CasualBuffer
+import se.laz.casual.api.buffer.ServiceReturn
+import se.laz.casual.api.buffer.type.ServiceBuffer
+import se.laz.casual.api.flags.AtmiFlags
+import se.laz.casual.api.flags.ErrorState
+import se.laz.casual.api.flags.Flag
+import se.laz.casual.api.flags.ServiceReturnState
+import se.laz.casual.jca.CasualConnection
+import se.laz.casual.jca.CasualConnectionFactory
+import se.laz.casual.network.connection.CasualConnectionException
+import se.laz.casual.network.connection.DomainDisconnectedException
+import spock.lang.Specification
+
+import javax.resource.ResourceException
+import javax.transaction.TransactionSynchronizationRegistry
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+class TpacallAsyncFailoverTest extends Specification
+{
+   def serviceName = 'echo'
+   def data = ServiceBuffer.empty()
+   def flags = Flag.of(AtmiFlags.NOFLAG)
+   def ok = new ServiceReturn<CasualBuffer>(ServiceBuffer.empty(), ServiceReturnState.TPSUCCESS, ErrorState.OK, 0L)
+   def tpenoent = new ServiceReturn<CasualBuffer>(ServiceBuffer.empty(), ServiceReturnState.TPFAIL, ErrorState.TPENOENT, 0L)
+   def noTransaction = Mock(TransactionSynchronizationRegistry) {
+      getTransactionKey() >> null
+   }
+   def lookup = Mock(ConnectionFactoryLookup)
+   List<Runnable> tasks = []
+   Executor queueingExecutor = { Runnable task -> tasks.add(task) } as Executor
+
+   def 'the caller thread returns before anything is done'()
+   {
+      given:
+      def caller = new TpCallerFailover(TpacallExecutor.of(queueingExecutor, noTransaction))
+      when:
+      def future = caller.tpacall(serviceName, data, flags, lookup)
+      then:
+      0 * lookup.get(_)
+      !future.isDone()
+      when:
+      runAll()
+      then:
+      1 * lookup.get(serviceName) >> [entry('eis/one', reply(ok))]
+      future.get(1, TimeUnit.SECONDS).get() == ok
+   }
+
+   def 'failover to the next connection factory when the reply fails with #failure'()
+   {
+      given:
+      def caller = new TpCallerFailover(TpacallExecutor.of({ it.run() } as Executor, noTransaction))
+      def first = entry('eis/one', failedReply(failure))
+      def second = entry('eis/two', reply(ok))
+      lookup.get(serviceName) >> [first, second]
+      when:
+      def result = caller.tpacall(serviceName, data, flags, lookup).get(1, TimeUnit.SECONDS)
+      then:
+      result.get() == ok
+      1 * first.invalidate()
+      0 * second.invalidate()
+      where:
+      failure << [new DomainDisconnectedException('disconnecting'), new ResourceException('gone')]
+   }
+
+   def 'no failover when the reply fails with a network error'()
+   {
+      given:
+      def caller = new TpCallerFailover(TpacallExecutor.of({ it.run() } as Executor, noTransaction))
+      def first = entry('eis/one', failedReply(new CasualConnectionException('broken')))
+      def second = entry('eis/two', reply(ok))
+      lookup.get(serviceName) >> [first, second]
+      when:
+      caller.tpacall(serviceName, data, flags, lookup).get(1, TimeUnit.SECONDS)
+      then:
+      def e = thrown(ExecutionException)
+      e.cause instanceof CasualResourceException
+      e.cause.cause instanceof CasualConnectionException
+      1 * first.invalidate()
+      0 * second.getConnectionFactory()
+   }
+
+   def 'a reply failing with another exception still reports the outcome to the circuit breaker'()
+   {
+      given:
+      def caller = new TpCallerFailover(TpacallExecutor.of({ it.run() } as Executor, noTransaction))
+      def failure = new IllegalStateException('bad buffer')
+      def first = entry('eis/one', failedReply(failure))
+      def second = entry('eis/two', reply(ok))
+      lookup.get(serviceName) >> [first, second]
+      when:
+      caller.tpacall(serviceName, data, flags, lookup).get(1, TimeUnit.SECONDS)
+      then:
+      def e = thrown(ExecutionException)
+      e.cause == failure
+      1 * first.callSucceeded()
+      0 * first.invalidate()
+      0 * second.getConnectionFactory()
+   }
+
+   def 'TPENOENT leads to a new discovery and one more call'()
+   {
+      given:
+      def caller = new TpCallerFailover(TpacallExecutor.of({ it.run() } as Executor, noTransaction))
+      def stale = entry('eis/one', reply(tpenoent))
+      def fresh = entry('eis/two', reply(ok))
+      when:
+      def result = caller.tpacall(serviceName, data, flags, lookup).get(1, TimeUnit.SECONDS)
+      then:
+      1 * lookup.get(serviceName) >> [stale]
+      then:
+      1 * lookup.removeFromServiceCache(serviceName)
+      then:
+      1 * lookup.get(serviceName) >> [fresh]
+      result.get() == ok
+   }
+
+   def 'failure to get a connection fails over and the last failure is reported when all fail'()
+   {
+      given:
+      def caller = new TpCallerFailover(TpacallExecutor.of({ it.run() } as Executor, noTransaction))
+      def first = entryFailingConnection('eis/one')
+      def second = entryFailingConnection('eis/two')
+      lookup.get(serviceName) >> [first, second]
+      when:
+      caller.tpacall(serviceName, data, flags, lookup).get(1, TimeUnit.SECONDS)
+      then:
+      def e = thrown(ExecutionException)
+      e.cause instanceof CasualResourceException
+      e.cause.message == 'Call failed to all 2 available casual connections.'
+      1 * first.invalidate()
+      1 * second.invalidate()
+   }
+
+   def 'within a transaction the call is issued on the caller thread'()
+   {
+      given:
+      def inTransaction = Mock(TransactionSynchronizationRegistry) {
+         getTransactionKey() >> new Object()
+      }
+      def caller = new TpCallerFailover(TpacallExecutor.of(queueingExecutor, inTransaction))
+      def replyFuture = CompletableFuture.completedFuture(Optional.of(ok))
+      when:
+      def future = caller.tpacall(serviceName, data, flags, lookup)
+      then:
+      1 * lookup.get(serviceName) >> [entry('eis/one', replyFuture)]
+      tasks.isEmpty()
+      future == replyFuture
+   }
+
+   private void runAll()
+   {
+      while (!tasks.isEmpty())
+      {
+         tasks.remove(0).run()
+      }
+   }
+
+   private static CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> reply(ServiceReturn<CasualBuffer> serviceReturn)
+   {
+      CompletableFuture.completedFuture(Optional.of(serviceReturn))
+   }
+
+   private static CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> failedReply(Throwable failure)
+   {
+      def future = new CompletableFuture<Optional<ServiceReturn<CasualBuffer>>>()
+      future.completeExceptionally(failure)
+      future
+   }
+
+   private ConnectionFactoryEntry entry(String jndiName, CompletableFuture<Optional<ServiceReturn<CasualBuffer>>> replyFuture)
+   {
+      CasualConnection connection = Mock(CasualConnection) {
+         tpacall(serviceName, data, flags, _ as UUID) >> replyFuture
+      }
+      CasualConnectionFactory connectionFactory = Mock(CasualConnectionFactory) {
+         getConnection() >> connection
+      }
+      Mock(ConnectionFactoryEntry) {
+         isValid() >> true
+         tryAcquireConcurrencyPermit() >> true
+         tryAcquirePermission() >> true
+         getJndiName() >> jndiName
+         getConnectionFactory() >> connectionFactory
+      }
+   }
+
+   private ConnectionFactoryEntry entryFailingConnection(String jndiName)
+   {
+      CasualConnectionFactory connectionFactory = Mock(CasualConnectionFactory) {
+         getConnection() >> { throw new ResourceException('no connection') }
+      }
+      Mock(ConnectionFactoryEntry) {
+         isValid() >> true
+         tryAcquireConcurrencyPermit() >> true
+         tryAcquirePermission() >> true
+         getJndiName() >> jndiName
+         getConnectionFactory() >> connectionFactory
+      }
+   }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2022, The casual project. All rights reserved.
+ * Copyright (c) 2022 - 2024, The casual project. All rights reserved.
  *
  * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
  */
@@ -12,17 +12,18 @@ import spock.lang.Specification
 
 import javax.transaction.Status
 import javax.transaction.Transaction
+import javax.transaction.TransactionSynchronizationRegistry
 
 class TransactionPoolMapperTest extends Specification
 {
     @Shared
-    TransactionManagerImpl transactionManager
+    TransactionSynchronizationRegistryImpl registry
 
     def setup()
     {
         TransactionPoolMapper.resetForTest()
         TransactionPoolMapper.getInstance().setActiveForTest(true)
-        TransactionPoolMapper.getInstance().setTransactionManager(transactionManager = new TransactionManagerImpl())
+        TransactionPoolMapper.getInstance().setTransactionSynchronizationRegistry(registry = new TransactionSynchronizationRegistryImpl())
     }
 
     def cleanupSpec()
@@ -43,7 +44,7 @@ class TransactionPoolMapperTest extends Specification
     {
         setup:
         Transaction transaction = new TransactionImpl(Status.STATUS_ACTIVE)
-        transactionManager.setCurrentTransaction(transaction)
+        registry.setCurrentTransaction(transaction)
 
         String actualPoolName = "hello, world!"
         UUID execution = UUID.randomUUID()
@@ -63,7 +64,7 @@ class TransactionPoolMapperTest extends Specification
 
         for (int i = 0; i < transactions; i++)
         {
-            transactionManager.setCurrentTransaction(new TransactionImpl(Status.STATUS_ACTIVE))
+            registry.setCurrentTransaction(new TransactionImpl(Status.STATUS_ACTIVE))
             StickyInformation stickyInformation = new StickyInformation("hello transaction " + i, UUID.randomUUID())
             TransactionPoolMapper.getInstance().setStickyInformationForCurrentTransaction(stickyInformation)
         }
@@ -75,7 +76,7 @@ class TransactionPoolMapperTest extends Specification
     def "Should throw exception if attempting to set sticky for an already stickied transaction"()
     {
         given:
-        transactionManager.setCurrentTransaction(new TransactionImpl(Status.STATUS_ACTIVE))
+        registry.setCurrentTransaction(new TransactionImpl(Status.STATUS_ACTIVE))
 
         StickyInformation stickyInformation = new StickyInformation("eis/myPool", UUID.randomUUID())
         TransactionPoolMapper.getInstance().setStickyInformationForCurrentTransaction(stickyInformation)
@@ -88,4 +89,75 @@ class TransactionPoolMapperTest extends Specification
         System.err.println(e.message)
         e.message.contains("already stickied")
     }
+
+    def "A transaction that can not take a synchronization is neither counted nor stickied"()
+    {
+        given:
+        TransactionSynchronizationRegistry completing = Mock(TransactionSynchronizationRegistry) {
+            getTransactionKey() >> 'completing'
+            registerInterposedSynchronization(_) >> { throw new IllegalStateException('transaction is completing') }
+        }
+        TransactionPoolMapper.getInstance().setTransactionSynchronizationRegistry(completing)
+
+        when:
+        TransactionPoolMapper.getInstance().setStickyInformationForCurrentTransaction(new StickyInformation("eis/one", UUID.randomUUID()))
+
+        then:
+        thrown(IllegalStateException)
+        0 * completing.putResource(_, _)
+        TransactionPoolMapper.getInstance().getNumberOfTrackedTransactions("eis/one") == 0
+    }
+
+    def "Completed transactions are no longer tracked"()
+    {
+        given:
+        Transaction first = new TransactionImpl(Status.STATUS_ACTIVE)
+        Transaction second = new TransactionImpl(Status.STATUS_ACTIVE)
+        registry.setCurrentTransaction(first)
+        TransactionPoolMapper.getInstance().setStickyInformationForCurrentTransaction(new StickyInformation("eis/one", UUID.randomUUID()))
+        registry.setCurrentTransaction(second)
+        TransactionPoolMapper.getInstance().setStickyInformationForCurrentTransaction(new StickyInformation("eis/two", UUID.randomUUID()))
+
+        expect:
+        TransactionPoolMapper.getInstance().getNumberOfTrackedTransactions() == 2
+        TransactionPoolMapper.getInstance().getNumberOfTrackedTransactions("eis/one") == 1
+        TransactionPoolMapper.getInstance().getNumberOfTrackedTransactions("eis/two") == 1
+
+        when:
+        registry.complete(first, Status.STATUS_COMMITTED)
+
+        then:
+        TransactionPoolMapper.getInstance().getNumberOfTrackedTransactions() == 1
+        TransactionPoolMapper.getInstance().getNumberOfTrackedTransactions("eis/one") == 0
+        TransactionPoolMapper.getInstance().getStickyInformationForCurrentTransaction().getPoolName() == "eis/two"
+    }
+
+    def "Purged mappings are ignored and a new sticky can be set"()
+    {
+        given:
+        Transaction transaction = new TransactionImpl(Status.STATUS_ACTIVE)
+        registry.setCurrentTransaction(transaction)
+        TransactionPoolMapper.getInstance().setStickyInformationForCurrentTransaction(new StickyInformation("eis/one", UUID.randomUUID()))
+
+        when:
+        TransactionPoolMapper.getInstance().purgeMappings("eis/one")
+
+        then:
+        TransactionPoolMapper.getInstance().getStickyInformationForCurrentTransaction() == null
+        TransactionPoolMapper.getInstance().getNumberOfTrackedTransactions("eis/one") == 0
+
+        when:
+        TransactionPoolMapper.getInstance().setStickyInformationForCurrentTransaction(new StickyInformation("eis/two", UUID.randomUUID()))
+        registry.complete(transaction, Status.STATUS_ROLLEDBACK)
+
+        then:
+        TransactionPoolMapper.getInstance().getNumberOfTrackedTransactions() == 0
+    }
+
+    def "Not active without a transaction"()
+    {
+        expect:
+        !TransactionPoolMapper.getInstance().isPoolMappingActive()
+        TransactionPoolMapper.getInstance().getStickyInformationForCurrentTransaction() == null
+    }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.bulkhead
+
+import se.laz.casual.api.external.json.JsonProviderFactory
+import se.laz.casual.connection.caller.BulkheadFullException
+import se.laz.casual.connection.caller.config.BulkheadConfiguration
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+class BulkheadsTest extends Specification
+{
+   def 'calls over the limit are rejected at once when no one may wait'()
+   {
+      given:
+      def bulkhead = Bulkhead.of('foo', 1, 0, 0)
+      bulkhead.acquire()
+      when:
+      bulkhead.acquire()
+      then:
+      thrown(BulkheadFullException)
+      bulkhead.inFlight == 1
+      bulkhead.saturation == 1.0d
+      bulkhead.accepted == 1
+      bulkhead.rejected == 1
+   }
+
+   def 'a waiting call gets the slot that is released'()
+   {
+      given:
+      def bulkhead = Bulkhead.of('foo', 1, 1, 5000)
+      bulkhead.acquire()
+      when:
+      def waiter = CompletableFuture.runAsync({ bulkhead.acquire() })
+      while (bulkhead.waiting == 0)
+      {
+         Thread.sleep(1)
+      }
+      bulkhead.release()
+      waiter.get(5, TimeUnit.SECONDS)
+      then:
+      bulkhead.inFlight == 1
+      bulkhead.accepted == 2
+      bulkhead.waited == 1
+      bulkhead.waiting == 0
+   }
+
+   def 'a waiting call times out'()
+   {
+      given:
+      def bulkhead = Bulkhead.of('foo', 1, 1, 10)
+      bulkhead.acquire()
+      when:
+      bulkhead.acquire()
+      then:
+      thrown(BulkheadFullException)
+      bulkhead.timedOut == 1
+      bulkhead.rejected == 1
+      bulkhead.waiting == 0
+      bulkhead.maxWaitMillis > 0
+   }
+
+   def 'a caller with a shorter deadline waits no longer than that'()
+   {
+      given:
+      def bulkhead = Bulkhead.of('foo', 1, 1, 10000)
+      bulkhead.acquire()
+      when:
+      bulkhead.acquire(TimeUnit.MILLISECONDS.toNanos(10))
+      then:
+      thrown(BulkheadFullException)
+      bulkhead.timedOut == 1
+      bulkhead.maxWaitMillis < 10000
+   }
+
+   def 'a released slot can be taken again'()
+   {
+      given:
+      def bulkhead = Bulkhead.of('foo', 1, 0, 0)
+      when:
+      bulkhead.acquire()
+      bulkhead.release()
+      bulkhead.acquire()
+      then:
+      bulkhead.accepted == 2
+      bulkhead.inFlight == 1
+   }
+
+   def 'a service name wins over a wildcard'()
+   {
+      given:
+      def bulkheads = Bulkheads.of([BulkheadConfiguration.of('foo*', 1, 0, 0), BulkheadConfiguration.of('fooBar', 5, 0, 0)])
+      expect:
+      bulkheads.get('fooBar').get().maxConcurrentCalls == 5
+      bulkheads.get('fooBaz').get().maxConcurrentCalls == 1
+      !bulkheads.get('bar').isPresent()
+   }
+
+   def 'each service that matches a wildcard gets a bulkhead of its own'()
+   {
+      given:
+      def bulkheads = Bulkheads.of([BulkheadConfiguration.of('foo*', 1, 0, 0)])
+      when:
+      bulkheads.get('foo1').get().acquire()
+      bulkheads.get('foo2').get().acquire()
+      then:
+      bulkheads.get('foo1').get().is(bulkheads.get('foo1').get())
+      bulkheads.bulkheads.keySet() as List == ['foo1', 'foo2']
+   }
+
+   def 'services without a bulkhead are not kept'()
+   {
+      given:
+      def bulkheads = Bulkheads.of([BulkheadConfiguration.of('foo*', 1, 0, 0)])
+      when:
+      (0..<100).each { bulkheads.get("bar${it}") }
+      bulkheads.get('foo1')
+      then:
+      bulkheads.@bulkheads.keySet() == ['foo1'] as Set
+   }
+
+   def 'without configuration no service is limited'()
+   {
+      expect:
+      !Bulkheads.of([]).get('foo').isPresent()
+   }
+
+   def 'wildcards only match whole names'()
+   {
+      expect:
+      BulkheadConfiguration.of(pattern, 1, 0, 0).matches(service) == matches
+      where:
+      pattern  | service    || matches
+      'foo'    | 'foo'      || true
+      'foo'    | 'foobar'   || false
+      'foo*'   | 'foobar'   || true
+      '*bar'   | 'foobar'   || true
+      'f.o*'   | 'foobar'   || false
+      'f.o*'   | 'f.obar'   || true
+   }
+
+   def 'wildcards from json configuration match'()
+   {
+      given:
+      BulkheadConfiguration[] configurations = JsonProviderFactory.getJsonProvider().fromJson(new StringReader('[{"service":"foo*","maxConcurrentCalls":1}]'), BulkheadConfiguration[].class)
+      expect:
+      configurations[0].matches('foobar')
+      configurations[0].matches('foo')
+      !configurations[0].matches('barfoo')
+   }
+}
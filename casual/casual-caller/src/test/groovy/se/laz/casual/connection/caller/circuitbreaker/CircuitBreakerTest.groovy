@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+
+package se.laz.casual.connection.caller.circuitbreaker
+
+import spock.lang.Specification
+
+import java.util.function.LongSupplier
+
+class CircuitBreakerTest extends Specification
+{
+   long now = 1000
+   LongSupplier clock = { now } as LongSupplier
+
+   def 'opens once threshold failures are within the window'()
+   {
+      given:
+      def instance = CircuitBreaker.of(3, 100, 50, 1, clock)
+      when:
+      def first = instance.recordFailure()
+      now += 10
+      def second = instance.recordFailure()
+      now += 10
+      def third = instance.recordFailure()
+      then:
+      !first
+      !second
+      third
+      instance.getState() == CircuitBreakerState.OPEN
+      !instance.allowsCalls()
+      !instance.tryAcquirePermission()
+      instance.getTimesOpened() == 1
+   }
+
+   def 'failures spread out over more than the window do not open'()
+   {
+      given:
+      def instance = CircuitBreaker.of(2, 100, 50, 1, clock)
+      when:
+      instance.recordFailure()
+      now += 101
+      instance.recordFailure()
+      then:
+      instance.getState() == CircuitBreakerState.CLOSED
+   }
+
+   def 'half open hands out a limited number of probes and closes when they succeed'()
+   {
+      given:
+      def instance = CircuitBreaker.of(1, 100, 50, 2, clock)
+      instance.recordFailure()
+      when:
+      now += 50
+      then:
+      instance.allowsCalls()
+      instance.tryAcquirePermission()
+      instance.getState() == CircuitBreakerState.HALF_OPEN
+      instance.tryAcquirePermission()
+      !instance.tryAcquirePermission()
+      when:
+      instance.recordSuccess()
+      then:
+      instance.getState() == CircuitBreakerState.HALF_OPEN
+      when:
+      instance.recordSuccess()
+      then:
+      instance.getState() == CircuitBreakerState.CLOSED
+      instance.getTimesHalfOpened() == 1
+      instance.getTimesClosed() == 1
+   }
+
+   def 'failed probe opens again'()
+   {
+      given:
+      def instance = CircuitBreaker.of(1, 100, 50, 1, clock)
+      instance.recordFailure()
+      now += 50
+      instance.tryAcquirePermission()
+      when:
+      def opened = instance.recordFailure()
+      then:
+      opened
+      instance.getState() == CircuitBreakerState.OPEN
+      instance.getTimesOpened() == 2
+   }
+
+   def 'probes that never report back are handed out again after the open duration'()
+   {
+      given:
+      def instance = CircuitBreaker.of(1, 100, 50, 1, clock)
+      instance.recordFailure()
+      now += 50
+      instance.tryAcquirePermission()
+      expect:
+      !instance.tryAcquirePermission()
+      when:
+      now += 50
+      then:
+      instance.tryAcquirePermission()
+   }
+
+   def 'trip and reset regardless of failures'()
+   {
+      given:
+      def instance = CircuitBreaker.of(3, 100, 50, 1, clock)
+      expect:
+      instance.trip()
+      !instance.trip()
+      instance.getState() == CircuitBreakerState.OPEN
+      when:
+      instance.reset()
+      then:
+      instance.getState() == CircuitBreakerState.CLOSED
+   }
+
+   def 'half open lets probes through at once, they decide whether it closes'()
+   {
+      given:
+      def instance = CircuitBreaker.of(1, 100, 50, 1, clock)
+      instance.recordFailure()
+      when:
+      instance.halfOpen()
+      then:
+      instance.getState() == CircuitBreakerState.HALF_OPEN
+      instance.tryAcquirePermission()
+      !instance.tryAcquirePermission()
+      when:
+      instance.recordFailure()
+      then:
+      instance.getState() == CircuitBreakerState.OPEN
+      when:
+      instance.halfOpen()
+      instance.tryAcquirePermission()
+      instance.recordSuccess()
+      then:
+      instance.getState() == CircuitBreakerState.CLOSED
+      when:
+      instance.halfOpen()
+      then:
+      instance.getState() == CircuitBreakerState.CLOSED
+   }
+
+   def 'a clock that starts at 0 or below still opens'()
+   {
+      given:
+      now = -1000
+      def instance = CircuitBreaker.of(2, 100, 50, 1, clock)
+      when:
+      instance.recordFailure()
+      now = 0
+      def opened = instance.recordFailure()
+      then:
+      !opened
+      when:
+      now += 10
+      opened = instance.recordFailure()
+      then:
+      opened
+   }
+
+   def 'invalid arguments'()
+   {
+      when:
+      CircuitBreaker.of(threshold, 100, 50, probes)
+      then:
+      thrown(IllegalArgumentException)
+      where:
+      threshold | probes
+      0         | 1
+      1         | 0
+   }
+}
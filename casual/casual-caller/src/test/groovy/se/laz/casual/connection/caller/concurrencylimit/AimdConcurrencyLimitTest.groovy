@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.concurrencylimit
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class AimdConcurrencyLimitTest extends Specification
+{
+   def rtt = TimeUnit.MILLISECONDS.toNanos(10)
+
+   def 'permits are handed out up to the limit'()
+   {
+      given:
+      def instance = AimdConcurrencyLimit.of(2, 10)
+      expect:
+      instance.tryAcquire()
+      instance.tryAcquire()
+      !instance.tryAcquire()
+      instance.inFlight == 2
+      instance.rejected == 1
+   }
+
+   def 'calls that finish in time raise the limit'()
+   {
+      given:
+      def instance = AimdConcurrencyLimit.of(2, 10)
+      when:
+      3.times {
+         instance.tryAcquire()
+         instance.release('echo', rtt, false)
+      }
+      then:
+      instance.limit == 3
+      instance.inFlight == 0
+   }
+
+   def 'the limit never goes above the max'()
+   {
+      given:
+      def instance = AimdConcurrencyLimit.of(2, 3)
+      when:
+      100.times {
+         instance.tryAcquire()
+         instance.release('echo', rtt, false)
+      }
+      then:
+      instance.limit == 3
+   }
+
+   def 'failures lower the limit but never below one'()
+   {
+      given:
+      def instance = AimdConcurrencyLimit.of(10, 10)
+      when:
+      instance.tryAcquire()
+      instance.release('echo', rtt, true)
+      then:
+      instance.limit == 9
+      when:
+      100.times {
+         instance.tryAcquire()
+         instance.release('echo', rtt, true)
+      }
+      then:
+      instance.limit == 1
+      instance.tryAcquire()
+   }
+
+   def 'calls much slower than the baseline lower the limit'()
+   {
+      given:
+      def instance = AimdConcurrencyLimit.of(10, 10)
+      instance.tryAcquire()
+      instance.release('echo', rtt, false)
+      when:
+      instance.tryAcquire()
+      instance.release('echo', rtt * 10, false)
+      then:
+      instance.limit == 9
+   }
+
+   def 'a slow service does not lower the limit for a fast service on the same pool'()
+   {
+      given:
+      def instance = AimdConcurrencyLimit.of(5, 10)
+      when:
+      10.times {
+         instance.tryAcquire()
+         instance.release('fast', rtt, false)
+         instance.tryAcquire()
+         instance.release('slow', rtt * 10, false)
+      }
+      then:
+      instance.limit > 5
+   }
+
+   def 'services beyond the max number of baselines share one'()
+   {
+      given:
+      def instance = AimdConcurrencyLimit.of(10, 10)
+      (1..AimdConcurrencyLimit.MAX_BASELINES).each {
+         instance.tryAcquire()
+         instance.release("service-${it}".toString(), rtt * 100, false)
+      }
+      def limitBefore = instance.limit
+      instance.tryAcquire()
+      instance.release('overflow', rtt, false)
+      when:
+      instance.tryAcquire()
+      instance.release('another overflow', rtt * 10, false)
+      then:
+      instance.limit < limitBefore
+   }
+
+   def 'releasing a permit of a call that was never issued does not change the limit'()
+   {
+      given:
+      def instance = AimdConcurrencyLimit.of(1, 10)
+      instance.tryAcquire()
+      when:
+      instance.release()
+      then:
+      instance.limit == 1
+      instance.tryAcquire()
+   }
+
+   def 'without a limit everything is let through'()
+   {
+      given:
+      def instance = ConcurrencyLimit.unlimited()
+      expect:
+      (1..1000).every { instance.tryAcquire() }
+      instance.rejected == 0
+   }
+
+   def 'invalid limits are rejected'()
+   {
+      when:
+      AimdConcurrencyLimit.of(initial, max)
+      then:
+      thrown(IllegalArgumentException)
+      where:
+      initial | max
+      0       | 10
+      11      | 10
+   }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.execution
+
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class PerThreadExecutionIdGeneratorTest extends Specification
+{
+   def instance = new PerThreadExecutionIdGenerator()
+
+   def 'ids are version 4 IETF variant UUIDs'()
+   {
+      when:
+      def id = instance.next()
+      then:
+      id.version() == 4
+      id.variant() == 2
+   }
+
+   def 'ids are unique within and across threads'()
+   {
+      given:
+      def threads = 8
+      def idsPerThread = 10_000
+      def executor = Executors.newFixedThreadPool(threads)
+      when:
+      def futures = (0..<threads).collect {
+         executor.submit({ (0..<idsPerThread).collect { instance.next() } } as Callable<List<UUID>>)
+      }
+      def ids = futures.collectMany { it.get(10, TimeUnit.SECONDS) }
+      then:
+      ids.toSet().size() == threads * idsPerThread
+      cleanup:
+      executor.shutdownNow()
+   }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.hedging
+
+import spock.lang.Specification
+
+class HedgeBudgetTest extends Specification
+{
+   def 'hedges are limited to the budget percent of the calls'()
+   {
+      given:
+      def budget = HedgeBudget.of(10)
+      when:
+      9.times { budget.callStarted() }
+      then:
+      !budget.tryHedge()
+      when:
+      budget.callStarted()
+      then:
+      budget.tryHedge()
+      !budget.tryHedge()
+      budget.hedges == 1
+      budget.hedgesDenied == 2
+   }
+
+   def 'no hedges with a zero budget'()
+   {
+      given:
+      def budget = HedgeBudget.of(0)
+      100.times { budget.callStarted() }
+      expect:
+      !budget.tryHedge()
+   }
+
+   def 'win rate is the share of hedges that won'()
+   {
+      given:
+      def budget = HedgeBudget.of(100)
+      4.times { budget.callStarted(); budget.tryHedge() }
+      budget.hedgeWon()
+      expect:
+      budget.winRate == 0.25d
+   }
+
+   def 'win rate without hedges is zero'()
+   {
+      expect:
+      HedgeBudget.of(10).winRate == 0.0d
+   }
+
+   def 'only configured services have a budget'()
+   {
+      given:
+      def hedging = Hedging.of(['readOnly'] as Set, 10, 5)
+      expect:
+      hedging.getBudget('readOnly').isPresent()
+      !hedging.getBudget('other').isPresent()
+      hedging.getBudget('readOnly').get().is(hedging.getBudget('readOnly').get())
+      hedging.budgets.keySet() == ['readOnly'] as Set
+   }
+
+   def 'negative budget is rejected'()
+   {
+      when:
+      HedgeBudget.of(-1)
+      then:
+      thrown(IllegalArgumentException)
+   }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.loadbalancer
+
+import se.laz.casual.connection.caller.ConnectionFactoryEntry
+import se.laz.casual.connection.caller.ConnectionFactoryProducer
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class EwmaLoadBalancerTest extends Specification
+{
+   def service = 'echo'
+   def scores = new LatencyScores()
+   def fast = entry('eis/fast')
+   def slow = entry('eis/slow')
+   def failing = entry('eis/failing')
+
+   def 'the pool with the lowest latency is first'()
+   {
+      given:
+      def instance = new EwmaLoadBalancer(scores, { 0 })
+      10.times {
+         scores.recordSuccess(service, 'eis/fast', TimeUnit.MILLISECONDS.toNanos(1))
+         scores.recordSuccess(service, 'eis/slow', TimeUnit.MILLISECONDS.toNanos(20))
+      }
+      when:
+      def orders = (1..20).collect {
+         def entries = [slow, fast]
+         instance.arrange(service, entries, 0, entries.size())
+         entries
+      }
+      then:
+      orders.every { it == [fast, slow] }
+   }
+
+   def 'errors push a pool back'()
+   {
+      given:
+      def instance = new EwmaLoadBalancer(scores, { 0 })
+      scores.recordSuccess(service, 'eis/fast', TimeUnit.MILLISECONDS.toNanos(1))
+      scores.recordSuccess(service, 'eis/slow', TimeUnit.MILLISECONDS.toNanos(5))
+      3.times { scores.recordFailure(service, 'eis/fast') }
+      def entries = [fast, slow]
+      when:
+      instance.arrange(service, entries, 0, entries.size())
+      then:
+      entries == [slow, fast]
+   }
+
+   def 'pools without samples are tried before measured ones and pools that only failed are last'()
+   {
+      given:
+      def instance = new EwmaLoadBalancer(scores, { 0 })
+      def unknown = entry('eis/unknown')
+      scores.recordSuccess(service, 'eis/fast', TimeUnit.MILLISECONDS.toNanos(1))
+      scores.recordFailure(service, 'eis/failing')
+      def entries = [failing, fast, unknown]
+      when:
+      instance.arrange(service, entries, 0, entries.size())
+      then:
+      entries == [unknown, fast, failing]
+   }
+
+   def 'scores are per service'()
+   {
+      given:
+      def instance = new EwmaLoadBalancer(scores, { 0 })
+      scores.recordSuccess('other', 'eis/fast', TimeUnit.MILLISECONDS.toNanos(50))
+      scores.recordSuccess(service, 'eis/fast', TimeUnit.MILLISECONDS.toNanos(1))
+      scores.recordSuccess(service, 'eis/slow', TimeUnit.MILLISECONDS.toNanos(20))
+      def entries = [slow, fast]
+      when:
+      instance.arrange(service, entries, 0, entries.size())
+      then:
+      entries == [fast, slow]
+   }
+
+   def 'with full exploration the order is random'()
+   {
+      given:
+      def instance = new EwmaLoadBalancer(scores, { 100 })
+      scores.recordSuccess(service, 'eis/fast', TimeUnit.MILLISECONDS.toNanos(1))
+      scores.recordSuccess(service, 'eis/slow', TimeUnit.MILLISECONDS.toNanos(20))
+      when:
+      def firsts = (1..200).collect {
+         def entries = [fast, slow]
+         instance.arrange(service, entries, 0, entries.size())
+         entries[0]
+      } as Set
+      then:
+      firsts == [fast, slow] as Set
+   }
+
+   def 'arranging keeps all entries and leaves entries outside the range alone'()
+   {
+      given:
+      def instance = new EwmaLoadBalancer(scores, { 0 })
+      def entries = (1..6).collect { entry("eis/pool-${it}") }
+      def original = new ArrayList<>(entries)
+      (1..6).each { scores.recordSuccess(service, "eis/pool-${it}".toString(), 7 - it) }
+      when:
+      instance.arrange(service, entries, 1, 5)
+      then:
+      entries[0] == original[0]
+      entries[5] == original[5]
+      entries[1..4] == [original[4], original[3], original[2], original[1]]
+   }
+
+   def 'the average moves towards new samples'()
+   {
+      given:
+      def score = new LatencyScore()
+      when:
+      score.recordSuccess(100)
+      then:
+      score.latencyNanos == 100.0d
+      when:
+      score.recordSuccess(200)
+      then:
+      score.latencyNanos == 100.0d + LatencyScore.ALPHA * 100.0d
+      score.errorRate == 0.0d
+      score.samples == 2
+   }
+
+   private ConnectionFactoryEntry entry(String jndiName)
+   {
+      ConnectionFactoryEntry.of(Mock(ConnectionFactoryProducer) {
+         getJndiName() >> jndiName
+      })
+   }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+package se.laz.casual.connection.caller.metrics
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class LatencyHistogramTest extends Specification
+{
+   def 'percentiles are within the precision of the buckets'()
+   {
+      given:
+      def histogram = new LatencyHistogram()
+      (1..1000).each { histogram.record(TimeUnit.MILLISECONDS.toNanos(it), it % 100 == 0) }
+      expect:
+      histogram.count == 1000
+      histogram.errorCount == 10
+      Math.abs(histogram.getValueAtPercentileMillis(50.0) - 500.0) <= 500.0 / 16
+      Math.abs(histogram.getValueAtPercentileMillis(90.0) - 900.0) <= 900.0 / 16
+      Math.abs(histogram.getValueAtPercentileMillis(99.0) - 990.0) <= 990.0 / 16
+      histogram.getValueAtPercentileMillis(100.0) == 1000.0d
+      histogram.maxMillis == 1000.0d
+      histogram.meanMillis == 500.5d
+   }
+
+   def 'an empty histogram has no latency'()
+   {
+      expect:
+      new LatencyHistogram().getValueAtPercentileNanos(99.0) == 0
+      new LatencyHistogram().meanMillis == 0.0d
+   }
+
+   def 'values are mapped to the bucket they are within'()
+   {
+      expect:
+      LatencyHistogram.indexOf(nanos) == index
+      LatencyHistogram.highestValueOf(index) >= nanos
+      LatencyHistogram.highestValueOf(index) - nanos <= nanos / 16
+      where:
+      nanos                                   || index
+      0                                       || 0
+      15                                      || 15
+      16                                      || 16
+      32                                      || 32
+      33                                      || 32
+      LatencyHistogram.HIGHEST_TRACKABLE_NANOS || LatencyHistogram.BUCKETS - 1
+   }
+
+   def 'values out of range are clamped'()
+   {
+      given:
+      def histogram = new LatencyHistogram()
+      when:
+      histogram.record(-1, false)
+      histogram.record(Long.MAX_VALUE, false)
+      then:
+      histogram.count == 2
+      histogram.getValueAtPercentileNanos(0.0) == 0
+      histogram.getValueAtPercentileNanos(100.0) == LatencyHistogram.HIGHEST_TRACKABLE_NANOS
+   }
+
+   def 'reset clears all counts'()
+   {
+      given:
+      def histogram = new LatencyHistogram()
+      histogram.record(1000, true)
+      when:
+      histogram.reset()
+      then:
+      histogram.count == 0
+      histogram.errorCount == 0
+      histogram.maxMillis == 0.0d
+   }
+
+   def 'histograms are kept per operation, name and pool'()
+   {
+      given:
+      def histograms = LatencyHistograms.of(true)
+      when:
+      histograms.record(Operation.ENQUEUE, 'queue', 'eis/pool-one', 1000, false)
+      histograms.record(Operation.DISCOVERY, 'queue', 'eis/pool-one', 1000, true)
+      histograms.record(Operation.DISCOVERY, 'queue', 'eis/pool-one', 1000, false)
+      then:
+      histograms.histograms.keySet() as List == ['DISCOVERY queue eis/pool-one', 'ENQUEUE queue eis/pool-one']
+      histograms.getHistogram(Operation.DISCOVERY, 'queue', 'eis/pool-one').get().count == 2
+      when:
+      histograms.reset()
+      then:
+      histograms.getHistogram(Operation.DISCOVERY, 'queue', 'eis/pool-one').get().count == 0
+   }
+
+   def 'nothing is recorded when turned off'()
+   {
+      given:
+      def histograms = LatencyHistograms.of(false)
+      when:
+      histograms.record(Operation.TPCALL, 'service', 'eis/pool-one', 1000, false)
+      then:
+      histograms.histograms.isEmpty()
+   }
+}
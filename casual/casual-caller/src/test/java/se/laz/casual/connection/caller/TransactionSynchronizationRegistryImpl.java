@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2024, The casual project. All rights reserved.
+ *
+ * This software is licensed under the MIT license, https://opensource.org/licenses/MIT
+ */
+
+package se.laz.casual.connection.caller;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TransactionSynchronizationRegistryImpl implements TransactionSynchronizationRegistry
+{
+    private final Map<Object, Map<Object, Object>> resources = new HashMap<>();
+    private final Map<Object, List<Synchronization>> synchronizations = new HashMap<>();
+    private Object currentTransaction;
+
+    public void setCurrentTransaction(Object currentTransaction)
+    {
+        this.currentTransaction = currentTransaction;
+    }
+
+    public void complete(Object transaction, int status)
+    {
+        resources.remove(transaction);
+        List<Synchronization> registered = synchronizations.remove(transaction);
+        if (null != registered)
+        {
+            registered.forEach(synchronization -> synchronization.afterCompletion(status));
+        }
+        if (transaction == currentTransaction)
+        {
+            currentTransaction = null;
+        }
+    }
+
+    @Override
+    public Object getTransactionKey()
+    {
+        return currentTransaction;
+    }
+
+    @Override
+    public void putResource(Object key, Object value)
+    {
+        resources.computeIfAbsent(requireTransaction(), transaction -> new HashMap<>()).put(key, value);
+    }
+
+    @Override
+    public Object getResource(Object key)
+    {
+        return resources.getOrDefault(requireTransaction(), new HashMap<>()).get(key);
+    }
+
+    @Override
+    public void registerInterposedSynchronization(Synchronization sync)
+    {
+        synchronizations.computeIfAbsent(requireTransaction(), transaction -> new ArrayList<>()).add(sync);
+    }
+
+    @Override
+    public int getTransactionStatus()
+    {
+        return null == currentTransaction ? Status.STATUS_NO_TRANSACTION : Status.STATUS_ACTIVE;
+    }
+
+    @Override
+    public void setRollbackOnly()
+    {
+        requireTransaction();
+    }
+
+    @Override
+    public boolean getRollbackOnly()
+    {
+        requireTransaction();
+        return false;
+    }
+
+    private Object requireTransaction()
+    {
+        if (null == currentTransaction)
+        {
+            throw new IllegalStateException("no transaction");
+        }
+        return currentTransaction;
+    }
+}